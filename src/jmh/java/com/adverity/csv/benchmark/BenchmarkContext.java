@@ -0,0 +1,64 @@
+package com.adverity.csv.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.adverity.csv.CsvApplication;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.service.CsvService;
+
+/**
+ * Starts the application without its web server for the benchmarks that need the database
+ *
+ * @author Mihai Zanfir
+ */
+final class BenchmarkContext {
+
+	private BenchmarkContext() {
+	}
+
+	/**
+	 * Starts the application with the SQL logging off, so that the benchmarks do not measure the console, and
+	 * without the reuse of the result of the same query on unchanged tables by H2, so that every query runs.
+	 * The properties are passed as command line arguments, which override application.properties.
+	 *
+	 * @param properties More properties, ex: csv.columnar.enabled=true
+	 * @return The started application
+	 */
+	static ConfigurableApplicationContext start(String... properties) {
+		Stream<String> defaults = Stream.of("spring.main.banner-mode=off", "logging.level.root=WARN",
+				// The in-memory database is already closed when the context closes
+				"logging.level.org.springframework.beans.factory.support.DisposableBeanAdapter=ERROR",
+				"spring.jpa.show-sql=false", "spring.jpa.properties.hibernate.show_sql=false",
+				"csv.upload.deduplicate=false",
+				"spring.datasource.url=jdbc:h2:mem:testdb;LOCK_TIMEOUT=10000;LAZY_QUERY_EXECUTION=1;OPTIMIZE_REUSE_RESULTS=0");
+		return new SpringApplicationBuilder(CsvApplication.class)
+				.web(WebApplicationType.NONE)
+				.logStartupInfo(false)
+				.run(Stream.concat(defaults, Stream.of(properties)).map(property -> "--" + property)
+						.toArray(String[]::new));
+	}
+
+	/**
+	 * Uploads a file of generated rows, as the upload jobs do
+	 *
+	 * @return The upload result
+	 * @throws IOException If the generated file can not be written
+	 */
+	static UploadResult load(ConfigurableApplicationContext context, int rows, long seed) throws IOException {
+		Path file = MarketingCsvGenerator.generate(Files.createTempFile("benchmark", ".csv"), rows, seed);
+		try {
+			return context.getBean(CsvService.class).ingestCsv(file, file.getFileName().toString(), UploadMode.INSERT,
+					progress -> {}, rejected -> {});
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.adverity.csv.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.mapper.StatisticMapper;
+import com.adverity.csv.mapper.StatisticMapperImpl;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.StatisticCsv;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.service.CsvService;
+import com.adverity.csv.service.StatisticCsvParser;
+
+/**
+ * Benchmarks the parsing and the mapping of the CSV rows, without the database.
+ *
+ * Every operation is one row, so the throughput is in rows per second and, with -prof gc, gc.alloc.rate.norm
+ * is the number of bytes allocated per row. The rows are generated by the MarketingCsvGenerator.
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="CsvParseBenchmark -prof gc"
+ *
+ * @author Mihai Zanfir
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(CsvParseBenchmark.ROWS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CsvParseBenchmark {
+
+	static final int ROWS = 1_000_000;
+
+	private String csv;
+	private MockMultipartFile file;
+	private List<StatisticCsv> csvRows;
+	private StatisticMapper statisticMapper;
+	private StatisticCsvParser statisticCsvParser;
+	private CsvService csvService;
+
+	@Setup
+	public void setup() throws IOException {
+		csv = MarketingCsvGenerator.generate(ROWS, 42);
+		file = new MockMultipartFile("statistics.csv", csv.getBytes());
+		statisticMapper = new StatisticMapperImpl();
+		statisticCsvParser = new StatisticCsvParser(statisticMapper);
+		// parseCsvFile only uses the parser
+		csvService = new CsvService(null, null, new CsvProperties(), null, statisticCsvParser, null, null, null, null,
+				null, null, null, null, null, null, null);
+		csvRows = csvService.parseCsvFile(file);
+	}
+
+	/**
+	 * The rows read by the StatisticCsvTokenizer, as by the uploads of standard files
+	 */
+	@Benchmark
+	public void tokenizer(Blackhole blackhole) throws IOException {
+		statisticCsvParser.parse(new StringReader(csv), new UploadResult(), blackhole::consume);
+	}
+
+	/**
+	 * The rows read by OpenCSV and converted one by one, as by the uploads of quoted files
+	 */
+	@Benchmark
+	public void openCsv(Blackhole blackhole) {
+		statisticCsvParser.parseWithOpenCsv(new StringReader(csv), new UploadResult(), blackhole::consume);
+	}
+
+	@Benchmark
+	public List<StatisticCsv> parseCsvFile() throws IOException {
+		return csvService.parseCsvFile(file);
+	}
+
+	@Benchmark
+	public List<Statistic> mapListEntityCsvToListEntity() {
+		return statisticMapper.mapListEntityCsvToListEntity(csvRows);
+	}
+}
@@ -0,0 +1,119 @@
+package com.adverity.csv.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.adverity.csv.util.DateDecoder;
+import com.adverity.csv.util.StatisticCsvTokenizer;
+
+/**
+ * Generates realistic marketing CSV files for the benchmarks.
+ *
+ * Like in the real exports, a few datasources and campaigns have most of the rows: both are drawn from a Zipf
+ * distribution, over 8 datasources and 5000 campaigns. The dailies are spread over 2019 and 2020, the clicks
+ * follow an exponential distribution and the impressions are 10 to 1000 times the clicks.
+ * The same seed always generates the same rows.
+ *
+ * @author Mihai Zanfir
+ */
+public final class MarketingCsvGenerator {
+
+	private static final String[] DATASOURCES = {"Google Ads", "Facebook Ads", "Google Analytics", "Twitter Ads",
+			"LinkedIn Ads", "Bing Ads", "Mailchimp", "Snapchat Ads"};
+	private static final int CAMPAIGNS = 5000;
+	private static final LocalDate FIRST_DAILY = LocalDate.of(2019, 1, 1);
+	private static final int DAYS = 731;
+
+	private static final double[] DATASOURCE_WEIGHTS = zipf(DATASOURCES.length, 1.3);
+	private static final double[] CAMPAIGN_WEIGHTS = zipf(CAMPAIGNS, 1.1);
+	private static final String[] DAILIES = new String[DAYS];
+
+	static {
+		for (int day = 0; day < DAYS; day++) {
+			DAILIES[day] = FIRST_DAILY.plusDays(day).format(DateDecoder.CSV_DATE_FORMAT);
+		}
+	}
+
+	private MarketingCsvGenerator() {
+	}
+
+	/**
+	 * Writes the header and the rows
+	 *
+	 * @param writer Receives the CSV content
+	 * @param rows The number of rows
+	 * @param seed The seed of the random values
+	 * @throws IOException If the content can not be written
+	 */
+	public static void write(Writer writer, int rows, long seed) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		StringBuilder line = new StringBuilder(128);
+		writer.write(StatisticCsvTokenizer.HEADER);
+		writer.write('\n');
+		for (int i = 0; i < rows; i++) {
+			int clicks = (int) (-Math.log(1 - random.nextDouble()) * 40);
+			line.setLength(0);
+			line.append(DATASOURCES[sample(DATASOURCE_WEIGHTS, random)]).append(",Campaign ")
+					.append(sample(CAMPAIGN_WEIGHTS, random)).append(',')
+					.append(DAILIES[random.nextInt(DAYS)]).append(',')
+					.append(clicks).append(',')
+					.append(clicks * random.nextInt(10, 1001) + random.nextInt(100)).append('\n');
+			writer.append(line);
+		}
+	}
+
+	/**
+	 * @return The CSV content with the header and the rows
+	 */
+	public static String generate(int rows, long seed) {
+		StringWriter writer = new StringWriter();
+		try {
+			write(writer, rows, seed);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Writes the CSV content to a file
+	 *
+	 * @return The file
+	 * @throws IOException If the file can not be written
+	 */
+	public static Path generate(Path file, int rows, long seed) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			write(writer, rows, seed);
+		}
+		return file;
+	}
+
+	/**
+	 * @return The cumulative weights of the ranks 1 to n, the weight of the rank k being 1 / k^exponent
+	 */
+	private static double[] zipf(int n, double exponent) {
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static int sample(double[] cumulative, SplittableRandom random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min(cumulative.length - 1, index >= 0 ? index : -index - 1);
+	}
+}
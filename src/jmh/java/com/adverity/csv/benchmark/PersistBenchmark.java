@@ -0,0 +1,96 @@
+package com.adverity.csv.benchmark;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+import com.adverity.csv.service.StatisticCsvParser;
+
+/**
+ * Benchmarks the persistence of the statistics in the database.
+ *
+ * writeChunk commits one chunk of csv.upload.chunk-size rows with the StatisticBatchWriter, as every chunk of an
+ * upload, and reports its throughput and latency percentiles. ingestFile uploads a whole generated file of rows,
+ * parsing included. The statistics are dropped before every iteration.
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="PersistBenchmark -prof gc"
+ *
+ * @author Mihai Zanfir
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistBenchmark {
+
+	private static final int CHUNK_SIZE = 10_000;
+
+	@Param("1000000")
+	private int rows;
+
+	private ConfigurableApplicationContext context;
+	private StatisticBatchWriter statisticBatchWriter;
+	private StatisticPartitionManager statisticPartitionManager;
+	private List<List<Statistic>> chunks;
+	private int nextChunk;
+	private int batchId;
+
+	@Setup
+	public void setup() throws IOException {
+		context = BenchmarkContext.start();
+		statisticBatchWriter = context.getBean(StatisticBatchWriter.class);
+		statisticPartitionManager = context.getBean(StatisticPartitionManager.class);
+		List<Statistic> statistics = new ArrayList<Statistic>(rows);
+		context.getBean(StatisticCsvParser.class).parse(new StringReader(MarketingCsvGenerator.generate(rows, 42)),
+				new UploadResult(), statistics::add);
+		chunks = new ArrayList<List<Statistic>>();
+		for (int from = 0; from < statistics.size(); from += CHUNK_SIZE) {
+			chunks.add(statistics.subList(from, Math.min(statistics.size(), from + CHUNK_SIZE)));
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void clear() {
+		statisticPartitionManager.dropAll();
+		batchId = statisticBatchWriter.beginUpload();
+		nextChunk = 0;
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+	public int writeChunk() {
+		return statisticBatchWriter.write(chunks.get(nextChunk++ % chunks.size()), batchId);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public UploadResult ingestFile() throws IOException {
+		return BenchmarkContext.load(context, rows, 42);
+	}
+}
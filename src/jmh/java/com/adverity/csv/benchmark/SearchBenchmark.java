@@ -0,0 +1,98 @@
+package com.adverity.csv.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+
+import com.adverity.csv.service.CsvService;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Benchmarks the searches of the statistics with the typical display, condition, groupBy and orderBy mixes,
+ * on generated statistics loaded once per trial. The search cache is disabled, so every search runs.
+ * Reports the throughput and the latency percentiles of every scenario, with the column store on and off.
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="SearchBenchmark -p rows=2000000 -prof gc"
+ *
+ * @author Mihai Zanfir
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+	/**
+	 * The searches: display, condition, groupBy, orderBy and limit
+	 */
+	@AllArgsConstructor
+	public enum Scenario {
+		// The first page of the records
+		FIRST_PAGE(null, null, null, null, "1000"),
+		// Total clicks of a datasource in a date range
+		CLICKS_OF_DATASOURCE_RANGE("clicks:sum", "datasource:Google Ads,daily>01-01-2020,daily<01-31-2020", null, null, null),
+		// Clicks per datasource and campaign, the biggest first
+		CLICKS_BY_CAMPAIGN("clicks:sum,datasource,campaign", null, "datasource,campaign", "clicks:sum:desc", null),
+		// Impressions over time
+		IMPRESSIONS_BY_DAILY("daily,impressions:sum", null, "daily", "daily:desc", null),
+		// The latest busy days of a campaign
+		CAMPAIGN_RECORDS(null, "campaign:Campaign 7,clicks>10", null, "daily:desc", "100"),
+		// Two conditions joined with OR
+		OR_CONDITION(null, "datasource:Twitter Ads,'campaign:Campaign 3", null, null, "1000");
+
+		private final String display;
+		private final String condition;
+		private final String groupBy;
+		private final String orderBy;
+		private final String limit;
+	}
+
+	@Param
+	private Scenario scenario;
+
+	@Param("1000000")
+	private int rows;
+
+	@Param({"false", "true"})
+	private boolean columnar;
+
+	private ConfigurableApplicationContext context;
+	private CsvService csvService;
+
+	@Setup
+	public void setup() throws IOException {
+		context = BenchmarkContext.start("csv.search-cache.enabled=false", "csv.columnar.enabled=" + columnar);
+		csvService = context.getBean(CsvService.class);
+		BenchmarkContext.load(context, rows, 42);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Model searchStatistics() {
+		Model model = new ExtendedModelMap();
+		csvService.searchStatistics(scenario.display, scenario.condition, scenario.groupBy, scenario.orderBy, null,
+				scenario.limit, null, null, model);
+		return model;
+	}
+}
@@ -0,0 +1,136 @@
+package com.adverity.csv.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.adverity.csv.model.UploadMode;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configurable settings of this application, bound from the "csv.*" properties
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "csv")
+public class CsvProperties {
+
+	private Upload upload = new Upload();
+	private Jobs jobs = new Jobs();
+	private Parallel parallel = new Parallel();
+	private Indexes indexes = new Indexes();
+	private SearchCache searchCache = new SearchCache();
+	private Export export = new Export();
+	private Rollups rollups = new Rollups();
+	private Columnar columnar = new Columnar();
+	private Profiling profiling = new Profiling();
+
+	@Getter
+	@Setter
+	public static class Upload {
+		// Number of rows kept in memory before they are flushed to the database in one transaction
+		private int chunkSize = 10000;
+		// Number of rows sent to the database in one JDBC batch
+		private int batchSize = 1000;
+		// How the rows are stored when the upload does not choose: insert, replace or accumulate
+		private UploadMode mode = UploadMode.INSERT;
+		// If true, a file with the same content as a stored upload is not ingested again
+		private boolean deduplicate = true;
+		// Most upload batches a search reads by id, a search matching more reads the daily range of their zones
+		private int maxSearchedBatches = 100;
+	}
+
+	@Getter
+	@Setter
+	public static class Jobs {
+		// Number of uploads processed at the same time
+		private int poolSize = 2;
+		// Number of uploads waiting for a free worker before new uploads are refused
+		private int queueCapacity = 20;
+		// Minutes a finished job can still be polled
+		private long retentionMinutes = 60;
+		// Directory where the uploaded files are stored until they are processed (default: java.io.tmpdir)
+		private String spoolDirectory;
+	}
+
+	@Getter
+	@Setter
+	public static class Parallel {
+		// If false, the files are always parsed on one thread
+		private boolean enabled = true;
+		// Files smaller than this are parsed on one thread
+		private long minFileBytes = 32L * 1024 * 1024;
+		// Size of the byte ranges parsed in parallel
+		private long chunkBytes = 4L * 1024 * 1024;
+		// Number of parser threads (0: one per core)
+		private int parallelism = 0;
+		// Number of byte ranges parsed ahead of the database writer (0: twice the parallelism)
+		private int maxChunksInFlight = 0;
+	}
+
+	@Getter
+	@Setter
+	public static class Indexes {
+		// If true, the secondary indexes are dropped during big uploads and rebuilt after them
+		private boolean deferred = true;
+		// Uploads of at least this size are loaded without the secondary indexes
+		private long bulkLoadMinBytes = 64L * 1024 * 1024;
+	}
+
+	@Getter
+	@Setter
+	public static class SearchCache {
+		// If false, every search runs its query
+		private boolean enabled = true;
+		// Number of result rows kept in the cache, over all the cached searches
+		private long maxRows = 1_000_000;
+		// Seconds a search result is kept in the cache
+		private long ttlSeconds = 300;
+	}
+
+	@Getter
+	@Setter
+	public static class Export {
+		// Number of records fetched from the database cursor at a time
+		private int fetchSize = 1000;
+		// Number of characters buffered before they are written to the response
+		private int bufferSize = 64 * 1024;
+	}
+
+	@Getter
+	@Setter
+	public static class Rollups {
+		// If false, every search reads the raw statistics, the rollups are still maintained
+		private boolean enabled = true;
+	}
+
+	@Getter
+	@Setter
+	public static class Columnar {
+		// If true, all the statistics are also kept in memory in columns and the searches run on them
+		private boolean enabled = false;
+		// Directory of the memory mapped segment files, if not set all the columns are kept on the heap
+		private String segmentDirectory;
+		// Number of statistics on the heap after which they are written to a segment file, even during an upload
+		private int segmentMaxRows = 4_000_000;
+	}
+
+	@Getter
+	@Setter
+	public static class Profiling {
+		// If false, the searches are neither counted per shape nor kept when they are slow, showSQL still works
+		private boolean enabled = true;
+		// Searches taking at least this many milliseconds are kept in the slow query log
+		private long slowQueryMillis = 500;
+		// Number of slow searches kept, the oldest are dropped first
+		private int slowQueryLogSize = 100;
+		// Number of search shapes counted, the least recently used are dropped first
+		private int maxShapes = 1000;
+		// If true, the SQL of the slow searches is run again with EXPLAIN ANALYZE to get its plan and rows scanned
+		private boolean explain = false;
+		// Seconds during which the same slow SQL is not explained again
+		private long explainIntervalSeconds = 60;
+	}
+}
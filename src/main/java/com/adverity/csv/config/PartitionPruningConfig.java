@@ -0,0 +1,23 @@
+package com.adverity.csv.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.adverity.csv.util.PartitionPruning;
+
+/**
+ * Registers the PartitionPruning inspector, so the searches of the statistics only read the partitions of their
+ * months.
+ *
+ * @author Mihai Zanfir
+ */
+@Configuration
+public class PartitionPruningConfig {
+
+	@Bean
+	public HibernatePropertiesCustomizer partitionPruningInspector() {
+		return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, PartitionPruning.INSPECTOR);
+	}
+}
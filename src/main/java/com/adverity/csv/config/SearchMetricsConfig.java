@@ -0,0 +1,54 @@
+package com.adverity.csv.config;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.adverity.csv.service.PipelineMetrics;
+import com.adverity.csv.util.QueryShape;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Times the rendering of the search results: the view is rendered after the controller returns, between
+ * postHandle and afterCompletion. The time is recorded as the render stage of the search, with its QueryShape.
+ *
+ * @author Mihai Zanfir
+ */
+@Configuration
+@AllArgsConstructor
+public class SearchMetricsConfig implements WebMvcConfigurer {
+
+	private static final String RENDER_START = SearchMetricsConfig.class.getName() + ".renderStart";
+
+	private final PipelineMetrics pipelineMetrics;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new HandlerInterceptor() {
+			@Override
+			public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+					ModelAndView modelAndView) {
+				if (modelAndView != null && modelAndView.hasView()) {
+					request.setAttribute(RENDER_START, System.nanoTime());
+				}
+			}
+
+			@Override
+			public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+					Exception ex) {
+				Object start = request.getAttribute(RENDER_START);
+				if (start != null) {
+					QueryShape shape = QueryShape.of(request.getParameter("display"), request.getParameter("groupBy"),
+							request.getParameter("orderBy"), request.getParameter("cursor"));
+					pipelineMetrics.recordSearchStage("render", shape, "view", System.nanoTime() - (Long) start);
+				}
+			}
+		}).addPathPatterns("/api/search");
+	}
+}
@@ -0,0 +1,53 @@
+package com.adverity.csv.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.adverity.csv.util.SqlCapture;
+
+/**
+ * Wraps the data source so the SQL of the searches can be captured with the SqlCapture, for showSQL and for
+ * the QueryProfiler. Only the connections taken while a capture is running on their thread are wrapped, the others
+ * are the connections of the pool. The connection pool is still reachable with DataSource.unwrap.
+ *
+ * @author Mihai Zanfir
+ */
+@Configuration
+public class SqlCaptureConfig {
+
+	@Bean
+	public static BeanPostProcessor sqlCaptureDataSourceWrapper() {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				return bean instanceof DataSource && !(bean instanceof CapturingDataSource)
+						? new CapturingDataSource((DataSource) bean) : bean;
+			}
+		};
+	}
+
+	private static class CapturingDataSource extends DelegatingDataSource {
+
+		CapturingDataSource(DataSource dataSource) {
+			super(dataSource);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return SqlCapture.isCapturing() ? SqlCapture.wrap(super.getConnection()) : super.getConnection();
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			Connection connection = super.getConnection(username, password);
+			return SqlCapture.isCapturing() ? SqlCapture.wrap(connection) : connection;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.adverity.csv.controller;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.adverity.csv.model.IndexAdvice;
+import com.adverity.csv.model.QueryShapeStatistics;
+import com.adverity.csv.model.SlowQuery;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.repository.StatisticIndexManager;
+import com.adverity.csv.repository.StatisticPartitionManager;
+import com.adverity.csv.repository.StatisticRollupWriter;
+import com.adverity.csv.service.IndexAdvisor;
+import com.adverity.csv.service.PartitionReplaceService;
+import com.adverity.csv.service.QueryProfiler;
+import com.adverity.csv.service.SearchResultCache;
+
+import io.swagger.annotations.Api;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+@RestController
+@Api(tags = "Admin Controller")
+@Log4j2
+@AllArgsConstructor
+@RequestMapping("/api/admin")
+/**
+ * Admin Controller - Reports how the statistics are stored and queried
+ *
+ * @author Mihai Zanfir
+ */
+public class AdminController {
+
+	private final IndexAdvisor indexAdvisor;
+	private final StatisticIndexManager statisticIndexManager;
+	private final SearchResultCache searchResultCache;
+	private final StatisticRollupWriter statisticRollupWriter;
+	private final StatisticPartitionManager statisticPartitionManager;
+	private final QueryProfiler queryProfiler;
+	private final PartitionReplaceService partitionReplaceService;
+
+	/**
+	 * Gets the columns used by the searches, the existing indexes and the suggested indexes
+	 *
+	 * @return The index advice
+	 */
+	@Operation(summary = "Gets the columns used by the searches, the existing indexes and the suggested indexes")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The index advice", content = @Content)})
+	@GetMapping("/index-advice")
+	public IndexAdvice getIndexAdvice() {
+		return indexAdvisor.getAdvice();
+	}
+
+	/**
+	 * Creates the secondary indexes of the statistics that are missing, for example after a failed rebuild
+	 *
+	 * @return The existing indexes with their columns
+	 */
+	@Operation(summary = "Creates the missing secondary indexes of the statistics")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The existing indexes", content = @Content)})
+	@PostMapping("/indexes")
+	public Map<String, List<String>> createIndexes() {
+		log.info("createIndexes()");
+		statisticIndexManager.createIndexes();
+		return statisticIndexManager.getIndexes();
+	}
+
+	/**
+	 * Recomputes the daily and monthly rollups from the statistics, for example after the statistics were changed
+	 * directly in the database
+	 */
+	@Operation(summary = "Recomputes the daily and monthly rollups from the statistics")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The rollups are rebuilt", content = @Content)})
+	@PostMapping("/rollups")
+	public void rebuildRollups() {
+		log.info("rebuildRollups()");
+		statisticRollupWriter.rebuild();
+		searchResultCache.invalidateAll();
+	}
+
+	/**
+	 * Gets the hits, misses, loads and evictions of the search result cache
+	 *
+	 * @return The search result cache statistics
+	 */
+	@Operation(summary = "Gets the hits, misses, loads and evictions of the search result cache")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The cache statistics", content = @Content)})
+	@GetMapping("/search-cache")
+	public Map<String, Object> getSearchCacheStatistics() {
+		return searchResultCache.getStatistics();
+	}
+
+	/**
+	 * Drops all the cached search results
+	 *
+	 * @return The search result cache statistics
+	 */
+	@Operation(summary = "Drops all the cached search results")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The cache statistics", content = @Content)})
+	@DeleteMapping("/search-cache")
+	public Map<String, Object> clearSearchCache() {
+		log.info("clearSearchCache()");
+		searchResultCache.invalidateAll();
+		return searchResultCache.getStatistics();
+	}
+
+	/**
+	 * Gets the monthly partitions of the statistics with their number of statistics
+	 *
+	 * @return The number of statistics of every month
+	 */
+	@Operation(summary = "Gets the monthly partitions of the statistics with their number of statistics")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The partition sizes", content = @Content)})
+	@GetMapping("/partitions")
+	public Map<YearMonth, Long> getPartitions() {
+		return statisticPartitionManager.getPartitionSizes();
+	}
+
+	/**
+	 * Drops all the statistics of a month at once, by dropping its partition
+	 *
+	 * @param month The month to drop, ex: 2019-01
+	 * @return The number of dropped statistics
+	 */
+	@Operation(summary = "Drops all the statistics of a month")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The number of dropped statistics", content = @Content),
+			@ApiResponse(responseCode = "400", description = "Invalid month", content = @Content),
+			@ApiResponse(responseCode = "404", description = "The month has no statistics", content = @Content)})
+	@DeleteMapping("/partitions/{month}")
+	public long dropPartition(@PathVariable String month) {
+		log.info("dropPartition({})", month);
+		long rows = statisticPartitionManager.drop(parseMonth(month));
+		if (rows < 0) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The month " + month + " has no statistics!");
+		}
+		return rows;
+	}
+
+	/**
+	 * Replaces all the statistics of a month at once with the statistics of a CSV file. The file is loaded into a
+	 * staging table that replaces the partition of the month when it is complete, the searches read the previous
+	 * statistics until then.
+	 *
+	 * @param month The month to replace, ex: 2019-01
+	 * @param file A csv file with the new statistics of the month, the rows of other months are rejected
+	 * @return The upload result
+	 */
+	@Operation(summary = "Replaces all the statistics of a month with the statistics of a CSV file")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The upload result", content = @Content),
+			@ApiResponse(responseCode = "400", description = "Invalid month or file", content = @Content)})
+	@PutMapping("/partitions/{month}")
+	public UploadResult replacePartition(@PathVariable String month, @RequestParam("file") MultipartFile file) {
+		log.info("replacePartition({}) -- {}", month, file.getOriginalFilename());
+		return partitionReplaceService.replace(parseMonth(month), file);
+	}
+
+	/**
+	 * Gets the slow searches, the newest first, with the SQL they executed and, if they were explained, its plan
+	 *
+	 * @param minMillis If set, only the searches that took at least this many milliseconds
+	 * @param shape If set, only the searches whose shape contains this text, ex: groupBy=campaign
+	 * @param limit If set, the maximum number of searches
+	 * @return The slow searches
+	 */
+	@Operation(summary = "Gets the slow searches with their SQL and execution plan")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The slow searches", content = @Content)})
+	@GetMapping("/slow-queries")
+	public List<SlowQuery> getSlowQueries(@RequestParam(name = "minMillis", required = false) Long minMillis,
+			@RequestParam(name = "shape", required = false) String shape,
+			@RequestParam(name = "limit", required = false) Integer limit) {
+		return queryProfiler.getSlowQueries(minMillis, shape, limit);
+	}
+
+	/**
+	 * Gets the number of searches, their time and their returned rows for every search shape
+	 *
+	 * @return The statistics of every shape, the shapes with the most total time first
+	 */
+	@Operation(summary = "Gets the number of searches, their time and their returned rows for every search shape")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The shape statistics", content = @Content)})
+	@GetMapping("/query-shapes")
+	public List<QueryShapeStatistics> getQueryShapes() {
+		return queryProfiler.getShapeStatistics();
+	}
+
+	/**
+	 * Drops the slow searches and the statistics of the search shapes
+	 */
+	@Operation(summary = "Drops the slow searches and the statistics of the search shapes")
+	@ApiResponses(value = {@ApiResponse(responseCode = "200", description = "The profile is dropped", content = @Content)})
+	@DeleteMapping("/slow-queries")
+	public void clearSlowQueries() {
+		log.info("clearSlowQueries()");
+		queryProfiler.clear();
+	}
+
+	private static YearMonth parseMonth(String month) {
+		try {
+			return YearMonth.parse(month);
+		} catch (DateTimeParseException ex) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The month must be formatted as yyyy-MM!");
+		}
+	}
+}
@@ -2,16 +2,31 @@ package com.adverity.csv.controller;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.ui.Model;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.adverity.csv.model.CountMode;
+import com.adverity.csv.model.ExportFormat;
+import com.adverity.csv.model.SearchCount;
+import com.adverity.csv.model.UploadJob;
+import com.adverity.csv.model.UploadMode;
 import com.adverity.csv.service.CsvService;
+import com.adverity.csv.service.StatisticExportService;
+import com.adverity.csv.service.UploadJobService;
 
 import io.swagger.annotations.Api;
 import io.swagger.v3.oas.annotations.Operation;
@@ -66,7 +81,15 @@ import lombok.extern.log4j.Log4j2;
  */
 public class CsvController {
 
+	// The response header with the continuation token of the next page of a search paged with a keyset
+	private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	// The response headers with the number of records of a search counted with count=exact or estimated with count=approx
+	private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+	private static final String ESTIMATED_COUNT_HEADER = "X-Estimated-Count";
+
 	private final CsvService csvService;
+	private final UploadJobService uploadJobService;
+	private final StatisticExportService statisticExportService;
 
 	/**
 	 * Homepage
@@ -81,18 +104,76 @@ public class CsvController {
 	/**
 	 * Uploads a CSV file, parse it and save its data in the database
 	 * 
+	 * By default the file is stored and processed in the background: the response contains the id of the upload job
+	 * and its progress can be followed with /jobs/{id}. If sync is true, the file is processed during the request.
+	 * A file with the same content as an earlier upload is not processed again.
+	 * 
 	 * @param file A csv file to upload
+	 * @param sync If true the file is parsed and saved before the response is returned
+	 * @param mode insert: every row is a new statistic, replace: a row replaces the clicks and impressions of the
+	 *        statistic with the same datasource, campaign and daily, accumulate: a row is added to them.
+	 *        If it is not set, csv.upload.mode is used.
 	 * @return A response text with the status of the operation which could be
 	 *         Success or Error
 	 */
 	@Operation(summary = "Uploads a CSV file, parse it and save its data in the database")
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "return A response text with the status of the operation which could be Success or Error",
-			content = @Content)})
+			content = @Content),
+			@ApiResponse(responseCode = "400", description = "The upload mode is not known", content = @Content),
+			@ApiResponse(responseCode = "503", description = "Too many uploads are queued", content = @Content)})
 	@PostMapping("/upload-csv-file")
-	public String uploadCSVFile(@RequestParam("file") MultipartFile file, Model model) {
-		log.info("uploadCSVFile() -- " + file.getName());
-		return csvService.uploadCSVFile(file, model);
+	public String uploadCSVFile(@RequestParam("file") MultipartFile file,
+			@Parameter(description = "If true, the file is processed before the response is returned")
+				@RequestParam(name = "sync", required = false, defaultValue = "false") boolean sync,
+			@Parameter(description = "How the rows with the same datasource, campaign and daily as a stored statistic are stored: insert, replace or accumulate")
+				@RequestParam(name = "mode", required = false) String mode,
+			Model model) {
+		log.info("uploadCSVFile() -- " + file.getName() + " sync:" + sync + " mode:" + mode);
+		UploadMode uploadMode = csvService.getUploadMode(mode);
+		if (sync || file.isEmpty()) {
+			return csvService.uploadCSVFile(file, uploadMode, model);
+		}
+		UploadJob job = uploadJobService.submit(file, uploadMode);
+		model.addAttribute("message", "The upload " + job.getId() + " is being processed.");
+		model.addAttribute("status", true);
+		model.addAttribute("job", job);
+		return "file-upload-status";
+	}
+
+	/**
+	 * Gets the progress of an upload job
+	 * 
+	 * @param id The id of the upload job
+	 * @return The upload job with its status, bytes read, rows ingested, rejected rows, throughput and ETA
+	 */
+	@Operation(summary = "Gets the progress of an upload job")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "The upload job with its progress", content = @Content),
+			@ApiResponse(responseCode = "404", description = "The upload job is not known", content = @Content)})
+	@GetMapping("/jobs/{id}")
+	public ResponseEntity<UploadJob> getUploadJob(@PathVariable("id") String id) {
+		return ResponseEntity.of(uploadJobService.getJob(id));
+	}
+
+	/**
+	 * Downloads the rows rejected by an upload job as a CSV file with their line number, reason and content
+	 * 
+	 * @param id The id of the upload job
+	 * @return The rejected rows
+	 */
+	@Operation(summary = "Downloads the rows rejected by an upload job")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "The rejected rows with their line and reason", content = @Content),
+			@ApiResponse(responseCode = "404", description = "The upload job is not known or did not reject any row", content = @Content)})
+	@GetMapping("/jobs/{id}/rejects")
+	public ResponseEntity<Resource> getUploadJobRejects(@PathVariable("id") String id) {
+		return uploadJobService.getRejectFile(id)
+				.map(file -> ResponseEntity.ok()
+						.contentType(MediaType.parseMediaType(ExportFormat.CSV.getContentType()))
+						.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"rejects-" + id + ".csv\"")
+						.body((Resource) new FileSystemResource(file)))
+				.orElseGet(() -> ResponseEntity.notFound().build());
 	}
 
 	/**
@@ -101,7 +182,8 @@ public class CsvController {
 	 * This will create and execute a SELECT query.
 	 * The COLUMN NAMES that could be used here are: datasource, campaign, daily, clicks, impressions, id.
 	 * We could use one column definitions or more column names separated by commas.
-	 * We could also use other SQL variables as: clicks:sum. 
+	 * We could also use the aggregate functions sum, avg, min, max, count and countDistinct as: clicks:sum,
+	 * and the click-through rate ctr (the summed clicks divided by the summed impressions).
 	 * No input parameter are required. 
 	 * If you do not fill any parameter than it will return all the records 
 	 * 
@@ -121,10 +203,12 @@ public class CsvController {
 	 * 
 	 * @param display The columns we want to be displayed on results (comma separated). 
 	 * 			Can also be the name of one columnn followed by :sum (For a SUM on that column values) or a comma separated list of columns
+	 * 			The other functions are :avg, :min, :max, :count and :countDistinct, and ctr is the click-through rate
 	 *  		If this is not filled than it will display all the columns.
 	 *  		Ex: datasource
 	 *  		Ex: impressions:sum
 	 * 			Ex: daily,impressions:sum
+	 * 			Ex: datasource,ctr,clicks:avg,campaign:countDistinct
 	 *  
 	 * @param condition If this is used it will apply a condition used as WHERE (or HAVING) in the SQL query
 	 *  		Ex: campaign:'Adventmarkt Touristik'
@@ -139,6 +223,7 @@ public class CsvController {
 	 *  		Ex: campaign:asc or campaign:desc
 	 * 			If you displayed a SUM on a column then this columns should also contain :sum in it
 	 * 			Ex: clicks:sum:desc
+	 * 			Ex: ctr:desc
 	 *  
 	 * @param offset If this is set than it will show the records starting from this offset. It needs to be a number.
 	 *  		If is not set this will be 0. Using this parameter, Pagination could be easily created.
@@ -150,7 +235,16 @@ public class CsvController {
 	 *  		Ex: 10000 - it will limit the returned records to 10000
 	 *  		Ex: If is not set then it will return all the records (be careful with this as if there are many records it will slow your browser)
 	 *  
-	 * @param showSQL This is not working anymore for now. If set to true, it would show the SQL generated on the top of records and the number of records found
+	 * @param cursor If this is set (even empty) the records are paged with a keyset: every page costs the same whatever its depth.
+	 *  		Empty for the first page, then the continuation token of the previous page, returned in the X-Next-Cursor header
+	 *  		and in the next page link. The page size is the limit. Ex: cursor=&limit=100&orderBy=daily:desc
+	 *  
+	 * @param count If this is set the records are only counted: exact runs a COUNT query with the same conditions,
+	 *  		approx estimates the count from the rollups in a few milliseconds (exact if the search can not be estimated).
+	 *  		The count is returned in the X-Total-Count header, or X-Estimated-Count if it was estimated.
+	 *  		A grouped search counts its groups, the orderBy, offset, limit and cursor are not used.
+	 *  
+	 * @param showSQL If set to true, it will show the SQL executed on the top of records, with its parameters
 	 * 
 	 * @return a List of records or a text that will indicate the result of this operation (No results or ... Error)
 	 */
@@ -158,12 +252,14 @@ public class CsvController {
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "Return a List of records or a text that will indicate the result of this operation", 
 						 content = @Content),
+			@ApiResponse(responseCode = "400", description = "The count mode is not known", content = @Content),
 			@ApiResponse(responseCode = "500", description = "Illegal query words were used", 
 			    		 content = @Content)})
 	@GetMapping("/search")
 	public String searchStatistics(
 			@Parameter(description = "The columns we want to be displayed on results. "
-					+ "The COLUMN NAMES that could be used here are: datasource, campaign, daily, clicks, impressions, id.") 
+					+ "The COLUMN NAMES that could be used here are: datasource, campaign, daily, clicks, impressions, id, "
+					+ "optionally followed by :sum, :avg, :min, :max, :count or :countDistinct, and ctr.") 
 				@RequestParam(name = "display", required = false) String display,
 			@Parameter(description = "If this is used it will apply a condition used as WHERE or HAVING in the SQL query")
 				@RequestParam(name = "condition", required = false) String condition,
@@ -175,12 +271,79 @@ public class CsvController {
 				@RequestParam(name = "offset", required = false) String offset,
 			@Parameter(description = "If this is set than it will limit the records that is showing")
 				@RequestParam(name = "limit", required = false) String limit,
+			@Parameter(description = "If this is set the records are paged with a keyset: empty for the first page, "
+					+ "then the continuation token of the previous page")
+				@RequestParam(name = "cursor", required = false) String cursor,
+			@Parameter(description = "If this is set the records are only counted: exact or approx")
+				@RequestParam(name = "count", required = false) String count,
 			@Parameter(description = "If set to true, it will show the SQL generated on the top of records and the number of records found")
 				@RequestParam(name = "showSQL", required = false) String showSQL,
 			Model model, HttpServletResponse response) {
 		log.info("searchStatistics() -- display:" + display + " condition:" + condition + " groupBy:" + groupBy
-				+ " orderBy:" + orderBy + " offset:" + offset + " limit:" + limit + " showSQL:" + showSQL);
-		return csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, showSQL, model);
+				+ " orderBy:" + orderBy + " offset:" + offset + " limit:" + limit + " cursor:" + cursor
+				+ " count:" + count + " showSQL:" + showSQL);
+		if (count != null) {
+			CountMode countMode = CountMode.of(count);
+			if (countMode == null) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown count mode: " + count);
+			}
+			String view = csvService.countStatistics(display, condition, groupBy, countMode, showSQL, model);
+			SearchCount searchCount = (SearchCount) model.getAttribute("count");
+			response.setHeader(searchCount.getMode() == CountMode.EXACT ? TOTAL_COUNT_HEADER : ESTIMATED_COUNT_HEADER,
+					String.valueOf(searchCount.getCount()));
+			return view;
+		}
+		String view = csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, cursor,
+				showSQL, model);
+		if (model.getAttribute("nextCursor") != null) {
+			response.setHeader(NEXT_CURSOR_HEADER, model.getAttribute("nextCursor").toString());
+		}
+		return view;
+	}
+	
+	/**
+	 * Exports the results of a search as a CSV or NDJSON file.
+	 * 
+	 * The parameters are the same as for /search but the records are streamed to the response as they are read
+	 * from the database, so big extracts use constant memory. Without a limit all the records are exported.
+	 * 
+	 * @param format csv or ndjson
+	 * @return The streamed records
+	 */
+	@Operation(summary = "Exports the results of a search as a CSV or NDJSON file")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "The records of the search", content = @Content),
+			@ApiResponse(responseCode = "400", description = "The export format is not known", content = @Content),
+			@ApiResponse(responseCode = "500", description = "The search parameters are not valid", content = @Content)})
+	@GetMapping("/export")
+	public ResponseEntity<StreamingResponseBody> exportStatistics(
+			@Parameter(description = "The columns we want to be exported") 
+				@RequestParam(name = "display", required = false) String display,
+			@Parameter(description = "If this is used it will apply a condition used as WHERE or HAVING in the SQL query")
+				@RequestParam(name = "condition", required = false) String condition,
+			@Parameter(description = "If this is used than will GROUP BY after columns specified in this parameter")
+				@RequestParam(name = "groupBy", required = false) String groupBy,
+			@Parameter(description = "If this is used than it will order the results based on this parameter")
+				@RequestParam(name = "orderBy", required = false) String orderBy,
+			@Parameter(description = "If this is set than it will export the records starting from this ofset")
+				@RequestParam(name = "offset", required = false) String offset,
+			@Parameter(description = "If this is set than it will limit the exported records")
+				@RequestParam(name = "limit", required = false) String limit,
+			@Parameter(description = "The format of the exported records: csv or ndjson")
+				@RequestParam(name = "format", required = false, defaultValue = "csv") String format) {
+		log.info("exportStatistics() -- display:" + display + " condition:" + condition + " groupBy:" + groupBy
+				+ " orderBy:" + orderBy + " offset:" + offset + " limit:" + limit + " format:" + format);
+		ExportFormat exportFormat = ExportFormat.of(format);
+		if (exportFormat == null) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown export format: " + format);
+		}
+		StreamingResponseBody body = statisticExportService.export(display, condition, groupBy, orderBy, offset,
+				limit, exportFormat);
+		return ResponseEntity.ok()
+				.contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+				.header(HttpHeaders.CONTENT_DISPOSITION,
+						"attachment; filename=\"statistics." + exportFormat.getExtension() + "\"")
+				.body(body);
 	}
 	
 	/**
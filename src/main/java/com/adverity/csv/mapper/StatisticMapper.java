@@ -1,7 +1,6 @@
 package com.adverity.csv.mapper;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 
 import org.mapstruct.Mapper;
@@ -9,10 +8,11 @@ import org.mapstruct.Mapping;
 
 import com.adverity.csv.model.Statistic;
 import com.adverity.csv.model.StatisticCsv;
+import com.adverity.csv.util.DateDecoder;
 
 /**
  * Class for mapping different objects
- * For now this is used to converts a list of StatisticCsv into a list of Statistic entities
+ * For now this is used to converts StatisticCsv rows into Statistic entities
  * 
  * @author Mihai Zanfir
  */
@@ -28,6 +28,16 @@ public abstract class StatisticMapper {
 	@Mapping(target = "daily", source = "source")
     public abstract List<Statistic> mapListEntityCsvToListEntity(List<StatisticCsv> source);
 
+	/**
+	 * Converts one StatisticCsv row into a Statistic entity
+	 * 
+	 * @param source A StatisticCsv row to be converted
+	 * @return A Statistic entity
+	 */
+	@Mapping(target = "id", ignore = true)
+	@Mapping(target = "batchId", ignore = true)
+	public abstract Statistic mapEntityCsvToEntity(StatisticCsv source);
+
 	/**
 	 * Maps a Daily string that is coming from CSV into a daily Date used on Statistic entity
 	 * 
@@ -35,6 +45,6 @@ public abstract class StatisticMapper {
 	 * @return a converted Date value of form "2019-01-31"
 	 */
 	LocalDate mapDaily(String date) {
-		return LocalDate.parse(date, DateTimeFormatter.ofPattern("MM/dd/yy"));
+		return DateDecoder.parseCsvDate(date);
     }
 }
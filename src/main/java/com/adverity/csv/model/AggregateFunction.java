@@ -0,0 +1,58 @@
+package com.adverity.csv.model;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The aggregate functions of the displayed and ordered columns of a search, ex: clicks:avg or clicks:avg:desc.
+ * The click-through rate is the derived column ctr (the summed clicks divided by the summed impressions), ex:
+ * display=datasource,ctr&groupBy=datasource&orderBy=ctr:desc.
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+@AllArgsConstructor
+public enum AggregateFunction {
+	SUM("sum", true),
+	// Computed by the rollups as the sum of the column divided by the summed records
+	AVG("avg", true),
+	MIN("min", false),
+	MAX("max", false),
+	// Computed by the rollups as the summed records
+	COUNT("count", true),
+	COUNT_DISTINCT("countDistinct", false),
+	CTR("ctr", true);
+
+	// The name of the function in the search parameters
+	private final String parameter;
+	// If the rollups can compute the function from their sums
+	private final boolean rollup;
+
+	/**
+	 * @param function The name of a function, in any case
+	 * @return The function or null if the name is not a known function
+	 */
+	public static AggregateFunction of(String function) {
+		for (AggregateFunction aggregateFunction : values()) {
+			if (aggregateFunction.parameter.equalsIgnoreCase(function)) {
+				return aggregateFunction;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param column A displayed or ordered column
+	 * @param function Its function, blank if it has none
+	 * @return CTR for the ctr column, otherwise the function of the column, null if it has none or it is not known
+	 */
+	public static AggregateFunction of(String column, String function) {
+		if (CTR.parameter.equalsIgnoreCase(column)) {
+			return isBlank(function) || CTR.parameter.equalsIgnoreCase(function) ? CTR : null;
+		}
+		AggregateFunction aggregateFunction = of(function);
+		return aggregateFunction == CTR ? null : aggregateFunction;
+	}
+}
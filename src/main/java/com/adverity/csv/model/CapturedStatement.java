@@ -0,0 +1,30 @@
+package com.adverity.csv.model;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * An SQL statement executed by a search, as captured by the SqlCapture, with the values of its parameters
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class CapturedStatement {
+	private final String sql;
+	// The values of the parameters ?1, ?2... in order, null for a parameter set to NULL
+	private final List<Object> parameters;
+
+	/**
+	 * @return The SQL followed by the values of its parameters, if it has parameters
+	 */
+	public String describe() {
+		return parameters.isEmpty() ? sql : sql + " -- parameters: "
+				+ parameters.stream().map(String::valueOf).collect(Collectors.joining(", "));
+	}
+}
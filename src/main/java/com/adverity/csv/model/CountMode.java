@@ -0,0 +1,26 @@
+package com.adverity.csv.model;
+
+/**
+ * How a search counts its records without returning them.
+ *
+ * @author Mihai Zanfir
+ */
+public enum CountMode {
+	// A COUNT query with the same conditions as the search
+	EXACT,
+	// An estimate from the rollups and the campaign sketches, exact if the search can not be estimated
+	APPROX;
+
+	/**
+	 * @param mode The name of a mode, in any case
+	 * @return The mode or null if the name is not a known mode
+	 */
+	public static CountMode of(String mode) {
+		for (CountMode countMode : values()) {
+			if (countMode.name().equalsIgnoreCase(mode)) {
+				return countMode;
+			}
+		}
+		return null;
+	}
+}
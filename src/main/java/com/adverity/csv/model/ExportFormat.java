@@ -0,0 +1,34 @@
+package com.adverity.csv.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The formats of the exported search results
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+@AllArgsConstructor
+public enum ExportFormat {
+	// A header line with the displayed columns, then one line per record
+	CSV("text/csv", "csv"),
+	// One JSON object per line with the displayed columns as properties
+	NDJSON("application/x-ndjson", "ndjson");
+
+	private final String contentType;
+	private final String extension;
+
+	/**
+	 * @param format The name of a format, in any case
+	 * @return The format or null if the name is not a known format
+	 */
+	public static ExportFormat of(String format) {
+		for (ExportFormat exportFormat : values()) {
+			if (exportFormat.name().equalsIgnoreCase(format)) {
+				return exportFormat;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,27 @@
+package com.adverity.csv.model;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The report of the index advisor: how many times every column was used by the searches in every clause,
+ * the existing indexes of the statistics and the indexes that would serve the searches better
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class IndexAdvice {
+	private Map<String, Map<String, Long>> usage;
+	private Map<String, List<String>> indexes;
+	private List<String> suggestions;
+}
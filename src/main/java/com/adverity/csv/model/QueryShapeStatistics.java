@@ -0,0 +1,40 @@
+package com.adverity.csv.model;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The searches of one shape since the start of the application, as counted by the QueryProfiler
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class QueryShapeStatistics {
+	// The search without the values of its conditions, see QueryProfiler.getShape
+	private final String shape;
+	private final long searches;
+	// The searches that ran a query, the others were answered by the search cache
+	private final long executions;
+	// The searches slower than csv.profiling.slow-query-millis
+	private final long slowSearches;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long rowsReturned;
+
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+	}
+
+	public long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+	}
+
+	public long getAverageMillis() {
+		return searches > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos / searches) : 0;
+	}
+}
@@ -0,0 +1,28 @@
+package com.adverity.csv.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A CSV row that was not uploaded, with its line number in the file and why it was rejected
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class RejectedRow {
+	// The line of the row in the uploaded file, the header being line 1
+	private final long lineNumber;
+	private final String reason;
+	// The content of the row as it was read
+	private final String line;
+
+	/**
+	 * @return The same row, its line number moved by an offset
+	 */
+	public RejectedRow shift(long lines) {
+		return new RejectedRow(lineNumber + lines, reason, line);
+	}
+}
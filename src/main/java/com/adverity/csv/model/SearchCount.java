@@ -0,0 +1,21 @@
+package com.adverity.csv.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The number of records of a search, counted or estimated without reading them.
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class SearchCount {
+	private final long count;
+	// EXACT if the records were counted, APPROX if they were estimated
+	private final CountMode mode;
+	// The queried entity, or what the estimate was read from
+	private final String source;
+}
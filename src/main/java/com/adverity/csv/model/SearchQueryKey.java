@@ -0,0 +1,70 @@
+package com.adverity.csv.model;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.Objects;
+
+import com.google.common.primitives.Ints;
+
+import lombok.Value;
+
+/**
+ * The normalized parameters of a search, used as the key of the search result cache.
+ *
+ * Two searches have the same key if they run the same query: blank parameters are empty, the spaces around the
+ * commas of the column lists are removed and offset and limit are kept as the numbers used by the query.
+ * The cursor is null for the searches paged with offset and the continuation token for the keyset pages.
+ *
+ * @author Mihai Zanfir
+ */
+@Value
+public class SearchQueryKey {
+	// The limit of a search with a limit that is not a number, which uses the default limit
+	public static final int DEFAULT_LIMIT = -1;
+
+	String display;
+	String condition;
+	String groupBy;
+	String orderBy;
+	int offset;
+	// null if the search has no limit
+	Integer limit;
+	// null if the search is not paged with a keyset cursor, empty for its first page
+	String cursor;
+
+	public static SearchQueryKey of(String display, String condition, String groupBy, String orderBy,
+			String offset, String limit) {
+		return of(display, condition, groupBy, orderBy, offset, limit, null);
+	}
+
+	public static SearchQueryKey of(String display, String condition, String groupBy, String orderBy,
+			String offset, String limit, String cursor) {
+		return new SearchQueryKey(normalizeColumns(display), isBlank(condition) ? "" : condition,
+				normalizeColumns(groupBy), normalizeColumns(orderBy), cursor == null ? normalizeOffset(offset) : 0,
+				normalizeLimit(limit), cursor == null ? null : cursor.trim());
+	}
+
+	/**
+	 * @return An identifier of the display, condition, groupBy and orderBy parameters, the same for all the pages
+	 */
+	public String getFingerprint() {
+		return Integer.toHexString(Objects.hash(display, condition, groupBy, orderBy));
+	}
+
+	private static String normalizeColumns(String columns) {
+		return isBlank(columns) ? "" : columns.trim().replaceAll("\\s*,\\s*", ",");
+	}
+
+	private static int normalizeOffset(String offset) {
+		Integer number = isBlank(offset) ? null : Ints.tryParse(offset);
+		return number == null ? 0 : number;
+	}
+
+	private static Integer normalizeLimit(String limit) {
+		if (isBlank(limit)) {
+			return null;
+		}
+		Integer number = Ints.tryParse(limit);
+		return number == null ? DEFAULT_LIMIT : number;
+	}
+}
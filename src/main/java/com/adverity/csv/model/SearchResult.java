@@ -0,0 +1,41 @@
+package com.adverity.csv.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The records found by a search and, for the searches paged with a keyset cursor,
+ * the continuation token of the next page (null on the last page).
+ * It also keeps how the search was answered, so a cached result can still show its SQL.
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class SearchResult {
+	private final List<Object> records;
+	private final String nextCursor;
+	// columnar or the queried entity, null if it is not known
+	private final String source;
+	// The SQL statements executed by the search, empty if it was answered by the column store
+	private final List<CapturedStatement> statements;
+
+	public SearchResult(List<Object> records) {
+		this(records, null);
+	}
+
+	public SearchResult(List<Object> records, String nextCursor) {
+		this(records, nextCursor, null, List.of());
+	}
+
+	/**
+	 * @return The same search with other records
+	 */
+	public SearchResult withRecords(List<Object> records) {
+		return new SearchResult(records, nextCursor, source, statements);
+	}
+}
@@ -0,0 +1,43 @@
+package com.adverity.csv.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * A search slower than csv.profiling.slow-query-millis, as kept by the QueryProfiler: its parameters, the SQL it
+ * executed and, if it was explained, the plan of its SQL with the number of rows H2 read to answer it. The plan is
+ * set when the explain running in the background is done.
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class SlowQuery {
+	private final LocalDateTime time;
+	// The search without the values of its conditions, see QueryProfiler.getShape
+	private final String shape;
+	private final String display;
+	private final String condition;
+	private final String groupBy;
+	private final String orderBy;
+	private final String offset;
+	private final String limit;
+	// columnar, the queried entity, or null if the result came from the search cache
+	private final String source;
+	// The wall time of the search
+	private final long millis;
+	private final long rowsReturned;
+	// The rows read by H2 while running the plan, null if the search was not explained
+	@Setter
+	private volatile Long rowsScanned;
+	private final List<CapturedStatement> statements;
+	// The output of EXPLAIN ANALYZE, null if the search was not explained (yet)
+	@Setter
+	private volatile String plan;
+}
@@ -11,6 +11,8 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Immutable;
+
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -25,6 +27,7 @@ import lombok.ToString;
 @NoArgsConstructor
 @EqualsAndHashCode
 @Entity
+@Immutable
 @Table(name = "STATISTIC")
 public class Statistic implements Serializable {
 	
@@ -49,4 +52,12 @@ public class Statistic implements Serializable {
 	
 	@Column(name = "IMPRESSIONS", nullable = false)
 	private int impressions;
+	
+	// The upload batch of the statistic, set when it is read from the database
+	@Column(name = "BATCH_ID")
+	private Integer batchId;
+	
+	public Statistic(Integer id, String datasource, String campaign, LocalDate daily, int clicks, int impressions) {
+		this(id, datasource, campaign, daily, clicks, impressions, null);
+	}
 }
@@ -0,0 +1,75 @@
+package com.adverity.csv.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The sums of the statistics of one day, datasource and campaign, read from the STATISTIC_DAILY rollup view.
+ * The searches grouped by datasource, campaign or daily that only sum the clicks and impressions read this
+ * entity instead of Statistic, it has the same attribute names.
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode
+@Entity
+@Immutable
+@IdClass(StatisticDaily.Key.class)
+@Table(name = "STATISTIC_DAILY")
+public class StatisticDaily implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name = "DATASOURCE", nullable = false)
+	private String datasource;
+
+	@Id
+	@Column(name = "CAMPAIGN", nullable = false)
+	private String campaign;
+
+	@Id
+	@Column(name = "DAILY", nullable = false)
+	private LocalDate daily;
+
+	@Column(name = "CLICKS", nullable = false)
+	private long clicks;
+
+	@Column(name = "IMPRESSIONS", nullable = false)
+	private long impressions;
+
+	// The number of statistics summed in this row
+	@Column(name = "RECORDS", nullable = false)
+	private long records;
+
+	@Getter
+	@Setter
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@EqualsAndHashCode
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private String datasource;
+		private String campaign;
+		private LocalDate daily;
+	}
+}
@@ -0,0 +1,70 @@
+package com.adverity.csv.model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Immutable;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The sums of the statistics of one month and datasource, read from the STATISTIC_MONTHLY rollup view.
+ * The searches grouped by datasource only that sum the clicks and impressions read this entity instead of Statistic.
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode
+@Entity
+@Immutable
+@IdClass(StatisticMonthly.Key.class)
+@Table(name = "STATISTIC_MONTHLY")
+public class StatisticMonthly implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name = "DATASOURCE", nullable = false)
+	private String datasource;
+
+	// The first day of the month
+	@Id
+	@Column(name = "MONTH", nullable = false)
+	private LocalDate month;
+
+	@Column(name = "CLICKS", nullable = false)
+	private long clicks;
+
+	@Column(name = "IMPRESSIONS", nullable = false)
+	private long impressions;
+
+	// The number of statistics summed in this row
+	@Column(name = "RECORDS", nullable = false)
+	private long records;
+
+	@Getter
+	@Setter
+	@NoArgsConstructor
+	@AllArgsConstructor
+	@EqualsAndHashCode
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private String datasource;
+		private LocalDate month;
+	}
+}
@@ -0,0 +1,24 @@
+package com.adverity.csv.model;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.Getter;
+
+/**
+ * Published after new statistics are committed to the database or statistics are dropped
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+public class StatisticsChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	// The number of committed or dropped rows
+	private final int rows;
+
+	public StatisticsChangedEvent(Object source, int rows) {
+		super(source);
+		this.rows = rows;
+	}
+}
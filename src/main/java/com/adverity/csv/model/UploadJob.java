@@ -0,0 +1,136 @@
+package com.adverity.csv.model;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An asynchronous CSV upload. The job is updated by the worker thread after every committed chunk
+ * and read by the /jobs/{id} endpoint, so its progress fields are volatile.
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+public class UploadJob {
+
+	public enum Status {
+		QUEUED, RUNNING, COMPLETED, FAILED
+	}
+
+	private final String id;
+	private final String fileName;
+	private final long totalBytes;
+	private final long createdAt;
+	private volatile Status status = Status.QUEUED;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	private volatile long bytesRead;
+	private volatile long rowsParsed;
+	private volatile long rowsIngested;
+	private volatile long rowsRejected;
+	private volatile String message;
+	private volatile UploadResult result;
+	// The rejected rows of the upload, set when the upload ends if it rejected rows
+	@JsonIgnore
+	@Setter
+	private volatile Path rejectFile;
+
+	public UploadJob(String id, String fileName, long totalBytes) {
+		this.id = id;
+		this.fileName = fileName;
+		this.totalBytes = totalBytes;
+		this.createdAt = System.currentTimeMillis();
+	}
+
+	public void start() {
+		startedAt = System.currentTimeMillis();
+		status = Status.RUNNING;
+	}
+
+	/**
+	 * Copies the counters of the running upload into this job
+	 *
+	 * @param progress The upload result updated by the ingestion
+	 */
+	public void update(UploadResult progress) {
+		bytesRead = progress.getBytesRead();
+		rowsParsed = progress.getRowsParsed();
+		rowsIngested = progress.getRowsStored();
+		rowsRejected = progress.getRowsRejected();
+	}
+
+	public void complete(UploadResult uploadResult) {
+		update(uploadResult);
+		result = uploadResult;
+		if (uploadResult.isFailed()) {
+			fail(uploadResult.getError() + ", " + uploadResult.getRowsStored() + " records were saved");
+			return;
+		}
+		bytesRead = totalBytes;
+		message = uploadResult.isDuplicate()
+				? "The file was already uploaded at " + uploadResult.getDuplicateOf().getUploaded() + ", nothing was saved"
+				: "Successful saved in database: " + uploadResult.getRowsStored() + " records"
+						+ (rowsRejected > 0 ? ", " + rowsRejected + " rows rejected" : "");
+		finish(Status.COMPLETED);
+	}
+
+	public void fail(String error) {
+		message = error;
+		finish(Status.FAILED);
+	}
+
+	private void finish(Status finalStatus) {
+		finishedAt = System.currentTimeMillis();
+		status = finalStatus;
+	}
+
+	/**
+	 * @return true if the rejected rows of the upload can be downloaded
+	 */
+	public boolean isRejectFileAvailable() {
+		return rejectFile != null;
+	}
+
+	public boolean isFinished() {
+		return status == Status.COMPLETED || status == Status.FAILED;
+	}
+
+	/**
+	 * @return The time the job has been running in milliseconds
+	 */
+	public long getElapsedMillis() {
+		if (startedAt == 0) {
+			return 0;
+		}
+		return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+	}
+
+	public long getRowsPerSecond() {
+		long elapsed = getElapsedMillis();
+		return elapsed > 0 ? rowsIngested * TimeUnit.SECONDS.toMillis(1) / elapsed : 0;
+	}
+
+	public long getBytesPerSecond() {
+		long elapsed = getElapsedMillis();
+		return elapsed > 0 ? bytesRead * TimeUnit.SECONDS.toMillis(1) / elapsed : 0;
+	}
+
+	public int getPercent() {
+		return totalBytes > 0 ? (int) Math.min(100, bytesRead * 100 / totalBytes) : 0;
+	}
+
+	/**
+	 * @return The estimated number of seconds until the whole file is read or -1 if it can not be estimated yet
+	 */
+	public long getEtaSeconds() {
+		if (isFinished()) {
+			return 0;
+		}
+		long bytesPerSecond = getBytesPerSecond();
+		return bytesPerSecond > 0 ? Math.max(0, totalBytes - bytesRead) / bytesPerSecond : -1;
+	}
+}
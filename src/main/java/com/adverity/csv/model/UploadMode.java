@@ -0,0 +1,29 @@
+package com.adverity.csv.model;
+
+/**
+ * How the rows of an upload are stored. The statistics with the same datasource, campaign and daily are merged
+ * by the REPLACE and ACCUMULATE modes, so uploading the same rows again does not duplicate them.
+ *
+ * @author Mihai Zanfir
+ */
+public enum UploadMode {
+	// Every row is inserted as a new statistic
+	INSERT,
+	// A row replaces the clicks and impressions of the statistic with the same datasource, campaign and daily
+	REPLACE,
+	// A row is added to the clicks and impressions of the statistic with the same datasource, campaign and daily
+	ACCUMULATE;
+
+	/**
+	 * @param mode The name of a mode, in any case
+	 * @return The mode or null if the name is not a known mode
+	 */
+	public static UploadMode of(String mode) {
+		for (UploadMode uploadMode : values()) {
+			if (uploadMode.name().equalsIgnoreCase(mode)) {
+				return uploadMode;
+			}
+		}
+		return null;
+	}
+}
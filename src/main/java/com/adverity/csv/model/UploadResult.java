@@ -0,0 +1,74 @@
+package com.adverity.csv.model;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The outcome of one CSV upload: how many rows were parsed, inserted, merged and rejected,
+ * the total number of records in the database and the time spent in every phase
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadResult {
+	private long bytesRead;
+	private long rowsParsed;
+	private long rowsInserted;
+	// Rows merged into a stored statistic or an earlier row of the upload, with the replace and accumulate modes
+	private long rowsMerged;
+	private long rowsRejected;
+	private long totalRecords;
+	private long parseNanos;
+	private long mapNanos;
+	private long persistNanos;
+	// The upload batch of the inserted rows
+	private Integer batchId;
+	// The earlier upload of the same content, if the file was not ingested again
+	private UploadedFile duplicateOf;
+	// Why the upload stopped before the end of its content, null if all of it was read
+	private String error;
+
+	public long getParseMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(parseNanos);
+	}
+
+	public long getMapMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(mapNanos);
+	}
+
+	public long getPersistMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(persistNanos);
+	}
+
+	/**
+	 * @return The number of inserted and merged rows
+	 */
+	public long getRowsStored() {
+		return rowsInserted + rowsMerged;
+	}
+
+	public boolean isDuplicate() {
+		return duplicateOf != null;
+	}
+
+	/**
+	 * @return true if the upload stopped before the end of its content, the rows stored until then are kept
+	 */
+	public boolean isFailed() {
+		return error != null;
+	}
+
+	/**
+	 * @return The number of stored rows per second of persist time
+	 */
+	public long getPersistRowsPerSecond() {
+		return persistNanos > 0 ? getRowsStored() * TimeUnit.SECONDS.toNanos(1) / persistNanos : 0;
+	}
+}
@@ -0,0 +1,26 @@
+package com.adverity.csv.model;
+
+import java.time.LocalDateTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A file whose content was already uploaded, as registered by the UploadedFileRegistry
+ *
+ * @author Mihai Zanfir
+ */
+@ToString
+@Getter
+@AllArgsConstructor
+public class UploadedFile {
+	// The SHA-256 of the content of the file, in hex
+	private final String hash;
+	private final String fileName;
+	private final LocalDateTime uploaded;
+	// The number of stored rows, null while the upload is running
+	private final Long records;
+	// The upload stopped before the end of the file, its stored rows are kept until their months are dropped
+	private final boolean failed;
+}
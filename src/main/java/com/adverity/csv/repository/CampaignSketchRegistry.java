@@ -0,0 +1,118 @@
+package com.adverity.csv.repository;
+
+import java.sql.Date;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.util.HyperLogLog;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * HyperLogLog sketches of the campaigns of every datasource and month, kept in memory next to the
+ * STATISTIC_MONTHLY_ROLLUP rows. They estimate the number of groups of a search grouped by campaign, or by
+ * datasource and campaign, in a few microseconds per datasource instead of grouping the statistics.
+ *
+ * The sketches are maintained by the StatisticRollupWriter with the rollups. A campaign is added before its chunk
+ * is committed, so if the chunk is rolled back the estimate is only higher than needed. The sketches of a month
+ * are dropped with its partition, loaded again when its partition is replaced, and all of them are loaded again from STATISTIC_DAILY_ROLLUP when the rollups
+ * are rebuilt.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+public class CampaignSketchRegistry {
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Map<Integer, Map<YearMonth, HyperLogLog>> sketches = new ConcurrentHashMap<Integer, Map<YearMonth, HyperLogLog>>();
+
+	public CampaignSketchRegistry(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Loads the sketches of the campaigns in the daily rollup
+	 */
+	@PostConstruct
+	public void load() {
+		sketches.clear();
+		jdbcTemplate.query("SELECT DISTINCT DATASOURCE_ID, CAMPAIGN_ID, YEAR(DAILY), MONTH(DAILY) "
+				+ "FROM STATISTIC_DAILY_ROLLUP", rs -> {
+			getSketch(rs.getInt(1), YearMonth.of(rs.getInt(3), rs.getInt(4))).add(rs.getInt(2));
+		});
+		log.info("Loaded the campaign sketches of {} datasources", sketches.size());
+	}
+
+	/**
+	 * Loads the sketches of the campaigns of a month in the daily rollup, after its rollups were recomputed
+	 *
+	 * @param month The month of the rollups
+	 */
+	public void load(YearMonth month) {
+		jdbcTemplate.query("SELECT DISTINCT DATASOURCE_ID, CAMPAIGN_ID FROM STATISTIC_DAILY_ROLLUP WHERE DAILY BETWEEN ? AND ?",
+				rs -> {
+					getSketch(rs.getInt(1), month).add(rs.getInt(2));
+				}, Date.valueOf(month.atDay(1)), Date.valueOf(month.atEndOfMonth()));
+	}
+
+	/**
+	 * Adds the campaigns of a chunk of statistics to the sketches
+	 *
+	 * @param statistics The stored records
+	 * @param datasourceIds The datasource id of every record
+	 * @param campaignIds The campaign id of every record
+	 */
+	public void add(List<Statistic> statistics, int[] datasourceIds, int[] campaignIds) {
+		for (int i = 0; i < statistics.size(); i++) {
+			getSketch(datasourceIds[i], YearMonth.from(statistics.get(i).getDaily())).add(campaignIds[i]);
+		}
+	}
+
+	/**
+	 * Drops the sketches of a month, after its statistics were dropped
+	 *
+	 * @param month The month of the dropped statistics
+	 */
+	public void remove(YearMonth month) {
+		for (Map<YearMonth, HyperLogLog> months : sketches.values()) {
+			months.remove(month);
+		}
+		sketches.values().removeIf(Map::isEmpty);
+	}
+
+	/**
+	 * @return The ids of the datasources that have statistics
+	 */
+	public Set<Integer> getDatasourceIds() {
+		return Set.copyOf(sketches.keySet());
+	}
+
+	/**
+	 * @param datasourceIds The datasources to count, null for all of them
+	 * @return The estimated number of distinct campaigns of these datasources
+	 */
+	public long estimateCampaigns(Set<Integer> datasourceIds) {
+		HyperLogLog union = new HyperLogLog();
+		sketches.forEach((datasourceId, months) -> {
+			if (datasourceIds == null || datasourceIds.contains(datasourceId)) {
+				months.values().forEach(union::merge);
+			}
+		});
+		return union.estimate();
+	}
+
+	private HyperLogLog getSketch(int datasourceId, YearMonth month) {
+		return sketches.computeIfAbsent(datasourceId, id -> new ConcurrentHashMap<YearMonth, HyperLogLog>())
+				.computeIfAbsent(month, key -> new HyperLogLog());
+	}
+}
@@ -0,0 +1,219 @@
+package com.adverity.csv.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A block of statistics of the ColumnarStatisticStore, with one int column per StatisticColumn and the minimum
+ * and maximum of every column.
+ *
+ * The open segment of the store is on the heap. A sealed segment is an immutable file mapped in memory, its columns
+ * are read in place from the page cache. The file stores its own names of the datasources and campaigns and the
+ * name columns hold positions in these names, so a segment stays valid when the database ids change, for example
+ * after a restart. The names are resolved to the DimensionDictionary ids when the file is mapped.
+ *
+ * File layout, little endian: MAGIC, VERSION, rows, the minimum and maximum of every column, the names of the
+ * datasources then of the campaigns (count followed by the length and UTF-8 bytes of every name), padding to
+ * a multiple of 4 bytes, then the rows of every column.
+ *
+ * @author Mihai Zanfir
+ */
+public class ColumnSegment {
+
+	private static final int MAGIC = 0x53544154;
+	private static final int VERSION = 1;
+	private static final int COLUMNS = StatisticColumn.values().length;
+
+	private final IntBuffer[] columns;
+	// The dictionary id of every name position of the name columns, null if the columns hold the ids
+	private final int[][] ids;
+	private final int[] minimums;
+	private final int[] maximums;
+	private final int size;
+
+	ColumnSegment(IntBuffer[] columns, int[][] ids, int[] minimums, int[] maximums, int size) {
+		this.columns = columns;
+		this.ids = ids;
+		this.minimums = minimums;
+		this.maximums = maximums;
+		this.size = size;
+	}
+
+	/**
+	 * @return The number of rows
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The values of a column, for a name column they are translated by getIds
+	 */
+	public IntBuffer getColumn(StatisticColumn column) {
+		return columns[column.ordinal()];
+	}
+
+	/**
+	 * @return The dictionary ids of the values of a name column, null if the values are the ids
+	 */
+	public int[] getIds(StatisticColumn column) {
+		return ids[column.ordinal()];
+	}
+
+	/**
+	 * @return The value of a row, the dictionary id for a name column
+	 */
+	public int get(StatisticColumn column, int row) {
+		int value = columns[column.ordinal()].get(row);
+		int[] names = ids[column.ordinal()];
+		return names == null ? value : names[value];
+	}
+
+	/**
+	 * @return The smallest value of the column, the smallest dictionary id for a name column
+	 */
+	public int getMin(StatisticColumn column) {
+		return minimums[column.ordinal()];
+	}
+
+	/**
+	 * @return The biggest value of the column, the biggest dictionary id for a name column
+	 */
+	public int getMax(StatisticColumn column) {
+		return maximums[column.ordinal()];
+	}
+
+	/**
+	 * Writes the rows of a heap segment to a segment file and maps it
+	 *
+	 * @param file The segment file, written under a temporary name and moved when it is complete
+	 * @param dictionary The dictionary of the names of the ids
+	 * @return The mapped segment
+	 */
+	public static ColumnSegment write(ColumnSegment segment, Path file, DimensionDictionary dictionary)
+			throws IOException {
+		int[][] positions = new int[COLUMNS][];
+		byte[][][] names = new byte[COLUMNS][][];
+		long header = 12L + COLUMNS * 8L;
+		for (StatisticColumn column : StatisticColumn.values()) {
+			if (column.isName()) {
+				// The positions of the dictionary ids used by the segment, in id order
+				int[] position = new int[segment.getMax(column) + 1];
+				Arrays.fill(position, -1);
+				for (int row = 0; row < segment.size; row++) {
+					position[segment.get(column, row)] = 0;
+				}
+				int count = 0;
+				for (int id = 0; id < position.length; id++) {
+					if (position[id] == 0) {
+						position[id] = count++;
+					}
+				}
+				byte[][] bytes = new byte[count][];
+				for (int id = 0; id < position.length; id++) {
+					if (position[id] >= 0) {
+						bytes[position[id]] = dictionary.getName(column.getDimension(), id).getBytes(StandardCharsets.UTF_8);
+						header += 4 + bytes[position[id]].length;
+					}
+				}
+				positions[column.ordinal()] = position;
+				names[column.ordinal()] = bytes;
+				header += 4;
+			}
+		}
+		header = (header + 3) / 4 * 4;
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, header + 4L * COLUMNS * segment.size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(segment.size);
+			for (int c = 0; c < COLUMNS; c++) {
+				StatisticColumn column = StatisticColumn.values()[c];
+				buffer.putInt(column.isName() ? 0 : segment.minimums[c]).putInt(column.isName()
+						? names[c].length - 1 : segment.maximums[c]);
+			}
+			for (int c = 0; c < COLUMNS; c++) {
+				if (names[c] != null) {
+					buffer.putInt(names[c].length);
+					for (byte[] name : names[c]) {
+						buffer.putInt(name.length).put(name);
+					}
+				}
+			}
+			buffer.position((int) header);
+			for (StatisticColumn column : StatisticColumn.values()) {
+				int[] position = positions[column.ordinal()];
+				for (int row = 0; row < segment.size; row++) {
+					int value = segment.get(column, row);
+					buffer.putInt(position == null ? value : position[value]);
+				}
+			}
+			buffer.force();
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return map(file, dictionary);
+	}
+
+	/**
+	 * Maps a segment file. The names of the segment that are not in the dictionary yet are added to it.
+	 *
+	 * @param file The segment file
+	 * @param dictionary The dictionary the names are resolved with
+	 * @return The mapped segment
+	 * @throws IOException If the file can not be read or is not a segment file
+	 */
+	public static ColumnSegment map(Path file, DimensionDictionary dictionary) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a segment file: " + file);
+		}
+		int size = buffer.getInt();
+		int[] minimums = new int[COLUMNS];
+		int[] maximums = new int[COLUMNS];
+		for (int c = 0; c < COLUMNS; c++) {
+			minimums[c] = buffer.getInt();
+			maximums[c] = buffer.getInt();
+		}
+		int[][] ids = new int[COLUMNS][];
+		for (StatisticColumn column : StatisticColumn.values()) {
+			if (column.isName()) {
+				int[] id = new int[buffer.getInt()];
+				int min = Integer.MAX_VALUE;
+				int max = 0;
+				for (int position = 0; position < id.length; position++) {
+					byte[] name = new byte[buffer.getInt()];
+					buffer.get(name);
+					id[position] = dictionary.getId(column.getDimension(), new String(name, StandardCharsets.UTF_8));
+					min = Math.min(min, id[position]);
+					max = Math.max(max, id[position]);
+				}
+				ids[column.ordinal()] = id;
+				minimums[column.ordinal()] = id.length == 0 ? 0 : min;
+				maximums[column.ordinal()] = max;
+			}
+		}
+		int offset = (buffer.position() + 3) / 4 * 4;
+		IntBuffer[] columns = new IntBuffer[COLUMNS];
+		for (int c = 0; c < COLUMNS; c++) {
+			ByteBuffer column = buffer.duplicate();
+			column.position(offset + 4 * c * size).limit(offset + 4 * (c + 1) * size);
+			columns[c] = column.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		return new ColumnSegment(columns, ids, minimums, maximums, size);
+	}
+}
@@ -0,0 +1,528 @@
+package com.adverity.csv.repository;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * In-memory column store of all the statistics, used by the ColumnarQueryEngine when csv.columnar.enabled is set.
+ *
+ * The statistics are kept in ColumnSegments of primitive int columns: the datasource and campaign are their
+ * DimensionDictionary ids, the daily is its epoch day. The StatisticBatchWriter appends every committed chunk to the
+ * open segment on the heap. When csv.columnar.segment-directory is set, the open segment is sealed at the end of
+ * every upload, or when it reaches csv.columnar.segment-max-rows, into an immutable segment file that is mapped in
+ * memory, so the statistics are kept off the heap. At startup the existing segment files are mapped again instead
+ * of loading the statistics from the database; without segment files the store is loaded from STATISTIC_FACT.
+ * Every seal writes a watermark file with the number of sealed statistics and the number and maximum id of the
+ * statistics of STATISTIC_FACT. The segment files are only mapped again if STATISTIC_FACT still matches it,
+ * otherwise, for example after a restart on an empty database, they are deleted and the store is loaded from
+ * STATISTIC_FACT. So the segment files are only mapped again at startup with a persistent database: the in-memory
+ * database of the default configuration is created empty at every start.
+ *
+ * A search reads an immutable Columns snapshot: the appends only write after the size of the published open
+ * segment and publish a new snapshot, so the searches never lock. The writers hold the read lock of the commit lock
+ * from the commit of a chunk to its append, and the store is only read again from the database under its write
+ * lock, so a committed chunk is either read by a reload or appended after it, never both.
+ *
+ * The statistics in the segments are never changed in place: when the partition of a month is dropped or replaced,
+ * or stored statistics of a month are merged by an upload, only the segments with statistics of the month are written
+ * again without them, and the statistics of its partition are appended again.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+public class ColumnarStatisticStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final String SEGMENT_SUFFIX = ".segment";
+	private static final String WATERMARK_FILE = "watermark.properties";
+	private static final String WATERMARK_SQL = "SELECT COUNT(*), COALESCE(MAX(ID), 0) FROM STATISTIC_FACT";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final CsvProperties csvProperties;
+	private final DimensionDictionary dimensionDictionary;
+	private volatile Columns columns = new Columns(Collections.emptyList());
+	private OpenSegment open = new OpenSegment(0);
+	// The file of every sealed segment
+	private final Map<ColumnSegment, Path> segmentFiles = new IdentityHashMap<ColumnSegment, Path>();
+	// Taken before the monitor of the store, never while holding it
+	private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+	private int nextSegment;
+
+	public ColumnarStatisticStore(JdbcTemplate jdbcTemplate, CsvProperties csvProperties,
+			DimensionDictionary dimensionDictionary) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.csvProperties = csvProperties;
+		this.dimensionDictionary = dimensionDictionary;
+	}
+
+	/**
+	 * @return If the statistics are kept in memory
+	 */
+	public boolean isEnabled() {
+		return csvProperties.getColumnar().isEnabled();
+	}
+
+	/**
+	 * @return The lock whose read lock is held from the commit of a chunk to its append
+	 */
+	public ReadWriteLock getCommitLock() {
+		return commitLock;
+	}
+
+	/**
+	 * Maps the existing segment files, or loads all the stored statistics if there are none
+	 */
+	@PostConstruct
+	public synchronized void load() {
+		if (!isEnabled()) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<ColumnSegment> segments = new ArrayList<ColumnSegment>();
+		open = new OpenSegment(INITIAL_CAPACITY);
+		for (Path file : getSegmentFiles()) {
+			try {
+				segments.add(ColumnSegment.map(file, dimensionDictionary));
+				segmentFiles.put(segments.get(segments.size() - 1), file);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+		if (!segments.isEmpty() && !isCurrent(segments)) {
+			log.warn("The column segments do not match the stored statistics, they are loaded again");
+			segments.clear();
+			clear();
+			open = new OpenSegment(INITIAL_CAPACITY);
+		}
+		if (segments.isEmpty()) {
+			read("STATISTIC_FACT");
+			publish(segments);
+			seal();
+		} else {
+			publish(segments);
+		}
+		log.info("Loaded {} statistics in {} column segments in {} ms", columns.getSize(),
+				columns.getSegments().size(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Appends a committed chunk of statistics to the open segment
+	 *
+	 * @param statistics The committed records
+	 * @param datasourceIds The datasource id of every record
+	 * @param campaignIds The campaign id of every record
+	 */
+	public synchronized void append(List<Statistic> statistics, int[] datasourceIds, int[] campaignIds) {
+		if (!isEnabled()) {
+			return;
+		}
+		open.ensureCapacity(open.size + statistics.size());
+		for (int i = 0; i < statistics.size(); i++) {
+			Statistic statistic = statistics.get(i);
+			open.add(datasourceIds[i], campaignIds[i], (int) statistic.getDaily().toEpochDay(),
+					statistic.getClicks(), statistic.getImpressions());
+		}
+		publish(sealed());
+		if (open.size >= csvProperties.getColumnar().getSegmentMaxRows()) {
+			seal();
+		}
+	}
+
+	/**
+	 * Writes the open segment to a segment file and maps it, if csv.columnar.segment-directory is set
+	 */
+	public synchronized void seal() {
+		Path directory = getSegmentDirectory();
+		if (!isEnabled() || directory == null || open.size == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories(directory);
+			Path file;
+			do {
+				file = directory.resolve(String.format("%010d%s", nextSegment++, SEGMENT_SUFFIX));
+			} while (Files.exists(file));
+			List<ColumnSegment> segments = sealed();
+			segments.add(ColumnSegment.write(open.toSegment(), file, dimensionDictionary));
+			segmentFiles.put(segments.get(segments.size() - 1), file);
+			open = new OpenSegment(INITIAL_CAPACITY);
+			publish(segments);
+			writeWatermark(directory);
+			log.info("Sealed {} statistics in {} in {} ms", segments.get(segments.size() - 1).getSize(), file,
+					(System.nanoTime() - start) / 1_000_000);
+		} catch (IOException ex) {
+			// The statistics stay in the open segment and are written with the next one
+			log.error("Can not write the column segment: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Drops all the statistics from memory and deletes the segment files
+	 */
+	public synchronized void clear() {
+		List<Path> files = new ArrayList<Path>(getSegmentFiles());
+		if (getSegmentDirectory() != null) {
+			files.add(getSegmentDirectory().resolve(WATERMARK_FILE));
+		}
+		for (Path file : files) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException ex) {
+				log.error("Can not delete the column segment: " + ex.getMessage());
+			}
+		}
+		segmentFiles.clear();
+		open = new OpenSegment(0);
+		columns = new Columns(Collections.emptyList());
+	}
+
+	/**
+	 * Removes the statistics of a month, after its partition was dropped. The segments without statistics of the
+	 * month are kept as they are, the others are written again without them or deleted if nothing is left.
+	 *
+	 * @param month The month of the dropped statistics
+	 */
+	public void remove(YearMonth month) {
+		commitLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (isEnabled()) {
+					removeRows(Set.of(month));
+				}
+			}
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the statistics of a month with the statistics of its new partition table
+	 *
+	 * @param month The month of the replaced statistics
+	 * @param table The qualified name of the new partition table of the month
+	 */
+	public void replace(YearMonth month, String table) {
+		replace(Map.of(month, table));
+	}
+
+	/**
+	 * Replaces the statistics of some months with the statistics of their partition tables, after stored statistics
+	 * of these months were merged. The segments are written again once for all the months.
+	 *
+	 * @param tables The qualified name of the partition table of every replaced month
+	 */
+	public void replace(Map<YearMonth, String> tables) {
+		commitLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (!isEnabled() || tables.isEmpty() || !removeRows(tables.keySet())) {
+					return;
+				}
+				tables.values().forEach(this::read);
+				publish(sealed());
+				if (open.size >= csvProperties.getColumnar().getSegmentMaxRows()) {
+					seal();
+				}
+			}
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return false if a segment could not be written and the store was loaded again from the database
+	 */
+	private boolean removeRows(Set<YearMonth> months) {
+		long start = System.nanoTime();
+		// The epoch days of the first and last daily of every month
+		int[][] ranges = months.stream().map(month -> new int[] {(int) month.atDay(1).toEpochDay(),
+				(int) month.atEndOfMonth().toEpochDay()}).toArray(int[][]::new);
+		int removed = 0;
+		List<ColumnSegment> segments = new ArrayList<ColumnSegment>();
+		try {
+			for (ColumnSegment segment : sealed()) {
+				if (!isIn(segment.getMin(StatisticColumn.DAILY), segment.getMax(StatisticColumn.DAILY), ranges)) {
+					segments.add(segment);
+					continue;
+				}
+				OpenSegment kept = without(segment, ranges);
+				removed += segment.getSize() - kept.size;
+				Path file = segmentFiles.remove(segment);
+				if (kept.size == 0) {
+					Files.deleteIfExists(file);
+				} else {
+					// The file keeps its name, so the segments stay in the order of their statistics
+					segments.add(ColumnSegment.write(kept.toSegment(), file, dimensionDictionary));
+					segmentFiles.put(segments.get(segments.size() - 1), file);
+				}
+			}
+			OpenSegment kept = without(open.toSegment(), ranges);
+			removed += open.size - kept.size;
+			open = kept;
+			publish(segments);
+			if (getSegmentDirectory() != null && !segments.isEmpty()) {
+				writeWatermark(getSegmentDirectory());
+			}
+		} catch (IOException ex) {
+			log.error("Can not write the column segment: " + ex.getMessage());
+			reload();
+			return false;
+		}
+		log.info("Removed {} statistics of {} from the column store in {} ms", removed, months,
+				(System.nanoTime() - start) / 1_000_000);
+		return true;
+	}
+
+	/**
+	 * Drops all the statistics from memory and loads them again from the database
+	 */
+	public void reload() {
+		commitLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				clear();
+				load();
+			}
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The statistics stored when this method is called
+	 */
+	public Columns getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Writes the number of sealed statistics and the number and maximum id of the stored statistics. The stored
+	 * statistics may include a chunk committed by another upload and not appended yet, the segments are then loaded
+	 * again at the next start.
+	 */
+	private void writeWatermark(Path directory) throws IOException {
+		Properties watermark = new Properties();
+		watermark.setProperty("segment-rows", String.valueOf(sealed().stream().mapToLong(ColumnSegment::getSize).sum()));
+		jdbcTemplate.query(WATERMARK_SQL, rs -> {
+			watermark.setProperty("rows", String.valueOf(rs.getLong(1)));
+			watermark.setProperty("max-id", String.valueOf(rs.getLong(2)));
+		});
+		Path temporary = directory.resolve(WATERMARK_FILE + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			watermark.store(writer, "The statistics of the column segments");
+		}
+		Files.move(temporary, directory.resolve(WATERMARK_FILE), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @param segments The mapped segment files
+	 * @return If the segments hold all the stored statistics: their watermark matches them and STATISTIC_FACT
+	 */
+	private boolean isCurrent(List<ColumnSegment> segments) {
+		Path file = getSegmentDirectory().resolve(WATERMARK_FILE);
+		if (!Files.exists(file)) {
+			return false;
+		}
+		Properties watermark = new Properties();
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			watermark.load(reader);
+		} catch (IOException ex) {
+			log.error("Can not read the column segment watermark: " + ex.getMessage());
+			return false;
+		}
+		long rows = segments.stream().mapToLong(ColumnSegment::getSize).sum();
+		String[] stored = new String[2];
+		jdbcTemplate.query(WATERMARK_SQL, rs -> {
+			stored[0] = String.valueOf(rs.getLong(1));
+			stored[1] = String.valueOf(rs.getLong(2));
+		});
+		return String.valueOf(rows).equals(watermark.getProperty("segment-rows"))
+				&& String.valueOf(rows).equals(stored[0])
+				&& stored[0].equals(watermark.getProperty("rows"))
+				&& stored[1].equals(watermark.getProperty("max-id"));
+	}
+
+	/**
+	 * Appends the statistics of a table to the open segment, in id order
+	 */
+	private void read(String table) {
+		jdbcTemplate.query("SELECT DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS FROM " + table + " ORDER BY ID",
+				rs -> {
+					open.add(rs.getInt(1), rs.getInt(2), (int) rs.getDate(3).toLocalDate().toEpochDay(),
+							rs.getInt(4), rs.getInt(5));
+				});
+	}
+
+	/**
+	 * @param ranges The epoch days of the first and last daily of the removed months
+	 * @return The rows of a segment whose daily is in none of the ranges
+	 */
+	private static OpenSegment without(ColumnSegment segment, int[][] ranges) {
+		OpenSegment kept = new OpenSegment(0);
+		for (int row = 0; row < segment.getSize(); row++) {
+			int daily = segment.get(StatisticColumn.DAILY, row);
+			if (!isIn(daily, daily, ranges)) {
+				kept.add(segment.get(StatisticColumn.DATASOURCE, row), segment.get(StatisticColumn.CAMPAIGN, row), daily,
+						segment.get(StatisticColumn.CLICKS, row), segment.get(StatisticColumn.IMPRESSIONS, row));
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return If the days from first to last overlap one of the ranges
+	 */
+	private static boolean isIn(int first, int last, int[][] ranges) {
+		for (int[] range : ranges) {
+			if (last >= range[0] && first <= range[1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private List<ColumnSegment> sealed() {
+		List<ColumnSegment> segments = new ArrayList<ColumnSegment>(columns.getSegments());
+		if (!segments.isEmpty() && segments.get(segments.size() - 1) instanceof OpenSegmentView) {
+			segments.remove(segments.size() - 1);
+		}
+		return segments;
+	}
+
+	private void publish(List<ColumnSegment> sealed) {
+		List<ColumnSegment> segments = new ArrayList<ColumnSegment>(sealed);
+		if (open.size > 0) {
+			segments.add(open.toSegment());
+		}
+		columns = new Columns(Collections.unmodifiableList(segments));
+	}
+
+	private Path getSegmentDirectory() {
+		String directory = csvProperties.getColumnar().getSegmentDirectory();
+		return directory == null || directory.isBlank() ? null : Paths.get(directory);
+	}
+
+	private List<Path> getSegmentFiles() {
+		Path directory = getSegmentDirectory();
+		if (directory == null || !Files.isDirectory(directory)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted()
+					.collect(Collectors.toList());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * A snapshot of the segments, in the order their statistics were stored
+	 */
+	@Getter
+	public static class Columns {
+		private final List<ColumnSegment> segments;
+		private final int size;
+
+		Columns(List<ColumnSegment> segments) {
+			this.segments = segments;
+			this.size = segments.stream().mapToInt(ColumnSegment::getSize).sum();
+		}
+	}
+
+	/**
+	 * The snapshot of the open segment, its arrays are shared with the OpenSegment but only its first size values
+	 * belong to it
+	 */
+	private static class OpenSegmentView extends ColumnSegment {
+		OpenSegmentView(IntBuffer[] columns, int[] minimums, int[] maximums, int size) {
+			super(columns, new int[columns.length][], minimums, maximums, size);
+		}
+	}
+
+	/**
+	 * The segment the statistics are appended to
+	 */
+	private static class OpenSegment {
+		private final int[][] values = new int[StatisticColumn.values().length][];
+		private final int[] minimums = new int[values.length];
+		private final int[] maximums = new int[values.length];
+		private int size;
+
+		OpenSegment(int capacity) {
+			for (int c = 0; c < values.length; c++) {
+				values[c] = new int[capacity];
+			}
+			Arrays.fill(minimums, Integer.MAX_VALUE);
+			Arrays.fill(maximums, Integer.MIN_VALUE);
+		}
+
+		void ensureCapacity(int capacity) {
+			if (capacity > values[0].length) {
+				int length = Math.max(capacity, Math.max(INITIAL_CAPACITY, values[0].length * 2));
+				for (int c = 0; c < values.length; c++) {
+					values[c] = Arrays.copyOf(values[c], length);
+				}
+			}
+		}
+
+		void add(int datasource, int campaign, int daily, int clicks, int impressions) {
+			ensureCapacity(size + 1);
+			set(StatisticColumn.DATASOURCE, datasource);
+			set(StatisticColumn.CAMPAIGN, campaign);
+			set(StatisticColumn.DAILY, daily);
+			set(StatisticColumn.CLICKS, clicks);
+			set(StatisticColumn.IMPRESSIONS, impressions);
+			size++;
+		}
+
+		private void set(StatisticColumn column, int value) {
+			int c = column.ordinal();
+			values[c][size] = value;
+			minimums[c] = Math.min(minimums[c], value);
+			maximums[c] = Math.max(maximums[c], value);
+		}
+
+		ColumnSegment toSegment() {
+			IntBuffer[] columns = new IntBuffer[values.length];
+			for (int c = 0; c < values.length; c++) {
+				columns[c] = IntBuffer.wrap(values[c], 0, size).slice();
+			}
+			return new OpenSegmentView(columns, minimums.clone(), maximums.clone(), size);
+		}
+	}
+}
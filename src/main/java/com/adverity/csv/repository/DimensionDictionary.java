@@ -0,0 +1,118 @@
+package com.adverity.csv.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * In-memory dictionary of the DATASOURCE and CAMPAIGN dimension tables.
+ *
+ * The names are resolved to their ids without a database lookup. A name that is not known yet is inserted
+ * in its own transaction, so its id stays valid even if the statistics that use it are rolled back.
+ *
+ * @author Mihai Zanfir
+ */
+@Repository
+public class DimensionDictionary {
+
+	/**
+	 * The dimension tables
+	 */
+	public enum Dimension {
+		DATASOURCE, CAMPAIGN
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate newTransaction;
+	private final Map<Dimension, Map<String, Integer>> ids = new ConcurrentHashMap<Dimension, Map<String, Integer>>();
+	private final Map<Dimension, Map<Integer, String>> names = new ConcurrentHashMap<Dimension, Map<Integer, String>>();
+
+	public DimensionDictionary(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.newTransaction = new TransactionTemplate(transactionManager);
+		this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		for (Dimension dimension : Dimension.values()) {
+			ids.put(dimension, new ConcurrentHashMap<String, Integer>());
+			names.put(dimension, new ConcurrentHashMap<Integer, String>());
+		}
+	}
+
+	/**
+	 * Loads the existing dimension values
+	 */
+	@PostConstruct
+	public void load() {
+		for (Dimension dimension : Dimension.values()) {
+			jdbcTemplate.query("SELECT ID, NAME FROM " + dimension, rs -> {
+				put(dimension, rs.getString(2), rs.getInt(1));
+			});
+		}
+	}
+
+	/**
+	 * @param name A datasource name
+	 * @return The id of the datasource, inserted if it is not known yet
+	 */
+	public int getDatasourceId(String name) {
+		return getId(Dimension.DATASOURCE, name);
+	}
+
+	/**
+	 * @param name A campaign name
+	 * @return The id of the campaign, inserted if it is not known yet
+	 */
+	public int getCampaignId(String name) {
+		return getId(Dimension.CAMPAIGN, name);
+	}
+
+	/**
+	 * @param dimension The dimension table
+	 * @param name A name of this dimension
+	 * @return The id of the name, inserted if it is not known yet
+	 */
+	public int getId(Dimension dimension, String name) {
+		Integer id = ids.get(dimension).get(name);
+		if (id == null) {
+			id = ids.get(dimension).computeIfAbsent(name, key -> insert(dimension, key));
+			names.get(dimension).put(id, name);
+		}
+		return id;
+	}
+
+	/**
+	 * @param dimension The dimension table
+	 * @param name A name of this dimension
+	 * @return The id of the name or null if it is not known, the name is not inserted
+	 */
+	public Integer findId(Dimension dimension, String name) {
+		return ids.get(dimension).get(name);
+	}
+
+	/**
+	 * @param dimension The dimension table
+	 * @param id An id of this dimension
+	 * @return The name with this id or null if it is not known
+	 */
+	public String getName(Dimension dimension, int id) {
+		return names.get(dimension).get(id);
+	}
+
+	private Integer insert(Dimension dimension, String name) {
+		return newTransaction.execute(status -> {
+			jdbcTemplate.update("MERGE INTO " + dimension + " (NAME) KEY (NAME) VALUES (?)", name);
+			return jdbcTemplate.queryForObject("SELECT ID FROM " + dimension + " WHERE NAME = ?", Integer.class, name);
+		});
+	}
+
+	private void put(Dimension dimension, String name, int id) {
+		ids.get(dimension).put(name, id);
+		names.get(dimension).put(id, name);
+	}
+}
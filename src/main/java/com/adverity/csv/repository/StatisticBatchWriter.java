@@ -0,0 +1,389 @@
+package com.adverity.csv.repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.StatisticsChangedEvent;
+import com.adverity.csv.model.UploadMode;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Bulk writer for Statistic records.
+ *
+ * The Statistic entity uses an IDENTITY id so Hibernate can not batch its inserts.
+ * This writer bypasses the persistence context and sends plain JDBC batches of csv.upload.batch-size rows.
+ * Every call to write is committed in its own transaction, so a chunk is either fully saved or not at all.
+ * The rows are stored in the STATISTIC_FACT partition of their month, which the StatisticPartitionManager creates
+ * before the transaction starts if needed. Their datasource and campaign names are resolved to ids by the
+ * DimensionDictionary before the transaction starts too. Every row references its upload batch, whose zone is widened
+ * by the UploadBatchRegistry in the same transaction. The StatisticRollupWriter adds the chunk to the rollups in the
+ * same transaction. After every commit the chunk is appended to the ColumnarStatisticStore, under the read lock of
+ * its commit lock so the store is not loaded again between the commit and the append, and a
+ * StatisticsChangedEvent is published. With the REPLACE and ACCUMULATE upload modes, the chunks are merged into the
+ * stored statistics instead of inserted, under the write lock of the commit lock: the merges are serialized, so two
+ * chunks with the same new key can not both insert it, and no chunk is inserted while a merge collapses the copies of
+ * a key or replaces the merged months in the column store.
+ *
+ * @author Mihai Zanfir
+ */
+@Repository
+@AllArgsConstructor
+public class StatisticBatchWriter {
+
+	private static final String INSERT_SQL = "INSERT INTO %s (ID, DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, "
+			+ "BATCH_ID) VALUES (?, ?, ?, ?, ?, ?, ?)";
+	private static final String IDS_SQL = "SELECT NEXT VALUE FOR STATISTIC_ID_SEQ FROM SYSTEM_RANGE(1, ?)";
+
+	// The stored statistics with the keys of a chunk, the keys are passed as arrays
+	private static final String SELECT_MERGED_SQL = "SELECT F.DATASOURCE_ID, F.CAMPAIGN_ID, F.DAILY, F.CLICKS, "
+			+ "F.IMPRESSIONS, F.ID FROM %s F JOIN TABLE(DATASOURCE_ID INT = ?, CAMPAIGN_ID INT = ?, DAILY DATE = ?) K "
+			+ "ON F.DATASOURCE_ID = K.DATASOURCE_ID AND F.CAMPAIGN_ID = K.CAMPAIGN_ID AND F.DAILY = K.DAILY";
+
+	// Merges all the rows of a chunk in one statement, the rows are passed as arrays
+	private static final String MERGE_SQL = "MERGE INTO %s F USING TABLE(ID INT = ?, DATASOURCE_ID INT = ?, "
+			+ "CAMPAIGN_ID INT = ?, DAILY DATE = ?, CLICKS INT = ?, IMPRESSIONS INT = ?) S "
+			+ "ON (F.DATASOURCE_ID = S.DATASOURCE_ID AND F.CAMPAIGN_ID = S.CAMPAIGN_ID AND F.DAILY = S.DAILY) "
+			+ "WHEN MATCHED THEN UPDATE SET %s "
+			+ "WHEN NOT MATCHED THEN INSERT (ID, DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, BATCH_ID) "
+			+ "VALUES (S.ID, S.DATASOURCE_ID, S.CAMPAIGN_ID, S.DAILY, S.CLICKS, S.IMPRESSIONS, CAST(? AS INT))";
+	// The copies of a key stored more than once by INSERT uploads are collapsed into the copy with the lowest id
+	private static final String DELETE_COPIES_SQL = "DELETE FROM %s WHERE ID IN (SELECT ID FROM TABLE(ID INT = ?))";
+	private static final String UPDATE_COPY_SQL = "UPDATE %s SET CLICKS = ?, IMPRESSIONS = ? WHERE ID = ?";
+	private static final String REPLACE_SET = "CLICKS = S.CLICKS, IMPRESSIONS = S.IMPRESSIONS";
+	private static final String ACCUMULATE_SET = "CLICKS = F.CLICKS + S.CLICKS, IMPRESSIONS = F.IMPRESSIONS + S.IMPRESSIONS";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final CsvProperties csvProperties;
+	private final DimensionDictionary dimensionDictionary;
+	private final ApplicationEventPublisher eventPublisher;
+	private final StatisticRollupWriter statisticRollupWriter;
+	private final ColumnarStatisticStore columnarStatisticStore;
+	private final UploadBatchRegistry uploadBatchRegistry;
+	private final StatisticPartitionManager statisticPartitionManager;
+
+	/**
+	 * Called at the start of every upload
+	 *
+	 * @return The id of the upload batch of the statistics of the upload
+	 */
+	public int beginUpload() {
+		return uploadBatchRegistry.begin();
+	}
+
+	/**
+	 * Inserts a chunk of Statistic records in their own upload batch using JDBC batches and commits them
+	 *
+	 * @param statistics The records to insert
+	 * @return The number of inserted records
+	 */
+	public int write(List<Statistic> statistics) {
+		return statistics.isEmpty() ? 0 : write(statistics, beginUpload());
+	}
+
+	/**
+	 * Inserts a chunk of Statistic records using JDBC batches and commits them
+	 *
+	 * @param statistics The records to insert
+	 * @param batchId The upload batch of the records, see beginUpload
+	 * @return The number of inserted records
+	 */
+	public int write(List<Statistic> statistics, int batchId) {
+		if (statistics.isEmpty()) {
+			return 0;
+		}
+		int batchSize = Math.max(1, csvProperties.getUpload().getBatchSize());
+		int[] datasourceIds = new int[statistics.size()];
+		int[] campaignIds = new int[statistics.size()];
+		// The rows of every month, in the order of the chunk
+		Map<YearMonth, List<Integer>> months = new LinkedHashMap<YearMonth, List<Integer>>();
+		for (int i = 0; i < statistics.size(); i++) {
+			datasourceIds[i] = dimensionDictionary.getDatasourceId(statistics.get(i).getDatasource());
+			campaignIds[i] = dimensionDictionary.getCampaignId(statistics.get(i).getCampaign());
+			months.computeIfAbsent(YearMonth.from(statistics.get(i).getDaily()), month -> new ArrayList<Integer>()).add(i);
+		}
+		statisticPartitionManager.create(months.keySet());
+		Lock commitLock = columnarStatisticStore.getCommitLock().readLock();
+		commitLock.lock();
+		try {
+			insert(statistics, batchId, batchSize, datasourceIds, campaignIds, months);
+			columnarStatisticStore.append(statistics, datasourceIds, campaignIds);
+		} finally {
+			commitLock.unlock();
+		}
+		eventPublisher.publishEvent(new StatisticsChangedEvent(this, statistics.size()));
+		return statistics.size();
+	}
+
+	private void insert(List<Statistic> statistics, int batchId, int batchSize, int[] datasourceIds,
+			int[] campaignIds, Map<YearMonth, List<Integer>> months) {
+		transactionTemplate.executeWithoutResult(status -> {
+			// The ids follow the order of the chunk even though the rows are inserted month by month, like the column store
+			List<Integer> ids = jdbcTemplate.queryForList(IDS_SQL, Integer.class, statistics.size());
+			Collections.sort(ids);
+			uploadBatchRegistry.add(batchId, statistics, datasourceIds);
+			months.forEach((month, rows) -> insertRows(statisticPartitionManager.getTable(month), statistics, rows, ids,
+					datasourceIds, campaignIds, batchId, batchSize));
+			statisticRollupWriter.add(statistics, datasourceIds, campaignIds);
+		});
+	}
+
+	/**
+	 * Inserts a chunk of Statistic records of one month into a staging table using JDBC batches and commits them,
+	 * see StatisticPartitionManager.replace. The rollups and the column store are updated when the staging table
+	 * replaces the partition of the month.
+	 *
+	 * @param statistics The records to insert, all in the month of the staging table
+	 * @param batchId The upload batch of the records, see beginUpload
+	 * @param staging The qualified name of the staging table
+	 * @return The number of inserted records
+	 */
+	public int stage(List<Statistic> statistics, int batchId, String staging) {
+		if (statistics.isEmpty()) {
+			return 0;
+		}
+		int batchSize = Math.max(1, csvProperties.getUpload().getBatchSize());
+		int[] datasourceIds = new int[statistics.size()];
+		int[] campaignIds = new int[statistics.size()];
+		List<Integer> rows = new ArrayList<Integer>(statistics.size());
+		for (int i = 0; i < statistics.size(); i++) {
+			datasourceIds[i] = dimensionDictionary.getDatasourceId(statistics.get(i).getDatasource());
+			campaignIds[i] = dimensionDictionary.getCampaignId(statistics.get(i).getCampaign());
+			rows.add(i);
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			List<Integer> ids = jdbcTemplate.queryForList(IDS_SQL, Integer.class, statistics.size());
+			Collections.sort(ids);
+			uploadBatchRegistry.add(batchId, statistics, datasourceIds);
+			insertRows(staging, statistics, rows, ids, datasourceIds, campaignIds, batchId, batchSize);
+		});
+		return statistics.size();
+	}
+
+	private void insertRows(String table, List<Statistic> statistics, List<Integer> rows, List<Integer> ids,
+			int[] datasourceIds, int[] campaignIds, int batchId, int batchSize) {
+		jdbcTemplate.batchUpdate(String.format(INSERT_SQL, table), rows, batchSize, (ps, row) -> {
+			Statistic statistic = statistics.get(row);
+			ps.setInt(1, ids.get(row));
+			ps.setInt(2, datasourceIds[row]);
+			ps.setInt(3, campaignIds[row]);
+			ps.setDate(4, Date.valueOf(statistic.getDaily()));
+			ps.setInt(5, statistic.getClicks());
+			ps.setInt(6, statistic.getImpressions());
+			ps.setInt(7, batchId);
+		});
+	}
+
+	/**
+	 * Merges a chunk of Statistic records into the stored statistics with the same datasource, campaign and daily
+	 * and inserts the others, then commits them.
+	 *
+	 * The records of the chunk with the same key are merged together first. The stored statistics with the keys of
+	 * the chunk are read to compute the changes of the rollups, then the records of every month that insert or change
+	 * a statistic are merged with one MERGE statement: replacing statistics with the same values writes nothing.
+	 * A key stored more than once by INSERT uploads is first collapsed into its copy with the lowest id, holding the
+	 * sums of all its copies, so a merged key always ends up in exactly one statistic.
+	 * The inserted statistics are in the upload batch, the merged statistics keep their batch: their keys did not
+	 * change, so the zone of their batch still covers them. If stored statistics were changed, their months are
+	 * replaced in the column store with the statistics of their partitions, the other inserted records are appended.
+	 *
+	 * @param statistics The records to merge
+	 * @param batchId The upload batch of the inserted records
+	 * @param mode REPLACE or ACCUMULATE, the records are inserted with INSERT
+	 * @return The number of inserted records, the other records were merged
+	 */
+	public int merge(List<Statistic> statistics, int batchId, UploadMode mode) {
+		if (mode == UploadMode.INSERT) {
+			return write(statistics, batchId);
+		}
+		if (statistics.isEmpty()) {
+			return 0;
+		}
+		// The records merged per key, in the order of the chunk
+		Map<StatisticKey, Statistic> merged = new LinkedHashMap<StatisticKey, Statistic>();
+		for (Statistic statistic : statistics) {
+			StatisticKey key = new StatisticKey(dimensionDictionary.getDatasourceId(statistic.getDatasource()),
+					dimensionDictionary.getCampaignId(statistic.getCampaign()), statistic.getDaily());
+			merged.merge(key, statistic, (previous, next) -> mode == UploadMode.REPLACE ? next
+					: new Statistic(null, next.getDatasource(), next.getCampaign(), next.getDaily(),
+							previous.getClicks() + next.getClicks(), previous.getImpressions() + next.getImpressions()));
+		}
+		List<StatisticKey> keys = new ArrayList<StatisticKey>(merged.keySet());
+		List<Statistic> rows = new ArrayList<Statistic>(merged.values());
+		Map<YearMonth, List<Integer>> months = new LinkedHashMap<YearMonth, List<Integer>>();
+		for (int i = 0; i < rows.size(); i++) {
+			months.computeIfAbsent(YearMonth.from(keys.get(i).getDaily()), month -> new ArrayList<Integer>()).add(i);
+		}
+		statisticPartitionManager.create(months.keySet());
+		int[] datasourceIds = keys.stream().mapToInt(StatisticKey::getDatasourceId).toArray();
+		int[] campaignIds = keys.stream().mapToInt(StatisticKey::getCampaignId).toArray();
+		List<Integer> inserted = new ArrayList<Integer>();
+		List<Integer> updated = new ArrayList<Integer>();
+		Lock commitLock = columnarStatisticStore.getCommitLock().writeLock();
+		commitLock.lock();
+		try {
+			transactionTemplate.executeWithoutResult(status -> {
+				// The sums, the number and the lowest id of the stored statistics of every key
+				Map<StatisticKey, long[]> stored = new HashMap<StatisticKey, long[]>();
+				// The ids of the stored statistics of every month
+				Map<YearMonth, Map<Integer, StatisticKey>> storedIds = new HashMap<YearMonth, Map<Integer, StatisticKey>>();
+				months.forEach((month, monthRows) -> jdbcTemplate.query(String.format(SELECT_MERGED_SQL,
+						statisticPartitionManager.getTable(month)), rs -> {
+							StatisticKey key = new StatisticKey(rs.getInt(1), rs.getInt(2), rs.getDate(3).toLocalDate());
+							long[] sums = stored.computeIfAbsent(key, k -> new long[] {0, 0, 0, Long.MAX_VALUE});
+							sums[0] += rs.getInt(4);
+							sums[1] += rs.getInt(5);
+							sums[2]++;
+							sums[3] = Math.min(sums[3], rs.getInt(6));
+							storedIds.computeIfAbsent(month, m -> new HashMap<Integer, StatisticKey>()).put(rs.getInt(6), key);
+						}, column(monthRows, row -> datasourceIds[row]), column(monthRows, row -> campaignIds[row]),
+						column(monthRows, row -> Date.valueOf(keys.get(row).getDaily()))));
+				storedIds.forEach((month, ids) -> collapseCopies(month, ids, stored));
+				// The records that do not change their stored statistic are not merged
+				long[][] changes = new long[rows.size()][];
+				boolean[] changed = new boolean[rows.size()];
+				for (int row = 0; row < rows.size(); row++) {
+					long[] sums = stored.get(keys.get(row));
+					changes[row] = getChanges(rows.get(row), sums, mode);
+					if (sums == null) {
+						inserted.add(row);
+						changed[row] = true;
+					} else if (changes[row][0] != 0 || changes[row][1] != 0 || sums[2] > 1) {
+						updated.add(row);
+						changed[row] = true;
+					}
+				}
+				List<Integer> ids = jdbcTemplate.queryForList(IDS_SQL, Integer.class, inserted.size());
+				Collections.sort(ids);
+				Integer[] rowIds = new Integer[rows.size()];
+				for (int i = 0; i < inserted.size(); i++) {
+					rowIds[inserted.get(i)] = ids.get(i);
+				}
+				months.forEach((month, monthRows) -> {
+					List<Integer> changedRows = monthRows.stream().filter(row -> changed[row]).collect(Collectors.toList());
+					if (!changedRows.isEmpty()) {
+						jdbcTemplate.update(String.format(MERGE_SQL, statisticPartitionManager.getTable(month),
+								mode == UploadMode.REPLACE ? REPLACE_SET : ACCUMULATE_SET),
+								column(changedRows, row -> rowIds[row]), column(changedRows, row -> datasourceIds[row]),
+								column(changedRows, row -> campaignIds[row]),
+								column(changedRows, row -> Date.valueOf(keys.get(row).getDaily())),
+								column(changedRows, row -> rows.get(row).getClicks()),
+								column(changedRows, row -> rows.get(row).getImpressions()), batchId);
+					}
+				});
+				uploadBatchRegistry.add(batchId, select(rows, inserted), select(datasourceIds, inserted));
+				statisticRollupWriter.add(rows, datasourceIds, campaignIds, changes);
+			});
+			// The months with changed statistics are read again from their partitions
+			Map<YearMonth, String> tables = new HashMap<YearMonth, String>();
+			for (Integer row : updated) {
+				YearMonth month = YearMonth.from(keys.get(row).getDaily());
+				tables.putIfAbsent(month, statisticPartitionManager.getTable(month));
+			}
+			columnarStatisticStore.replace(tables);
+			List<Integer> appended = inserted.stream()
+					.filter(row -> !tables.containsKey(YearMonth.from(keys.get(row).getDaily())))
+					.collect(Collectors.toList());
+			columnarStatisticStore.append(select(rows, appended), select(datasourceIds, appended),
+					select(campaignIds, appended));
+		} finally {
+			commitLock.unlock();
+		}
+		if (!inserted.isEmpty() || !updated.isEmpty()) {
+			eventPublisher.publishEvent(new StatisticsChangedEvent(this, inserted.size() + updated.size()));
+		}
+		return inserted.size();
+	}
+
+	/**
+	 * Deletes the copies of the keys stored more than once, except their copy with the lowest id which gets the sums
+	 * of all the copies of its key
+	 *
+	 * @param ids The stored statistics of the month with their key
+	 * @param stored The sums, the number and the lowest id of the stored statistics of every key
+	 */
+	private void collapseCopies(YearMonth month, Map<Integer, StatisticKey> ids, Map<StatisticKey, long[]> stored) {
+		String table = statisticPartitionManager.getTable(month);
+		List<Integer> copies = ids.entrySet().stream()
+				.filter(entry -> stored.get(entry.getValue())[3] != entry.getKey())
+				.map(Map.Entry::getKey).sorted().collect(Collectors.toList());
+		if (copies.isEmpty()) {
+			return;
+		}
+		jdbcTemplate.update(String.format(DELETE_COPIES_SQL, table), (Object) copies.toArray());
+		List<long[]> kept = ids.values().stream().distinct().map(stored::get).filter(sums -> sums[2] > 1)
+				.collect(Collectors.toList());
+		jdbcTemplate.batchUpdate(String.format(UPDATE_COPY_SQL, table), kept, kept.size(), (ps, sums) -> {
+			ps.setLong(1, sums[0]);
+			ps.setLong(2, sums[1]);
+			ps.setLong(3, sums[3]);
+		});
+	}
+
+	/**
+	 * @param row A merged record
+	 * @param stored The sums and the number of the stored statistics with the key of the record, null if none
+	 * @return The clicks, impressions and records added to the rollups by the record
+	 */
+	private static long[] getChanges(Statistic row, long[] stored, UploadMode mode) {
+		if (stored == null) {
+			return new long[] {row.getClicks(), row.getImpressions(), 1};
+		}
+		// The copies of the key were collapsed into one statistic holding their sums, which is merged with the record
+		return mode == UploadMode.REPLACE
+				? new long[] {row.getClicks() - stored[0], row.getImpressions() - stored[1], 1 - stored[2]}
+				: new long[] {row.getClicks(), row.getImpressions(), 1 - stored[2]};
+	}
+
+	private static Object[] column(List<Integer> rows, IntFunction<Object> value) {
+		Object[] column = new Object[rows.size()];
+		for (int i = 0; i < column.length; i++) {
+			column[i] = value.apply(rows.get(i));
+		}
+		return column;
+	}
+
+	private static List<Statistic> select(List<Statistic> statistics, List<Integer> rows) {
+		return rows.stream().map(statistics::get).collect(Collectors.toList());
+	}
+
+	private static int[] select(int[] values, List<Integer> rows) {
+		return rows.stream().mapToInt(row -> values[row]).toArray();
+	}
+
+	/**
+	 * Called at the end of every upload, seals the statistics of the column store in a segment file
+	 */
+	public void completeUpload() {
+		columnarStatisticStore.seal();
+	}
+
+	/**
+	 * The key of the merged statistics
+	 */
+	@Value
+	private static class StatisticKey {
+		int datasourceId;
+		int campaignId;
+		LocalDate daily;
+	}
+}
@@ -0,0 +1,44 @@
+package com.adverity.csv.repository;
+
+/**
+ * The columns of the ColumnarStatisticStore, named like the Statistic attributes
+ *
+ * @author Mihai Zanfir
+ */
+public enum StatisticColumn {
+	DATASOURCE, CAMPAIGN, DAILY, CLICKS, IMPRESSIONS;
+
+	/**
+	 * @param attribute A Statistic attribute, ex: clicks
+	 * @return The column of the attribute or null if it has no column
+	 */
+	public static StatisticColumn of(String attribute) {
+		for (StatisticColumn column : values()) {
+			if (column.name().toLowerCase().equals(attribute)) {
+				return column;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return If the column is summed by the searches
+	 */
+	public boolean isMeasure() {
+		return this == CLICKS || this == IMPRESSIONS;
+	}
+
+	/**
+	 * @return If the column holds DimensionDictionary ids
+	 */
+	public boolean isName() {
+		return this == DATASOURCE || this == CAMPAIGN;
+	}
+
+	/**
+	 * @return The dimension of a name column
+	 */
+	public DimensionDictionary.Dimension getDimension() {
+		return DimensionDictionary.Dimension.valueOf(name());
+	}
+}
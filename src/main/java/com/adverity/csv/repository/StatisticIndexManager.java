@@ -0,0 +1,157 @@
+package com.adverity.csv.repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Manages the secondary indexes of the STATISTIC_FACT partitions.
+ *
+ * The indexes cover the datasource, campaign and daily access paths of the searches, so these queries read only
+ * the index. Every partition has its own copy of every index, named after the index and the month of the partition.
+ * Every index slows the inserts down, so a big upload drops them with beginBulkLoad and builds them again in one
+ * pass with endBulkLoad. Concurrent bulk loads are counted and the last one to finish rebuilds them. The partitions
+ * created during a bulk load get their indexes when it ends.
+ *
+ * @author Mihai Zanfir
+ */
+@Repository
+@Log4j2
+public class StatisticIndexManager {
+
+	// The secondary indexes and their columns
+	public static final Map<String, String> INDEXES = new LinkedHashMap<String, String>();
+	static {
+		INDEXES.put("IDX_STATISTIC_DATASOURCE_CAMPAIGN_DAILY", "DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS");
+		INDEXES.put("IDX_STATISTIC_CAMPAIGN_DAILY", "CAMPAIGN_ID, DAILY, DATASOURCE_ID, CLICKS, IMPRESSIONS");
+		INDEXES.put("IDX_STATISTIC_DAILY", "DAILY, DATASOURCE_ID, CAMPAIGN_ID, CLICKS, IMPRESSIONS");
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private int bulkLoads;
+
+	public StatisticIndexManager(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Creates the secondary indexes that do not exist on all the partitions
+	 */
+	@PostConstruct
+	public synchronized void createIndexes() {
+		long start = System.nanoTime();
+		getPartitions().forEach(this::create);
+		log.info("Created the STATISTIC_FACT indexes in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+	}
+
+	/**
+	 * Creates the secondary indexes of a new partition, unless a bulk load is running
+	 *
+	 * @param partition The name of the partition table, without its schema
+	 */
+	public synchronized void createIndexes(String partition) {
+		if (bulkLoads == 0) {
+			create(partition);
+		}
+	}
+
+	/**
+	 * Drops the secondary indexes of all the partitions
+	 */
+	public synchronized void dropIndexes() {
+		for (String partition : getPartitions()) {
+			INDEXES.keySet().forEach(name -> jdbcTemplate.execute("DROP INDEX IF EXISTS "
+					+ StatisticPartitionManager.SCHEMA + "." + getIndexName(name, partition)));
+		}
+		log.info("Dropped the STATISTIC_FACT indexes");
+	}
+
+	/**
+	 * Called before a big upload: the first of the concurrent bulk loads drops the secondary indexes.
+	 * If the indexes can not be dropped, for example because the table is locked, the upload keeps them.
+	 */
+	public synchronized void beginBulkLoad() {
+		if (bulkLoads++ == 0) {
+			try {
+				dropIndexes();
+			} catch (DataAccessException ex) {
+				log.warn("Could not drop the STATISTIC_FACT indexes: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Called after a big upload, even if it failed: the last of the concurrent bulk loads rebuilds the indexes
+	 */
+	public synchronized void endBulkLoad() {
+		if (--bulkLoads == 0) {
+			try {
+				createIndexes();
+			} catch (DataAccessException ex) {
+				log.error("Could not create the STATISTIC_FACT indexes: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return The existing indexes of the newest STATISTIC_FACT partition with their columns, including the primary
+	 *         and foreign keys, named without the month of the partition. Empty if there is no partition.
+	 */
+	public Map<String, List<String>> getIndexes() {
+		Map<String, List<String>> indexes = new LinkedHashMap<String, List<String>>();
+		String partition = getPartitions().stream().max(String::compareTo).orElse(null);
+		if (partition != null) {
+			String suffix = getIndexName("", partition);
+			jdbcTemplate.query("SELECT INDEX_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.INDEXES "
+					+ "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? ORDER BY INDEX_NAME, ORDINAL_POSITION", rs -> {
+				String name = rs.getString(1);
+				indexes.computeIfAbsent(name.endsWith(suffix) ? name.substring(0, name.length() - suffix.length()) : name,
+						key -> new ArrayList<String>()).add(rs.getString(2));
+			}, StatisticPartitionManager.SCHEMA, partition);
+		}
+		return indexes;
+	}
+
+	/**
+	 * STATISTIC_FACT is a view, so an index is created on every partition
+	 *
+	 * @param name The name of the index, without the month of a partition
+	 * @param columns The indexed columns
+	 * @return The statements creating the index on all the partitions
+	 */
+	public List<String> getCreateStatements(String name, String columns) {
+		return getPartitions().stream().sorted().map(partition -> getCreateStatement(name, columns, partition))
+				.collect(Collectors.toList());
+	}
+
+	private void create(String partition) {
+		INDEXES.forEach((name, columns) -> jdbcTemplate.execute(getCreateStatement(name, columns, partition)));
+	}
+
+	private static String getCreateStatement(String name, String columns, String partition) {
+		return "CREATE INDEX IF NOT EXISTS " + StatisticPartitionManager.SCHEMA + "." + getIndexName(name, partition)
+				+ " ON " + StatisticPartitionManager.SCHEMA + "." + partition + " (" + columns + ")";
+	}
+
+	private List<String> getPartitions() {
+		return jdbcTemplate.queryForList("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ?",
+				String.class, StatisticPartitionManager.SCHEMA);
+	}
+
+	/**
+	 * @return The name of an index on a partition, ex: IDX_STATISTIC_DAILY_201901
+	 */
+	private static String getIndexName(String name, String partition) {
+		return name + partition.substring(StatisticPartitionManager.TABLE_PREFIX.length() - 1);
+	}
+}
@@ -0,0 +1,324 @@
+package com.adverity.csv.repository;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.adverity.csv.model.StatisticsChangedEvent;
+import com.google.common.collect.Range;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Manages the monthly partitions of the statistics.
+ *
+ * H2 has no native partitioning, so every month of DAILY is its own table STATISTIC_PARTITIONS.STATISTIC_FACT_yyyyMM
+ * with a CHECK on its dates. The StatisticBatchWriter routes every row to the partition of its month, creating the
+ * partition first if needed. The STATISTIC_FACT view is the UNION ALL of all the partitions and the STATISTIC view,
+ * read by the searches, is the UNION ALL of every partition joined with its names and restricted to its month.
+ * A search of the statistics with daily conditions does not read the view: while it runs, the PartitionPruning
+ * replaces the view in its SQL with the UNION ALL of the partitions of the searched months only, see getStatisticSql.
+ *
+ * Dropping a month drops its table instead of deleting its rows; its rollup rows are deleted, the files with
+ * statistics in the month can be uploaded again and its statistics are removed from the column store.
+ *
+ * Replacing a month loads its new statistics into a staging table STATISTIC_FACT_yyyyMM_n, while the searches still
+ * read the current table. The views are then switched to the staging table, which becomes the partition of the
+ * month, and the previous table is dropped. A staging table that was never switched in is dropped at startup.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+public class StatisticPartitionManager {
+
+	public static final String SCHEMA = "STATISTIC_PARTITIONS";
+	public static final String TABLE_PREFIX = "STATISTIC_FACT_";
+
+	private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+	private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS %1$s ("
+			+ "ID integer DEFAULT NEXT VALUE FOR STATISTIC_ID_SEQ NOT NULL, "
+			+ "DATASOURCE_ID integer NOT NULL, "
+			+ "CAMPAIGN_ID integer NOT NULL, "
+			+ "DAILY date NOT NULL, "
+			+ "CLICKS integer NOT NULL, "
+			+ "IMPRESSIONS integer NOT NULL, "
+			+ "BATCH_ID integer NOT NULL, "
+			+ "CONSTRAINT PK_STATISTIC_%2$s PRIMARY KEY (ID), "
+			+ "CONSTRAINT FK_STATISTIC_DATASOURCE_%2$s FOREIGN KEY (DATASOURCE_ID) REFERENCES PUBLIC.DATASOURCE (ID), "
+			+ "CONSTRAINT FK_STATISTIC_CAMPAIGN_%2$s FOREIGN KEY (CAMPAIGN_ID) REFERENCES PUBLIC.CAMPAIGN (ID), "
+			+ "CONSTRAINT CK_STATISTIC_DAILY_%2$s CHECK (DAILY BETWEEN DATE '%3$s' AND DATE '%4$s'))";
+
+	private static final String FACT_SQL = "SELECT ID, DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, BATCH_ID "
+			+ "FROM %s";
+
+	private static final String STATISTIC_SQL = "SELECT F.ID, D.NAME AS DATASOURCE, C.NAME AS CAMPAIGN, F.DAILY, "
+			+ "F.CLICKS, F.IMPRESSIONS, F.BATCH_ID FROM %s F "
+			+ "JOIN DATASOURCE D ON D.ID = F.DATASOURCE_ID "
+			+ "JOIN CAMPAIGN C ON C.ID = F.CAMPAIGN_ID "
+			+ "WHERE F.DAILY BETWEEN DATE '%s' AND DATE '%s'";
+
+	// The views without partitions, as created by schema.sql
+	private static final String EMPTY_FACT_SQL = "SELECT CAST(NULL AS integer) AS ID, "
+			+ "CAST(NULL AS integer) AS DATASOURCE_ID, CAST(NULL AS integer) AS CAMPAIGN_ID, CAST(NULL AS date) AS DAILY, "
+			+ "CAST(NULL AS integer) AS CLICKS, CAST(NULL AS integer) AS IMPRESSIONS, CAST(NULL AS integer) AS BATCH_ID "
+			+ "FROM DUAL WHERE FALSE";
+
+	private static final String EMPTY_STATISTIC_SQL = "SELECT CAST(NULL AS integer) AS ID, "
+			+ "CAST(NULL AS varchar(50)) AS DATASOURCE, CAST(NULL AS varchar(250)) AS CAMPAIGN, CAST(NULL AS date) AS DAILY, "
+			+ "CAST(NULL AS integer) AS CLICKS, CAST(NULL AS integer) AS IMPRESSIONS, CAST(NULL AS integer) AS BATCH_ID "
+			+ "FROM DUAL WHERE FALSE";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final StatisticIndexManager statisticIndexManager;
+	private final StatisticRollupWriter statisticRollupWriter;
+	private final ColumnarStatisticStore columnarStatisticStore;
+	private final ApplicationEventPublisher eventPublisher;
+	private final UploadedFileRegistry uploadedFileRegistry;
+	private final NavigableSet<YearMonth> partitions = new ConcurrentSkipListSet<YearMonth>();
+	// The table of every month, without its schema
+	private final Map<YearMonth, String> tables = new ConcurrentHashMap<YearMonth, String>();
+	// The number of the last staging table
+	private int staging;
+
+	public StatisticPartitionManager(JdbcTemplate jdbcTemplate, StatisticIndexManager statisticIndexManager,
+			StatisticRollupWriter statisticRollupWriter, ColumnarStatisticStore columnarStatisticStore,
+			ApplicationEventPublisher eventPublisher, UploadedFileRegistry uploadedFileRegistry) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.statisticIndexManager = statisticIndexManager;
+		this.statisticRollupWriter = statisticRollupWriter;
+		this.columnarStatisticStore = columnarStatisticStore;
+		this.eventPublisher = eventPublisher;
+		this.uploadedFileRegistry = uploadedFileRegistry;
+	}
+
+	/**
+	 * Finds the existing partitions and creates the views over them
+	 */
+	@PostConstruct
+	public synchronized void load() {
+		// The views read the table of a month with the lowest staging number, the other tables were never switched in
+		List<String> unused = new ArrayList<String>();
+		jdbcTemplate.queryForList("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ?",
+				String.class, SCHEMA).stream().sorted(Comparator.comparingInt(StatisticPartitionManager::getStaging))
+				.forEach(table -> {
+					staging = Math.max(staging, getStaging(table));
+					YearMonth month = YearMonth.parse(table.substring(TABLE_PREFIX.length(), TABLE_PREFIX.length() + 6),
+							SUFFIX_FORMAT);
+					if (tables.putIfAbsent(month, table) != null) {
+						unused.add(table);
+					}
+				});
+		unused.forEach(table -> jdbcTemplate.execute("DROP TABLE " + SCHEMA + "." + table));
+		partitions.addAll(tables.keySet());
+		createViews(partitions);
+		log.info("Loaded {} statistic partitions", partitions.size());
+	}
+
+	/**
+	 * @return The months that have a partition, in order
+	 */
+	public NavigableSet<YearMonth> getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return The number of statistics of every partition, in month order
+	 */
+	public Map<YearMonth, Long> getPartitionSizes() {
+		Map<YearMonth, Long> sizes = new LinkedHashMap<YearMonth, Long>();
+		for (YearMonth month : partitions) {
+			sizes.put(month, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + getTable(month), Long.class));
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return The qualified name of the partition table of a month, ex: STATISTIC_PARTITIONS.STATISTIC_FACT_201901
+	 */
+	public String getTable(YearMonth month) {
+		return SCHEMA + "." + tables.getOrDefault(month, TABLE_PREFIX + month.format(SUFFIX_FORMAT));
+	}
+
+	/**
+	 * @param days The days read by a search
+	 * @return The SELECT of the STATISTIC view restricted to the partitions of these days, null if it reads all the
+	 *         partitions
+	 */
+	public String getStatisticSql(Range<LocalDate> days) {
+		if (!days.hasLowerBound() && !days.hasUpperBound()) {
+			return null;
+		}
+		List<YearMonth> months = partitions.stream().filter(month -> {
+			Range<LocalDate> monthDays = Range.closed(month.atDay(1), month.atEndOfMonth());
+			return monthDays.isConnected(days) && !monthDays.intersection(days).isEmpty();
+		}).collect(Collectors.toList());
+		return months.size() == partitions.size() ? null : getStatisticSql(months);
+	}
+
+	/**
+	 * Creates the partitions of the months that do not have one yet. Must not be called in a transaction, the
+	 * CREATE TABLE commits it.
+	 *
+	 * @param months The months of the statistics that will be inserted
+	 */
+	public void create(Collection<YearMonth> months) {
+		if (partitions.containsAll(months)) {
+			return;
+		}
+		synchronized (this) {
+			// The new partitions are published after the views read them
+			NavigableSet<YearMonth> created = new TreeSet<YearMonth>(partitions);
+			for (YearMonth month : months) {
+				if (created.add(month)) {
+					String suffix = month.format(SUFFIX_FORMAT);
+					jdbcTemplate.execute(String.format(CREATE_SQL, getTable(month), suffix, month.atDay(1),
+							month.atEndOfMonth()));
+					statisticIndexManager.createIndexes(TABLE_PREFIX + suffix);
+					log.info("Created the statistic partition {}", getTable(month));
+				}
+			}
+			createViews(created);
+			partitions.addAll(created);
+		}
+	}
+
+	/**
+	 * Drops the partition of a month with all its statistics. The views stop reading it before its table is
+	 * dropped, the rollups of the month are deleted, its uploaded files are forgotten and its statistics are
+	 * removed from the column store. Must not be called while statistics of the month are uploaded.
+	 *
+	 * @param month The month of the statistics to drop
+	 * @return The number of dropped statistics, -1 if the month has no partition
+	 */
+	public long drop(YearMonth month) {
+		long rows;
+		synchronized (this) {
+			if (!partitions.contains(month)) {
+				return -1;
+			}
+			rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + getTable(month), Long.class);
+			String table = getTable(month);
+			partitions.remove(month);
+			createViews(partitions);
+			tables.remove(month);
+			jdbcTemplate.execute("DROP TABLE " + table);
+		}
+		statisticRollupWriter.remove(month);
+		uploadedFileRegistry.remove(month);
+		columnarStatisticStore.remove(month);
+		eventPublisher.publishEvent(new StatisticsChangedEvent(this, (int) Math.min(rows, Integer.MAX_VALUE)));
+		log.info("Dropped the statistic partition {} with {} statistics", getTable(month), rows);
+		return rows;
+	}
+
+	/**
+	 * Creates an empty staging table for the new statistics of a month, see replace. Must not be called in a
+	 * transaction, the CREATE TABLE commits it.
+	 *
+	 * @param month The month of the new statistics
+	 * @return The qualified name of the staging table
+	 */
+	public synchronized String createStaging(YearMonth month) {
+		String suffix = month.format(SUFFIX_FORMAT) + "_" + ++staging;
+		jdbcTemplate.execute(String.format(CREATE_SQL, SCHEMA + "." + TABLE_PREFIX + suffix, suffix, month.atDay(1),
+				month.atEndOfMonth()));
+		statisticIndexManager.createIndexes(TABLE_PREFIX + suffix);
+		log.info("Created the staging partition {}", SCHEMA + "." + TABLE_PREFIX + suffix);
+		return SCHEMA + "." + TABLE_PREFIX + suffix;
+	}
+
+	/**
+	 * Drops a staging table that will not be switched in, for example after its statistics could not be loaded
+	 *
+	 * @param staging The qualified name of the staging table
+	 */
+	public void dropStaging(String staging) {
+		jdbcTemplate.execute("DROP TABLE IF EXISTS " + staging);
+	}
+
+	/**
+	 * Replaces all the statistics of a month with the statistics of a staging table at once. The views read the
+	 * staging table before the previous table of the month is dropped, the rollups of the month are computed again
+	 * from the staging table, its uploaded files are forgotten and its statistics are replaced in the column store.
+	 * Must not be called while statistics of the month are uploaded.
+	 *
+	 * @param month The month of the statistics to replace
+	 * @param staging The qualified name of the staging table of the month, see createStaging
+	 * @return The number of statistics of the month
+	 */
+	public long replace(YearMonth month, String staging) {
+		long rows;
+		synchronized (this) {
+			String previous = partitions.contains(month) ? getTable(month) : null;
+			tables.put(month, staging.substring(SCHEMA.length() + 1));
+			NavigableSet<YearMonth> replaced = new TreeSet<YearMonth>(partitions);
+			replaced.add(month);
+			createViews(replaced);
+			partitions.add(month);
+			if (previous != null) {
+				jdbcTemplate.execute("DROP TABLE " + previous);
+			}
+			rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + staging, Long.class);
+		}
+		statisticRollupWriter.replace(month, staging);
+		uploadedFileRegistry.remove(month);
+		columnarStatisticStore.replace(month, staging);
+		eventPublisher.publishEvent(new StatisticsChangedEvent(this, (int) Math.min(rows, Integer.MAX_VALUE)));
+		log.info("Replaced the statistic partition of {} with {} with {} statistics", month, staging, rows);
+		return rows;
+	}
+
+	/**
+	 * Drops all the partitions
+	 *
+	 * @return The number of dropped statistics
+	 */
+	public long dropAll() {
+		long rows = 0;
+		for (YearMonth month : partitions) {
+			rows += Math.max(0, drop(month));
+		}
+		return rows;
+	}
+
+	/**
+	 * @return The number of a staging table, 0 for the first table of a month
+	 */
+	private static int getStaging(String table) {
+		int separator = table.indexOf('_', TABLE_PREFIX.length());
+		return separator < 0 ? 0 : Integer.parseInt(table.substring(separator + 1));
+	}
+
+	private void createViews(Collection<YearMonth> months) {
+		String facts = months.isEmpty() ? EMPTY_FACT_SQL : months.stream()
+				.map(month -> String.format(FACT_SQL, getTable(month)))
+				.collect(Collectors.joining(" UNION ALL "));
+		jdbcTemplate.execute("CREATE OR REPLACE VIEW STATISTIC_FACT AS " + facts);
+		jdbcTemplate.execute("CREATE OR REPLACE VIEW STATISTIC AS " + getStatisticSql(months));
+	}
+
+	private String getStatisticSql(Collection<YearMonth> months) {
+		return months.isEmpty() ? EMPTY_STATISTIC_SQL : months.stream()
+				.map(month -> String.format(STATISTIC_SQL, getTable(month), month.atDay(1), month.atEndOfMonth()))
+				.collect(Collectors.joining(" UNION ALL "));
+	}
+}
@@ -0,0 +1,204 @@
+package com.adverity.csv.repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.adverity.csv.model.Statistic;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Maintains the STATISTIC_DAILY_ROLLUP and STATISTIC_MONTHLY_ROLLUP tables.
+ *
+ * A chunk of statistics is first summed in memory per day, datasource and campaign and per month and datasource,
+ * then every sum is merged into its rollup row. The merges run in the transaction of the chunk insert, so the
+ * rollups always match the committed statistics. The rows are merged in key order, so two chunks committed at the
+ * same time lock the shared rollup rows in the same order and can not deadlock. The campaigns of every datasource
+ * and month are also added to their sketch in the CampaignSketchRegistry.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+@AllArgsConstructor
+public class StatisticRollupWriter {
+
+	private static final String MERGE_DAILY_SQL = "MERGE INTO STATISTIC_DAILY_ROLLUP R "
+			+ "USING (SELECT CAST(? AS INT) DATASOURCE_ID, CAST(? AS INT) CAMPAIGN_ID, CAST(? AS DATE) DAILY, "
+			+ "CAST(? AS BIGINT) CLICKS, CAST(? AS BIGINT) IMPRESSIONS, CAST(? AS BIGINT) RECORDS) V "
+			+ "ON (R.DATASOURCE_ID = V.DATASOURCE_ID AND R.CAMPAIGN_ID = V.CAMPAIGN_ID AND R.DAILY = V.DAILY) "
+			+ "WHEN MATCHED THEN UPDATE SET CLICKS = R.CLICKS + V.CLICKS, IMPRESSIONS = R.IMPRESSIONS + V.IMPRESSIONS, "
+			+ "RECORDS = R.RECORDS + V.RECORDS "
+			+ "WHEN NOT MATCHED THEN INSERT (DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, RECORDS) "
+			+ "VALUES (V.DATASOURCE_ID, V.CAMPAIGN_ID, V.DAILY, V.CLICKS, V.IMPRESSIONS, V.RECORDS)";
+
+	private static final String MERGE_MONTHLY_SQL = "MERGE INTO STATISTIC_MONTHLY_ROLLUP R "
+			+ "USING (SELECT CAST(? AS INT) DATASOURCE_ID, CAST(? AS DATE) MONTH, "
+			+ "CAST(? AS BIGINT) CLICKS, CAST(? AS BIGINT) IMPRESSIONS, CAST(? AS BIGINT) RECORDS) V "
+			+ "ON (R.DATASOURCE_ID = V.DATASOURCE_ID AND R.MONTH = V.MONTH) "
+			+ "WHEN MATCHED THEN UPDATE SET CLICKS = R.CLICKS + V.CLICKS, IMPRESSIONS = R.IMPRESSIONS + V.IMPRESSIONS, "
+			+ "RECORDS = R.RECORDS + V.RECORDS "
+			+ "WHEN NOT MATCHED THEN INSERT (DATASOURCE_ID, MONTH, CLICKS, IMPRESSIONS, RECORDS) "
+			+ "VALUES (V.DATASOURCE_ID, V.MONTH, V.CLICKS, V.IMPRESSIONS, V.RECORDS)";
+
+	private static final String[] REBUILD_SQL = {
+			"DELETE FROM STATISTIC_DAILY_ROLLUP",
+			"DELETE FROM STATISTIC_MONTHLY_ROLLUP",
+			"INSERT INTO STATISTIC_DAILY_ROLLUP (DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, RECORDS) "
+					+ "SELECT DATASOURCE_ID, CAMPAIGN_ID, DAILY, SUM(CLICKS), SUM(IMPRESSIONS), COUNT(*) "
+					+ "FROM STATISTIC_FACT GROUP BY DATASOURCE_ID, CAMPAIGN_ID, DAILY",
+			"INSERT INTO STATISTIC_MONTHLY_ROLLUP (DATASOURCE_ID, MONTH, CLICKS, IMPRESSIONS, RECORDS) "
+					+ "SELECT DATASOURCE_ID, MONTH, SUM(CLICKS), SUM(IMPRESSIONS), SUM(RECORDS) FROM "
+					+ "(SELECT DATASOURCE_ID, DATEADD(DAY, 1 - DAY_OF_MONTH(DAILY), DAILY) MONTH, CLICKS, IMPRESSIONS, "
+					+ "RECORDS FROM STATISTIC_DAILY_ROLLUP) GROUP BY DATASOURCE_ID, MONTH"};
+
+	// The rollups of the month of a partition table, from its statistics
+	private static final String MONTH_DAILY_SQL = "INSERT INTO STATISTIC_DAILY_ROLLUP (DATASOURCE_ID, CAMPAIGN_ID, DAILY, "
+			+ "CLICKS, IMPRESSIONS, RECORDS) SELECT DATASOURCE_ID, CAMPAIGN_ID, DAILY, SUM(CLICKS), SUM(IMPRESSIONS), "
+			+ "COUNT(*) FROM %s GROUP BY DATASOURCE_ID, CAMPAIGN_ID, DAILY";
+	private static final String MONTH_MONTHLY_SQL = "INSERT INTO STATISTIC_MONTHLY_ROLLUP (DATASOURCE_ID, MONTH, CLICKS, "
+			+ "IMPRESSIONS, RECORDS) SELECT DATASOURCE_ID, CAST(? AS DATE), SUM(CLICKS), SUM(IMPRESSIONS), SUM(RECORDS) "
+			+ "FROM STATISTIC_DAILY_ROLLUP WHERE DAILY BETWEEN ? AND ? GROUP BY DATASOURCE_ID";
+
+	private static final Comparator<DailyKey> DAILY_ORDER = Comparator.comparingInt(DailyKey::getDatasourceId)
+			.thenComparingInt(DailyKey::getCampaignId).thenComparing(DailyKey::getDaily);
+
+	private static final Comparator<MonthlyKey> MONTHLY_ORDER = Comparator.comparingInt(MonthlyKey::getDatasourceId)
+			.thenComparing(MonthlyKey::getMonth);
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final CampaignSketchRegistry campaignSketchRegistry;
+
+	/**
+	 * Adds a chunk of statistics to the rollups. Must be called in the transaction that inserts the chunk.
+	 *
+	 * @param statistics The inserted records
+	 * @param datasourceIds The datasource id of every record
+	 * @param campaignIds The campaign id of every record
+	 */
+	public void add(List<Statistic> statistics, int[] datasourceIds, int[] campaignIds) {
+		long[][] changes = new long[statistics.size()][];
+		for (int i = 0; i < statistics.size(); i++) {
+			changes[i] = new long[] {statistics.get(i).getClicks(), statistics.get(i).getImpressions(), 1};
+		}
+		add(statistics, datasourceIds, campaignIds, changes);
+	}
+
+	/**
+	 * Adds the changes of a chunk of merged statistics to the rollups. Must be called in the transaction that merges
+	 * the chunk.
+	 *
+	 * @param statistics The merged records
+	 * @param datasourceIds The datasource id of every record
+	 * @param campaignIds The campaign id of every record
+	 * @param changes The clicks, impressions and records added by every record, negative if it replaced greater values
+	 */
+	public void add(List<Statistic> statistics, int[] datasourceIds, int[] campaignIds, long[][] changes) {
+		Map<DailyKey, long[]> daily = new TreeMap<>(DAILY_ORDER);
+		Map<MonthlyKey, long[]> monthly = new TreeMap<>(MONTHLY_ORDER);
+		for (int i = 0; i < statistics.size(); i++) {
+			LocalDate day = statistics.get(i).getDaily();
+			sum(daily.computeIfAbsent(new DailyKey(datasourceIds[i], campaignIds[i], day), key -> new long[3]), changes[i]);
+			sum(monthly.computeIfAbsent(new MonthlyKey(datasourceIds[i], day.withDayOfMonth(1)), key -> new long[3]), changes[i]);
+		}
+		// The rollup rows that do not change are not merged
+		daily.values().removeIf(StatisticRollupWriter::isZero);
+		monthly.values().removeIf(StatisticRollupWriter::isZero);
+		jdbcTemplate.batchUpdate(MERGE_DAILY_SQL, new ArrayList<>(daily.entrySet()), daily.size(), (ps, entry) -> {
+			ps.setInt(1, entry.getKey().getDatasourceId());
+			ps.setInt(2, entry.getKey().getCampaignId());
+			ps.setDate(3, Date.valueOf(entry.getKey().getDaily()));
+			ps.setLong(4, entry.getValue()[0]);
+			ps.setLong(5, entry.getValue()[1]);
+			ps.setLong(6, entry.getValue()[2]);
+		});
+		jdbcTemplate.batchUpdate(MERGE_MONTHLY_SQL, new ArrayList<>(monthly.entrySet()), monthly.size(), (ps, entry) -> {
+			ps.setInt(1, entry.getKey().getDatasourceId());
+			ps.setDate(2, Date.valueOf(entry.getKey().getMonth()));
+			ps.setLong(3, entry.getValue()[0]);
+			ps.setLong(4, entry.getValue()[1]);
+			ps.setLong(5, entry.getValue()[2]);
+		});
+		campaignSketchRegistry.add(statistics, datasourceIds, campaignIds);
+	}
+
+	/**
+	 * Deletes the rollups of a month, after its statistics were dropped
+	 *
+	 * @param month The month of the dropped statistics
+	 */
+	public void remove(YearMonth month) {
+		transactionTemplate.executeWithoutResult(status -> delete(month));
+		campaignSketchRegistry.remove(month);
+	}
+
+	/**
+	 * Recomputes the rollups and the campaign sketches of a month from its new partition table, after its
+	 * statistics were replaced
+	 *
+	 * @param month The month of the replaced statistics
+	 * @param table The qualified name of the new partition table of the month
+	 */
+	public void replace(YearMonth month, String table) {
+		transactionTemplate.executeWithoutResult(status -> {
+			delete(month);
+			jdbcTemplate.update(String.format(MONTH_DAILY_SQL, table));
+			jdbcTemplate.update(MONTH_MONTHLY_SQL, Date.valueOf(month.atDay(1)), Date.valueOf(month.atDay(1)),
+					Date.valueOf(month.atEndOfMonth()));
+		});
+		campaignSketchRegistry.remove(month);
+		campaignSketchRegistry.load(month);
+	}
+
+	private void delete(YearMonth month) {
+		jdbcTemplate.update("DELETE FROM STATISTIC_DAILY_ROLLUP WHERE DAILY BETWEEN ? AND ?",
+				Date.valueOf(month.atDay(1)), Date.valueOf(month.atEndOfMonth()));
+		jdbcTemplate.update("DELETE FROM STATISTIC_MONTHLY_ROLLUP WHERE MONTH = ?", Date.valueOf(month.atDay(1)));
+	}
+
+	/**
+	 * Recomputes both rollups and the campaign sketches from all the stored statistics, for example after the statistics were changed with SQL
+	 */
+	public void rebuild() {
+		long start = System.nanoTime();
+		transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(REBUILD_SQL));
+		campaignSketchRegistry.load();
+		log.info("Rebuilt the statistic rollups in {} ms", (System.nanoTime() - start) / 1_000_000);
+	}
+
+	private static boolean isZero(long[] sums) {
+		return sums[0] == 0 && sums[1] == 0 && sums[2] == 0;
+	}
+
+	private static void sum(long[] sums, long[] changes) {
+		sums[0] += changes[0];
+		sums[1] += changes[1];
+		sums[2] += changes[2];
+	}
+
+	@Value
+	private static class DailyKey {
+		int datasourceId;
+		int campaignId;
+		LocalDate daily;
+	}
+
+	@Value
+	private static class MonthlyKey {
+		int datasourceId;
+		LocalDate month;
+	}
+}
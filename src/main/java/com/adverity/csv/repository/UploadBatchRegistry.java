@@ -0,0 +1,223 @@
+package com.adverity.csv.repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import com.adverity.csv.model.SearchCriteria;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.DimensionDictionary.Dimension;
+import com.adverity.csv.util.DateDecoder;
+import com.adverity.csv.util.SearchOperation;
+import com.google.common.collect.Range;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Zone map of the upload batches: the range of the daily dates and the datasources of the statistics of every
+ * upload, stored in UPLOAD_BATCH and UPLOAD_BATCH_DATASOURCE and kept in memory.
+ *
+ * Every upload is a batch and every statistic references its batch. A search with conditions on daily and
+ * datasource only reads the batches whose zone can match them: a batch whose dates are all before a daily>
+ * condition or which has no statistic of a datasource: condition is skipped as a whole.
+ *
+ * The zone of a batch is widened in memory before the chunk that widens it is committed, so a search never skips
+ * a committed statistic. If the chunk is rolled back the zone is only wider than needed.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+public class UploadBatchRegistry {
+
+	private static final String INSERT_SQL = "INSERT INTO UPLOAD_BATCH (CREATED, RECORDS) VALUES (?, 0)";
+	private static final String UPDATE_SQL = "UPDATE UPLOAD_BATCH SET MIN_DAILY = ?, MAX_DAILY = ?, "
+			+ "RECORDS = RECORDS + ? WHERE ID = ?";
+	private static final String INSERT_DATASOURCE_SQL = "INSERT INTO UPLOAD_BATCH_DATASOURCE (BATCH_ID, DATASOURCE_ID) "
+			+ "VALUES (?, ?)";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final DimensionDictionary dimensionDictionary;
+	private final Map<Integer, Zone> zones = new ConcurrentHashMap<Integer, Zone>();
+
+	public UploadBatchRegistry(JdbcTemplate jdbcTemplate, DimensionDictionary dimensionDictionary) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.dimensionDictionary = dimensionDictionary;
+	}
+
+	/**
+	 * Loads the zones of the existing batches
+	 */
+	@PostConstruct
+	public void load() {
+		Map<Integer, Set<Integer>> datasources = new ConcurrentHashMap<Integer, Set<Integer>>();
+		jdbcTemplate.query("SELECT BATCH_ID, DATASOURCE_ID FROM UPLOAD_BATCH_DATASOURCE", rs -> {
+			datasources.computeIfAbsent(rs.getInt(1), id -> new HashSet<Integer>()).add(rs.getInt(2));
+		});
+		jdbcTemplate.query("SELECT ID, MIN_DAILY, MAX_DAILY FROM UPLOAD_BATCH", rs -> {
+			int id = rs.getInt(1);
+			Date min = rs.getDate(2);
+			Date max = rs.getDate(3);
+			zones.put(id, min == null ? Zone.EMPTY : new Zone(min.toLocalDate().toEpochDay(),
+					max.toLocalDate().toEpochDay(), datasources.getOrDefault(id, Set.of())));
+		});
+		log.info("Loaded {} upload batches", zones.size());
+	}
+
+	/**
+	 * Starts a new upload batch
+	 *
+	 * @return The id of the batch
+	 */
+	public int begin() {
+		KeyHolder keyHolder = new GeneratedKeyHolder();
+		jdbcTemplate.update(connection -> {
+			PreparedStatement ps = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS);
+			ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+			return ps;
+		}, keyHolder);
+		int id = keyHolder.getKey().intValue();
+		zones.put(id, Zone.EMPTY);
+		return id;
+	}
+
+	/**
+	 * Widens the zone of a batch with a chunk of its statistics. Must be called in the transaction that inserts
+	 * the chunk, before it is committed.
+	 *
+	 * @param batchId The batch of the records
+	 * @param statistics The inserted records
+	 * @param datasourceIds The datasource id of every record
+	 */
+	public void add(int batchId, List<Statistic> statistics, int[] datasourceIds) {
+		if (statistics.isEmpty()) {
+			return;
+		}
+		Zone zone = zones.getOrDefault(batchId, Zone.EMPTY);
+		long min = zone.min;
+		long max = zone.max;
+		Set<Integer> datasources = new HashSet<Integer>(zone.datasources);
+		Set<Integer> added = new TreeSet<Integer>();
+		for (int i = 0; i < statistics.size(); i++) {
+			long daily = statistics.get(i).getDaily().toEpochDay();
+			min = Math.min(min, daily);
+			max = Math.max(max, daily);
+			if (datasources.add(datasourceIds[i])) {
+				added.add(datasourceIds[i]);
+			}
+		}
+		zones.put(batchId, new Zone(min, max, datasources));
+		jdbcTemplate.update(UPDATE_SQL, Date.valueOf(LocalDate.ofEpochDay(min)), Date.valueOf(LocalDate.ofEpochDay(max)),
+				statistics.size(), batchId);
+		for (Integer datasourceId : added) {
+			jdbcTemplate.update(INSERT_DATASOURCE_SQL, batchId, datasourceId);
+		}
+	}
+
+	/**
+	 * Finds the batches that can have statistics matching the conditions of a search. Only the daily equality,
+	 * daily> and daily< conditions and the datasource equality conditions are used. Conditions joined with OR
+	 * can not prune the batches.
+	 *
+	 * @param criteria The conditions of the search
+	 * @return The ids of the batches to read, empty if all the batches have to be read
+	 */
+	public Optional<Set<Integer>> findBatches(List<SearchCriteria> criteria) {
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		Set<Integer> datasourceIds = new HashSet<Integer>();
+		boolean pruned = false;
+		for (SearchCriteria condition : criteria) {
+			if (condition.isOrPredicate()) {
+				return Optional.empty();
+			}
+			if ("daily".equals(condition.getKey())) {
+				long daily;
+				try {
+					daily = DateDecoder.parseQueryDate(condition.getValue().toString()).toEpochDay();
+				} catch (DateTimeParseException ex) {
+					continue;
+				}
+				if (condition.getOperation() == SearchOperation.GREATER_THAN) {
+					from = Math.max(from, daily + 1);
+				} else if (condition.getOperation() == SearchOperation.LESS_THAN) {
+					to = Math.min(to, daily - 1);
+				} else if (condition.getOperation() == SearchOperation.EQUALITY) {
+					from = Math.max(from, daily);
+					to = Math.min(to, daily);
+				} else {
+					continue;
+				}
+				pruned = true;
+			} else if ("datasource".equals(condition.getKey()) && condition.getOperation() == SearchOperation.EQUALITY) {
+				Integer id = dimensionDictionary.findId(Dimension.DATASOURCE, condition.getValue().toString());
+				// An unknown datasource is in no batch
+				datasourceIds.add(id == null ? -1 : id);
+				pruned = true;
+			}
+		}
+		if (!pruned) {
+			return Optional.empty();
+		}
+		Set<Integer> batches = new TreeSet<Integer>();
+		int count = 0;
+		for (Map.Entry<Integer, Zone> entry : zones.entrySet()) {
+			Zone zone = entry.getValue();
+			if (zone.min <= to && zone.max >= from && zone.datasources.containsAll(datasourceIds)) {
+				batches.add(entry.getKey());
+			}
+			count++;
+		}
+		return batches.size() == count ? Optional.empty() : Optional.of(batches);
+	}
+
+	/**
+	 * @param batches The ids of some batches with statistics
+	 * @return The range from the first to the last daily of their statistics
+	 */
+	public Range<LocalDate> getDailyRange(Set<Integer> batches) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (Integer batchId : batches) {
+			Zone zone = zones.getOrDefault(batchId, Zone.EMPTY);
+			min = Math.min(min, zone.min);
+			max = Math.max(max, zone.max);
+		}
+		return Range.closed(LocalDate.ofEpochDay(min), LocalDate.ofEpochDay(max));
+	}
+
+	/**
+	 * The epoch days of the first and last daily of a batch and its datasource ids
+	 */
+	private static class Zone {
+		static final Zone EMPTY = new Zone(Long.MAX_VALUE, Long.MIN_VALUE, Set.of());
+
+		final long min;
+		final long max;
+		final Set<Integer> datasources;
+
+		Zone(long min, long max, Set<Integer> datasources) {
+			this.min = min;
+			this.max = max;
+			this.datasources = datasources;
+		}
+	}
+}
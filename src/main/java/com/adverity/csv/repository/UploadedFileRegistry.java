@@ -0,0 +1,110 @@
+package com.adverity.csv.repository;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.adverity.csv.model.UploadedFile;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Registry of the content hashes of the uploaded files, stored in UPLOADED_FILE.
+ *
+ * An upload claims the hash of its file before the file is parsed. If the hash is already registered, the same
+ * content was stored or is being stored by another upload and the file is not ingested again. The claim is
+ * released if the upload stores no statistic, and the files with statistics in a dropped month are forgotten, so
+ * their content can be uploaded again. An upload that fails after storing some chunks keeps its claim as failed:
+ * uploading it again would store these chunks twice, so it can only be uploaded again once their months are
+ * dropped.
+ *
+ * @author Mihai Zanfir
+ */
+@Log4j2
+@Repository
+@AllArgsConstructor
+public class UploadedFileRegistry {
+
+	private static final String INSERT_SQL = "INSERT INTO UPLOADED_FILE (HASH, FILE_NAME, UPLOADED) VALUES (?, ?, ?)";
+	private static final String SELECT_SQL = "SELECT HASH, FILE_NAME, UPLOADED, RECORDS, FAILED FROM UPLOADED_FILE WHERE HASH = ?";
+	private static final String COMPLETE_SQL = "UPDATE UPLOADED_FILE SET BATCH_ID = ?, RECORDS = ?, FAILED = ? WHERE HASH = ?";
+	private static final String REMOVE_SQL = "DELETE FROM UPLOADED_FILE WHERE BATCH_ID IN "
+			+ "(SELECT ID FROM UPLOAD_BATCH WHERE MIN_DAILY <= ? AND MAX_DAILY >= ?)";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Registers the content of a file before it is ingested
+	 *
+	 * @param hash The SHA-256 of the content
+	 * @param fileName The name of the uploaded file
+	 * @return The earlier upload of the same content, empty if the file was claimed and has to be ingested
+	 */
+	public Optional<UploadedFile> claim(String hash, String fileName) {
+		while (true) {
+			try {
+				jdbcTemplate.update(INSERT_SQL, hash, fileName, Timestamp.valueOf(LocalDateTime.now()));
+				return Optional.empty();
+			} catch (DuplicateKeyException ex) {
+				List<UploadedFile> files = jdbcTemplate.query(SELECT_SQL, (rs, row) -> new UploadedFile(rs.getString(1),
+						rs.getString(2), rs.getTimestamp(3).toLocalDateTime(), rs.getObject(4, Long.class),
+						rs.getBoolean(5)), hash);
+				// Else the claim was released in between and can be made again
+				if (!files.isEmpty()) {
+					log.info("The content of {} was already uploaded: {}", fileName, files.get(0));
+					return Optional.of(files.get(0));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the stored statistics of a claimed file
+	 *
+	 * @param hash The SHA-256 of the content
+	 * @param batchId The upload batch of the statistics
+	 * @param records The number of stored rows
+	 */
+	public void complete(String hash, Integer batchId, long records) {
+		jdbcTemplate.update(COMPLETE_SQL, batchId, records, false, hash);
+	}
+
+	/**
+	 * Records the stored statistics of a claimed file whose upload stopped before the end of the file. The claim is
+	 * kept, so the stored chunks are not stored again by another upload of the file.
+	 *
+	 * @param hash The SHA-256 of the content
+	 * @param batchId The upload batch of the statistics
+	 * @param records The number of stored rows
+	 */
+	public void fail(String hash, Integer batchId, long records) {
+		jdbcTemplate.update(COMPLETE_SQL, batchId, records, true, hash);
+	}
+
+	/**
+	 * Releases a claimed file whose upload stored nothing, so it can be uploaded again
+	 *
+	 * @param hash The SHA-256 of the content
+	 */
+	public void release(String hash) {
+		jdbcTemplate.update("DELETE FROM UPLOADED_FILE WHERE HASH = ?", hash);
+	}
+
+	/**
+	 * Forgets the files with statistics in a month, after its statistics were dropped
+	 *
+	 * @param month The month of the dropped statistics
+	 */
+	public void remove(YearMonth month) {
+		int files = jdbcTemplate.update(REMOVE_SQL, Date.valueOf(month.atEndOfMonth()), Date.valueOf(month.atDay(1)));
+		log.info("Forgot {} uploaded files with statistics in {}", files, month);
+	}
+}
@@ -0,0 +1,677 @@
+package com.adverity.csv.service;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.nio.IntBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import org.springframework.stereotype.Service;
+
+import com.adverity.csv.model.AggregateFunction;
+import com.adverity.csv.model.Column;
+import com.adverity.csv.model.DisplayColumn;
+import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.model.SearchCriteria;
+import com.adverity.csv.repository.ColumnSegment;
+import com.adverity.csv.repository.ColumnarStatisticStore;
+import com.adverity.csv.repository.ColumnarStatisticStore.Columns;
+import com.adverity.csv.repository.DimensionDictionary;
+import com.adverity.csv.repository.StatisticColumn;
+import com.adverity.csv.util.DateDecoder;
+import com.adverity.csv.util.SearchQueryParser;
+import com.google.common.primitives.Ints;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Runs the searches on the ColumnarStatisticStore instead of the database.
+ *
+ * The segments are scanned in place. The conditions are evaluated one column at a time into a boolean mask of the
+ * matching rows of every segment, a name condition is evaluated once per dictionary id and a numeric condition
+ * that the minimum and maximum of a segment column decide is not evaluated per row. The grouped searches sum the
+ * masked rows in a primitive hash table keyed by the grouped values packed in a long. Only the returned records
+ * are created, never a Statistic per row.
+ *
+ * The searches the engine can not answer exactly like the database return null and are run by the database:
+ * a search paged with a cursor, a condition on a column that is not grouped, an unknown column, a function other
+ * than sum, or a condition value that is not a number or a date for a numeric or daily column.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@AllArgsConstructor
+public class ColumnarQueryEngine {
+
+	private static final int RECORDS_DEFAULT_LIMIT = 1000;
+
+	private final ColumnarStatisticStore columnarStatisticStore;
+	private final DimensionDictionary dimensionDictionary;
+
+	/**
+	 * A displayed or ordered column, summed or not
+	 */
+	@AllArgsConstructor
+	private static class Output {
+		private final StatisticColumn column;
+		private final boolean sum;
+		private final boolean desc;
+	}
+
+	/**
+	 * Runs a search, see CsvService.searchStatistics for the parameters
+	 *
+	 * @return The records like the database returns them, or null if the search must be run by the database
+	 */
+	public List<Object> search(String display, String condition, String groupBy, String orderBy, String offset,
+			String limit) {
+		if (!columnarStatisticStore.isEnabled()) {
+			return null;
+		}
+		List<Output> outputs = parseOutputs(isNotBlank(display) ? SearchQueryParser.parseDisplay(display) : null);
+		List<StatisticColumn> groups = parseGroups(groupBy);
+		List<Output> orders = parseOrders(orderBy);
+		if (outputs == null || groups == null || orders == null) {
+			return null;
+		}
+		boolean grouped = !groups.isEmpty();
+		boolean total = !grouped && outputs.stream().allMatch(output -> output.sum);
+		if (!isAnswered(outputs, groups, grouped, total) || !isAnswered(orders, groups, grouped, total)) {
+			return null;
+		}
+		Columns columns = columnarStatisticStore.getColumns();
+		boolean[][] masks = filter(columns, condition, grouped ? groups : null);
+		if (masks == null) {
+			return null;
+		}
+		int offsetNr = isNotBlank(offset) ? Optional.ofNullable(Ints.tryParse(offset)).orElse(0) : 0;
+		int limitNr = isNotBlank(limit) ? Optional.ofNullable(Ints.tryParse(limit)).orElse(RECORDS_DEFAULT_LIMIT)
+				: Integer.MAX_VALUE;
+		if (total) {
+			return page(Arrays.asList(total(columns, masks, outputs)), offsetNr, limitNr);
+		}
+		if (grouped) {
+			return groups(columns, masks, outputs, groups, orders, offsetNr, limitNr);
+		}
+		return rows(columns, masks, outputs, orders, offsetNr, limitNr);
+	}
+
+	private List<Output> parseOutputs(List<DisplayColumn> columns) {
+		List<Output> outputs = new ArrayList<Output>();
+		if (columns == null) {
+			for (StatisticColumn column : StatisticColumn.values()) {
+				outputs.add(new Output(column, false, false));
+			}
+			return outputs;
+		}
+		for (DisplayColumn column : columns) {
+			StatisticColumn statisticColumn = StatisticColumn.of(column.getColumn());
+			if (statisticColumn == null || !isSupported(column.getColumn(), column.getFunction())) {
+				return null;
+			}
+			outputs.add(new Output(statisticColumn, isNotBlank(column.getFunction()), false));
+		}
+		return outputs;
+	}
+
+	private List<StatisticColumn> parseGroups(String groupBy) {
+		List<StatisticColumn> groups = new ArrayList<StatisticColumn>();
+		if (isNotBlank(groupBy)) {
+			for (Column column : SearchQueryParser.parseGroupBy(groupBy)) {
+				StatisticColumn statisticColumn = StatisticColumn.of(column.getColumn());
+				if (statisticColumn == null) {
+					return null;
+				}
+				groups.add(statisticColumn);
+			}
+		}
+		return groups;
+	}
+
+	private List<Output> parseOrders(String orderBy) {
+		List<Output> orders = new ArrayList<Output>();
+		if (isNotBlank(orderBy)) {
+			for (OrderColumn column : SearchQueryParser.parseOrderBy(orderBy)) {
+				StatisticColumn statisticColumn = StatisticColumn.of(column.getColumn());
+				if (statisticColumn == null || !isSupported(column.getColumn(), column.getFunction())) {
+					return null;
+				}
+				orders.add(new Output(statisticColumn, isNotBlank(column.getFunction()),
+						"desc".equalsIgnoreCase(column.getDirection())));
+			}
+		}
+		return orders;
+	}
+
+	/**
+	 * @return If the column has no function or is summed, the other aggregate functions are run by the database
+	 */
+	private static boolean isSupported(String column, String function) {
+		return !isNotBlank(function) || AggregateFunction.of(column, function) == AggregateFunction.SUM;
+	}
+
+	/**
+	 * @return If the columns are valid in the SELECT or ORDER BY of the search
+	 */
+	private boolean isAnswered(List<Output> outputs, List<StatisticColumn> groups, boolean grouped, boolean total) {
+		for (Output output : outputs) {
+			if (output.sum ? !output.column.isMeasure() || !(grouped || total)
+					: grouped && !groups.contains(output.column) || total) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluates the conditions one after the other, each one is combined with the result of the previous ones
+	 *
+	 * @param groups The grouped columns, the only columns a grouped search can filter, null if it is not grouped
+	 * @return The matching rows of every segment or null if the condition must be run by the database
+	 */
+	private boolean[][] filter(Columns columns, String condition, List<StatisticColumn> groups) {
+		List<ColumnSegment> segments = columns.getSegments();
+		boolean[][] masks = new boolean[segments.size()][];
+		for (int s = 0; s < masks.length; s++) {
+			masks[s] = new boolean[segments.get(s).getSize()];
+			Arrays.fill(masks[s], true);
+		}
+		if (!isNotBlank(condition)) {
+			return masks;
+		}
+		for (SearchCriteria criteria : SearchQueryParser.parseCondition(condition)) {
+			StatisticColumn column = StatisticColumn.of(criteria.getKey());
+			if (column == null || criteria.getOperation() == null || groups != null && !groups.contains(column)) {
+				return null;
+			}
+			String value = criteria.getValue().toString();
+			boolean[] names = null;
+			Integer number = null;
+			if (column.isName()) {
+				names = matchNames(column, columns, criteria, value);
+			} else {
+				number = parseNumber(column, criteria, value);
+				if (number == null) {
+					return null;
+				}
+			}
+			for (int s = 0; s < masks.length; s++) {
+				boolean[] mask = masks[s];
+				boolean[] matches = names != null ? match(segments.get(s), column, names)
+						: match(segments.get(s), column, criteria, number);
+				if (criteria.isOrPredicate()) {
+					for (int i = 0; i < mask.length; i++) {
+						mask[i] |= matches[i];
+					}
+				} else {
+					for (int i = 0; i < mask.length; i++) {
+						mask[i] &= matches[i];
+					}
+				}
+			}
+		}
+		return masks;
+	}
+
+	/**
+	 * @return The number a condition compares a numeric or daily column with, null if the database must run it
+	 */
+	private Integer parseNumber(StatisticColumn column, SearchCriteria criteria, String value) {
+		switch (criteria.getOperation()) {
+		case EQUALITY:
+		case GREATER_THAN:
+		case LESS_THAN:
+			return column == StatisticColumn.DAILY
+					? Optional.ofNullable(DateDecoder.parseQueryDate(value)).map(date -> (int) date.toEpochDay()).orElse(null)
+					: Ints.tryParse(value.trim());
+		case NEGATION:
+			return column == StatisticColumn.DAILY ? null : Ints.tryParse(value.trim());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return The rows of a segment matching a numeric condition
+	 */
+	private boolean[] match(ColumnSegment segment, StatisticColumn column, SearchCriteria criteria, int bound) {
+		boolean[] matches = new boolean[segment.getSize()];
+		int min = segment.getMin(column);
+		int max = segment.getMax(column);
+		IntBuffer values = segment.getColumn(column);
+		switch (criteria.getOperation()) {
+		case EQUALITY:
+			if (min <= bound && bound <= max) {
+				for (int i = 0; i < matches.length; i++) {
+					matches[i] = values.get(i) == bound;
+				}
+			}
+			break;
+		case NEGATION:
+			if (min <= bound && bound <= max) {
+				for (int i = 0; i < matches.length; i++) {
+					matches[i] = values.get(i) != bound;
+				}
+			} else {
+				Arrays.fill(matches, true);
+			}
+			break;
+		case GREATER_THAN:
+			if (min > bound) {
+				Arrays.fill(matches, true);
+			} else if (max > bound) {
+				for (int i = 0; i < matches.length; i++) {
+					matches[i] = values.get(i) > bound;
+				}
+			}
+			break;
+		default:
+			if (max < bound) {
+				Arrays.fill(matches, true);
+			} else if (min < bound) {
+				for (int i = 0; i < matches.length; i++) {
+					matches[i] = values.get(i) < bound;
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param names For every dictionary id, if its name matches the condition
+	 * @return The rows of a segment matching a name condition
+	 */
+	private boolean[] match(ColumnSegment segment, StatisticColumn column, boolean[] names) {
+		boolean[] matches = new boolean[segment.getSize()];
+		IntBuffer values = segment.getColumn(column);
+		int[] ids = segment.getIds(column);
+		boolean[] segmentNames = names;
+		if (ids != null) {
+			segmentNames = new boolean[ids.length];
+			for (int position = 0; position < ids.length; position++) {
+				segmentNames[position] = names[ids[position]];
+			}
+		}
+		for (int i = 0; i < matches.length; i++) {
+			matches[i] = segmentNames[values.get(i)];
+		}
+		return matches;
+	}
+
+	/**
+	 * @return For every dictionary id used by the column, if its name matches the condition
+	 */
+	private boolean[] matchNames(StatisticColumn column, Columns columns, SearchCriteria criteria, String value) {
+		Pattern like = null;
+		switch (criteria.getOperation()) {
+		case LIKE:
+			like = like(value);
+			break;
+		case STARTS_WITH:
+			like = like(value + "%");
+			break;
+		case ENDS_WITH:
+			like = like("%" + value);
+			break;
+		case CONTAINS:
+			like = like("%" + value + "%");
+			break;
+		default:
+		}
+		boolean[] names = new boolean[maxId(columns, column) + 1];
+		for (int id = 0; id < names.length; id++) {
+			String name = dimensionDictionary.getName(column.getDimension(), id);
+			if (name == null) {
+				continue;
+			}
+			switch (criteria.getOperation()) {
+			case EQUALITY:
+				names[id] = name.equals(value);
+				break;
+			case NEGATION:
+				names[id] = !name.equals(value);
+				break;
+			case GREATER_THAN:
+				names[id] = name.compareTo(value) > 0;
+				break;
+			case LESS_THAN:
+				names[id] = name.compareTo(value) < 0;
+				break;
+			default:
+				names[id] = like.matcher(name).matches();
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return The regular expression of a SQL LIKE pattern with the default \ escape character
+	 */
+	private static Pattern like(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '\\' && i + 1 < pattern.length()) {
+				regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+			} else if (c == '%') {
+				regex.append(".*");
+			} else if (c == '_') {
+				regex.append('.');
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private Object total(Columns columns, boolean[][] masks, List<Output> outputs) {
+		Object[] record = new Object[outputs.size()];
+		boolean found = false;
+		for (int o = 0; o < outputs.size(); o++) {
+			long sum = 0;
+			for (int s = 0; s < masks.length; s++) {
+				IntBuffer values = columns.getSegments().get(s).getColumn(outputs.get(o).column);
+				boolean[] mask = masks[s];
+				for (int i = 0; i < mask.length; i++) {
+					if (mask[i]) {
+						sum += values.get(i);
+						found = true;
+					}
+				}
+			}
+			record[o] = sum;
+		}
+		if (!found) {
+			// The SQL SUM of no rows is null
+			Arrays.fill(record, null);
+		}
+		return record.length == 1 ? record[0] : record;
+	}
+
+	private List<Object> rows(Columns columns, boolean[][] masks, List<Output> outputs, List<Output> orders,
+			int offset, int limit) {
+		List<ColumnSegment> segments = columns.getSegments();
+		List<Object> records = new ArrayList<Object>();
+		if (orders.isEmpty()) {
+			// Without order the scan stops at the last returned record
+			int skipped = 0;
+			for (int s = 0; s < masks.length && records.size() < limit; s++) {
+				for (int i = 0; i < masks[s].length && records.size() < limit; i++) {
+					if (masks[s][i] && skipped++ >= offset) {
+						records.add(record(segments.get(s), i, outputs));
+					}
+				}
+			}
+			return records;
+		}
+		// The matching rows as segment and row, with the values of their ordered columns
+		int count = 0;
+		for (boolean[] mask : masks) {
+			for (boolean match : mask) {
+				count += match ? 1 : 0;
+			}
+		}
+		int[] rowSegments = new int[count];
+		int[] rows = new int[count];
+		long[][] keys = new long[orders.size()][count];
+		int[][] ranks = new int[orders.size()][];
+		for (int o = 0; o < orders.size(); o++) {
+			ranks[o] = orders.get(o).column.isName() ? ranks(orders.get(o).column, columns) : null;
+		}
+		int k = 0;
+		for (int s = 0; s < masks.length; s++) {
+			ColumnSegment segment = segments.get(s);
+			for (int i = 0; i < masks[s].length; i++) {
+				if (masks[s][i]) {
+					rowSegments[k] = s;
+					rows[k] = i;
+					for (int o = 0; o < orders.size(); o++) {
+						int value = segment.get(orders.get(o).column, i);
+						keys[o][k] = ranks[o] != null ? ranks[o][value] : value;
+					}
+					k++;
+				}
+			}
+		}
+		int[] sorted = IntStream.range(0, count).boxed().sorted(comparator(orders, keys))
+				.skip(offset).limit(limit).mapToInt(Integer::intValue).toArray();
+		for (int record : sorted) {
+			records.add(record(segments.get(rowSegments[record]), rows[record], outputs));
+		}
+		return records;
+	}
+
+	private Object record(ColumnSegment segment, int row, List<Output> outputs) {
+		Object[] record = new Object[outputs.size()];
+		for (int o = 0; o < outputs.size(); o++) {
+			record[o] = value(outputs.get(o).column, segment.get(outputs.get(o).column, row));
+		}
+		return record.length == 1 ? record[0] : record;
+	}
+
+	private List<Object> groups(Columns columns, boolean[][] masks, List<Output> outputs,
+			List<StatisticColumn> groups, List<Output> orders, int offset, int limit) {
+		// The grouped values are packed in a long key: each value is offset by its column minimum and multiplied
+		// by the ranges of the following columns. The ranges are read from the segment minimums and maximums.
+		int[] minimums = new int[groups.size()];
+		long[] ranges = new long[groups.size()];
+		long[] strides = new long[groups.size()];
+		long stride = 1;
+		for (int g = groups.size() - 1; g >= 0; g--) {
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			for (ColumnSegment segment : columns.getSegments()) {
+				min = Math.min(min, segment.getMin(groups.get(g)));
+				max = Math.max(max, segment.getMax(groups.get(g)));
+			}
+			minimums[g] = min;
+			ranges[g] = Math.max(1, (long) max - min + 1);
+			strides[g] = stride;
+			try {
+				stride = Math.multiplyExact(stride, ranges[g]);
+			} catch (ArithmeticException ex) {
+				return null;
+			}
+		}
+		List<StatisticColumn> sums = new ArrayList<StatisticColumn>();
+		for (Output output : outputs) {
+			if (output.sum && !sums.contains(output.column)) {
+				sums.add(output.column);
+			}
+		}
+		for (Output order : orders) {
+			if (order.sum && !sums.contains(order.column)) {
+				sums.add(order.column);
+			}
+		}
+		GroupTable table = new GroupTable(sums.size());
+		for (int s = 0; s < masks.length; s++) {
+			ColumnSegment segment = columns.getSegments().get(s);
+			IntBuffer[] groupValues = new IntBuffer[groups.size()];
+			int[][] groupIds = new int[groups.size()][];
+			for (int g = 0; g < groups.size(); g++) {
+				groupValues[g] = segment.getColumn(groups.get(g));
+				groupIds[g] = segment.getIds(groups.get(g));
+			}
+			IntBuffer[] sumValues = sums.stream().map(segment::getColumn).toArray(IntBuffer[]::new);
+			boolean[] mask = masks[s];
+			for (int i = 0; i < mask.length; i++) {
+				if (mask[i]) {
+					long key = 0;
+					for (int g = 0; g < groupValues.length; g++) {
+						int value = groupValues[g].get(i);
+						if (groupIds[g] != null) {
+							value = groupIds[g][value];
+						}
+						key += ((long) value - minimums[g]) * strides[g];
+					}
+					int group = table.group(key);
+					for (int m = 0; m < sumValues.length; m++) {
+						table.sums[m][group] += sumValues[m].get(i);
+					}
+				}
+			}
+		}
+		// The values of the grouped columns of every group, decoded from its key
+		int[][] values = new int[groups.size()][table.size];
+		for (int g = 0; g < groups.size(); g++) {
+			for (int group = 0; group < table.size; group++) {
+				values[g][group] = (int) (table.groupKeys[group] / strides[g] % ranges[g] + minimums[g]);
+			}
+		}
+		int[] order = IntStream.range(0, table.size).toArray();
+		if (!orders.isEmpty()) {
+			long[][] keys = new long[orders.size()][];
+			for (int o = 0; o < orders.size(); o++) {
+				Output output = orders.get(o);
+				if (output.sum) {
+					keys[o] = table.sums[sums.indexOf(output.column)];
+				} else {
+					int[] groupValues = values[groups.indexOf(output.column)];
+					int[] ranks = output.column.isName() ? ranks(output.column, columns) : null;
+					keys[o] = new long[table.size];
+					for (int group = 0; group < table.size; group++) {
+						keys[o][group] = ranks != null ? ranks[groupValues[group]] : groupValues[group];
+					}
+				}
+			}
+			order = IntStream.of(order).boxed().sorted(comparator(orders, keys)).mapToInt(Integer::intValue)
+					.toArray();
+		}
+		List<Object> records = new ArrayList<Object>();
+		for (int index = offset; index < order.length && records.size() < limit; index++) {
+			int group = order[index];
+			Object[] record = new Object[outputs.size()];
+			for (int o = 0; o < outputs.size(); o++) {
+				Output output = outputs.get(o);
+				record[o] = output.sum ? (Object) table.sums[sums.indexOf(output.column)][group]
+						: value(output.column, values[groups.indexOf(output.column)][group]);
+			}
+			records.add(record.length == 1 ? record[0] : record);
+		}
+		return records;
+	}
+
+	/**
+	 * @param keys For every ordered column, its value for every record, the names replaced by their rank
+	 * @return The order of the records in the orderBy
+	 */
+	private static Comparator<Integer> comparator(List<Output> orders, long[][] keys) {
+		Comparator<Integer> comparator = null;
+		for (int o = 0; o < orders.size(); o++) {
+			long[] key = keys[o];
+			Comparator<Integer> next = Comparator.comparingLong(record -> key[record]);
+			next = orders.get(o).desc ? next.reversed() : next;
+			comparator = comparator == null ? next : comparator.thenComparing(next);
+		}
+		return comparator;
+	}
+
+	/**
+	 * @return For every dictionary id used by the column, the position of its name in the sorted names, so the
+	 *         names are compared like the database compares them
+	 */
+	private int[] ranks(StatisticColumn column, Columns columns) {
+		Integer[] ids = IntStream.rangeClosed(0, maxId(columns, column)).boxed().toArray(Integer[]::new);
+		Arrays.sort(ids, Comparator.comparing(id -> dimensionDictionary.getName(column.getDimension(), id),
+				Comparator.nullsFirst(Comparator.naturalOrder())));
+		int[] ranks = new int[ids.length];
+		for (int rank = 0; rank < ids.length; rank++) {
+			ranks[ids[rank]] = rank;
+		}
+		return ranks;
+	}
+
+	private Object value(StatisticColumn column, int value) {
+		switch (column) {
+		case DATASOURCE:
+		case CAMPAIGN:
+			return dimensionDictionary.getName(column.getDimension(), value);
+		case DAILY:
+			return LocalDate.ofEpochDay(value);
+		default:
+			return value;
+		}
+	}
+
+	private static List<Object> page(List<Object> records, int offset, int limit) {
+		return records.subList(Math.min(offset, records.size()),
+				(int) Math.min((long) offset + limit, records.size()));
+	}
+
+	private static int maxId(Columns columns, StatisticColumn column) {
+		int max = 0;
+		for (ColumnSegment segment : columns.getSegments()) {
+			max = Math.max(max, segment.getMax(column));
+		}
+		return max;
+	}
+
+	/**
+	 * Open addressing hash table from a packed group key to its group number, with the sums of every group
+	 */
+	private static class GroupTable {
+		private long[] keys = new long[1024];
+		private int[] groups = new int[1024];
+		private long[] groupKeys = new long[256];
+		private long[][] sums;
+		private int size;
+
+		GroupTable(int measures) {
+			Arrays.fill(groups, -1);
+			sums = new long[measures][256];
+		}
+
+		/**
+		 * @return The group of the key, added if it is new
+		 */
+		int group(long key) {
+			int mask = keys.length - 1;
+			int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+			while (groups[slot] >= 0) {
+				if (keys[slot] == key) {
+					return groups[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (size == groupKeys.length) {
+				groupKeys = Arrays.copyOf(groupKeys, size * 2);
+				for (int s = 0; s < sums.length; s++) {
+					sums[s] = Arrays.copyOf(sums[s], size * 2);
+				}
+			}
+			keys[slot] = key;
+			groups[slot] = size;
+			groupKeys[size] = key;
+			if (++size * 2 > keys.length) {
+				rehash();
+			}
+			return size - 1;
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			int[] oldGroups = groups;
+			keys = new long[oldKeys.length * 2];
+			groups = new int[oldKeys.length * 2];
+			Arrays.fill(groups, -1);
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldGroups[i] >= 0) {
+					int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+					while (groups[slot] >= 0) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					groups[slot] = oldGroups[i];
+				}
+			}
+		}
+	}
+}
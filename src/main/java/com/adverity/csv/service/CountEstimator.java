@@ -0,0 +1,177 @@
+package com.adverity.csv.service;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.adverity.csv.model.Column;
+import com.adverity.csv.model.CountMode;
+import com.adverity.csv.model.SearchCount;
+import com.adverity.csv.model.SearchCriteria;
+import com.adverity.csv.repository.CampaignSketchRegistry;
+import com.adverity.csv.repository.DimensionDictionary;
+import com.adverity.csv.repository.DimensionDictionary.Dimension;
+import com.adverity.csv.util.DateDecoder;
+import com.adverity.csv.util.SearchOperation;
+import com.adverity.csv.util.SearchQueryParser;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Estimates the number of records of a search from the STATISTIC_MONTHLY_ROLLUP and the CampaignSketchRegistry,
+ * without reading the statistics.
+ *
+ * A search without groupBy is estimated from the records of the matching datasources and months: a month partly
+ * inside the daily conditions counts the same fraction of its records as of its days. A search grouped by datasource
+ * counts the datasources of the rollup, a search grouped by campaign or by datasource and campaign is estimated with
+ * the campaign sketches. Only the conditions joined with AND on datasource (equality and negation) and on daily
+ * (equality, daily> and daily<) can be estimated, any other search is counted exactly by the caller.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@AllArgsConstructor
+public class CountEstimator {
+
+	private static final String ROLLUP_SOURCE = "StatisticMonthly";
+	private static final String SKETCH_SOURCE = "CampaignSketch";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final DimensionDictionary dimensionDictionary;
+	private final CampaignSketchRegistry campaignSketchRegistry;
+
+	/**
+	 * See CsvService.searchStatistics for the parameters.
+	 *
+	 * @return The estimated number of records of the search, null if it can not be estimated
+	 */
+	public SearchCount estimate(String condition, String groupBy) {
+		Filter filter = new Filter();
+		if (isNotBlank(condition)) {
+			for (SearchCriteria criteria : SearchQueryParser.parseCondition(condition)) {
+				if (criteria.isOrPredicate() || !filter.add(criteria)) {
+					return null;
+				}
+			}
+		}
+		if (!isNotBlank(groupBy)) {
+			return new SearchCount(Math.round(estimateRecords(filter)), CountMode.APPROX, ROLLUP_SOURCE);
+		}
+		Set<String> groups = SearchQueryParser.parseGroupBy(groupBy).stream().map(Column::getColumn)
+				.collect(Collectors.toSet());
+		// The conditions of a grouped search are on its groups and the daily ranges can not be estimated per group
+		if (filter.hasDaily() || filter.hasDatasource() && !groups.contains("datasource")) {
+			return null;
+		}
+		Set<Integer> datasourceIds = campaignSketchRegistry.getDatasourceIds().stream()
+				.filter(id -> filter.matches(dimensionDictionary.getName(Dimension.DATASOURCE, id)))
+				.collect(Collectors.toSet());
+		if (groups.equals(Set.of("datasource"))) {
+			return new SearchCount(datasourceIds.size(), CountMode.APPROX, SKETCH_SOURCE);
+		}
+		if (groups.equals(Set.of("campaign"))) {
+			return new SearchCount(campaignSketchRegistry.estimateCampaigns(null), CountMode.APPROX, SKETCH_SOURCE);
+		}
+		if (groups.equals(Set.of("datasource", "campaign"))) {
+			// Every datasource has its own campaign groups
+			long count = 0;
+			for (Integer datasourceId : datasourceIds) {
+				count += campaignSketchRegistry.estimateCampaigns(Set.of(datasourceId));
+			}
+			return new SearchCount(count, CountMode.APPROX, SKETCH_SOURCE);
+		}
+		return null;
+	}
+
+	/**
+	 * @return The records of the matching datasources and months, prorated by the days of a month the filter keeps
+	 */
+	private double estimateRecords(Filter filter) {
+		double[] records = {0};
+		jdbcTemplate.query("SELECT DATASOURCE_ID, MONTH, RECORDS FROM STATISTIC_MONTHLY_ROLLUP", rs -> {
+			if (!filter.matches(dimensionDictionary.getName(Dimension.DATASOURCE, rs.getInt(1)))) {
+				return;
+			}
+			LocalDate month = rs.getDate(2).toLocalDate();
+			long first = month.toEpochDay();
+			long last = month.plusMonths(1).toEpochDay() - 1;
+			long days = Math.min(last, filter.to) - Math.max(first, filter.from) + 1;
+			if (days > 0) {
+				records[0] += rs.getLong(3) * (double) days / (last - first + 1);
+			}
+		});
+		return records[0];
+	}
+
+	/**
+	 * The datasource and daily conditions of a search
+	 */
+	private static class Filter {
+		// The epoch days of the first and last matching daily
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		final Set<String> datasources = new HashSet<String>();
+		final Set<String> excludedDatasources = new HashSet<String>();
+
+		/**
+		 * @return false if the condition can not be estimated
+		 */
+		boolean add(SearchCriteria criteria) {
+			String value = criteria.getValue().toString();
+			if ("datasource".equals(criteria.getKey())) {
+				if (criteria.getOperation() == SearchOperation.EQUALITY) {
+					datasources.add(value);
+				} else if (criteria.getOperation() == SearchOperation.NEGATION) {
+					excludedDatasources.add(value);
+				} else {
+					return false;
+				}
+				return true;
+			}
+			if (!"daily".equals(criteria.getKey())) {
+				return false;
+			}
+			LocalDate date;
+			try {
+				date = DateDecoder.parseQueryDate(value);
+			} catch (DateTimeParseException ex) {
+				return false;
+			}
+			if (date == null) {
+				return false;
+			}
+			long daily = date.toEpochDay();
+			if (criteria.getOperation() == SearchOperation.GREATER_THAN) {
+				from = Math.max(from, daily + 1);
+			} else if (criteria.getOperation() == SearchOperation.LESS_THAN) {
+				to = Math.min(to, daily - 1);
+			} else if (criteria.getOperation() == SearchOperation.EQUALITY) {
+				from = Math.max(from, daily);
+				to = Math.min(to, daily);
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		boolean hasDatasource() {
+			return !datasources.isEmpty() || !excludedDatasources.isEmpty();
+		}
+
+		boolean hasDaily() {
+			return from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+		}
+
+		boolean matches(String datasource) {
+			return datasource != null && !excludedDatasources.contains(datasource)
+					&& (datasources.isEmpty() || datasources.size() == 1 && datasources.contains(datasource));
+		}
+	}
+}
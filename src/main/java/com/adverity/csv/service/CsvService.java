@@ -5,16 +5,23 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
@@ -23,26 +30,51 @@ import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Selection;
 
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.PathResource;
+import org.springframework.dao.DataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.ui.Model;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import com.adverity.csv.mapper.StatisticMapper;
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.AggregateFunction;
+import com.adverity.csv.model.CapturedStatement;
 import com.adverity.csv.model.Column;
+import com.adverity.csv.model.CountMode;
 import com.adverity.csv.model.DisplayColumn;
 import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.SearchCount;
 import com.adverity.csv.model.SearchCriteria;
+import com.adverity.csv.model.SearchQueryKey;
+import com.adverity.csv.model.SearchResult;
 import com.adverity.csv.model.Statistic;
 import com.adverity.csv.model.StatisticCsv;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.model.UploadedFile;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticIndexManager;
+import com.adverity.csv.repository.StatisticPartitionManager;
 import com.adverity.csv.repository.StatisticRepository;
-import com.adverity.csv.util.SearchOperation;
+import com.adverity.csv.repository.UploadBatchRegistry;
+import com.adverity.csv.repository.UploadedFileRegistry;
+import com.adverity.csv.service.IndexAdvisor.Clause;
+import com.adverity.csv.util.ContentHasher;
+import com.adverity.csv.util.DateDecoder;
+import com.adverity.csv.util.QueryShape;
+import com.adverity.csv.util.RollupQueryPlanner;
+import com.adverity.csv.util.SearchCursor;
 import com.adverity.csv.util.SearchQueryCriteriaConsumer;
-import com.google.common.base.Joiner;
+import com.adverity.csv.util.SearchQueryParser;
+import com.adverity.csv.util.PartitionPruning;
+import com.adverity.csv.util.SqlCapture;
+import com.google.common.collect.Range;
+import com.google.common.io.CountingInputStream;
 import com.google.common.primitives.Ints;
-import com.opencsv.bean.CsvToBean;
-import com.opencsv.bean.CsvToBeanBuilder;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -58,38 +90,80 @@ import lombok.extern.log4j.Log4j2;
 public class CsvService {
 	// Limits the displayed records to 1000
 	private final int RECORDS_DEFAULT_LIMIT = 1000;
+	// Limits the displayed rejected rows of an upload to 100
+	private final int REJECTS_DISPLAY_LIMIT = 100;
 	// An array of illegal words. If the SQL contains any of these than it will throw a 500 error
 	private final String[] illegalWords = {"INSERT", "DELETE", "UPDATE", "DROP", "TABLE", "CREATE"};
 
 	private final StatisticRepository statisticRepository;
-	private final StatisticMapper statisticMapper;
 	private final EntityManager entityManager;
+	private final CsvProperties csvProperties;
+	private final StatisticBatchWriter statisticBatchWriter;
+	private final StatisticCsvParser statisticCsvParser;
+	private final ParallelCsvParser parallelCsvParser;
+	private final StatisticIndexManager statisticIndexManager;
+	private final IndexAdvisor indexAdvisor;
+	private final SearchResultCache searchResultCache;
+	private final ColumnarQueryEngine columnarQueryEngine;
+	private final UploadBatchRegistry uploadBatchRegistry;
+	private final UploadedFileRegistry uploadedFileRegistry;
+	private final PipelineMetrics pipelineMetrics;
+	private final QueryProfiler queryProfiler;
+	private final CountEstimator countEstimator;
+	private final StatisticPartitionManager statisticPartitionManager;
 
 	/**
-	 * Uploads a CSV file, parse it and save its data in the database
+	 * Uploads a CSV file, parse it and save its data in the database with the default upload mode
 	 * 
 	 * @param file A csv file to upload
 	 * @return A response text with the status of the operation which could be
 	 *         Success or Error
 	 */
 	public String uploadCSVFile(MultipartFile file, Model model) {
+		return uploadCSVFile(file, csvProperties.getUpload().getMode(), model);
+	}
+
+	/**
+	 * Uploads a CSV file, parse it and save its data in the database
+	 * 
+	 * @param file A csv file to upload
+	 * @param mode How the rows are stored
+	 * @return A response text with the status of the operation which could be
+	 *         Success or Error
+	 */
+	public String uploadCSVFile(MultipartFile file, UploadMode mode, Model model) {
 		String msg = "";
 		boolean status = false;
 		if (!(file == null || file.isEmpty())) {
-			// parse Csv file and converts the list of StatisticCsv to a list of Statistic entities
-			List<Statistic> statistics = statisticMapper.mapListEntityCsvToListEntity(
-					parseCsvFile(file));
-			if (!statistics.isEmpty()) {
-				// Save statistics in DB
-				statisticRepository.saveAll(statistics);
-				List<Statistic> statisticsSaved = statisticRepository.findAll();
-				msg = "Successful saved in database: " + statisticsSaved.size() + " records";
+			// parse Csv file row by row and save the Statistic entities in chunks, the invalid rows are skipped
+			List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+			UploadResult result = ingestCsvFile(file, mode, rejected -> {
+				if (rejects.size() < REJECTS_DISPLAY_LIMIT) {
+					rejects.add(rejected);
+				}
+			});
+			if (result.isDuplicate() && result.getDuplicateOf().isFailed()) {
+				msg = "The upload of the file failed at " + result.getDuplicateOf().getUploaded() + " after "
+						+ result.getDuplicateOf().getRecords() + " records, drop their months to upload it again";
+				log.error(msg + " - " + result.getDuplicateOf());
+			} else if (result.isDuplicate()) {
+				msg = "The file was already uploaded at " + result.getDuplicateOf().getUploaded() + ", nothing was saved";
 				status = true;
-				log.info(msg);
+				log.info(msg + " - " + result.getDuplicateOf());
+			} else if (result.isFailed()) {
+				msg = result.getError() + ", " + result.getRowsStored() + " records were saved";
+				log.error(msg + " - " + result);
+			} else if (result.getRowsStored() > 0) {
+				msg = "Successful saved in database: " + result.getRowsStored() + " records"
+						+ (result.getRowsRejected() > 0 ? ", " + result.getRowsRejected() + " rows rejected" : "");
+				status = true;
+				log.info(msg + " - " + result);
 			} else {
 				msg = "There were errors on parsing the Csv file!";
 				log.error(msg);
 			}
+			model.addAttribute("result", result);
+			model.addAttribute("rejects", rejects);
 		} else {
 			msg = "Please select a CSV file to upload. ";
 			log.error(msg);
@@ -100,31 +174,330 @@ public class CsvService {
 	}
 
 	/**
-	 * Parse CSV file to create a list of Statistics entities
+	 * @param mode The name of an upload mode, in any case, or null for csv.upload.mode
+	 * @return The upload mode
+	 */
+	public UploadMode getUploadMode(String mode) {
+		if (mode == null || mode.isEmpty()) {
+			return csvProperties.getUpload().getMode();
+		}
+		UploadMode uploadMode = UploadMode.of(mode);
+		if (uploadMode == null) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown upload mode: " + mode);
+		}
+		return uploadMode;
+	}
+
+	/**
+	 * Streams an uploaded CSV file into the database with the default upload mode
 	 * 
 	 * @param file A csv file to upload
-	 * @return A list of Statistic entities
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
 	 */
-	public List<StatisticCsv> parseCsvFile(MultipartFile file) {
-		try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-			// create csv bean reader
-			CsvToBean<StatisticCsv> csvToBean = new CsvToBeanBuilder(reader)
-					.withType(StatisticCsv.class)
-					.withIgnoreLeadingWhiteSpace(true).build();
-			return csvToBean.parse();
+	public UploadResult ingestCsvFile(MultipartFile file) {
+		return ingestCsvFile(file, csvProperties.getUpload().getMode());
+	}
+
+	/**
+	 * Streams an uploaded CSV file into the database. If the same content was already uploaded, the file is not
+	 * parsed and the result references the earlier upload.
+	 * 
+	 * @param file A csv file to upload
+	 * @param mode How the rows are stored
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
+	 */
+	public UploadResult ingestCsvFile(MultipartFile file, UploadMode mode) {
+		return ingestCsvFile(file, mode, rejected -> {});
+	}
+
+	/**
+	 * Streams an uploaded CSV file into the database. If the same content was already uploaded, the file is not
+	 * parsed and the result references the earlier upload. The invalid rows are skipped and passed to the rejects.
+	 * 
+	 * @param file A csv file to upload
+	 * @param mode How the rows are stored
+	 * @param rejects Receives every rejected row with its line number and reason
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
+	 */
+	public UploadResult ingestCsvFile(MultipartFile file, UploadMode mode, Consumer<RejectedRow> rejects) {
+		UploadResult result = new UploadResult();
+		try {
+			String hash = hashUpload(file, mode);
+			Optional<UploadedFile> uploaded = claimUpload(hash, file.getOriginalFilename());
+			if (uploaded.isPresent()) {
+				result.setDuplicateOf(uploaded.get());
+				pipelineMetrics.recordDuplicate(mode);
+				return result;
+			}
+			boolean bulkLoad = beginBulkLoad(file.getSize(), mode);
+			try (InputStream input = file.getInputStream()) {
+				result = ingestCsv(input, mode, progress -> {}, rejects);
+			} finally {
+				endBulkLoad(bulkLoad, mode, result);
+				registerUpload(hash, result);
+			}
+		} catch (IOException ex) {
+			log.error("Parsing error: " + ex.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 * Streams a CSV content into the database. The rows are read one by one, converted into Statistic entities
+	 * and committed in chunks of csv.upload.chunk-size rows, so only one chunk is kept in memory at any time.
+	 * Rows that are not valid statistics are skipped, counted as rejected and passed to the rejects, the other rows
+	 * are still committed. If the content can not be read or a chunk can not be stored, the upload stops and the
+	 * result is failed, the chunks committed until then are kept.
+	 * 
+	 * @param input The CSV content
+	 * @param mode How the rows are stored
+	 * @param progress Called after every committed chunk with the counters of the upload so far
+	 * @param rejects Receives every rejected row with its line number and reason
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
+	 */
+	public UploadResult ingestCsv(InputStream input, UploadMode mode, Consumer<UploadResult> progress,
+			Consumer<RejectedRow> rejects) {
+		UploadResult result = new UploadResult();
+		CountingInputStream counter = new CountingInputStream(input);
+		ChunkWriter chunkWriter = new ChunkWriter(result, mode, progress, counter::getCount);
+		try (Reader reader = new BufferedReader(new InputStreamReader(counter))) {
+			statisticCsvParser.parse(reader, result, chunkWriter::add, rejects);
+			chunkWriter.flush();
 		} catch (IOException ex) {
 			log.error("Parsing error: " + ex.getMessage());
+			result.setError("Parsing error: " + ex.getMessage());
+		} catch (DataAccessException ex) {
+			log.error("Storing error: " + ex.getMessage());
+			result.setError("Storing error: " + ex.getMessage());
+		}
+		return completeUpload(result, mode);
+	}
+
+	/**
+	 * Ingests a CSV file stored on disk. Big files are parsed on all the cores by the ParallelCsvParser
+	 * while the parsed chunks are committed in file order, the other files are streamed as with ingestCsv.
+	 * For the parallel parsing, the parse and map times are summed over the parser threads.
+	 * Files of at least csv.indexes.bulk-load-min-bytes are inserted without the secondary indexes,
+	 * the time spent rebuilding them is added to the persist time.
+	 * If the same content was already uploaded, the file is not parsed and the result references the earlier upload.
+	 * The invalid rows are skipped and passed to the rejects in file order.
+	 * 
+	 * @param file The CSV file
+	 * @param fileName The name of the uploaded file
+	 * @param mode How the rows are stored
+	 * @param progress Called after every committed chunk with the counters of the upload so far
+	 * @param rejects Receives every rejected row with its line number and reason
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
+	 * @throws IOException If the file can not be read
+	 */
+	public UploadResult ingestCsv(Path file, String fileName, UploadMode mode, Consumer<UploadResult> progress,
+			Consumer<RejectedRow> rejects) throws IOException {
+		String hash = hashUpload(new PathResource(file), mode);
+		Optional<UploadedFile> uploaded = claimUpload(hash, fileName);
+		if (uploaded.isPresent()) {
+			UploadResult result = new UploadResult();
+			result.setBytesRead(Files.size(file));
+			result.setDuplicateOf(uploaded.get());
+			pipelineMetrics.recordDuplicate(mode);
+			return result;
+		}
+		boolean bulkLoad = beginBulkLoad(Files.size(file), mode);
+		UploadResult result = null;
+		try {
+			result = ingestFile(file, mode, progress, rejects);
+		} finally {
+			endBulkLoad(bulkLoad, mode, result);
+			registerUpload(hash, result);
+		}
+		return result;
+	}
+
+	private UploadResult ingestFile(Path file, UploadMode mode, Consumer<UploadResult> progress,
+			Consumer<RejectedRow> rejects) throws IOException {
+		if (!parallelCsvParser.canParse(file)) {
+			try (InputStream input = Files.newInputStream(file)) {
+				return ingestCsv(input, mode, progress, rejects);
+			}
+		}
+		UploadResult result = new UploadResult();
+		long[] bytesRead = {0};
+		ChunkWriter chunkWriter = new ChunkWriter(result, mode, progress, () -> bytesRead[0]);
+		try {
+			parallelCsvParser.parse(file, parsedChunk -> {
+				UploadResult counters = parsedChunk.getCounters();
+				result.setRowsParsed(result.getRowsParsed() + counters.getRowsParsed());
+				result.setRowsRejected(result.getRowsRejected() + counters.getRowsRejected());
+				result.setParseNanos(result.getParseNanos() + counters.getParseNanos());
+				result.setMapNanos(result.getMapNanos() + counters.getMapNanos());
+				bytesRead[0] += counters.getBytesRead();
+				parsedChunk.getRejects().forEach(rejects);
+				parsedChunk.getStatistics().forEach(chunkWriter::add);
+			});
+			chunkWriter.flush();
+			result.setBytesRead(Files.size(file));
+		} catch (IOException | UncheckedIOException ex) {
+			log.error("Parsing error: " + ex.getMessage());
+			result.setError("Parsing error: " + ex.getMessage());
+		} catch (DataAccessException ex) {
+			log.error("Storing error: " + ex.getMessage());
+			result.setError("Storing error: " + ex.getMessage());
+		}
+		return completeUpload(result, mode);
+	}
+
+	/**
+	 * Hashes the content of an upload before it is parsed, if csv.upload.deduplicate is set
+	 * 
+	 * @return The SHA-256 of the content, null if the uploads are not deduplicated
+	 */
+	private String hashUpload(InputStreamSource content, UploadMode mode) throws IOException {
+		if (!csvProperties.getUpload().isDeduplicate()) {
+			return null;
+		}
+		long start = System.nanoTime();
+		try (InputStream input = content.getInputStream()) {
+			return ContentHasher.sha256(input);
+		} finally {
+			pipelineMetrics.recordUploadStage("hash", mode, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @return The earlier upload of the same content, empty if the file has to be ingested
+	 */
+	private Optional<UploadedFile> claimUpload(String hash, String fileName) {
+		return hash == null ? Optional.empty() : uploadedFileRegistry.claim(hash, fileName);
+	}
+
+	/**
+	 * Registers the stored rows of a claimed upload, or releases it if nothing was stored. An upload that stopped
+	 * after storing some chunks keeps its claim as failed, so they are not stored again by a retry.
+	 */
+	private void registerUpload(String hash, UploadResult result) {
+		if (hash == null) {
+			return;
+		}
+		if (result == null || result.getRowsStored() == 0) {
+			uploadedFileRegistry.release(hash);
+		} else if (result.isFailed()) {
+			uploadedFileRegistry.fail(hash, result.getBatchId(), result.getRowsStored());
+		} else {
+			uploadedFileRegistry.complete(hash, result.getBatchId(), result.getRowsStored());
+		}
+	}
+
+	/**
+	 * Drops the secondary indexes before an upload of at least csv.indexes.bulk-load-min-bytes. The merges of the
+	 * replace and accumulate modes look up the stored statistics with the indexes, so they are never bulk loads.
+	 * 
+	 * @return true if the upload is a bulk load and endBulkLoad has to be called after it
+	 */
+	private boolean beginBulkLoad(long bytes, UploadMode mode) {
+		CsvProperties.Indexes indexes = csvProperties.getIndexes();
+		if (mode == UploadMode.INSERT && indexes.isDeferred() && bytes >= indexes.getBulkLoadMinBytes()) {
+			statisticIndexManager.beginBulkLoad();
+			return true;
+		}
+		return false;
+	}
+
+	private void endBulkLoad(boolean bulkLoad, UploadMode mode, UploadResult result) {
+		if (bulkLoad) {
+			long start = System.nanoTime();
+			statisticIndexManager.endBulkLoad();
+			long nanos = System.nanoTime() - start;
+			pipelineMetrics.recordUploadStage("index", mode, nanos);
+			if (result != null) {
+				result.setPersistNanos(result.getPersistNanos() + nanos);
+			}
+		}
+	}
+
+	private UploadResult completeUpload(UploadResult result, UploadMode mode) {
+		statisticBatchWriter.completeUpload();
+		pipelineMetrics.recordUpload(mode, result);
+		if (result.getRowsStored() > 0) {
+			result.setTotalRecords(statisticRepository.count());
+			log.info("Persisted " + result.getRowsStored() + " records in " + result.getPersistMillis() + " ms ("
+					+ result.getPersistRowsPerSecond() + " rows/sec)");
+		}
+		return result;
+	}
+
+	/**
+	 * Collects the Statistic entities of an upload and writes them with the batch writer every
+	 * csv.upload.chunk-size rows, adding the inserted and merged rows and the persist time to the upload result.
+	 * The upload batch is started with the first chunk, so the zone of every batch covers its statistics.
+	 */
+	private class ChunkWriter {
+		private final int chunkSize = Math.max(1, csvProperties.getUpload().getChunkSize());
+		private final UploadResult result;
+		private final UploadMode mode;
+		private final Consumer<UploadResult> progress;
+		private final LongSupplier bytesRead;
+		private List<Statistic> chunk = new ArrayList<Statistic>(chunkSize);
+		private Integer batchId;
+
+		ChunkWriter(UploadResult result, UploadMode mode, Consumer<UploadResult> progress, LongSupplier bytesRead) {
+			this.result = result;
+			this.mode = mode;
+			this.progress = progress;
+			this.bytesRead = bytesRead;
+		}
+
+		void add(Statistic statistic) {
+			chunk.add(statistic);
+			if (chunk.size() >= chunkSize) {
+				flush();
+			}
+		}
+
+		void flush() {
+			if (!chunk.isEmpty()) {
+				long start = System.nanoTime();
+				if (batchId == null) {
+					batchId = statisticBatchWriter.beginUpload();
+					result.setBatchId(batchId);
+				}
+				if (mode == UploadMode.INSERT) {
+					result.setRowsInserted(result.getRowsInserted() + statisticBatchWriter.write(chunk, batchId));
+				} else {
+					int inserted = statisticBatchWriter.merge(chunk, batchId, mode);
+					result.setRowsInserted(result.getRowsInserted() + inserted);
+					result.setRowsMerged(result.getRowsMerged() + chunk.size() - inserted);
+				}
+				long nanos = System.nanoTime() - start;
+				pipelineMetrics.recordChunk(mode, nanos);
+				result.setPersistNanos(result.getPersistNanos() + nanos);
+				chunk = new ArrayList<Statistic>(chunkSize);
+			}
+			result.setBytesRead(bytesRead.getAsLong());
+			progress.accept(result);
+		}
+	}
+
+	/**
+	 * Parse CSV file to create a list of Statistics entities. The invalid rows are skipped.
+	 * 
+	 * @param file A csv file to upload
+	 * @return A list of Statistic entities
+	 * @throws IOException If the file can not be read
+	 */
+	public List<StatisticCsv> parseCsvFile(MultipartFile file) throws IOException {
+		try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
+			return statisticCsvParser.createCsvToBean(reader, false).parse();
 		}
-		return Collections.emptyList();
 	}
 	
 	/**
 	 * Search the database and get a list of Statistic results based on the input query parameters.
 	 * 
 	 * This will create and execute a SELECT query.
+	 * The results are kept in the SearchResultCache, so the same search runs again only after new statistics are saved.
 	 * The COLUMN NAMES that could be used here are: datasource, campaign, daily, clicks, impressions, id.
 	 * We could use one column definitions or more column names separated by commas.
-	 * We could also use other SQL variables as: clicks:sum. 
+	 * We could also use the aggregate functions sum, avg, min, max, count and countDistinct as: clicks:sum,
+	 * and the click-through rate ctr (the summed clicks divided by the summed impressions).
 	 * No input parameter are required. 
 	 * If you do not fill any parameter than it will return all the records 
 	 * 
@@ -144,10 +517,12 @@ public class CsvService {
 	 * 
 	 * @param display The columns we want to be displayed on results (comma separated). 
 	 * 			Can also be the name of one columnn followed by :sum (For a SUM on that column values) or a comma separated list of columns
+	 * 			The other functions are :avg, :min, :max, :count and :countDistinct, and ctr is the click-through rate
 	 *  		If this is not filled than it will display all the columns.
 	 *  		Ex: datasource
 	 *  		Ex: impressions:sum
 	 * 			Ex: daily,impressions:sum
+	 * 			Ex: datasource,ctr,clicks:avg,campaign:countDistinct
 	 *  
 	 * @param condition If this is used it will apply a condition used as WHERE (or HAVING) in the SQL query
 	 *  		Ex: campaign:'Adventmarkt Touristik'
@@ -162,6 +537,7 @@ public class CsvService {
 	 *  		Ex: campaign:asc or campaign:desc
 	 * 			If you displayed a SUM on a column then this columns should also contain :sum in it
 	 * 			Ex: clicks:sum:desc
+	 * 			Ex: ctr:desc
 	 *  
 	 * @param offset If this is set than it will show the records starting from this offset. It needs to be a number.
 	 *  		If is not set this will be 0. Using this parameter, Pagination could be easily created.
@@ -173,33 +549,316 @@ public class CsvService {
 	 *  		Ex: 10000 - it will limit the returned records to 10000
 	 *  		Ex: If is not set then it will return all the records (be careful with this as if there are many records it will slow your browser)
 	 *  
-	 * @param showSQL This is not working anymore for now. If set to true, it would show the SQL generated on the top of records and the number of records found
+	 * @param cursor If this is set (even empty) the results are paged with a keyset instead of offset, see searchPage.
+	 *  		Empty for the first page, then the continuation token returned with the previous page.
+	 *  
+	 * @param showSQL If set to true, it will show the SQL executed on the top of records, with its parameters.
+	 *  		The SQL is kept with the cached results, so showing it does not run the search again.
 	 * 
 	 * @return a List of records or a text that will indicate the result of this operation (No results or ... Error)
 	 */
 	public String searchStatistics(String display, String condition, String groupBy, String orderBy,
-			String offset, String limit, String showSQL, Model model) {
+			String offset, String limit, String cursor, String showSQL, Model model) {
         
+		long start = System.nanoTime();
+		SearchQueryKey key = SearchQueryKey.of(display, condition, groupBy, orderBy, offset, limit, cursor);
+		QueryShape shape = QueryShape.of(display, groupBy, orderBy, cursor);
+		boolean[] executed = {false};
+	    SearchResult result = searchResultCache.get(key, () -> {
+	    	executed[0] = true;
+	    	return cursor == null ? search(shape, display, condition, groupBy, orderBy, offset, limit)
+	    			: searchPage(key, display, condition, groupBy, orderBy, limit);
+	    });
+	    List<Object> statistics = result.getRecords();
+	    pipelineMetrics.recordSearchRecords(shape, statistics.size());
+	    queryProfiler.record(display, condition, groupBy, orderBy, offset, limit, result, executed[0],
+	    		System.nanoTime() - start);
+		log.debug("Total records: {}", statistics.size());
+		model.addAttribute("statistics", statistics);
+		model.addAttribute("nextCursor", result.getNextCursor());
+		if ("true".equalsIgnoreCase(showSQL)) {
+			model.addAttribute("sql", result.getStatements().isEmpty() ? "The search was answered by the column store"
+					: result.getStatements().stream().map(CapturedStatement::describe).collect(Collectors.joining(";\n")));
+		}
+		return "query-results";
+	}
+	
+	/**
+	 * Counts the records of a search without reading them. The display, offset and limit of the search do not change
+	 * its number of records: a grouped search counts its groups.
+	 * 
+	 * @param mode EXACT runs a COUNT query with the same conditions as the search, APPROX estimates the count from
+	 *        the rollups and the campaign sketches (see CountEstimator) and counts exactly the searches it can not estimate
+	 * @param showSQL If set to true, it will show the SQL of the exact count, with its parameters
+	 * @return The view showing the count
+	 */
+	public String countStatistics(String display, String condition, String groupBy, CountMode mode, String showSQL,
+			Model model) {
+		QueryShape shape = QueryShape.of(display, groupBy, null, null);
+		long start = System.nanoTime();
+		SearchCount count = mode == CountMode.APPROX ? countEstimator.estimate(condition, groupBy) : null;
+		List<CapturedStatement> statements = List.of();
+		if (count == null) {
+			SqlCapture.start();
+			try {
+				count = count(condition, groupBy);
+			} finally {
+				statements = SqlCapture.stop();
+			}
+		}
+		pipelineMetrics.recordSearchStage("count", shape, count.getSource(), System.nanoTime() - start);
+		log.debug("Counted {} records: {}", count.getMode(), count.getCount());
+		model.addAttribute("statistics", List.of());
+		model.addAttribute("count", count);
+		if ("true".equalsIgnoreCase(showSQL)) {
+			model.addAttribute("sql", statements.isEmpty() ? "The count was estimated from the rollups"
+					: statements.stream().map(CapturedStatement::describe).collect(Collectors.joining(";\n")));
+		}
+		return "query-results";
+	}
+	
+	/**
+	 * Counts the records of a search with the same conditions as the search, in one row. The conditions of a grouped
+	 * search are on its group keys, so its groups are counted as the distinct group keys of the records matching them,
+	 * without computing its sums and from a rollup if its conditions allow it. The keys of several columns are
+	 * counted as the concatenation of every column prefixed with its length, so two different keys never concatenate
+	 * to the same text.
+	 * 
+	 * @return The exact number of records of the search
+	 */
+	private SearchCount count(String condition, String groupBy) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Object> query = builder.createQuery(Object.class);
+		Class<?> source = getSearchSource(groupBy, condition, groupBy, null);
+		Root stat = query.from(source);
+		handleCondition(condition, null, builder, query, stat);
+		if (source == Statistic.class) {
+			handleBatches(condition, builder, query, stat);
+		}
+		if (isNotBlank(groupBy)) {
+			List<Column> columns = SearchQueryParser.parseGroupBy(groupBy);
+			indexAdvisor.record(Clause.GROUP_BY, columns.stream().map(Column::getColumn).collect(Collectors.toList()));
+			Expression<?> key = stat.get(columns.get(0).getColumn());
+			if (columns.size() > 1) {
+				Expression<String> concatenation = builder.literal("");
+				for (Column column : columns) {
+					Expression<String> value = stat.get(column.getColumn()).as(String.class);
+					concatenation = builder.concat(builder.concat(concatenation,
+							builder.concat(builder.length(value).as(String.class), ":")), value);
+				}
+				key = concatenation;
+			}
+			query.select(builder.countDistinct(key));
+		} else {
+			query.select(builder.count(stat));
+		}
+		long count;
+		PartitionPruning.start(getStatisticSql(source, condition));
+		try {
+			count = (Long) entityManager.createQuery(query).getSingleResult();
+		} finally {
+			PartitionPruning.stop();
+		}
+		return new SearchCount(count, CountMode.EXACT, source.getSimpleName());
+	}
+	
+	/**
+	 * Runs a search on the column store if it is enabled and can answer it, otherwise on the database.
+	 * The time to build and to execute the query are recorded with the shape of the search.
+	 * 
+	 * @return The records of the search with the SQL it executed
+	 */
+	private SearchResult search(QueryShape shape, String display, String condition, String groupBy, String orderBy,
+			String offset, String limit) {
+		long start = System.nanoTime();
+		List<Object> records = columnarQueryEngine.search(display, condition, groupBy, orderBy, offset, limit);
+		if (records != null) {
+			pipelineMetrics.recordSearchStage("execute", shape, PipelineMetrics.COLUMNAR_SOURCE, System.nanoTime() - start);
+			return new SearchResult(records, null, PipelineMetrics.COLUMNAR_SOURCE, List.of());
+		}
+		start = System.nanoTime();
+		Class<?> sourceClass = getSearchSource(display, condition, groupBy, orderBy);
+		String source = sourceClass.getSimpleName();
+		TypedQuery<Object> query = createTypedQuery(createSearchQuery(display, condition, groupBy, orderBy), offset, limit);
+		String statisticSql = getStatisticSql(sourceClass, condition);
+		pipelineMetrics.recordSearchStage("build", shape, source, System.nanoTime() - start);
+		start = System.nanoTime();
+		List<CapturedStatement> statements;
+		SqlCapture.start();
+		PartitionPruning.start(statisticSql);
+		try {
+			records = query.getResultList();
+		} finally {
+			PartitionPruning.stop();
+			statements = SqlCapture.stop();
+		}
+		pipelineMetrics.recordSearchStage("execute", shape, source, System.nanoTime() - start);
+		return new SearchResult(records, null, source, statements);
+	}
+	
+	/**
+	 * Runs one page of a search paged with a keyset. The records are ordered by the orderBy columns and then by id,
+	 * or by the groupBy columns for a grouped search, so every record has a unique position. The next page starts
+	 * with a range predicate after the key values of the last record, which the database seeks in the index
+	 * instead of reading and skipping all the records of the previous pages like with offset.
+	 * Ordering by an aggregate (ex: clicks:sum:desc) can not be paged with a keyset.
+	 * 
+	 * @param key The normalized search, its cursor is empty for the first page or the token of the previous page
+	 * @param limit The number of records of a page, RECORDS_DEFAULT_LIMIT if it is not set
+	 * @return The records of the page and the token of the next page, null if this is the last page
+	 */
+	public SearchResult searchPage(SearchQueryKey key, String display, String condition, String groupBy,
+			String orderBy, String limit) {
+		QueryShape shape = QueryShape.of(display, groupBy, orderBy, key.getCursor());
+		long start = System.nanoTime();
+		List<OrderColumn> keyColumns = getKeyColumns(groupBy, orderBy);
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Object> query = createSearchQuery(display, condition, groupBy, orderBy);
+		Root stat = query.getRoots().iterator().next();
+		
+		Selection<?> selection = query.getSelection();
+		List<Selection<?>> selections = new ArrayList<Selection<?>>(selection.isCompoundSelection()
+				? selection.getCompoundSelectionItems() : List.of(selection));
+		int displayed = selections.size();
+		// The key columns are read from the displayed columns or added after them
+		List<String> displayedColumns = getDisplayedColumns(display);
+		int[] keyIndexes = new int[keyColumns.size()];
+		List<Order> orders = new ArrayList<Order>();
+		for (int i = 0; i < keyColumns.size(); i++) {
+			OrderColumn column = keyColumns.get(i);
+			keyIndexes[i] = displayedColumns.indexOf(column.getColumn());
+			if (keyIndexes[i] < 0) {
+				keyIndexes[i] = selections.size();
+				selections.add(stat.get(column.getColumn()));
+			}
+			orders.add("desc".equalsIgnoreCase(column.getDirection()) ? builder.desc(stat.get(column.getColumn()))
+					: builder.asc(stat.get(column.getColumn())));
+		}
+		query.multiselect(selections);
+		query.orderBy(orders);
+		if (isNotBlank(key.getCursor())) {
+			List<String> values;
+			try {
+				values = SearchCursor.decode(key.getCursor(), key.getFingerprint(), keyColumns.size());
+			} catch (IllegalArgumentException ex) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage());
+			}
+			Predicate after = SearchQueryCriteriaConsumer.after(builder, stat, keyColumns, values);
+			query.where(query.getRestriction() == null ? after : builder.and(query.getRestriction(), after));
+		}
+		
+		int limitNr = RECORDS_DEFAULT_LIMIT;
+		if (isNotBlank(limit)) {
+			limitNr = Optional.ofNullable(limit).map(Ints::tryParse).orElse(RECORDS_DEFAULT_LIMIT);
+		}
+		TypedQuery<Object> typedQuery = entityManager.createQuery(query).setMaxResults(limitNr);
+		String source = stat.getJavaType().getSimpleName();
+		String statisticSql = getStatisticSql(stat.getJavaType(), condition);
+		pipelineMetrics.recordSearchStage("build", shape, source, System.nanoTime() - start);
+		start = System.nanoTime();
+		List<Object> rows;
+		List<CapturedStatement> statements;
+		SqlCapture.start();
+		PartitionPruning.start(statisticSql);
+		try {
+			rows = typedQuery.getResultList();
+		} finally {
+			PartitionPruning.stop();
+			statements = SqlCapture.stop();
+		}
+		pipelineMetrics.recordSearchStage("execute", shape, source, System.nanoTime() - start);
+		List<Object> records = new ArrayList<Object>(rows.size());
+		for (Object row : rows) {
+			Object[] values = row instanceof Object[] ? (Object[]) row : new Object[] {row};
+			records.add(displayed == 1 ? values[0] : Arrays.copyOf(values, displayed));
+		}
+		String nextCursor = null;
+		if (limitNr > 0 && rows.size() == limitNr) {
+			Object row = rows.get(rows.size() - 1);
+			Object[] last = row instanceof Object[] ? (Object[]) row : new Object[] {row};
+			List<String> values = new ArrayList<String>(keyColumns.size());
+			for (int i = 0; i < keyColumns.size(); i++) {
+				Object value = last[keyIndexes[i]];
+				values.add(value instanceof LocalDate ? DateDecoder.QUERY_DATE_FORMAT.format((LocalDate) value)
+						: String.valueOf(value));
+			}
+			nextCursor = SearchCursor.encode(key.getFingerprint(), values);
+		}
+		return new SearchResult(records, nextCursor, source, statements);
+	}
+	
+	/**
+	 * @return The displayed columns, the columns with a function (ex: clicks:sum) are named with their function
+	 */
+	public List<String> getDisplayedColumns(String display) {
+		if (isNotBlank(display)) {
+			return SearchQueryParser.parseDisplay(display).stream()
+					.map(column -> isNotBlank(column.getFunction()) ? column.getColumn() + ":" + column.getFunction()
+							: column.getColumn())
+					.collect(Collectors.toList());
+		}
+		return List.of("datasource", "campaign", "daily", "clicks", "impressions");
+	}
+	
+	/**
+	 * @return The orderBy columns followed by id, or by the other groupBy columns for a grouped search
+	 */
+	private List<OrderColumn> getKeyColumns(String groupBy, String orderBy) {
+		List<OrderColumn> keyColumns = new ArrayList<OrderColumn>();
+		if (isNotBlank(orderBy)) {
+			for (OrderColumn column : SearchQueryParser.parseOrderBy(orderBy)) {
+				AggregateFunction function = AggregateFunction.of(column.getColumn(), column.getFunction());
+				if (function != null || isNotBlank(column.getFunction())) {
+					throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A search ordered by "
+							+ (function != null ? function.getParameter() : column.getFunction())
+							+ " can not be paged with a cursor");
+				}
+				keyColumns.add(column);
+			}
+		}
+		List<String> uniqueColumns = isNotBlank(groupBy)
+				? SearchQueryParser.parseGroupBy(groupBy).stream().map(Column::getColumn).collect(Collectors.toList())
+				: List.of("id");
+		for (String column : uniqueColumns) {
+			if (keyColumns.stream().noneMatch(keyColumn -> keyColumn.getColumn().equals(column))) {
+				keyColumns.add(new OrderColumn(column));
+			}
+		}
+		return keyColumns;
+	}
+	
+	/**
+	 * Creates the SELECT query of a search. See searchStatistics for the parameters.
+	 * The grouped searches that only sum the clicks and impressions read a rollup instead of the statistics,
+	 * see RollupQueryPlanner. The searches of the statistics skip the upload batches that can not match the
+	 * daily and datasource conditions, see UploadBatchRegistry.
+	 * 
+	 * @return The CriteriaQuery with the displayed columns, the GROUP BY, WHERE or HAVING and ORDER BY clauses
+	 */
+	public CriteriaQuery<Object> createSearchQuery(String display, String condition, String groupBy, String orderBy) {
 		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
         CriteriaQuery<Object> query = builder.createQuery(Object.class);
-        Root stat = query.from(Statistic.class);
+        Class<?> source = getSearchSource(display, condition, groupBy, orderBy);
+        log.debug("Searching {}", source.getSimpleName());
+        Root stat = query.from(source);
         
         handleDisplay(display, builder, query, stat);
         handleGroupBy(groupBy, builder, query, stat);
         handleCondition(condition, groupBy, builder, query, stat);
 	    handleOrderBy(orderBy, builder, query, stat);
-	    List<Object> statistics = createQuery(query, offset, limit);
-		
-	    if (statistics.size() > 0) {
-			log.info("Total records: " + String.valueOf(statistics.size()));
-		} else {
-			log.info("There are no records in the database!");
-		}
-		model.addAttribute("statistics", statistics);
-		/*if ("true".equalsIgnoreCase(showSQL)) {
-			model.addAttribute("sql", sql);
-		}*/
-		return "query-results";
+	    if (source == Statistic.class) {
+	    	handleBatches(condition, builder, query, stat);
+	    }
+	    return query;
+	}
+	
+	/**
+	 * @return The entity queried by a search: a rollup if it can answer the search and the rollups are enabled,
+	 *         otherwise Statistic
+	 */
+	private Class<?> getSearchSource(String display, String condition, String groupBy, String orderBy) {
+		return csvProperties.getRollups().isEnabled()
+				? RollupQueryPlanner.choose(display, condition, groupBy, orderBy) : Statistic.class;
 	}
 	
 	/**
@@ -212,20 +871,11 @@ public class CsvService {
 	 */
 	public void handleDisplay(String display, CriteriaBuilder builder, CriteriaQuery<Object> query, Root stat) {
 		if (isNotBlank(display)) {
-			List<DisplayColumn> columns = new ArrayList<DisplayColumn>();
-		    Pattern pattern = Pattern.compile("([\\w:]+?),");
-		    Matcher matcher = pattern.matcher(display + ",");
-		    while (matcher.find()) {
-		    	columns.add(new DisplayColumn(matcher.group(1)));
-		    }
+			List<DisplayColumn> columns = SearchQueryParser.parseDisplay(display);
 		    
 		    Selection<?>[] selections = new Selection<?>[columns.size()];
 		    for (int i=0; i < columns.size(); i++) {
-		    	if ("sum".equalsIgnoreCase(columns.get(i).getFunction())) {
-		    		selections[i] = builder.sum(stat.get(columns.get(i).getColumn()));
-		    	} else {
-		    		selections[i] = stat.get(columns.get(i).getColumn());
-		    	}
+		    	selections[i] = getExpression(columns.get(i).getColumn(), columns.get(i).getFunction(), builder, stat);
 		    }
 		    query.multiselect(selections);
 		} else {
@@ -234,6 +884,46 @@ public class CsvService {
 		}
 	}
 	
+	/**
+	 * Creates the expression of a displayed or ordered column, aggregated by its function in the SQL query.
+	 * The rollups sum the records of their rows, so they count and average with the summed records.
+	 * 
+	 * @param column The column, or ctr for the click-through rate
+	 * @param function The aggregate function of the column, blank if it has none, see AggregateFunction
+	 * @param builder	CriteriaBuilder object
+	 * @param stat Root object
+	 * @return The column or its aggregate
+	 */
+	public Expression<?> getExpression(String column, String function, CriteriaBuilder builder, Root stat) {
+		AggregateFunction aggregate = AggregateFunction.of(column, function);
+		if (aggregate == null) {
+			if (isNotBlank(function)) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown function: " + function);
+			}
+			return stat.get(column);
+		}
+		boolean rollup = stat.getJavaType() != Statistic.class;
+		switch (aggregate) {
+		case SUM:
+			return builder.sum(stat.get(column));
+		case AVG:
+			return rollup ? builder.quot(builder.sum(stat.get(column)).as(Double.class), builder.sum(stat.get("records")))
+					: builder.avg(stat.get(column).as(Double.class));
+		case MIN:
+			return builder.least(stat.get(column));
+		case MAX:
+			return builder.greatest(stat.get(column));
+		case COUNT:
+			return rollup ? builder.sum(stat.get("records")) : builder.count(stat.get(column));
+		case COUNT_DISTINCT:
+			return builder.countDistinct(stat.get(column));
+		default:
+			// No click-through rate without impressions
+			return builder.quot(builder.sum(stat.get("clicks")).as(Double.class),
+					builder.nullif(builder.sum(stat.get("impressions")), 0L));
+		}
+	}
+	
 	/**
 	 * Handle groupBy parameter and prepare the SQL GROUP BY
 	 * 
@@ -244,12 +934,8 @@ public class CsvService {
 	 */
 	public void handleGroupBy(String groupBy, CriteriaBuilder builder, CriteriaQuery<Object> query, Root stat) {
 		if (isNotBlank(groupBy)) {
-			List<Column> gbColumns = new ArrayList<Column>();
-		    Pattern pattern = Pattern.compile("(\\w+?),");
-		    Matcher matcher = pattern.matcher(groupBy + ",");
-		    while (matcher.find()) {
-		    	gbColumns.add(new Column(matcher.group(1)));
-		    }
+			List<Column> gbColumns = SearchQueryParser.parseGroupBy(groupBy);
+		    indexAdvisor.record(Clause.GROUP_BY, gbColumns.stream().map(Column::getColumn).collect(Collectors.toList()));
 		    
 		    Expression<?>[] gbSelections = new Expression<?>[gbColumns.size()];
 		    for (int i=0; i < gbColumns.size(); i++) {
@@ -269,19 +955,8 @@ public class CsvService {
 	 */
 	public void handleCondition(String condition, String groupBy, CriteriaBuilder builder, CriteriaQuery<Object> query, Root stat) {
 		if (isNotBlank(condition)) {
-			List<SearchCriteria> params = new ArrayList<SearchCriteria>();
-		    String operationSetExper = Joiner.on("|").join(SearchOperation.SIMPLE_OPERATION_SET);
-		    Pattern pattern = Pattern.compile("(\\p{Punct}?)(\\w+?)(" + operationSetExper + ")(\\p{Punct}?)([\\w\\s\\p{Punct}]+?)(\\p{Punct}?),");
-		    Matcher matcher = pattern.matcher(condition + ",");
-		    while (matcher.find()) {
-		    	params.add(new SearchCriteria(
-		    	  matcher.group(1),
-		          matcher.group(2),
-		          matcher.group(3),
-		          matcher.group(4),
-		          matcher.group(5),
-		          matcher.group(6)));
-		    }
+			List<SearchCriteria> params = SearchQueryParser.parseCondition(condition);
+		    indexAdvisor.record(Clause.CONDITION, params.stream().map(SearchCriteria::getKey).collect(Collectors.toList()));
 		    
 	        Predicate predicate = builder.conjunction();
 	        SearchQueryCriteriaConsumer searchConsumer = new SearchQueryCriteriaConsumer(predicate, builder, stat);
@@ -295,6 +970,46 @@ public class CsvService {
 		}
 	}
 	
+	/**
+	 * @param source The entity read by a search
+	 * @param condition condition parameter that is received from request
+	 * @return The SELECT of the partitions of the months a search of the statistics reads, see PartitionPruning,
+	 *         null if it reads all the partitions or it does not read the statistics
+	 */
+	private String getStatisticSql(Class<?> source, String condition) {
+		return source == Statistic.class && isNotBlank(condition) ? statisticPartitionManager.getStatisticSql(
+				SearchQueryParser.parseDailyRange(SearchQueryParser.parseCondition(condition))) : null;
+	}
+
+	/**
+	 * Restricts the search to the upload batches that can match its conditions. A grouped search has its
+	 * conditions on the grouped columns, so a skipped batch has no records of the groups it keeps. When more than
+	 * csv.upload.max-searched-batches batches are kept, the search is restricted to the daily range of their zones
+	 * instead of listing their ids in the SQL.
+	 * 
+	 * @param condition condition parameter that is received from request 
+	 * @param builder	CriteriaBuilder object
+	 * @param query	CriteriaQuery object
+	 * @param stat Root object
+	 */
+	public void handleBatches(String condition, CriteriaBuilder builder, CriteriaQuery<Object> query, Root stat) {
+		if (isNotBlank(condition)) {
+			uploadBatchRegistry.findBatches(SearchQueryParser.parseCondition(condition)).ifPresent(batches -> {
+				log.debug("Searching {} upload batches", batches.size());
+				Predicate predicate;
+				if (batches.isEmpty()) {
+					predicate = builder.disjunction();
+				} else if (batches.size() > csvProperties.getUpload().getMaxSearchedBatches()) {
+					Range<LocalDate> days = uploadBatchRegistry.getDailyRange(batches);
+					predicate = builder.between(stat.get("daily"), days.lowerEndpoint(), days.upperEndpoint());
+				} else {
+					predicate = stat.get("batchId").in(batches);
+				}
+				query.where(query.getRestriction() == null ? predicate : builder.and(query.getRestriction(), predicate));
+			});
+		}
+	}
+	
 	/**
 	 * Handle orderBy parameter and prepare the SQL ORDER BY condition
 	 * 
@@ -305,27 +1020,16 @@ public class CsvService {
 	 */
 	public void handleOrderBy(String orderBy, CriteriaBuilder builder, CriteriaQuery<Object> query, Root stat) {
 		if (isNotBlank(orderBy)) {
-			List<OrderColumn> oColumns = new ArrayList<OrderColumn>();
-		    Pattern pattern = Pattern.compile("([\\w:]+?),");
-		    Matcher matcher = pattern.matcher(orderBy + ",");
-		    while (matcher.find()) {
-		    	oColumns.add(new OrderColumn(matcher.group(1)));
-		    }
+			List<OrderColumn> oColumns = SearchQueryParser.parseOrderBy(orderBy);
+		    indexAdvisor.record(Clause.ORDER_BY, oColumns.stream().map(OrderColumn::getColumn).collect(Collectors.toList()));
 		    
 		    List<Order> orders = new ArrayList<Order>();
 		    for (OrderColumn order : oColumns) {
-		    	if ("sum".equalsIgnoreCase(order.getFunction())) {
-		    		if ("desc".equalsIgnoreCase(order.getDirection())) {
-		    			orders.add(builder.desc(builder.sum(stat.get(order.getColumn()))));
-		    		} else {
-		    			orders.add(builder.asc(builder.sum(stat.get(order.getColumn()))));
-		    		}
+		    	Expression<?> expression = getExpression(order.getColumn(), order.getFunction(), builder, stat);
+		    	if ("desc".equalsIgnoreCase(order.getDirection())) {
+		    		orders.add(builder.desc(expression));
 		    	} else {
-		    		if ("desc".equalsIgnoreCase(order.getDirection())) {
-		    			orders.add(builder.desc(stat.get(order.getColumn())));
-		    		} else {
-		    			orders.add(builder.asc(stat.get(order.getColumn())));
-		    		}
+		    		orders.add(builder.asc(expression));
 		    	}
 		    }
 		    query.orderBy(orders);
@@ -341,6 +1045,18 @@ public class CsvService {
 	 * @return a List of Objects (database records found in the database)
 	 */
     public List<Object> createQuery(CriteriaQuery<Object> query, String offset, String limit) {
+		return createTypedQuery(query, offset, limit).getResultList();
+    }
+	
+	/**
+	 * Creates the executable query of a search, without running it
+	 * 
+	 * @param query	CriteriaQuery object
+	 * @param offset offset parameter received from request
+	 * @param limit limit parameter received from request
+	 * @return The TypedQuery starting at offset and limited to limit records if limit is set
+	 */
+    public TypedQuery<Object> createTypedQuery(CriteriaQuery<Object> query, String offset, String limit) {
 	    int offsetNr = 0;
 		if (isNotBlank(offset)) {
 			offsetNr = Optional.ofNullable(offset).map(Ints::tryParse).orElse(0);
@@ -348,9 +1064,9 @@ public class CsvService {
 		int limitNr = RECORDS_DEFAULT_LIMIT;
 		if (isNotBlank(limit)) {
 			limitNr = Optional.ofNullable(limit).map(Ints::tryParse).orElse(RECORDS_DEFAULT_LIMIT);
-			return entityManager.createQuery(query).setFirstResult(offsetNr).setMaxResults(limitNr).getResultList();
+			return entityManager.createQuery(query).setFirstResult(offsetNr).setMaxResults(limitNr);
 		}
-		return entityManager.createQuery(query).setFirstResult(offsetNr).getResultList();
+		return entityManager.createQuery(query).setFirstResult(offsetNr);
     }
 	
 	/**
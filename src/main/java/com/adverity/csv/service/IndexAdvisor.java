@@ -0,0 +1,90 @@
+package com.adverity.csv.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Service;
+
+import com.adverity.csv.model.IndexAdvice;
+import com.adverity.csv.repository.StatisticIndexManager;
+
+/**
+ * Index Advisor - Records the columns used by the searches in their WHERE/HAVING, GROUP BY and ORDER BY clauses
+ * and suggests an index for every used column that is not the leading column of an existing index. STATISTIC_FACT
+ * is a view of the monthly partitions, so an index is suggested as one statement per partition.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+public class IndexAdvisor {
+
+	/**
+	 * The clauses of a search
+	 */
+	public enum Clause {
+		CONDITION, GROUP_BY, ORDER_BY
+	}
+
+	// The STATISTIC_FACT column of every Statistic attribute
+	private static final Map<String, String> FACT_COLUMNS = Map.of("id", "ID", "datasource", "DATASOURCE_ID",
+			"campaign", "CAMPAIGN_ID", "daily", "DAILY", "clicks", "CLICKS", "impressions", "IMPRESSIONS");
+
+	private final StatisticIndexManager statisticIndexManager;
+	private final Map<Clause, Map<String, LongAdder>> usage = new EnumMap<Clause, Map<String, LongAdder>>(Clause.class);
+
+	public IndexAdvisor(StatisticIndexManager statisticIndexManager) {
+		this.statisticIndexManager = statisticIndexManager;
+		for (Clause clause : Clause.values()) {
+			usage.put(clause, new ConcurrentHashMap<String, LongAdder>());
+		}
+	}
+
+	/**
+	 * Records the columns used by a clause of a search. The names that are not Statistic columns are ignored.
+	 *
+	 * @param clause The clause of the search
+	 * @param columns The Statistic columns used in this clause
+	 */
+	public void record(Clause clause, Collection<String> columns) {
+		for (String column : columns) {
+			String name = column.toLowerCase();
+			if (FACT_COLUMNS.containsKey(name)) {
+				usage.get(clause).computeIfAbsent(name, key -> new LongAdder()).increment();
+			}
+		}
+	}
+
+	/**
+	 * @return The column usage so far, the existing indexes and the suggested indexes, the most used columns first
+	 */
+	public IndexAdvice getAdvice() {
+		Map<String, Map<String, Long>> counts = new LinkedHashMap<String, Map<String, Long>>();
+		Map<String, Long> totals = new TreeMap<String, Long>();
+		usage.forEach((clause, columns) -> {
+			Map<String, Long> clauseCounts = new TreeMap<String, Long>();
+			columns.forEach((column, count) -> {
+				clauseCounts.put(column, count.sum());
+				totals.merge(column, count.sum(), Long::sum);
+			});
+			counts.put(clause.name(), clauseCounts);
+		});
+
+		Map<String, List<String>> indexes = statisticIndexManager.getIndexes();
+		List<String> suggestions = new ArrayList<String>();
+		totals.entrySet().stream()
+			.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+			.map(Map.Entry::getKey)
+			.map(FACT_COLUMNS::get)
+			.filter(column -> indexes.values().stream().noneMatch(index -> column.equals(index.get(0))))
+			.forEach(column -> suggestions.addAll(statisticIndexManager.getCreateStatements("IDX_STATISTIC_" + column,
+					column)));
+		return new IndexAdvice(counts, indexes, suggestions);
+	}
+}
@@ -0,0 +1,230 @@
+package com.adverity.csv.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadResult;
+import com.google.common.io.ByteStreams;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Parses a CSV file on all the cores.
+ *
+ * The file is split at newline boundaries into byte ranges of csv.parallel.chunk-bytes and every range
+ * is parsed on a fork-join pool. The parsed chunks are handed to the sink in file order while the next
+ * ranges are still being parsed, so the result is the same as the one of the serial parsing.
+ *
+ * Quoted fields may contain newlines, so files with quotes are not split.
+ *
+ * @author Mihai Zanfir
+ */
+@Component
+public class ParallelCsvParser {
+
+	private static final byte NEW_LINE = '\n';
+	private static final byte QUOTE = '"';
+
+	private final StatisticCsvParser statisticCsvParser;
+	private final CsvProperties.Parallel properties;
+	private final ForkJoinPool pool;
+
+	public ParallelCsvParser(StatisticCsvParser statisticCsvParser, CsvProperties csvProperties) {
+		this.statisticCsvParser = statisticCsvParser;
+		this.properties = csvProperties.getParallel();
+		int parallelism = properties.getParallelism() > 0 ? properties.getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * A parsed byte range of the file
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class ParsedChunk {
+		// The Statistic entities of this range, in file order
+		private final List<Statistic> statistics;
+		// The parsed and rejected rows, the parse and map times and the bytes of this range
+		private final UploadResult counters;
+		// The rejected rows of this range, with their line in the file
+		private final List<RejectedRow> rejects;
+		// The number of lines of this range
+		private final long lines;
+	}
+
+	/**
+	 * Checks if a file is worth to be parsed in parallel and can be split safely
+	 *
+	 * @param file The CSV file
+	 * @return true if parallel parsing is enabled, the file is big enough and it does not contain quotes
+	 * @throws IOException If the file can not be read
+	 */
+	public boolean canParse(Path file) throws IOException {
+		return properties.isEnabled() && pool.getParallelism() > 1
+				&& Files.size(file) >= properties.getMinFileBytes() && !containsQuote(file);
+	}
+
+	/**
+	 * Parses the file on the fork-join pool. At most csv.parallel.max-chunks-in-flight ranges are parsed
+	 * ahead of the sink, which bounds the memory used.
+	 *
+	 * @param file The CSV file, starting with the header line
+	 * @param sink Receives the parsed chunks in file order
+	 * @throws IOException If the file can not be read
+	 */
+	public void parse(Path file, Consumer<ParsedChunk> sink) throws IOException {
+		// The ranges count their lines from their own header, they are moved after the lines of the previous ranges
+		long linesBefore = 1;
+		byte[] header = readHeader(file);
+		List<long[]> ranges = split(file, header.length, Math.max(1, properties.getChunkBytes()));
+		int maxInFlight = properties.getMaxChunksInFlight() > 0 ? properties.getMaxChunksInFlight()
+				: 2 * pool.getParallelism();
+		Deque<ForkJoinTask<ParsedChunk>> inFlight = new ArrayDeque<ForkJoinTask<ParsedChunk>>();
+		int next = 0;
+		try {
+			while (next < ranges.size() || !inFlight.isEmpty()) {
+				while (next < ranges.size() && inFlight.size() < maxInFlight) {
+					long[] range = ranges.get(next++);
+					inFlight.add(pool.submit(() -> parseRange(file, header, range[0], range[1])));
+				}
+				ParsedChunk chunk = inFlight.poll().join();
+				long offset = linesBefore - 1;
+				chunk.getRejects().replaceAll(rejected -> rejected.shift(offset));
+				linesBefore += chunk.getLines();
+				sink.accept(chunk);
+			}
+		} finally {
+			inFlight.forEach(task -> task.cancel(true));
+		}
+	}
+
+	private ParsedChunk parseRange(Path file, byte[] header, long start, long end) {
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+		UploadResult counters = new UploadResult();
+		long lines;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			InputStream range = ByteStreams.limit(Channels.newInputStream(channel.position(start)), end - start);
+			try (Reader reader = new BufferedReader(new InputStreamReader(
+					new SequenceInputStream(new ByteArrayInputStream(header), range)))) {
+				lines = statisticCsvParser.parse(reader, counters, statistics::add, rejects::add) - 1;
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		counters.setBytesRead(end - start);
+		return new ParsedChunk(statistics, counters, rejects, lines);
+	}
+
+	/**
+	 * Reads the header line, including its newline
+	 */
+	private byte[] readHeader(Path file) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+			int b;
+			while ((b = input.read()) != -1) {
+				header.write(b);
+				if (b == NEW_LINE) {
+					break;
+				}
+			}
+		}
+		return header.toByteArray();
+	}
+
+	/**
+	 * Splits the file after the header in byte ranges of about chunkBytes that end after a newline
+	 *
+	 * @return A list of [start, end) byte offsets
+	 */
+	List<long[]> split(Path file, long headerLength, long chunkBytes) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			long start = headerLength;
+			while (start < size) {
+				long end = start + chunkBytes;
+				if (end >= size) {
+					end = size;
+				} else {
+					end = nextLineStart(channel, buffer, end, size);
+				}
+				ranges.add(new long[] {start, end});
+				start = end;
+			}
+		}
+		return ranges;
+	}
+
+	private long nextLineStart(FileChannel channel, ByteBuffer buffer, long position, long size) throws IOException {
+		long offset = position;
+		while (offset < size) {
+			buffer.clear();
+			int read = channel.read(buffer, offset);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == NEW_LINE) {
+					return offset + i + 1;
+				}
+			}
+			offset += read;
+		}
+		return size;
+	}
+
+	private boolean containsQuote(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long offset = 0; offset < size; offset += Integer.MAX_VALUE) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						Math.min(Integer.MAX_VALUE, size - offset));
+				while (buffer.hasRemaining()) {
+					if (buffer.get() == QUOTE) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,96 @@
+package com.adverity.csv.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Partition Replace Service - Replaces all the statistics of a month with the statistics of a CSV file.
+ *
+ * The rows of the file are inserted in chunks of csv.upload.chunk-size rows into a staging table, while the searches
+ * still read the current statistics of the month. When the whole file is stored, the staging table replaces the
+ * partition of the month at once, see StatisticPartitionManager.replace. If the file can not be read or stored, the
+ * staging table is dropped and the month keeps its statistics.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@Log4j2
+@AllArgsConstructor
+public class PartitionReplaceService {
+
+	private final StatisticCsvParser statisticCsvParser;
+	private final StatisticBatchWriter statisticBatchWriter;
+	private final StatisticPartitionManager statisticPartitionManager;
+	private final CsvProperties csvProperties;
+
+	/**
+	 * @param month The month whose statistics are replaced
+	 * @param file A csv file with the new statistics of the month, the rows of other months are rejected
+	 * @return The upload result with the row counters and the time spent parsing, mapping and persisting
+	 */
+	public UploadResult replace(YearMonth month, MultipartFile file) {
+		UploadResult result = new UploadResult();
+		String staging = statisticPartitionManager.createStaging(month);
+		boolean replaced = false;
+		try {
+			int chunkSize = Math.max(1, csvProperties.getUpload().getChunkSize());
+			int batchId = statisticBatchWriter.beginUpload();
+			result.setBatchId(batchId);
+			List<Statistic> chunk = new ArrayList<Statistic>(chunkSize);
+			try (Reader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
+				statisticCsvParser.parse(reader, result, statistic -> {
+					if (!month.equals(YearMonth.from(statistic.getDaily()))) {
+						result.setRowsRejected(result.getRowsRejected() + 1);
+						return;
+					}
+					chunk.add(statistic);
+					if (chunk.size() >= chunkSize) {
+						stage(chunk, batchId, staging, result);
+					}
+				});
+			}
+			stage(chunk, batchId, staging, result);
+			result.setBytesRead(file.getSize());
+			long start = System.nanoTime();
+			statisticPartitionManager.replace(month, staging);
+			result.setPersistNanos(result.getPersistNanos() + System.nanoTime() - start);
+			replaced = true;
+		} catch (IOException ex) {
+			log.error("Parsing error: " + ex.getMessage());
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The file can not be read, " + month
+					+ " was not replaced!");
+		} finally {
+			if (!replaced) {
+				statisticPartitionManager.dropStaging(staging);
+			}
+		}
+		log.info("Replaced the statistics of " + month + " - " + result);
+		return result;
+	}
+
+	private void stage(List<Statistic> chunk, int batchId, String staging, UploadResult result) {
+		long start = System.nanoTime();
+		result.setRowsInserted(result.getRowsInserted() + statisticBatchWriter.stage(chunk, batchId, staging));
+		result.setPersistNanos(result.getPersistNanos() + System.nanoTime() - start);
+		chunk.clear();
+	}
+}
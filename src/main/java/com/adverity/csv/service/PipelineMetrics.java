@@ -0,0 +1,148 @@
+package com.adverity.csv.service;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.util.QueryShape;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Records the Micrometer metrics of the upload and search pipelines, exposed on /actuator/metrics and
+ * /actuator/prometheus.
+ *
+ * The uploads are timed per stage (read, hash, parse, map, persist, index) and per committed chunk, and their
+ * rows are counted per outcome, all tagged with the upload mode. The searches are timed per stage (build, execute,
+ * render) and tagged with their QueryShape and with the source that answered them: columnar or the queried entity.
+ * The percentile histograms of the csv.* meters are enabled with management.metrics.distribution properties.
+ *
+ * @author Mihai Zanfir
+ */
+@Component
+public class PipelineMetrics {
+
+	public static final String UPLOAD_STAGE = "csv.upload.stage";
+	public static final String UPLOAD_CHUNK = "csv.upload.chunk";
+	public static final String UPLOAD_ROWS = "csv.upload.rows";
+	public static final String UPLOAD_BYTES = "csv.upload.bytes";
+	public static final String UPLOAD_DUPLICATES = "csv.upload.duplicates";
+	public static final String SEARCH_STAGE = "csv.search.stage";
+	public static final String SEARCH_RECORDS = "csv.search.records";
+
+	// The source of the searches answered by the ColumnarQueryEngine
+	public static final String COLUMNAR_SOURCE = "columnar";
+
+	private final MeterRegistry registry;
+
+	public PipelineMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Records the time of one stage of an upload
+	 *
+	 * @param stage read, hash or index, the other stages are recorded by recordUpload
+	 */
+	public void recordUploadStage(String stage, UploadMode mode, long nanos) {
+		Timer.builder(UPLOAD_STAGE)
+				.description("Time spent in every stage of the uploads")
+				.tags("stage", stage, "mode", tagOf(mode))
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the time to commit one chunk of rows of an upload
+	 */
+	public void recordChunk(UploadMode mode, long nanos) {
+		Timer.builder(UPLOAD_CHUNK)
+				.description("Time to commit one chunk of csv.upload.chunk-size rows")
+				.tags("mode", tagOf(mode))
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the parse, map and persist times, the rows and the bytes of a completed upload.
+	 * The parse and map times of a file parsed in parallel are summed over the parser threads.
+	 */
+	public void recordUpload(UploadMode mode, UploadResult result) {
+		recordUploadStage("parse", mode, result.getParseNanos());
+		recordUploadStage("map", mode, result.getMapNanos());
+		recordUploadStage("persist", mode, result.getPersistNanos());
+		countRows(mode, "parsed", result.getRowsParsed());
+		countRows(mode, "inserted", result.getRowsInserted());
+		countRows(mode, "merged", result.getRowsMerged());
+		countRows(mode, "rejected", result.getRowsRejected());
+		DistributionSummary.builder(UPLOAD_BYTES)
+				.description("Size of the uploaded files")
+				.baseUnit("bytes")
+				.tags("mode", tagOf(mode))
+				.register(registry)
+				.record(result.getBytesRead());
+	}
+
+	private void countRows(UploadMode mode, String outcome, long rows) {
+		Counter.builder(UPLOAD_ROWS)
+				.description("Rows of the uploads per outcome")
+				.tags("outcome", outcome, "mode", tagOf(mode))
+				.register(registry)
+				.increment(rows);
+	}
+
+	/**
+	 * Counts an upload skipped because the same content was already uploaded
+	 */
+	public void recordDuplicate(UploadMode mode) {
+		Counter.builder(UPLOAD_DUPLICATES)
+				.description("Uploads skipped because their content was already uploaded")
+				.tags("mode", tagOf(mode))
+				.register(registry)
+				.increment();
+	}
+
+	/**
+	 * Records the time of one stage of a search
+	 *
+	 * @param stage build, execute or render
+	 * @param source COLUMNAR_SOURCE, the simple name of the queried entity or view for the render stage
+	 */
+	public void recordSearchStage(String stage, QueryShape shape, String source, long nanos) {
+		Timer.builder(SEARCH_STAGE)
+				.description("Time spent in every stage of the searches")
+				.tags(shape.toTags().and("stage", stage, "source", source))
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the number of records returned by a search, from its query or from the search cache
+	 */
+	public void recordSearchRecords(QueryShape shape, int records) {
+		DistributionSummary.builder(SEARCH_RECORDS)
+				.description("Records returned by the searches")
+				.tags(shape.toTags())
+				.register(registry)
+				.record(records);
+	}
+
+	/**
+	 * Reports the active threads, the queued tasks and the completed tasks of an executor
+	 */
+	public void monitor(ThreadPoolExecutor executor, String name) {
+		new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry);
+	}
+
+	private static String tagOf(UploadMode mode) {
+		return mode.name().toLowerCase();
+	}
+}
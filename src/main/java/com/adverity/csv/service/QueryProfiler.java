@@ -0,0 +1,274 @@
+package com.adverity.csv.service;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.CapturedStatement;
+import com.adverity.csv.model.QueryShapeStatistics;
+import com.adverity.csv.model.SearchResult;
+import com.adverity.csv.model.SlowQuery;
+import com.adverity.csv.util.SearchQueryParser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Profiles the searches per shape: a shape is a search without the values of its conditions, ex:
+ * display=datasource,clicks:sum condition=daily greater_than,daily less_than groupBy=datasource.
+ *
+ * Every search is counted in its shape with its wall time and returned rows. The searches taking at least
+ * csv.profiling.slow-query-millis are kept in a slow query log of the last csv.profiling.slow-query-log-size slow
+ * searches, with the SQL they executed. The SQL of a slow search is run again with EXPLAIN ANALYZE to keep its plan
+ * and the rows H2 read, at most once every csv.profiling.explain-interval-seconds for the same SQL, so a
+ * slow shape repeated by a dashboard does not run its query twice every time. The explains run one at a time on a
+ * background thread, so a slow search does not wait for its explain; when EXPLAIN_QUEUE_CAPACITY explains are
+ * waiting, the other slow searches are not explained.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@Log4j2
+public class QueryProfiler {
+
+	// The rows read from a table or a view
+	private static final Pattern SCAN_COUNT = Pattern.compile("/\\* scanCount: (\\d+) \\*/");
+	// The rows read from a table inside a view
+	private static final Pattern VIEW_SCAN_COUNT = Pattern.compile("/\\+\\+ scanCount: (\\d+) \\+\\+/");
+	private static final int EXPLAIN_QUEUE_CAPACITY = 16;
+
+	private final CsvProperties.Profiling properties;
+	private final JdbcTemplate jdbcTemplate;
+	// The slow searches, the newest first
+	private final Deque<SlowQuery> slowQueries = new ArrayDeque<SlowQuery>();
+	private final Cache<String, ShapeCounter> shapes;
+	// The SQL explained less than csv.profiling.explain-interval-seconds ago
+	private final Cache<String, Boolean> explained;
+	private final ThreadPoolExecutor explainer;
+
+	public QueryProfiler(CsvProperties csvProperties, JdbcTemplate jdbcTemplate) {
+		this.properties = csvProperties.getProfiling();
+		this.jdbcTemplate = jdbcTemplate;
+		this.shapes = CacheBuilder.newBuilder().maximumSize(Math.max(1, properties.getMaxShapes())).build();
+		this.explained = CacheBuilder.newBuilder()
+				.expireAfterWrite(properties.getExplainIntervalSeconds(), TimeUnit.SECONDS)
+				.build();
+		this.explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(EXPLAIN_QUEUE_CAPACITY), runnable -> {
+					Thread thread = new Thread(runnable, "query-explain");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		explainer.shutdownNow();
+	}
+
+	/**
+	 * Counts a search in its shape and keeps it in the slow query log if it is slow.
+	 * See CsvService.searchStatistics for the search parameters.
+	 *
+	 * @param result The result of the search
+	 * @param executed If the search ran its query, false if it was answered by the search cache
+	 * @param nanos The wall time of the search
+	 */
+	public void record(String display, String condition, String groupBy, String orderBy, String offset, String limit,
+			SearchResult result, boolean executed, long nanos) {
+		if (!properties.isEnabled()) {
+			return;
+		}
+		String shape = getShape(display, condition, groupBy, orderBy);
+		boolean slow = nanos >= TimeUnit.MILLISECONDS.toNanos(properties.getSlowQueryMillis());
+		int rows = result.getRecords().size();
+		shapes.asMap().computeIfAbsent(shape, ShapeCounter::new).add(executed, slow, nanos, rows);
+		if (!slow) {
+			return;
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		log.warn("Slow search of {} ms: {}", millis, shape);
+		List<CapturedStatement> statements = result.getStatements();
+		SlowQuery slowQuery = new SlowQuery(LocalDateTime.now(), shape, display, condition, groupBy, orderBy, offset,
+				limit, executed ? result.getSource() : null, millis, rows, null, statements, null);
+		synchronized (slowQueries) {
+			slowQueries.addFirst(slowQuery);
+			while (slowQueries.size() > Math.max(1, properties.getSlowQueryLogSize())) {
+				slowQueries.removeLast();
+			}
+		}
+		String sql = describe(statements);
+		if (executed && properties.isExplain() && !statements.isEmpty()
+				&& explained.asMap().putIfAbsent(sql, Boolean.TRUE) == null) {
+			try {
+				explainer.execute(() -> explain(slowQuery));
+			} catch (RejectedExecutionException ex) {
+				log.debug("Too many slow searches to explain, not explaining: {}", shape);
+				explained.invalidate(sql);
+			}
+		}
+	}
+
+	/**
+	 * Sets the plan of a slow search and the rows H2 read to answer it
+	 */
+	private void explain(SlowQuery slowQuery) {
+		List<String> plans = new ArrayList<String>();
+		try {
+			for (CapturedStatement statement : slowQuery.getStatements()) {
+				plans.add(explain(statement));
+			}
+			String plan = String.join("\n\n", plans);
+			slowQuery.setRowsScanned(getRowsScanned(plan));
+			slowQuery.setPlan(plan);
+		} catch (DataAccessException ex) {
+			log.warn("Could not explain the search: " + ex.getMessage());
+			slowQuery.setPlan("Could not explain the search: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * @return The shape of a search: its parameters with the conditions reduced to their columns and operations
+	 */
+	public static String getShape(String display, String condition, String groupBy, String orderBy) {
+		List<String> parts = new ArrayList<String>();
+		if (isNotBlank(display)) {
+			parts.add("display=" + display.trim());
+		}
+		if (isNotBlank(condition)) {
+			parts.add("condition=" + SearchQueryParser.parseCondition(condition).stream()
+					.map(criteria -> (criteria.isOrPredicate() ? "'" : "") + criteria.getKey() + " "
+							+ String.valueOf(criteria.getOperation()).toLowerCase())
+					.collect(Collectors.joining(",")));
+		}
+		if (isNotBlank(groupBy)) {
+			parts.add("groupBy=" + groupBy.trim());
+		}
+		if (isNotBlank(orderBy)) {
+			parts.add("orderBy=" + orderBy.trim());
+		}
+		return parts.isEmpty() ? "all" : String.join(" ", parts);
+	}
+
+	/**
+	 * @return The output of EXPLAIN ANALYZE for the statement, with the same parameters
+	 */
+	private String explain(CapturedStatement statement) {
+		List<String> lines = jdbcTemplate.query("EXPLAIN ANALYZE " + statement.getSql(), ps -> {
+			for (int i = 0; i < statement.getParameters().size(); i++) {
+				ps.setObject(i + 1, statement.getParameters().get(i));
+			}
+		}, (rs, rowNum) -> rs.getString(1));
+		return String.join("\n", lines);
+	}
+
+	/**
+	 * @return The rows read from the tables: inside the views if the plan reads views, otherwise from the tables
+	 */
+	static long getRowsScanned(String plan) {
+		long rows = sum(VIEW_SCAN_COUNT.matcher(plan));
+		return rows > 0 ? rows : sum(SCAN_COUNT.matcher(plan));
+	}
+
+	private static long sum(Matcher matcher) {
+		long sum = 0;
+		while (matcher.find()) {
+			sum += Long.parseLong(matcher.group(1));
+		}
+		return sum;
+	}
+
+	private static String describe(List<CapturedStatement> statements) {
+		return statements.stream().map(CapturedStatement::getSql).collect(Collectors.joining(";\n"));
+	}
+
+	/**
+	 * @param minMillis If set, only the searches that took at least this many milliseconds
+	 * @param shape If set, only the searches whose shape contains this text
+	 * @param limit If set, the maximum number of searches
+	 * @return The slow searches matching the filters, the newest first
+	 */
+	public List<SlowQuery> getSlowQueries(Long minMillis, String shape, Integer limit) {
+		List<SlowQuery> queries;
+		synchronized (slowQueries) {
+			queries = new ArrayList<SlowQuery>(slowQueries);
+		}
+		return queries.stream()
+				.filter(query -> minMillis == null || query.getMillis() >= minMillis)
+				.filter(query -> !isNotBlank(shape) || query.getShape().contains(shape))
+				.limit(limit != null && limit >= 0 ? limit : Long.MAX_VALUE)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * @return The statistics of every shape, the shapes with the most total time first
+	 */
+	public List<QueryShapeStatistics> getShapeStatistics() {
+		return shapes.asMap().values().stream()
+				.map(ShapeCounter::getStatistics)
+				.sorted(Comparator.comparingLong(QueryShapeStatistics::getTotalNanos).reversed())
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Drops the slow query log and the statistics of the shapes
+	 */
+	public void clear() {
+		synchronized (slowQueries) {
+			slowQueries.clear();
+		}
+		shapes.invalidateAll();
+		explained.invalidateAll();
+	}
+
+	/**
+	 * The running totals of one shape
+	 */
+	private static class ShapeCounter {
+		private final String shape;
+		private long searches;
+		private long executions;
+		private long slowSearches;
+		private long totalNanos;
+		private long maxNanos;
+		private long rowsReturned;
+
+		ShapeCounter(String shape) {
+			this.shape = shape;
+		}
+
+		synchronized void add(boolean executed, boolean slow, long nanos, int rows) {
+			searches++;
+			executions += executed ? 1 : 0;
+			slowSearches += slow ? 1 : 0;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			rowsReturned += rows;
+		}
+
+		synchronized QueryShapeStatistics getStatistics() {
+			return new QueryShapeStatistics(shape, searches, executions, slowSearches, totalNanos, maxNanos,
+					rowsReturned);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.adverity.csv.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.SearchQueryKey;
+import com.adverity.csv.model.SearchResult;
+import com.adverity.csv.model.StatisticsChangedEvent;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Cache of the search results, keyed on the normalized search parameters.
+ *
+ * The cache holds at most csv.search-cache.max-rows result rows, the results are dropped after
+ * csv.search-cache.ttl-seconds and all of them are dropped when new statistics are committed. Concurrent
+ * identical searches run the query once. A result loaded while statistics were committed is returned but not kept.
+ * The hits, misses, loads and evictions are reported as the cache.* metrics of the csv.search cache.
+ *
+ * @author Mihai Zanfir
+ */
+@Component
+public class SearchResultCache implements MeterBinder {
+
+	private final boolean enabled;
+	private final Cache<SearchQueryKey, SearchResult> cache;
+	// Incremented every time the statistics change
+	private final AtomicLong generation = new AtomicLong();
+
+	public SearchResultCache(CsvProperties csvProperties) {
+		CsvProperties.SearchCache properties = csvProperties.getSearchCache();
+		this.enabled = properties.isEnabled();
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(properties.getMaxRows())
+				.weigher((SearchQueryKey key, SearchResult result) -> result.getRecords().size() + 1)
+				.expireAfterWrite(properties.getTtlSeconds(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Returns the cached result of a search or runs its query
+	 *
+	 * @param key The normalized search parameters
+	 * @param query Runs the search in the database
+	 * @return The result of the search, with unmodifiable records
+	 */
+	public SearchResult get(SearchQueryKey key, Supplier<SearchResult> query) {
+		if (!enabled) {
+			return query.get();
+		}
+		long loadGeneration = generation.get();
+		SearchResult result;
+		try {
+			result = cache.get(key, () -> {
+				SearchResult loaded = query.get();
+				return loaded.withRecords(Collections.unmodifiableList(loaded.getRecords()));
+			});
+		} catch (ExecutionException | UncheckedExecutionException | ExecutionError ex) {
+			Throwables.throwIfUnchecked(ex.getCause());
+			throw new IllegalStateException(ex.getCause());
+		}
+		if (generation.get() != loadGeneration) {
+			cache.invalidate(key);
+		}
+		return result;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		GuavaCacheMetrics.monitor(registry, cache, "csv.search");
+	}
+
+	/**
+	 * Drops all the cached results
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		cache.invalidateAll();
+	}
+
+	@EventListener
+	public void onStatisticsChanged(StatisticsChangedEvent event) {
+		invalidateAll();
+	}
+
+	/**
+	 * @return The hits, misses, loads and evictions of the cache since the start of the application
+	 */
+	public Map<String, Object> getStatistics() {
+		CacheStats stats = cache.stats();
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("enabled", enabled);
+		statistics.put("entries", cache.size());
+		statistics.put("hits", stats.hitCount());
+		statistics.put("misses", stats.missCount());
+		statistics.put("hitRate", stats.hitRate());
+		statistics.put("loads", stats.loadCount());
+		statistics.put("averageLoadMillis", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+		statistics.put("evictions", stats.evictionCount());
+		return statistics;
+	}
+}
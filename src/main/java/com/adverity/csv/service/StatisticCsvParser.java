@@ -0,0 +1,191 @@
+package com.adverity.csv.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+import com.adverity.csv.mapper.StatisticMapper;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.StatisticCsv;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.util.StatisticCsvTokenizer;
+import com.adverity.csv.util.StatisticCsvValidator;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.bean.CsvToBean;
+import com.opencsv.bean.CsvToBeanBuilder;
+import com.opencsv.exceptions.CsvException;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Parses CSV content into Statistic entities, row by row.
+ * The standard files are read with the allocation-light StatisticCsvTokenizer, OpenCSV is kept for the other files.
+ *
+ * @author Mihai Zanfir
+ */
+@Component
+@AllArgsConstructor
+@Log4j2
+public class StatisticCsvParser {
+
+	private final StatisticMapper statisticMapper;
+
+	/**
+	 * Reads the CSV rows one by one, converts them into Statistic entities and passes them to the sink.
+	 * Invalid rows are skipped and counted as rejected.
+	 *
+	 * @param reader The CSV content, starting with the header line
+	 * @param result The upload result where the parsed and rejected rows and the parse and map times are added
+	 * @param sink Receives every Statistic entity
+	 * @throws IOException If the content can not be read
+	 */
+	public void parse(Reader reader, UploadResult result, Consumer<Statistic> sink) throws IOException {
+		parse(reader, result, sink, rejected -> {});
+	}
+
+	/**
+	 * Reads the CSV rows one by one, converts them into Statistic entities and passes them to the sink.
+	 * Invalid rows are skipped, counted as rejected and passed to the rejects with their line number and reason.
+	 * 
+	 * The rows are read with the StatisticCsvTokenizer. If the header is not the standard one or the content
+	 * uses quotes, the rest of the content is read with OpenCSV and the StatisticMapper.
+	 * The tokenizer converts the rows while parsing them, so its time is counted as parse time.
+	 *
+	 * @param reader The CSV content, starting with the header line
+	 * @param result The upload result where the parsed and rejected rows and the parse and map times are added
+	 * @param sink Receives every Statistic entity
+	 * @param rejects Receives every rejected row, the header being line 1
+	 * @return The number of lines read, including the header
+	 * @throws IOException If the content can not be read
+	 */
+	public long parse(Reader reader, UploadResult result, Consumer<Statistic> sink, Consumer<RejectedRow> rejects)
+			throws IOException {
+		StatisticCsvTokenizer tokenizer = new StatisticCsvTokenizer(reader);
+		long start = System.nanoTime();
+		if (!tokenizer.readHeader()) {
+			result.setParseNanos(result.getParseNanos() + System.nanoTime() - start);
+			return parseWithOpenCsv(tokenizer.remainingReader(), result, sink, rejects);
+		}
+		while (true) {
+			StatisticCsvTokenizer.Status status = tokenizer.next();
+			if (status == StatisticCsvTokenizer.Status.ROW) {
+				long parsed = System.nanoTime();
+				result.setParseNanos(result.getParseNanos() + parsed - start);
+				result.setRowsParsed(result.getRowsParsed() + 1);
+				sink.accept(tokenizer.getStatistic());
+				start = System.nanoTime();
+			} else if (status == StatisticCsvTokenizer.Status.REJECTED) {
+				result.setRowsRejected(result.getRowsRejected() + 1);
+				rejects.accept(new RejectedRow(tokenizer.getLineNumber(), tokenizer.getRejectReason(), tokenizer.getLine()));
+			} else {
+				result.setParseNanos(result.getParseNanos() + System.nanoTime() - start);
+				if (status == StatisticCsvTokenizer.Status.FALLBACK) {
+					log.debug("Line " + tokenizer.getLineNumber() + " uses quotes, the rest of the file is parsed with OpenCSV");
+					// The remaining content starts with the header again, followed by the current line
+					long offset = tokenizer.getLineNumber() - 2;
+					return offset + parseWithOpenCsv(tokenizer.remainingReader(), result, sink,
+							rejected -> rejects.accept(rejected.shift(offset)));
+				}
+				return tokenizer.getLineNumber();
+			}
+		}
+	}
+
+	/**
+	 * Reads the CSV rows with OpenCSV and converts them with the StatisticMapper.
+	 * Rows that can not be read into a StatisticCsv are skipped and counted as rejected.
+	 *
+	 * @param reader The CSV content, starting with the header line
+	 * @param result The upload result where the parsed and rejected rows and the parse and map times are added
+	 * @param sink Receives every Statistic entity
+	 */
+	public void parseWithOpenCsv(Reader reader, UploadResult result, Consumer<Statistic> sink) {
+		parseWithOpenCsv(reader, result, sink, rejected -> {});
+	}
+
+	/**
+	 * Reads the CSV rows with OpenCSV and converts them with the StatisticMapper.
+	 * Rows that can not be read into a StatisticCsv or that the StatisticCsvValidator refuses are skipped,
+	 * counted as rejected and passed to the rejects.
+	 *
+	 * @param reader The CSV content, starting with the header line
+	 * @param result The upload result where the parsed and rejected rows and the parse and map times are added
+	 * @param sink Receives every Statistic entity
+	 * @param rejects Receives every rejected row, the header being line 1
+	 * @return The number of lines read, including the header
+	 */
+	public long parseWithOpenCsv(Reader reader, UploadResult result, Consumer<Statistic> sink,
+			Consumer<RejectedRow> rejects) {
+		CSVReader csvReader = createCsvReader(reader);
+		CsvToBean<StatisticCsv> csvToBean = createCsvToBean(csvReader, false);
+		Iterator<StatisticCsv> rows = csvToBean.iterator();
+		long rejectedBefore = result.getRowsRejected();
+		int reported = 0;
+		long start = System.nanoTime();
+		while (rows.hasNext()) {
+			StatisticCsv statisticCsv = rows.next();
+			long parsed = System.nanoTime();
+			result.setParseNanos(result.getParseNanos() + parsed - start);
+			result.setRowsParsed(result.getRowsParsed() + 1);
+			reported = reportRejects(csvToBean, reported, rejects);
+			result.setRowsRejected(rejectedBefore + reported);
+			Statistic statistic = statisticMapper.mapEntityCsvToEntity(statisticCsv);
+			start = System.nanoTime();
+			result.setMapNanos(result.getMapNanos() + start - parsed);
+			sink.accept(statistic);
+			start = System.nanoTime();
+		}
+		result.setParseNanos(result.getParseNanos() + System.nanoTime() - start);
+		reported = reportRejects(csvToBean, reported, rejects);
+		result.setRowsRejected(rejectedBefore + reported);
+		return csvReader.getLinesRead();
+	}
+
+	/**
+	 * Passes the rows captured by OpenCSV since the last call to the rejects
+	 *
+	 * @return The number of rows reported so far
+	 */
+	private int reportRejects(CsvToBean<StatisticCsv> csvToBean, int reported, Consumer<RejectedRow> rejects) {
+		List<CsvException> captured = csvToBean.getCapturedExceptions();
+		for (int i = reported; i < captured.size(); i++) {
+			CsvException ex = captured.get(i);
+			rejects.accept(new RejectedRow(ex.getLineNumber(), ex.getMessage(),
+					ex.getLine() == null ? "" : String.join(",", ex.getLine())));
+		}
+		return captured.size();
+	}
+
+	/**
+	 * Creates the csv bean reader that converts the CSV lines into StatisticCsv objects
+	 *
+	 * @param reader The CSV content
+	 * @param throwExceptions If false, the invalid rows are skipped and collected in getCapturedExceptions()
+	 * @return A CsvToBean that can be parsed at once or iterated row by row
+	 */
+	public CsvToBean<StatisticCsv> createCsvToBean(Reader reader, boolean throwExceptions) {
+		return createCsvToBean(createCsvReader(reader), throwExceptions);
+	}
+
+	private CsvToBean<StatisticCsv> createCsvToBean(CSVReader csvReader, boolean throwExceptions) {
+		return new CsvToBeanBuilder<StatisticCsv>(csvReader)
+				.withType(StatisticCsv.class)
+				.withVerifier(new StatisticCsvValidator())
+				.withThrowExceptions(throwExceptions)
+				.build();
+	}
+
+	private CSVReader createCsvReader(Reader reader) {
+		return new CSVReaderBuilder(reader)
+				.withCSVParser(new CSVParserBuilder().withIgnoreLeadingWhiteSpace(true).build())
+				.build();
+	}
+}
@@ -0,0 +1,169 @@
+package com.adverity.csv.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.persistence.criteria.CriteriaQuery;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.ExportFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Statistic Export Service - Streams the results of a search as CSV or NDJSON.
+ *
+ * The records are read from a forward only cursor and written to the response one by one, they are never collected
+ * in a list. H2 runs every query lazily (LAZY_QUERY_EXECUTION=1 in the datasource URL), so plain selections are read
+ * from the table as the client consumes them. A slow client blocks the writes and so the reads: the memory used does
+ * not depend on the number of records.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@Log4j2
+public class StatisticExportService {
+
+	private final CsvService csvService;
+	private final TransactionTemplate readOnlyTransaction;
+	private final ObjectMapper objectMapper;
+	private final CsvProperties csvProperties;
+
+	public StatisticExportService(CsvService csvService, PlatformTransactionManager transactionManager,
+			ObjectMapper objectMapper, CsvProperties csvProperties) {
+		this.csvService = csvService;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.objectMapper = objectMapper;
+		this.csvProperties = csvProperties;
+	}
+
+	/**
+	 * Prepares the export of a search. The query is built, and so validated, before the response starts.
+	 * See CsvService.searchStatistics for the search parameters, without a limit all the records are exported.
+	 *
+	 * @param format The format of the exported records
+	 * @return The body that writes the records to the response
+	 */
+	public StreamingResponseBody export(String display, String condition, String groupBy, String orderBy,
+			String offset, String limit, ExportFormat format) {
+		CriteriaQuery<Object> query = csvService.createSearchQuery(display, condition, groupBy, orderBy);
+		List<String> columns = csvService.getDisplayedColumns(display);
+		return output -> {
+			long records = write(query, offset, limit, columns, format, output);
+			log.info("Exported " + records + " records as " + format);
+		};
+	}
+
+	/**
+	 * Runs the query in a read only transaction and writes its records in the given format
+	 *
+	 * @return The number of written records
+	 * @throws IOException If the output can not be written
+	 */
+	public long write(CriteriaQuery<Object> query, String offset, String limit, List<String> columns,
+			ExportFormat format, OutputStream output) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8),
+				csvProperties.getExport().getBufferSize());
+		RecordWriter recordWriter = format == ExportFormat.NDJSON ? new NdjsonWriter(writer, columns)
+				: new CsvWriter(writer, columns);
+		long records;
+		try {
+			records = readOnlyTransaction.execute(status -> {
+				try (Stream<Object> rows = csvService.createTypedQuery(query, offset, limit)
+						.setHint(QueryHints.HINT_FETCH_SIZE, csvProperties.getExport().getFetchSize())
+						.setHint(QueryHints.HINT_READONLY, true)
+						.getResultStream()) {
+					long count = 0;
+					for (Object row : (Iterable<Object>) rows::iterator) {
+						recordWriter.write(row instanceof Object[] ? (Object[]) row : new Object[] {row});
+						count++;
+					}
+					return count;
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+		writer.flush();
+		return records;
+	}
+
+	private interface RecordWriter {
+		void write(Object[] row) throws IOException;
+	}
+
+	/**
+	 * Writes the records as CSV lines, the values with commas, quotes or line breaks are quoted
+	 */
+	private static class CsvWriter implements RecordWriter {
+		private final Writer writer;
+
+		CsvWriter(Writer writer, List<String> columns) throws IOException {
+			this.writer = writer;
+			write(columns.toArray());
+		}
+
+		@Override
+		public void write(Object[] row) throws IOException {
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				if (row[i] != null) {
+					String value = row[i].toString();
+					if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+							|| value.indexOf('\r') >= 0) {
+						writer.write('"');
+						writer.write(value.replace("\"", "\"\""));
+						writer.write('"');
+					} else {
+						writer.write(value);
+					}
+				}
+			}
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the records as JSON objects, one per line
+	 */
+	private class NdjsonWriter implements RecordWriter {
+		private final Writer writer;
+		private final List<String> columns;
+
+		NdjsonWriter(Writer writer, List<String> columns) {
+			this.writer = writer;
+			this.columns = columns;
+		}
+
+		@Override
+		public void write(Object[] row) throws IOException {
+			Map<String, Object> record = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < row.length; i++) {
+				record.put(i < columns.size() ? columns.get(i) : "column" + i, row[i]);
+			}
+			writer.write(objectMapper.writeValueAsString(record));
+			writer.write('\n');
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.adverity.csv.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.UploadJob;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.util.RejectFileWriter;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Upload Job Service - runs the CSV uploads in the background on a bounded executor.
+ *
+ * The uploaded file is spooled to disk so the request can return a job id immediately.
+ * The progress of every job can then be polled by its id.
+ *
+ * @author Mihai Zanfir
+ */
+@Service
+@Log4j2
+public class UploadJobService {
+
+	private final CsvService csvService;
+	private final PipelineMetrics pipelineMetrics;
+	private final CsvProperties.Jobs properties;
+	private final ThreadPoolExecutor executor;
+	private final Map<String, UploadJob> jobs = new ConcurrentHashMap<String, UploadJob>();
+
+	public UploadJobService(CsvService csvService, PipelineMetrics pipelineMetrics, CsvProperties csvProperties) {
+		this.csvService = csvService;
+		this.pipelineMetrics = pipelineMetrics;
+		this.properties = csvProperties.getJobs();
+		int poolSize = Math.max(1, properties.getPoolSize());
+		AtomicInteger threadNr = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, properties.getQueueCapacity())),
+				runnable -> new Thread(runnable, "csv-upload-" + threadNr.incrementAndGet()));
+		pipelineMetrics.monitor(executor, "csv-upload");
+	}
+
+	/**
+	 * Spools the file to disk and queues its ingestion
+	 *
+	 * @param file A csv file to upload
+	 * @param mode How the rows are stored
+	 * @return The queued job
+	 */
+	public UploadJob submit(MultipartFile file, UploadMode mode) {
+		removeExpiredJobs();
+		UploadJob job = new UploadJob(UUID.randomUUID().toString(), file.getOriginalFilename(), file.getSize());
+		Path spool;
+		try {
+			long start = System.nanoTime();
+			spool = Files.createTempFile(spoolDirectory(), "upload-" + job.getId(), ".csv");
+			file.transferTo(spool);
+			pipelineMetrics.recordUploadStage("read", mode, System.nanoTime() - start);
+		} catch (IOException ex) {
+			log.error("Could not spool the upload: " + ex.getMessage());
+			throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not store the uploaded file!");
+		}
+		jobs.put(job.getId(), job);
+		try {
+			executor.execute(() -> run(job, spool, mode));
+		} catch (RejectedExecutionException ex) {
+			jobs.remove(job.getId());
+			delete(spool);
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads are running, please retry later!");
+		}
+		log.info("Upload job " + job.getId() + " queued for " + job.getFileName());
+		return job;
+	}
+
+	/**
+	 * @param id The job id
+	 * @return The job with this id, if it is known
+	 */
+	public Optional<UploadJob> getJob(String id) {
+		return Optional.ofNullable(jobs.get(id));
+	}
+
+	/**
+	 * @param id The job id
+	 * @return The file with the rejected rows of the job, if the job is known and its upload rejected rows
+	 */
+	public Optional<Path> getRejectFile(String id) {
+		return getJob(id).map(UploadJob::getRejectFile);
+	}
+
+	/**
+	 * Ingests the spooled file. The invalid rows are skipped and written next to the spooled file, in a reject file
+	 * kept as long as the job.
+	 */
+	private void run(UploadJob job, Path spool, UploadMode mode) {
+		job.start();
+		RejectFileWriter rejects = new RejectFileWriter(spool.resolveSibling("rejects-" + job.getId() + ".csv"));
+		try {
+			UploadResult result = csvService.ingestCsv(spool, job.getFileName(), mode, job::update, rejects);
+			closeRejects(job, rejects);
+			job.complete(result);
+			log.info("Upload job " + job.getId() + " finished - " + result);
+		} catch (Exception ex) {
+			closeRejects(job, rejects);
+			job.fail("There were errors on parsing the Csv file! " + ex.getMessage());
+			log.error("Upload job " + job.getId() + " failed", ex);
+		} finally {
+			delete(spool);
+		}
+	}
+
+	private void closeRejects(UploadJob job, RejectFileWriter rejects) {
+		try {
+			rejects.close();
+		} catch (IOException ex) {
+			log.error("Could not write " + rejects.getFile() + ": " + ex.getMessage());
+		}
+		if (rejects.getRows() > 0) {
+			job.setRejectFile(rejects.getFile());
+		}
+	}
+
+	private Path spoolDirectory() throws IOException {
+		String directory = properties.getSpoolDirectory();
+		if (directory == null || directory.isEmpty()) {
+			return Paths.get(System.getProperty("java.io.tmpdir"));
+		}
+		return Files.createDirectories(Paths.get(directory));
+	}
+
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ex) {
+			log.error("Could not delete " + file + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Forgets the finished jobs older than csv.jobs.retention-minutes and deletes their reject files
+	 */
+	private void removeExpiredJobs() {
+		long expired = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(properties.getRetentionMinutes());
+		jobs.values().removeIf(job -> {
+			if (!job.isFinished() || job.getFinishedAt() >= expired) {
+				return false;
+			}
+			if (job.getRejectFile() != null) {
+				delete(job.getRejectFile());
+			}
+			return true;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,48 @@
+package com.adverity.csv.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the SHA-256 of the content of the uploaded files
+ *
+ * @author Mihai Zanfir
+ */
+public final class ContentHasher {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private ContentHasher() {
+	}
+
+	/**
+	 * Reads a stream to its end and hashes it
+	 *
+	 * @param input The content to hash
+	 * @return The SHA-256 of the content, as 64 lowercase hex digits
+	 * @throws IOException If the content can not be read
+	 */
+	public static String sha256(InputStream input) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(ex);
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+			digest.update(buffer, 0, read);
+		}
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+			hex[2 * i + 1] = HEX[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
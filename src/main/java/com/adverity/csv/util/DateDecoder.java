@@ -0,0 +1,97 @@
+package com.adverity.csv.util;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decodes the dates used by this application.
+ *
+ * The formatters are immutable and shared. The statistics cover a few hundred distinct days, so the decoded
+ * dates are memoized: a raw date is parsed once and the same LocalDate is returned for all the following rows
+ * and queries. Each cache keeps at most MAX_CACHED_DATES dates, after that the new dates are parsed every time.
+ *
+ * The CSV dates are resolved strictly, a day that does not exist in its month like 02/30/19 is rejected instead of
+ * being moved to the last day of the month, the same as the StatisticCsvTokenizer does with of().
+ *
+ * @author Mihai Zanfir
+ */
+public final class DateDecoder {
+
+	// The format of the Daily column in the CSV files, ex: 01/31/19. STRICT needs the year-of-era "uu" of 2000-2099
+	public static final DateTimeFormatter CSV_DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/uu")
+			.withResolverStyle(ResolverStyle.STRICT);
+	// The format of the daily values in the search conditions, ex: 01-31-2019
+	public static final DateTimeFormatter QUERY_DATE_FORMAT = DateTimeFormatter.ofPattern("MM-dd-yyyy");
+
+	private static final int MAX_CACHED_DATES = 10_000;
+	private static final int FIRST_CACHED_YEAR = 2000;
+	private static final int CACHED_YEARS = 100;
+
+	private static final Map<String, LocalDate> CSV_DATES = new ConcurrentHashMap<String, LocalDate>();
+	private static final Map<String, LocalDate> QUERY_DATES = new ConcurrentHashMap<String, LocalDate>();
+	// The dates of FIRST_CACHED_YEAR to FIRST_CACHED_YEAR + CACHED_YEARS indexed by year, month and day
+	private static final LocalDate[] DATES = new LocalDate[CACHED_YEARS * 12 * 31];
+
+	private DateDecoder() {
+	}
+
+	/**
+	 * Decodes a Daily value coming from a CSV file
+	 *
+	 * @param date a date in the format "01/31/19"
+	 * @return the LocalDate 2019-01-31
+	 */
+	public static LocalDate parseCsvDate(String date) {
+		return parse(date, CSV_DATE_FORMAT, CSV_DATES);
+	}
+
+	/**
+	 * Decodes a daily value used in a search condition
+	 *
+	 * @param date a date in the format "01-31-2019"
+	 * @return the LocalDate 2019-01-31
+	 */
+	public static LocalDate parseQueryDate(String date) {
+		return parse(date, QUERY_DATE_FORMAT, QUERY_DATES);
+	}
+
+	/**
+	 * Returns the date of the given fields, shared for the years 2000 to 2099
+	 *
+	 * @return The date or null if the fields are not a valid date
+	 */
+	public static LocalDate of(int year, int month, int day) {
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			return null;
+		}
+		boolean cached = year >= FIRST_CACHED_YEAR && year < FIRST_CACHED_YEAR + CACHED_YEARS;
+		int index = ((year - FIRST_CACHED_YEAR) * 12 + month - 1) * 31 + day - 1;
+		LocalDate date = cached ? DATES[index] : null;
+		if (date == null) {
+			try {
+				date = LocalDate.of(year, month, day);
+			} catch (DateTimeException ex) {
+				return null;
+			}
+			if (cached) {
+				DATES[index] = date;
+			}
+		}
+		return date;
+	}
+
+	private static LocalDate parse(String date, DateTimeFormatter formatter, Map<String, LocalDate> cache) {
+		LocalDate decoded = cache.get(date);
+		if (decoded == null) {
+			decoded = LocalDate.parse(date, formatter);
+			if (cache.size() < MAX_CACHED_DATES) {
+				cache.put(date, decoded);
+			}
+		}
+		return decoded;
+	}
+}
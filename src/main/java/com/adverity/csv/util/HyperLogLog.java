@@ -0,0 +1,75 @@
+package com.adverity.csv.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values added to it in a fixed memory.
+ *
+ * Every value is hashed to 64 bits: the first PRECISION bits choose a register, which keeps the longest run of
+ * leading zeros seen in the other bits. With 4096 registers of one byte the estimate has a standard error of about
+ * 1.6%. Small sets are counted from the empty registers (linear counting), which is almost exact. Two sketches are
+ * merged by keeping the maximum of every register, so the sketch of a union is built without its values.
+ *
+ * @author Mihai Zanfir
+ */
+public class HyperLogLog {
+
+	private static final int PRECISION = 12;
+	private static final int REGISTERS = 1 << PRECISION;
+	private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final byte[] registers = new byte[REGISTERS];
+
+	/**
+	 * @param value A value to count
+	 */
+	public synchronized void add(long value) {
+		long hash = HASH.hashLong(value).asLong();
+		int register = (int) (hash >>> (Long.SIZE - PRECISION));
+		// The position of the first 1 bit after the register bits, the last position if they are all 0
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+		if (registers[register] < rank) {
+			registers[register] = rank;
+		}
+	}
+
+	/**
+	 * Adds the values of another sketch to this one
+	 *
+	 * @param other A sketch
+	 */
+	public void merge(HyperLogLog other) {
+		byte[] values;
+		synchronized (other) {
+			values = other.registers.clone();
+		}
+		synchronized (this) {
+			for (int i = 0; i < REGISTERS; i++) {
+				if (registers[i] < values[i]) {
+					registers[i] = values[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The estimated number of distinct values added to the sketch
+	 */
+	public synchronized long estimate() {
+		double sum = 0;
+		int empty = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				empty++;
+			}
+		}
+		double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+		if (estimate <= 2.5 * REGISTERS && empty > 0) {
+			estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+		}
+		return Math.round(estimate);
+	}
+}
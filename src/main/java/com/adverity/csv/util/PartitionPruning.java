@@ -0,0 +1,59 @@
+package com.adverity.csv.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Restricts the searches of the statistics to the partitions of the months they read.
+ *
+ * The Statistic entity reads the STATISTIC view, the UNION ALL of all the monthly partitions, and every branch of
+ * the union runs its own index seek and joins even if its month is outside of the searched days. Between start and
+ * stop, the SQL that Hibernate prepares on the current thread reads the given SELECT of the partitions of the
+ * searched months instead of the view, see StatisticPartitionManager.getStatisticSql.
+ *
+ * @author Mihai Zanfir
+ */
+public final class PartitionPruning {
+
+	// The STATISTIC view in the FROM clause of Hibernate, followed by its alias
+	private static final Pattern STATISTIC_VIEW = Pattern.compile("\\bfrom STATISTIC (?=\\w)", Pattern.CASE_INSENSITIVE);
+	private static final ThreadLocal<String> STATISTIC_SQL = new ThreadLocal<String>();
+
+	/**
+	 * Replaces the STATISTIC view in the SQL prepared by Hibernate while a pruning is running on its thread
+	 */
+	public static final StatementInspector INSPECTOR = PartitionPruning::inspect;
+
+	private PartitionPruning() {
+	}
+
+	/**
+	 * Starts reading the given partitions instead of the STATISTIC view on the current thread
+	 *
+	 * @param statisticSql The SELECT of the partitions to read, null to read the view
+	 */
+	public static void start(String statisticSql) {
+		if (statisticSql != null) {
+			STATISTIC_SQL.set(statisticSql);
+		}
+	}
+
+	/**
+	 * Stops reading the partitions instead of the STATISTIC view on the current thread
+	 */
+	public static void stop() {
+		STATISTIC_SQL.remove();
+	}
+
+	/**
+	 * @param sql The SQL prepared by Hibernate
+	 * @return The SQL reading the partitions instead of the STATISTIC view, if a pruning is running
+	 */
+	public static String inspect(String sql) {
+		String statisticSql = STATISTIC_SQL.get();
+		return statisticSql == null ? sql : STATISTIC_VIEW.matcher(sql)
+				.replaceFirst(Matcher.quoteReplacement("from (" + statisticSql + ") "));
+	}
+}
@@ -0,0 +1,92 @@
+package com.adverity.csv.util;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import com.adverity.csv.model.AggregateFunction;
+import com.adverity.csv.model.Column;
+import com.adverity.csv.model.DisplayColumn;
+import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.repository.StatisticColumn;
+
+import io.micrometer.core.instrument.Tags;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The shape of a search, which tags its metrics: the grouped columns, the aggregate functions and the paging.
+ * The values of the conditions are left out and the unknown columns and functions are named "other",
+ * so the searches only produce a small number of tagged series.
+ *
+ * @author Mihai Zanfir
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class QueryShape {
+
+	private static final String NONE = "none";
+	private static final String OTHER = "other";
+
+	// The grouped columns in alphabetical order, ex: campaign+datasource
+	private final String groupBy;
+	// The aggregate functions of the displayed and ordered columns in alphabetical order, ex: sum
+	private final String functions;
+	// offset or keyset
+	private final String paging;
+
+	private QueryShape(String groupBy, String functions, String paging) {
+		this.groupBy = groupBy;
+		this.functions = functions;
+		this.paging = paging;
+	}
+
+	/**
+	 * @param cursor The cursor of the search, null if it is paged with an offset
+	 * @return The shape of the search, see CsvService.searchStatistics for the other parameters
+	 */
+	public static QueryShape of(String display, String groupBy, String orderBy, String cursor) {
+		Set<String> groups = new TreeSet<String>();
+		if (isNotBlank(groupBy)) {
+			for (Column column : SearchQueryParser.parseGroupBy(groupBy)) {
+				groups.add(StatisticColumn.of(column.getColumn()) != null ? column.getColumn() : OTHER);
+			}
+		}
+		Set<String> functions = new TreeSet<String>();
+		if (isNotBlank(display)) {
+			for (DisplayColumn column : SearchQueryParser.parseDisplay(display)) {
+				addFunction(functions, column.getColumn(), column.getFunction());
+			}
+		}
+		if (isNotBlank(orderBy)) {
+			for (OrderColumn column : SearchQueryParser.parseOrderBy(orderBy)) {
+				addFunction(functions, column.getColumn(), column.getFunction());
+			}
+		}
+		return new QueryShape(join(groups), join(functions), cursor == null ? "offset" : "keyset");
+	}
+
+	private static void addFunction(Set<String> functions, String column, String function) {
+		AggregateFunction aggregate = AggregateFunction.of(column, function);
+		if (aggregate != null) {
+			functions.add(aggregate.getParameter());
+		} else if (isNotBlank(function)) {
+			functions.add(OTHER);
+		}
+	}
+
+	private static String join(Set<String> names) {
+		return names.isEmpty() ? NONE : names.stream().collect(Collectors.joining("+"));
+	}
+
+	/**
+	 * @return The group_by, functions and paging tags
+	 */
+	public Tags toTags() {
+		return Tags.of("group_by", groupBy, "functions", functions, "paging", paging);
+	}
+}
@@ -0,0 +1,66 @@
+package com.adverity.csv.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import com.adverity.csv.model.RejectedRow;
+import com.opencsv.CSVWriter;
+
+/**
+ * Writes the rejected rows of an upload to a CSV file with their line number, reason and content.
+ * The file is only created with the first rejected row.
+ *
+ * @author Mihai Zanfir
+ */
+public class RejectFileWriter implements Consumer<RejectedRow>, Closeable {
+
+	private static final String[] HEADER = {"Line", "Reason", "Row"};
+
+	private final Path file;
+	private CSVWriter writer;
+	private long rows;
+
+	public RejectFileWriter(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public void accept(RejectedRow rejected) {
+		if (writer == null) {
+			try {
+				writer = new CSVWriter(Files.newBufferedWriter(file));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			writer.writeNext(HEADER);
+		}
+		writer.writeNext(new String[] {String.valueOf(rejected.getLineNumber()), rejected.getReason(),
+				rejected.getLine()});
+		rows++;
+	}
+
+	/**
+	 * @return The file of the rejected rows, it exists only if getRows() is not 0
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The number of rejected rows written
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.adverity.csv.util;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.util.Set;
+
+import com.adverity.csv.model.AggregateFunction;
+import com.adverity.csv.model.Column;
+import com.adverity.csv.model.DisplayColumn;
+import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.model.SearchCriteria;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.StatisticDaily;
+import com.adverity.csv.model.StatisticMonthly;
+
+/**
+ * Chooses the entity a search reads: the monthly rollup, the daily rollup or the raw statistics.
+ *
+ * A rollup can answer a grouped search when every column it groups, filters and orders by is a key of the rollup
+ * and every measure is aggregated from sums: the sum of the rollup sums is the sum of the statistics, the summed
+ * records of the rollup are the count of the statistics, an average is a sum divided by a count and the ctr divides
+ * two sums. The minimum, maximum and distinct count of the statistics can not be read from the rollups. The monthly rollup keys are
+ * only the datasource (its month is not a search column), the daily rollup keys are datasource, campaign and daily.
+ * Any other search, for example one without groupBy or one with a condition on clicks, reads the raw statistics.
+ *
+ * @author Mihai Zanfir
+ */
+public final class RollupQueryPlanner {
+
+	private static final Set<String> MONTHLY_KEYS = Set.of("datasource");
+	private static final Set<String> DAILY_KEYS = Set.of("datasource", "campaign", "daily");
+	private static final Set<String> MEASURES = Set.of("clicks", "impressions");
+
+	private RollupQueryPlanner() {
+	}
+
+	/**
+	 * See CsvService.searchStatistics for the parameters.
+	 *
+	 * @return StatisticMonthly, StatisticDaily or Statistic
+	 */
+	public static Class<?> choose(String display, String condition, String groupBy, String orderBy) {
+		if (isBlank(groupBy) || isBlank(display)) {
+			return Statistic.class;
+		}
+		if (isAnswered(MONTHLY_KEYS, display, condition, groupBy, orderBy)) {
+			return StatisticMonthly.class;
+		}
+		if (isAnswered(DAILY_KEYS, display, condition, groupBy, orderBy)) {
+			return StatisticDaily.class;
+		}
+		return Statistic.class;
+	}
+
+	private static boolean isAnswered(Set<String> keys, String display, String condition, String groupBy,
+			String orderBy) {
+		for (Column column : SearchQueryParser.parseGroupBy(groupBy)) {
+			if (!keys.contains(column.getColumn())) {
+				return false;
+			}
+		}
+		for (DisplayColumn column : SearchQueryParser.parseDisplay(display)) {
+			if (!isAnswered(keys, column.getColumn(), column.getFunction())) {
+				return false;
+			}
+		}
+		if (isNotBlank(condition)) {
+			for (SearchCriteria criteria : SearchQueryParser.parseCondition(condition)) {
+				if (!keys.contains(criteria.getKey())) {
+					return false;
+				}
+			}
+		}
+		if (isNotBlank(orderBy)) {
+			for (OrderColumn column : SearchQueryParser.parseOrderBy(orderBy)) {
+				if (!isAnswered(keys, column.getColumn(), column.getFunction())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAnswered(Set<String> keys, String column, String function) {
+		AggregateFunction aggregate = AggregateFunction.of(column, function);
+		if (aggregate == null) {
+			return isBlank(function) && keys.contains(column);
+		}
+		return aggregate.isRollup() && (aggregate == AggregateFunction.CTR || aggregate == AggregateFunction.COUNT
+				|| MEASURES.contains(column));
+	}
+}
@@ -0,0 +1,59 @@
+package com.adverity.csv.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+/**
+ * Encodes the continuation tokens of the keyset pagination.
+ *
+ * A token holds the fingerprint of the search and the values of the key columns of the last record of a page,
+ * in the format of the search conditions. It is URL safe Base64 and opaque to the clients.
+ *
+ * @author Mihai Zanfir
+ */
+public final class SearchCursor {
+
+	private static final char SEPARATOR = '\u0000';
+
+	private SearchCursor() {
+	}
+
+	/**
+	 * @param fingerprint The fingerprint of the search
+	 * @param values The key values of the last record of the page
+	 * @return The continuation token of the next page
+	 */
+	public static String encode(String fingerprint, List<String> values) {
+		List<String> parts = new ArrayList<String>(values.size() + 1);
+		parts.add(fingerprint);
+		parts.addAll(values);
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(Joiner.on(SEPARATOR).join(parts).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param token A continuation token
+	 * @param fingerprint The fingerprint of the search the token is used with
+	 * @param keys The number of key columns of the search
+	 * @return The key values of the last record of the previous page
+	 * @throws IllegalArgumentException If the token is not valid or was created by another search
+	 */
+	public static List<String> decode(String token, String fingerprint, int keys) {
+		List<String> parts;
+		try {
+			parts = Splitter.on(SEPARATOR).splitToList(new String(Base64.getUrlDecoder().decode(token),
+					StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("Invalid cursor", ex);
+		}
+		if (parts.size() != keys + 1 || !parts.get(0).equals(fingerprint)) {
+			throw new IllegalArgumentException("The cursor does not belong to this search");
+		}
+		return parts.subList(1, parts.size());
+	}
+}
@@ -1,13 +1,14 @@
 package com.adverity.csv.util;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
+import com.adverity.csv.model.OrderColumn;
 import com.adverity.csv.model.SearchCriteria;
 
 public class SearchQueryCriteriaConsumer implements Consumer<SearchCriteria> {
@@ -72,8 +73,31 @@ public class SearchQueryCriteriaConsumer implements Consumer<SearchCriteria> {
 		return builder.and(predicate, newPredicate);
 	}
 	
+	/**
+	 * Creates the keyset predicate of a page: the records that come after the given key values in the order of the
+	 * key columns, ex: for daily:desc,id it is daily < :daily OR (daily = :daily AND id > :id)
+	 * 
+	 * @param columns The key columns with their directions
+	 * @param values The key values of the last record of the previous page, in the format of the search conditions
+	 * @return The predicate of the records of the next pages
+	 */
+	public static Predicate after(CriteriaBuilder builder, Root stat, List<OrderColumn> columns, List<String> values) {
+		Predicate after = builder.disjunction();
+		for (int i = 0; i < columns.size(); i++) {
+			SearchQueryCriteriaConsumer consumer = new SearchQueryCriteriaConsumer(builder.conjunction(), builder, stat);
+			for (int j = 0; j < i; j++) {
+				consumer.accept(new SearchCriteria(columns.get(j).getColumn(), SearchOperation.EQUALITY, values.get(j)));
+			}
+			SearchOperation operation = "desc".equalsIgnoreCase(columns.get(i).getDirection())
+					? SearchOperation.LESS_THAN : SearchOperation.GREATER_THAN;
+			consumer.accept(new SearchCriteria(columns.get(i).getColumn(), operation, values.get(i)));
+			after = builder.or(after, consumer.getPredicate());
+		}
+		return after;
+	}
+	
 	LocalDate mapDaily(String date) {
-		return LocalDate.parse(date, DateTimeFormatter.ofPattern("MM-dd-yyyy"));
+		return DateDecoder.parseQueryDate(date);
 	}
 	
     public Predicate getPredicate() {
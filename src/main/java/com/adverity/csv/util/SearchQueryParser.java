@@ -0,0 +1,145 @@
+package com.adverity.csv.util;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.adverity.csv.model.Column;
+import com.adverity.csv.model.DisplayColumn;
+import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.model.SearchCriteria;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+
+/**
+ * Parses the display, condition, groupBy and orderBy parameters of the searches.
+ *
+ * The patterns are compiled once. Dashboards send the same few parameters again and again, so every parsed
+ * parameter is kept in a cache of the MAX_CACHED_QUERIES most recently used values of its kind. The returned lists
+ * are shared between the searches: they are immutable and their elements must not be modified.
+ *
+ * @author Mihai Zanfir
+ */
+public final class SearchQueryParser {
+
+	private static final int MAX_CACHED_QUERIES = 1000;
+
+	// A column optionally followed by a function and a direction, ex: clicks:sum:desc
+	private static final Pattern COLUMN_FUNCTION_PATTERN = Pattern.compile("([\\w:]+?),");
+	// A column name, ex: datasource
+	private static final Pattern COLUMN_PATTERN = Pattern.compile("(\\w+?),");
+	// A condition, ex: 'daily>01-01-2020
+	private static final Pattern CONDITION_PATTERN = Pattern.compile("(\\p{Punct}?)(\\w+?)("
+			+ Joiner.on("|").join(SearchOperation.SIMPLE_OPERATION_SET)
+			+ ")(\\p{Punct}?)([\\w\\s\\p{Punct}]+?)(\\p{Punct}?),");
+
+	private static final Cache<String, List<DisplayColumn>> DISPLAYS = newCache();
+	private static final Cache<String, List<Column>> GROUP_BYS = newCache();
+	private static final Cache<String, List<OrderColumn>> ORDER_BYS = newCache();
+	private static final Cache<String, List<SearchCriteria>> CONDITIONS = newCache();
+
+	private SearchQueryParser() {
+	}
+
+	/**
+	 * @param display The display parameter, ex: daily,impressions:sum
+	 * @return The displayed columns with their functions
+	 */
+	public static List<DisplayColumn> parseDisplay(String display) {
+		return parse(DISPLAYS, display, COLUMN_FUNCTION_PATTERN, matcher -> new DisplayColumn(matcher.group(1)));
+	}
+
+	/**
+	 * @param groupBy The groupBy parameter, ex: datasource,campaign
+	 * @return The grouped columns
+	 */
+	public static List<Column> parseGroupBy(String groupBy) {
+		return parse(GROUP_BYS, groupBy, COLUMN_PATTERN, matcher -> new Column(matcher.group(1)));
+	}
+
+	/**
+	 * @param orderBy The orderBy parameter, ex: campaign:asc,clicks:sum:desc
+	 * @return The ordered columns with their functions and directions
+	 */
+	public static List<OrderColumn> parseOrderBy(String orderBy) {
+		return parse(ORDER_BYS, orderBy, COLUMN_FUNCTION_PATTERN, matcher -> new OrderColumn(matcher.group(1)));
+	}
+
+	/**
+	 * @param condition The condition parameter, ex: datasource:Google Ads,'daily>01-01-2020
+	 * @return The search criteria in the order they are combined
+	 */
+	public static List<SearchCriteria> parseCondition(String condition) {
+		return parse(CONDITIONS, condition, CONDITION_PATTERN, matcher -> new SearchCriteria(
+				matcher.group(1),
+				matcher.group(2),
+				matcher.group(3),
+				matcher.group(4),
+				matcher.group(5),
+				matcher.group(6)));
+	}
+
+	/**
+	 * Finds the days a search can match from its daily equality, daily> and daily< conditions. Conditions joined with
+	 * OR can not restrict the days.
+	 *
+	 * @param criteria The conditions of the search
+	 * @return The days of the matching records, all the days if the conditions do not restrict them
+	 */
+	public static Range<LocalDate> parseDailyRange(List<SearchCriteria> criteria) {
+		Range<LocalDate> days = Range.all();
+		for (SearchCriteria condition : criteria) {
+			if (condition.isOrPredicate()) {
+				return Range.all();
+			}
+			if (!"daily".equals(condition.getKey())) {
+				continue;
+			}
+			LocalDate daily;
+			try {
+				daily = DateDecoder.parseQueryDate(condition.getValue().toString());
+			} catch (DateTimeParseException ex) {
+				continue;
+			}
+			Range<LocalDate> range;
+			if (condition.getOperation() == SearchOperation.GREATER_THAN) {
+				range = Range.greaterThan(daily);
+			} else if (condition.getOperation() == SearchOperation.LESS_THAN) {
+				range = Range.lessThan(daily);
+			} else if (condition.getOperation() == SearchOperation.EQUALITY) {
+				range = Range.singleton(daily);
+			} else {
+				continue;
+			}
+			// Disjoint conditions match no day
+			days = days.isConnected(range) ? days.intersection(range) : Range.closedOpen(daily, daily);
+		}
+		return days;
+	}
+
+	private static <T> List<T> parse(Cache<String, List<T>> cache, String parameter, Pattern pattern,
+			Function<Matcher, T> element) {
+		List<T> parsed = cache.getIfPresent(parameter);
+		if (parsed == null) {
+			List<T> elements = new ArrayList<T>();
+			Matcher matcher = pattern.matcher(parameter + ",");
+			while (matcher.find()) {
+				elements.add(element.apply(matcher));
+			}
+			parsed = ImmutableList.copyOf(elements);
+			cache.put(parameter, parsed);
+		}
+		return parsed;
+	}
+
+	private static <T> Cache<String, List<T>> newCache() {
+		return CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build();
+	}
+}
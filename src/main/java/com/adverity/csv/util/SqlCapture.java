@@ -0,0 +1,134 @@
+package com.adverity.csv.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.adverity.csv.model.CapturedStatement;
+
+/**
+ * Captures the SQL statements executed on the current thread, with the values of their parameters, between
+ * start and stop. Hibernate only exposes the SQL of its queries, so the connections of the data source are
+ * wrapped and the prepared statements record their parameters.
+ *
+ * A connection is only wrapped if a capture is running on its thread when it is taken from the data source, and a
+ * prepared statement only if a capture is still running when it is prepared. The other connections and statements,
+ * like the batches and merges of the uploads, are the ones of the pool and the driver, without a proxy.
+ *
+ * @author Mihai Zanfir
+ */
+public final class SqlCapture {
+
+	private static final ThreadLocal<List<CapturedStatement>> STATEMENTS = new ThreadLocal<List<CapturedStatement>>();
+
+	private SqlCapture() {
+	}
+
+	/**
+	 * Starts capturing the statements executed on the current thread
+	 */
+	public static void start() {
+		STATEMENTS.set(new ArrayList<CapturedStatement>());
+	}
+
+	/**
+	 * Stops capturing the statements executed on the current thread
+	 *
+	 * @return The statements executed since start, in order
+	 */
+	public static List<CapturedStatement> stop() {
+		List<CapturedStatement> statements = STATEMENTS.get();
+		STATEMENTS.remove();
+		return statements != null ? statements : List.of();
+	}
+
+	/**
+	 * @return If a capture is running on the current thread
+	 */
+	public static boolean isCapturing() {
+		return STATEMENTS.get() != null;
+	}
+
+	/**
+	 * @param connection A connection of the data source
+	 * @return The connection, whose prepared statements are captured while a capture is running
+	 */
+	public static Connection wrap(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(SqlCapture.class.getClassLoader(), new Class<?>[] {Connection.class},
+				new Handler(connection) {
+					@Override
+					Object invoke(Object proxy, Method method, Object[] args, Object result) {
+						if (result instanceof PreparedStatement && STATEMENTS.get() != null
+								&& method.getName().equals("prepareStatement")) {
+							return wrap((PreparedStatement) result, (String) args[0]);
+						}
+						return result;
+					}
+				});
+	}
+
+	private static PreparedStatement wrap(PreparedStatement statement, String sql) {
+		List<Object> parameters = new ArrayList<Object>();
+		return (PreparedStatement) Proxy.newProxyInstance(SqlCapture.class.getClassLoader(),
+				new Class<?>[] {PreparedStatement.class}, new Handler(statement) {
+					@Override
+					Object invoke(Object proxy, Method method, Object[] args, Object result) {
+						String name = method.getName();
+						if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+							int index = (Integer) args[0] - 1;
+							while (parameters.size() <= index) {
+								parameters.add(null);
+							}
+							parameters.set(index, name.equals("setNull") ? null : args[1]);
+						} else if (name.equals("clearParameters")) {
+							parameters.clear();
+						} else if (name.startsWith("execute") && (args == null || args.length == 0)) {
+							List<CapturedStatement> statements = STATEMENTS.get();
+							if (statements != null) {
+								statements.add(new CapturedStatement(sql,
+										Collections.unmodifiableList(new ArrayList<Object>(parameters))));
+							}
+						}
+						return result;
+					}
+				});
+	}
+
+	/**
+	 * Calls the wrapped object then lets the subclass inspect or replace the result. A proxy is only equal to itself.
+	 */
+	private abstract static class Handler implements InvocationHandler {
+		private final Object target;
+
+		Handler(Object target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				break;
+			}
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+			return invoke(proxy, method, args, result);
+		}
+
+		abstract Object invoke(Object proxy, Method method, Object[] args, Object result);
+	}
+}
@@ -0,0 +1,349 @@
+package com.adverity.csv.util;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.time.LocalDate;
+
+import com.adverity.csv.model.Statistic;
+
+/**
+ * A hand-written tokenizer for the fixed Datasource,Campaign,Daily,Clicks,Impressions schema.
+ *
+ * The lines are scanned directly in a char buffer: Clicks and Impressions are parsed in place, the MM/dd/yy
+ * dates are decoded without a DateTimeFormatter and resolved to cached LocalDate objects, and the Datasource
+ * and Campaign values are taken from a small dictionary, so after the first rows the only object created per
+ * row is the Statistic entity itself.
+ *
+ * The tokenizer does not handle quotes. If the header is not the standard one or a line contains a quote,
+ * next() returns FALLBACK and remainingReader() gives the not consumed content, with the header in front,
+ * so that it can be parsed by OpenCSV.
+ *
+ * @author Mihai Zanfir
+ */
+public class StatisticCsvTokenizer {
+
+	public static final String HEADER = "Datasource,Campaign,Daily,Clicks,Impressions";
+
+	public enum Status {
+		// next() read a valid row, available with getStatistic()
+		ROW,
+		// next() read an invalid row, the reason is available with getRejectReason()
+		REJECTED,
+		// the line can not be read by this tokenizer, the rest of the content must be read with remainingReader()
+		FALLBACK,
+		// there are no more rows
+		END
+	}
+
+	private static final int FIELDS = 5;
+	private static final int DICTIONARY_SIZE = 1024;
+
+	private final Reader reader;
+	private char[] buffer;
+	private int position;
+	private int limit;
+	private boolean eof;
+	private String header = "";
+	private long lineNumber;
+	private int lineStart;
+	private final int[] fieldStart = new int[FIELDS];
+	private final int[] fieldEnd = new int[FIELDS];
+	private final String[] dictionary = new String[DICTIONARY_SIZE];
+	private Statistic statistic;
+	private String rejectReason;
+
+	public StatisticCsvTokenizer(Reader reader) {
+		this(reader, 64 * 1024);
+	}
+
+	public StatisticCsvTokenizer(Reader reader, int bufferSize) {
+		this.reader = reader;
+		this.buffer = new char[Math.max(16, bufferSize)];
+	}
+
+	/**
+	 * Reads the header line
+	 *
+	 * @return true if the header is the standard Datasource,Campaign,Daily,Clicks,Impressions one
+	 * @throws IOException If the content can not be read
+	 */
+	public boolean readHeader() throws IOException {
+		if (!nextLine()) {
+			return true;
+		}
+		int start = lineStart;
+		if (start < lineEnd() && buffer[start] == '\uFEFF') {
+			start++;
+		}
+		header = new String(buffer, lineStart, lineEnd() - lineStart);
+		String columns = new String(buffer, start, lineEnd() - start).replace(" ", "");
+		return HEADER.equalsIgnoreCase(columns);
+	}
+
+	/**
+	 * Reads the next row
+	 *
+	 * @return The status of the read
+	 * @throws IOException If the content can not be read
+	 */
+	public Status next() throws IOException {
+		statistic = null;
+		rejectReason = null;
+		while (nextLine()) {
+			int end = lineEnd();
+			if (end == lineStart) {
+				continue;
+			}
+			int fields = 0;
+			fieldStart[0] = lineStart;
+			for (int i = lineStart; i < end; i++) {
+				char c = buffer[i];
+				if (c == '"') {
+					return Status.FALLBACK;
+				}
+				if (c == ',') {
+					if (fields == FIELDS - 1) {
+						return reject("Number of data fields does not match number of headers");
+					}
+					fieldEnd[fields++] = i;
+					fieldStart[fields] = i + 1;
+				}
+			}
+			if (fields != FIELDS - 1) {
+				return reject("Number of data fields does not match number of headers");
+			}
+			fieldEnd[fields] = end;
+			String datasource = lookup(fieldStart[0], fieldEnd[0]);
+			String campaign = lookup(fieldStart[1], fieldEnd[1]);
+			String invalidNames = StatisticCsvValidator.validateNames(datasource, campaign);
+			if (invalidNames != null) {
+				return reject(invalidNames);
+			}
+			LocalDate daily = parseDaily(fieldStart[2], fieldEnd[2]);
+			if (daily == null) {
+				return reject("Invalid Daily value: " + field(2));
+			}
+			long clicks = parseInt(fieldStart[3], fieldEnd[3]);
+			if (clicks == Long.MIN_VALUE) {
+				return reject("Invalid Clicks value: " + field(3));
+			}
+			long impressions = parseInt(fieldStart[4], fieldEnd[4]);
+			if (impressions == Long.MIN_VALUE) {
+				return reject("Invalid Impressions value: " + field(4));
+			}
+			statistic = new Statistic(null, datasource, campaign, daily, (int) clicks, (int) impressions);
+			return Status.ROW;
+		}
+		return Status.END;
+	}
+
+	/**
+	 * @return The header line followed by the current line and the content that was not read yet
+	 * @throws IOException If the content can not be read
+	 */
+	public Reader remainingReader() throws IOException {
+		int remaining = limit - lineStart;
+		PushbackReader remainingReader = new PushbackReader(reader, header.length() + 1 + remaining);
+		remainingReader.unread(buffer, lineStart, remaining);
+		if (lineNumber > 1) {
+			// the current line is a data line, the header has to be read again
+			remainingReader.unread('\n');
+			remainingReader.unread(header.toCharArray());
+		}
+		position = limit;
+		eof = true;
+		return remainingReader;
+	}
+
+	/**
+	 * @return The row read by the last call of next()
+	 */
+	public Statistic getStatistic() {
+		return statistic;
+	}
+
+	/**
+	 * @return Why the row read by the last call of next() was rejected
+	 */
+	public String getRejectReason() {
+		return rejectReason;
+	}
+
+	/**
+	 * @return The content of the last line read, without its line terminator
+	 */
+	public String getLine() {
+		return new String(buffer, lineStart, lineEnd() - lineStart);
+	}
+
+	/**
+	 * @return The line number of the last line read, the header being line 1
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	private Status reject(String reason) {
+		rejectReason = reason;
+		return Status.REJECTED;
+	}
+
+	private String field(int index) {
+		return new String(buffer, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+	}
+
+	/**
+	 * Moves to the next line. The line starts at lineStart and ends before position (which is after its newline).
+	 */
+	private boolean nextLine() throws IOException {
+		lineStart = position;
+		while (true) {
+			for (int i = position; i < limit; i++) {
+				if (buffer[i] == '\n') {
+					position = i + 1;
+					lineNumber++;
+					return true;
+				}
+			}
+			position = limit;
+			if (eof) {
+				if (lineStart < limit) {
+					lineNumber++;
+					return true;
+				}
+				return false;
+			}
+			fill();
+		}
+	}
+
+	/**
+	 * The end of the current line without its line terminator
+	 */
+	private int lineEnd() {
+		int end = position;
+		if (end > lineStart && buffer[end - 1] == '\n') {
+			end--;
+		}
+		if (end > lineStart && buffer[end - 1] == '\r') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Moves the current line to the beginning of the buffer, grows the buffer if the line does not fit and reads more chars
+	 */
+	private void fill() throws IOException {
+		int pending = limit - lineStart;
+		if (pending == buffer.length) {
+			char[] bigger = new char[buffer.length * 2];
+			System.arraycopy(buffer, lineStart, bigger, 0, pending);
+			buffer = bigger;
+		} else if (lineStart > 0) {
+			System.arraycopy(buffer, lineStart, buffer, 0, pending);
+		}
+		position -= lineStart;
+		lineStart = 0;
+		limit = pending;
+		int read = reader.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	/**
+	 * Parses an int in place, ignoring the surrounding spaces
+	 *
+	 * @return The value or Long.MIN_VALUE if the field is not a valid int
+	 */
+	private long parseInt(int start, int end) {
+		while (start < end && buffer[start] == ' ') {
+			start++;
+		}
+		while (end > start && buffer[end - 1] == ' ') {
+			end--;
+		}
+		boolean negative = false;
+		if (start < end && (buffer[start] == '-' || buffer[start] == '+')) {
+			negative = buffer[start] == '-';
+			start++;
+		}
+		if (start == end) {
+			return Long.MIN_VALUE;
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE + 1L) {
+				return Long.MIN_VALUE;
+			}
+		}
+		value = negative ? -value : value;
+		return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+	}
+
+	/**
+	 * Decodes a MM/dd/yy date in place, the years being in 2000-2099 as with the "yy" pattern
+	 *
+	 * @return The date or null if the field is not a valid date
+	 */
+	private LocalDate parseDaily(int start, int end) {
+		while (start < end && buffer[start] == ' ') {
+			start++;
+		}
+		while (end > start && buffer[end - 1] == ' ') {
+			end--;
+		}
+		if (end - start != 8 || buffer[start + 2] != '/' || buffer[start + 5] != '/') {
+			return null;
+		}
+		int month = twoDigits(start);
+		int day = twoDigits(start + 3);
+		int year = twoDigits(start + 6);
+		if (month < 0 || day < 0 || year < 0) {
+			return null;
+		}
+		return DateDecoder.of(2000 + year, month, day);
+	}
+
+	private int twoDigits(int start) {
+		int high = buffer[start] - '0';
+		int low = buffer[start + 1] - '0';
+		if (high < 0 || high > 9 || low < 0 || low > 9) {
+			return -1;
+		}
+		return high * 10 + low;
+	}
+
+	/**
+	 * Returns the String of a field, reusing the previous String with the same chars if possible
+	 */
+	private String lookup(int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (DICTIONARY_SIZE - 1);
+		String value = dictionary[slot];
+		if (value != null && value.length() == end - start) {
+			boolean same = true;
+			for (int i = 0; i < value.length() && same; i++) {
+				same = value.charAt(i) == buffer[start + i];
+			}
+			if (same) {
+				return value;
+			}
+		}
+		value = new String(buffer, start, end - start);
+		dictionary[slot] = value;
+		return value;
+	}
+}
@@ -0,0 +1,57 @@
+package com.adverity.csv.util;
+
+import java.time.DateTimeException;
+
+import com.adverity.csv.model.StatisticCsv;
+import com.opencsv.bean.BeanVerifier;
+import com.opencsv.exceptions.CsvConstraintViolationException;
+
+/**
+ * Checks the values of a CSV row against the columns they are stored in, so that an invalid row is rejected
+ * when it is read instead of failing the mapping or the insert of its whole chunk.
+ *
+ * The StatisticCsvTokenizer checks the names with validateNames, OpenCSV calls verifyBean for every StatisticCsv.
+ *
+ * @author Mihai Zanfir
+ */
+public class StatisticCsvValidator implements BeanVerifier<StatisticCsv> {
+
+	// The sizes of the DATASOURCE.NAME and CAMPAIGN.NAME columns
+	public static final int DATASOURCE_MAX_LENGTH = 50;
+	public static final int CAMPAIGN_MAX_LENGTH = 250;
+
+	/**
+	 * @return Why the names can not be stored, null if they are valid
+	 */
+	public static String validateNames(String datasource, String campaign) {
+		if (datasource == null || datasource.isBlank()) {
+			return "Missing Datasource value";
+		}
+		if (datasource.length() > DATASOURCE_MAX_LENGTH) {
+			return "Datasource value longer than " + DATASOURCE_MAX_LENGTH + " characters";
+		}
+		if (campaign == null || campaign.isBlank()) {
+			return "Missing Campaign value";
+		}
+		if (campaign.length() > CAMPAIGN_MAX_LENGTH) {
+			return "Campaign value longer than " + CAMPAIGN_MAX_LENGTH + " characters";
+		}
+		return null;
+	}
+
+	@Override
+	public boolean verifyBean(StatisticCsv row) throws CsvConstraintViolationException {
+		String reason = validateNames(row.getDatasource(), row.getCampaign());
+		if (reason == null) {
+			try {
+				DateDecoder.parseCsvDate(row.getDaily() == null ? "" : row.getDaily());
+			} catch (DateTimeException ex) {
+				reason = "Invalid Daily value: " + row.getDaily();
+			}
+		}
+		if (reason != null) {
+			throw new CsvConstraintViolationException(row, reason);
+		}
+		return true;
+	}
+}
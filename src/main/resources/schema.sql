@@ -1,11 +1,122 @@
-drop table if exists STATISTIC;
+drop view if exists STATISTIC;
+drop view if exists STATISTIC_FACT;
+drop view if exists STATISTIC_DAILY;
+drop view if exists STATISTIC_MONTHLY;
+drop table if exists STATISTIC_DAILY_ROLLUP;
+drop table if exists STATISTIC_MONTHLY_ROLLUP;
+drop schema if exists STATISTIC_PARTITIONS cascade;
+drop sequence if exists STATISTIC_ID_SEQ;
+drop table if exists UPLOADED_FILE;
+drop table if exists UPLOAD_BATCH_DATASOURCE;
+drop table if exists UPLOAD_BATCH;
+drop table if exists DATASOURCE;
+drop table if exists CAMPAIGN;
 
-CREATE TABLE IF NOT EXISTS STATISTIC
+-- Dimension tables: every distinct datasource and campaign name is stored once
+CREATE TABLE IF NOT EXISTS DATASOURCE
 (
 	ID              integer  NOT NULL  IDENTITY ( 1,1 ),
-	DATASOURCE      varchar(50) NOT NULL,
-	CAMPAIGN        varchar(250) NOT NULL,
+	NAME            varchar(50) NOT NULL,
+	CONSTRAINT PK_DATASOURCE PRIMARY KEY (ID),
+	CONSTRAINT UK_DATASOURCE_NAME UNIQUE (NAME)
+);
+
+CREATE TABLE IF NOT EXISTS CAMPAIGN
+(
+	ID              integer  NOT NULL  IDENTITY ( 1,1 ),
+	NAME            varchar(250) NOT NULL,
+	CONSTRAINT PK_CAMPAIGN PRIMARY KEY (ID),
+	CONSTRAINT UK_CAMPAIGN_NAME UNIQUE (NAME)
+);
+
+-- Upload batches: every upload is a batch, with the range of its daily dates and its datasources.
+-- They are widened by the UploadBatchRegistry in the transactions that insert the statistics of the batch.
+CREATE TABLE IF NOT EXISTS UPLOAD_BATCH
+(
+	ID              integer  NOT NULL  IDENTITY ( 1,1 ),
+	CREATED         timestamp NOT NULL,
+	MIN_DAILY       date,
+	MAX_DAILY       date,
+	RECORDS         bigint NOT NULL,
+	CONSTRAINT PK_UPLOAD_BATCH PRIMARY KEY (ID)
+);
+
+CREATE TABLE IF NOT EXISTS UPLOAD_BATCH_DATASOURCE
+(
+	BATCH_ID        integer NOT NULL,
+	DATASOURCE_ID   integer NOT NULL,
+	CONSTRAINT PK_UPLOAD_BATCH_DATASOURCE PRIMARY KEY (BATCH_ID, DATASOURCE_ID),
+	CONSTRAINT FK_UPLOAD_BATCH_DATASOURCE_BATCH FOREIGN KEY (BATCH_ID) REFERENCES UPLOAD_BATCH (ID),
+	CONSTRAINT FK_UPLOAD_BATCH_DATASOURCE_DATASOURCE FOREIGN KEY (DATASOURCE_ID) REFERENCES DATASOURCE (ID)
+);
+
+-- Uploaded files: the SHA-256 of the content of every stored upload, so the same file is not ingested twice.
+-- The UploadedFileRegistry claims a file before it is parsed and releases it if the upload stores no statistic.
+CREATE TABLE IF NOT EXISTS UPLOADED_FILE
+(
+	HASH            char(64) NOT NULL,
+	FILE_NAME       varchar(255),
+	UPLOADED        timestamp NOT NULL,
+	BATCH_ID        integer,
+	RECORDS         bigint,
+	-- The upload stopped before the end of the file after storing RECORDS rows
+	FAILED          boolean DEFAULT FALSE NOT NULL,
+	CONSTRAINT PK_UPLOADED_FILE PRIMARY KEY (HASH),
+	CONSTRAINT FK_UPLOADED_FILE_BATCH FOREIGN KEY (BATCH_ID) REFERENCES UPLOAD_BATCH (ID)
+);
+
+-- Fact table: the statistics reference their datasource, campaign and upload batch by id.
+-- It is partitioned by month of DAILY: every month is a table STATISTIC_PARTITIONS.STATISTIC_FACT_<yyyyMM> created
+-- by the StatisticPartitionManager, which replaces the STATISTIC_FACT and STATISTIC views below with the UNION ALL
+-- of all the partitions. The ids of all the partitions come from one sequence.
+CREATE SCHEMA IF NOT EXISTS STATISTIC_PARTITIONS;
+
+CREATE SEQUENCE IF NOT EXISTS STATISTIC_ID_SEQ;
+
+-- The statistics of all the partitions, empty until the first partition is created
+CREATE VIEW STATISTIC_FACT AS
+SELECT CAST(NULL AS integer) AS ID, CAST(NULL AS integer) AS DATASOURCE_ID, CAST(NULL AS integer) AS CAMPAIGN_ID,
+	CAST(NULL AS date) AS DAILY, CAST(NULL AS integer) AS CLICKS, CAST(NULL AS integer) AS IMPRESSIONS,
+	CAST(NULL AS integer) AS BATCH_ID
+FROM DUAL WHERE FALSE;
+
+-- The statistics with their datasource and campaign names, as used by the Statistic entity and the searches
+CREATE VIEW STATISTIC AS
+SELECT CAST(NULL AS integer) AS ID, CAST(NULL AS varchar(50)) AS DATASOURCE, CAST(NULL AS varchar(250)) AS CAMPAIGN,
+	CAST(NULL AS date) AS DAILY, CAST(NULL AS integer) AS CLICKS, CAST(NULL AS integer) AS IMPRESSIONS,
+	CAST(NULL AS integer) AS BATCH_ID
+FROM DUAL WHERE FALSE;
+
+-- Rollups: the sums of the statistics per day, datasource and campaign and per month and datasource.
+-- They are updated by the StatisticRollupWriter in the transaction that inserts the statistics.
+CREATE TABLE IF NOT EXISTS STATISTIC_DAILY_ROLLUP
+(
+	DATASOURCE_ID   integer NOT NULL,
+	CAMPAIGN_ID     integer NOT NULL,
 	DAILY           date NOT NULL,
-	CLICKS          integer NOT NULL,
-	IMPRESSIONS     integer  NOT NULL
+	CLICKS          bigint NOT NULL,
+	IMPRESSIONS     bigint NOT NULL,
+	RECORDS         bigint NOT NULL,
+	CONSTRAINT PK_STATISTIC_DAILY_ROLLUP PRIMARY KEY (DATASOURCE_ID, CAMPAIGN_ID, DAILY)
+);
+
+CREATE TABLE IF NOT EXISTS STATISTIC_MONTHLY_ROLLUP
+(
+	DATASOURCE_ID   integer NOT NULL,
+	MONTH           date NOT NULL,
+	CLICKS          bigint NOT NULL,
+	IMPRESSIONS     bigint NOT NULL,
+	RECORDS         bigint NOT NULL,
+	CONSTRAINT PK_STATISTIC_MONTHLY_ROLLUP PRIMARY KEY (DATASOURCE_ID, MONTH)
 );
+
+CREATE VIEW STATISTIC_DAILY AS
+SELECT D.NAME AS DATASOURCE, C.NAME AS CAMPAIGN, R.DAILY, R.CLICKS, R.IMPRESSIONS, R.RECORDS
+FROM STATISTIC_DAILY_ROLLUP R
+JOIN DATASOURCE D ON D.ID = R.DATASOURCE_ID
+JOIN CAMPAIGN C ON C.ID = R.CAMPAIGN_ID;
+
+CREATE VIEW STATISTIC_MONTHLY AS
+SELECT D.NAME AS DATASOURCE, R.MONTH, R.CLICKS, R.IMPRESSIONS, R.RECORDS
+FROM STATISTIC_MONTHLY_ROLLUP R
+JOIN DATASOURCE D ON D.ID = R.DATASOURCE_ID;
@@ -0,0 +1,143 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadMode;
+
+@SpringBootTest
+class StatisticBatchWriterTest {
+
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private StatisticRepository statisticRepository;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+	@Autowired
+	private DimensionDictionary dimensionDictionary;
+	@Autowired
+	private StatisticRollupWriter statisticRollupWriter;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+	}
+
+	/**
+	 * Test that all the records of a chunk are inserted even if the chunk is bigger than one JDBC batch
+	 */
+	@Test
+	void testWrite() {
+		List<Statistic> statistics = List.of(
+				new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5, 7705),
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33, 29954),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 1, 100));
+		assertEquals(3, statisticBatchWriter.write(statistics));
+		assertEquals(3, statisticRepository.count());
+		List<Statistic> saved = statisticRepository.findByCampaign("GDN_Retargeting").get();
+		assertEquals(1, saved.size());
+		assertEquals(LocalDate.of(2019, 1, 20), saved.get(0).getDaily());
+		assertEquals(33, saved.get(0).getClicks());
+		assertEquals(29954, saved.get(0).getImpressions());
+		assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT DATASOURCE_ID) FROM STATISTIC_FACT",
+				Integer.class));
+	}
+
+	/**
+	 * Test that a name is resolved to the same id every time and translated back
+	 */
+	@Test
+	void testDimensionDictionary() {
+		int id = dimensionDictionary.getDatasourceId("Facebook Ads");
+		assertEquals(id, dimensionDictionary.getDatasourceId("Facebook Ads"));
+		assertEquals("Facebook Ads", dimensionDictionary.getName(DimensionDictionary.Dimension.DATASOURCE, id));
+		assertEquals(id, jdbcTemplate.queryForObject("SELECT ID FROM DATASOURCE WHERE NAME = ?", Integer.class,
+				"Facebook Ads"));
+	}
+
+	/**
+	 * Test that an empty chunk does not touch the database
+	 */
+	@Test
+	void testWriteEmpty() {
+		assertEquals(0, statisticBatchWriter.write(List.of()));
+		assertEquals(0, statisticRepository.count());
+	}
+
+	/**
+	 * Test that the merged records replace or are added to the stored statistics with the same key, and that the
+	 * rollups still match the statistics
+	 */
+	@Test
+	void testMerge() {
+		int batchId = statisticBatchWriter.beginUpload();
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33, 29954),
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 2, 20), 10, 1000)), batchId);
+		assertEquals(1, statisticBatchWriter.merge(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 3, 300),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 1, 100),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 2, 200)),
+				batchId, UploadMode.REPLACE));
+		assertEquals(List.of(List.of(3, 300), List.of(2, 200), List.of(10, 1000)), getStatistics());
+		assertRollups();
+
+		assertEquals(0, statisticBatchWriter.merge(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 3, 300),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 1, 100)),
+				batchId, UploadMode.ACCUMULATE));
+		assertEquals(List.of(List.of(6, 600), List.of(3, 300), List.of(10, 1000)), getStatistics());
+		assertRollups();
+	}
+
+	/**
+	 * Test that a key stored twice by insert uploads ends up in one statistic: replaced by the uploaded values, or
+	 * holding the sum of its copies and of the uploaded values
+	 */
+	@Test
+	void testMergeDuplicatedKey() {
+		Statistic statistic = new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 10, 100);
+		statisticBatchWriter.write(List.of(statistic, statistic));
+		int batchId = statisticBatchWriter.beginUpload();
+		assertEquals(0, statisticBatchWriter.merge(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 3, 300)),
+				batchId, UploadMode.REPLACE));
+		assertEquals(List.of(List.of(3, 300)), getStatistics());
+		assertRollups();
+
+		statisticBatchWriter.write(List.of(statistic));
+		assertEquals(0, statisticBatchWriter.merge(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 1, 1)),
+				batchId, UploadMode.ACCUMULATE));
+		assertEquals(List.of(List.of(14, 401)), getStatistics());
+		assertRollups();
+	}
+
+	private List<List<Integer>> getStatistics() {
+		return jdbcTemplate.query("SELECT CLICKS, IMPRESSIONS FROM STATISTIC_FACT ORDER BY DAILY, DATASOURCE_ID",
+				(rs, row) -> List.of(rs.getInt(1), rs.getInt(2)));
+	}
+
+	private void assertRollups() {
+		List<Map<String, Object>> daily = jdbcTemplate.queryForList("SELECT * FROM STATISTIC_DAILY_ROLLUP ORDER BY 1, 2, 3");
+		List<Map<String, Object>> monthly = jdbcTemplate.queryForList("SELECT * FROM STATISTIC_MONTHLY_ROLLUP ORDER BY 1, 2");
+		statisticRollupWriter.rebuild();
+		assertEquals(jdbcTemplate.queryForList("SELECT * FROM STATISTIC_DAILY_ROLLUP ORDER BY 1, 2, 3"), daily);
+		assertEquals(jdbcTemplate.queryForList("SELECT * FROM STATISTIC_MONTHLY_ROLLUP ORDER BY 1, 2"), monthly);
+	}
+}
@@ -0,0 +1,46 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.adverity.csv.model.Statistic;
+
+@SpringBootTest
+class StatisticIndexManagerTest {
+
+	@Autowired
+	private StatisticIndexManager statisticIndexManager;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+
+	/**
+	 * Test that the indexes are dropped by the first bulk load and rebuilt by the last one
+	 */
+	@Test
+	void testBulkLoad() {
+		// The indexes are created with the first partition
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33, 29954)));
+		assertEquals(List.of("DATASOURCE_ID", "CAMPAIGN_ID", "DAILY", "CLICKS", "IMPRESSIONS"),
+				statisticIndexManager.getIndexes().get("IDX_STATISTIC_DATASOURCE_CAMPAIGN_DAILY"));
+		statisticIndexManager.beginBulkLoad();
+		statisticIndexManager.beginBulkLoad();
+		assertFalse(statisticIndexManager.getIndexes().containsKey("IDX_STATISTIC_DAILY"));
+		assertTrue(statisticIndexManager.getIndexes().containsValue(List.of("ID")));
+		statisticIndexManager.endBulkLoad();
+		assertFalse(statisticIndexManager.getIndexes().containsKey("IDX_STATISTIC_DAILY"));
+		statisticIndexManager.endBulkLoad();
+		assertTrue(statisticIndexManager.getIndexes().keySet().containsAll(StatisticIndexManager.INDEXES.keySet()));
+		assertTrue(statisticIndexManager.getCreateStatements("IDX_STATISTIC_CLICKS", "CLICKS").contains(
+				"CREATE INDEX IF NOT EXISTS STATISTIC_PARTITIONS.IDX_STATISTIC_CLICKS_201901 ON "
+						+ "STATISTIC_PARTITIONS.STATISTIC_FACT_201901 (CLICKS)"));
+	}
+}
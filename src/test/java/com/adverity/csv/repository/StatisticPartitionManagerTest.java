@@ -0,0 +1,144 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.service.CsvService;
+import com.adverity.csv.service.SearchResultCache;
+
+@SpringBootTest
+class StatisticPartitionManagerTest {
+
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private SearchResultCache searchResultCache;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		// One chunk with the statistics of two months
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 1, 24), 5, 7705),
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 2, 20), 33, 29954),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 1, 100)));
+	}
+
+	/**
+	 * Test that every statistic is inserted in the partition of its month and read back through the views
+	 */
+	@Test
+	void testWrite() {
+		assertEquals(Map.of(YearMonth.of(2019, 1), 2L, YearMonth.of(2019, 2), 1L),
+				statisticPartitionManager.getPartitionSizes());
+		assertEquals(33, jdbcTemplate.queryForObject("SELECT CLICKS FROM "
+				+ statisticPartitionManager.getTable(YearMonth.of(2019, 2)), Integer.class));
+		assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STATISTIC_FACT", Integer.class));
+		assertEquals(List.of(1, 5), search("daily<02-01-2019"));
+		assertEquals(List.of(33), search("daily>01-31-2019"));
+	}
+
+	/**
+	 * Test that dropping a month removes its statistics and rollups and keeps the other months
+	 */
+	@Test
+	void testDrop() {
+		assertEquals(2, statisticPartitionManager.drop(YearMonth.of(2019, 1)));
+		assertEquals(-1, statisticPartitionManager.drop(YearMonth.of(2019, 1)));
+		assertEquals(List.of(33), search(null));
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STATISTIC_DAILY_ROLLUP WHERE DAILY < ?",
+				Integer.class, LocalDate.of(2019, 2, 1)));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STATISTIC_MONTHLY_ROLLUP", Integer.class));
+		assertEquals(1, statisticPartitionManager.dropAll());
+		assertEquals(List.of(), search(null));
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STATISTIC", Integer.class));
+	}
+
+	/**
+	 * Test that replacing a month switches the searches and the rollups to its staging table at once
+	 */
+	@Test
+	void testReplace() {
+		YearMonth january = YearMonth.of(2019, 1);
+		String staging = statisticPartitionManager.createStaging(january);
+		statisticBatchWriter.stage(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 2), 7, 700),
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 3), 8, 800),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 4), 9, 900)),
+				statisticBatchWriter.beginUpload(), staging);
+		// The searches read the previous statistics until the staging table is switched in
+		assertEquals(List.of(1, 5), search("daily<02-01-2019"));
+		assertEquals(3, statisticPartitionManager.replace(january, staging));
+		assertEquals(staging, statisticPartitionManager.getTable(january));
+		assertEquals(List.of(7, 8, 9), search("daily<02-01-2019"));
+		assertEquals(List.of(7, 8, 9, 33), search(null));
+		assertEquals(Map.of(january, 3L, YearMonth.of(2019, 2), 1L), statisticPartitionManager.getPartitionSizes());
+		assertEquals(15, jdbcTemplate.queryForObject("SELECT CLICKS FROM STATISTIC_MONTHLY_ROLLUP R "
+				+ "JOIN DATASOURCE D ON D.ID = R.DATASOURCE_ID WHERE D.NAME = 'Google Ads' AND MONTH = ?",
+				Integer.class, january.atDay(1)));
+		assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM STATISTIC_DAILY_ROLLUP WHERE DAILY < ?",
+				Integer.class, LocalDate.of(2019, 2, 1)));
+		assertEquals(3, statisticPartitionManager.drop(january));
+	}
+
+	/**
+	 * Test that a search with daily conditions only reads the partitions of its months
+	 */
+	@Test
+	void testSearchPartitions() {
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 3, 2), 7, 700)));
+		String january = statisticPartitionManager.getTable(YearMonth.of(2019, 1));
+		String february = statisticPartitionManager.getTable(YearMonth.of(2019, 2));
+		String march = statisticPartitionManager.getTable(YearMonth.of(2019, 3));
+
+		Model model = searchSql("daily>01-31-2019,daily<03-01-2019");
+		assertEquals(List.of(33), model.getAttribute("statistics"));
+		String sql = (String) model.getAttribute("sql");
+		assertTrue(sql.contains(february) && !sql.contains(january) && !sql.contains(march), sql);
+
+		sql = (String) searchSql("daily:01-21-2019,datasource:Twitter Ads").getAttribute("sql");
+		assertTrue(sql.contains(january) && !sql.contains(february), sql);
+		// The searches of all the months and the conditions joined with OR read the view
+		sql = (String) searchSql("datasource:Google Ads,'daily>02-28-2019").getAttribute("sql");
+		assertTrue(sql.contains("from statistic ") && !sql.contains(march), sql);
+		// A month without partition reads no partition
+		model = searchSql("daily>12-31-2019");
+		assertEquals(List.of(), model.getAttribute("statistics"));
+		sql = (String) model.getAttribute("sql");
+		assertTrue(!sql.contains(january) && !sql.contains(february) && !sql.contains(march), sql);
+	}
+
+	private Model searchSql(String condition) {
+		Model model = new ExtendedModelMap();
+		searchResultCache.invalidateAll();
+		csvService.searchStatistics("clicks", condition, null, "clicks", null, null, null, "true", model);
+		return model;
+	}
+
+	private List<Object> search(String condition) {
+		return csvService.createQuery(csvService.createSearchQuery("clicks", condition, null, "clicks"), null, null);
+	}
+}
@@ -0,0 +1,108 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.service.CsvService;
+
+@SpringBootTest
+class StatisticRollupWriterTest {
+
+	private static final String DAILY_SQL = "SELECT DATASOURCE_ID, CAMPAIGN_ID, DAILY, CLICKS, IMPRESSIONS, RECORDS "
+			+ "FROM STATISTIC_DAILY_ROLLUP ORDER BY DATASOURCE_ID, CAMPAIGN_ID, DAILY";
+	private static final String MONTHLY_SQL = "SELECT DATASOURCE_ID, MONTH, CLICKS, IMPRESSIONS, RECORDS "
+			+ "FROM STATISTIC_MONTHLY_ROLLUP ORDER BY DATASOURCE_ID, MONTH";
+
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private StatisticRollupWriter statisticRollupWriter;
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private CsvProperties csvProperties;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		// Two chunks adding to the same rollup rows
+		for (int chunk = 0; chunk < 2; chunk++) {
+			List<Statistic> statistics = new ArrayList<Statistic>();
+			for (int i = 0; i < 20; i++) {
+				statistics.add(new Statistic(null, i % 2 == 0 ? "Google Ads" : "Twitter Ads", "Campaign " + i % 3,
+						LocalDate.of(2019, 1 + i % 2, 1 + i % 5), i + chunk, 100 * i));
+			}
+			statisticBatchWriter.write(statistics);
+		}
+	}
+
+	@AfterEach
+	public void reset() {
+		csvProperties.getRollups().setEnabled(true);
+	}
+
+	/**
+	 * Test that the rollups are the sums of the inserted statistics
+	 */
+	@Test
+	void testAdd() {
+		List<Map<String, Object>> daily = jdbcTemplate.queryForList(DAILY_SQL);
+		List<Map<String, Object>> monthly = jdbcTemplate.queryForList(MONTHLY_SQL);
+		assertEquals(40L, daily.stream().mapToLong(row -> (Long) row.get("RECORDS")).sum());
+		assertEquals(40L, monthly.stream().mapToLong(row -> (Long) row.get("RECORDS")).sum());
+		assertEquals(jdbcTemplate.queryForObject("SELECT SUM(CLICKS) FROM STATISTIC_FACT", Long.class),
+				daily.stream().mapToLong(row -> (Long) row.get("CLICKS")).sum());
+		assertEquals(jdbcTemplate.queryForObject("SELECT SUM(IMPRESSIONS) FROM STATISTIC_FACT", Long.class),
+				monthly.stream().mapToLong(row -> (Long) row.get("IMPRESSIONS")).sum());
+		assertEquals(2, monthly.size());
+
+		statisticRollupWriter.rebuild();
+		assertEquals(daily, jdbcTemplate.queryForList(DAILY_SQL));
+		assertEquals(monthly, jdbcTemplate.queryForList(MONTHLY_SQL));
+	}
+
+	/**
+	 * Test that the searches read from the rollups return the same records as the searches of the statistics
+	 */
+	@Test
+	void testSearchRollups() {
+		String[][] searches = {
+				{"datasource,clicks:sum,impressions:sum", null, "datasource", "datasource:asc"},
+				{"campaign,daily,clicks:sum", "campaign!Campaign 1", "campaign,daily", "clicks:sum:desc,campaign,daily"},
+				{"daily,impressions:sum", "daily>01-02-2019", "daily", "daily:desc"}};
+		for (String[] search : searches) {
+			List<Object> rollup = search(search);
+			csvProperties.getRollups().setEnabled(false);
+			List<Object> raw = search(search);
+			csvProperties.getRollups().setEnabled(true);
+			assertEquals(raw.size(), rollup.size());
+			for (int i = 0; i < raw.size(); i++) {
+				assertEquals(List.of((Object[]) raw.get(i)), List.of((Object[]) rollup.get(i)));
+			}
+		}
+	}
+
+	private List<Object> search(String[] search) {
+		return csvService.createQuery(csvService.createSearchQuery(search[0], search[1], search[2], search[3]),
+				null, null);
+	}
+}
@@ -0,0 +1,132 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.service.CsvService;
+import com.adverity.csv.util.SearchQueryParser;
+import com.google.common.collect.Range;
+
+@SpringBootTest
+class UploadBatchRegistryTest {
+
+	@Autowired
+	private UploadBatchRegistry uploadBatchRegistry;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+	@Autowired
+	private CsvProperties csvProperties;
+
+	private int january;
+	private int february;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		january = write("Google Ads", 1);
+		february = write("Twitter Ads", 2);
+	}
+
+	private int write(String datasource, int month) {
+		int batchId = statisticBatchWriter.beginUpload();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		for (int i = 0; i < 10; i++) {
+			statistics.add(new Statistic(null, datasource, "Campaign " + i % 3, LocalDate.of(2019, month, 1 + i), i, 100));
+		}
+		statisticBatchWriter.write(statistics.subList(0, 5), batchId);
+		statisticBatchWriter.write(statistics.subList(5, 10), batchId);
+		return batchId;
+	}
+
+	/**
+	 * Test that the zone of a batch covers all its chunks and is stored
+	 */
+	@Test
+	void testAdd() {
+		assertEquals(List.of(LocalDate.of(2019, 1, 1), LocalDate.of(2019, 1, 10), 10L),
+				jdbcTemplate.queryForObject("SELECT MIN_DAILY, MAX_DAILY, RECORDS FROM UPLOAD_BATCH WHERE ID = ?",
+						(rs, row) -> List.of(rs.getDate(1).toLocalDate(), rs.getDate(2).toLocalDate(), rs.getLong(3)),
+						january));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM UPLOAD_BATCH_DATASOURCE WHERE BATCH_ID = ?",
+				Integer.class, february));
+	}
+
+	/**
+	 * Test that only the batches whose zone can match the conditions are kept
+	 */
+	@Test
+	void testFindBatches() {
+		assertBatches("daily>01-31-2019", false, true);
+		assertBatches("daily<01-02-2019", true, false);
+		assertBatches("daily:02-05-2019", false, true);
+		assertBatches("daily>01-05-2019,daily<02-01-2019", true, false);
+		assertBatches("datasource:Google Ads", true, false);
+		assertBatches("datasource:Google Ads,daily>01-31-2019", false, false);
+		assertEquals(Optional.of(Set.of()), find("datasource:Unknown Ads"));
+		assertEquals(Optional.empty(), find("datasource:Google Ads,'daily>01-31-2019"));
+		assertEquals(Optional.empty(), find("campaign:Campaign 1,clicks>3"));
+	}
+
+	/**
+	 * Test that the searches of the statistics skip the batches but return the same records
+	 */
+	@Test
+	void testSearch() {
+		assertEquals(List.of(5, 6, 7, 8, 9), search("daily>02-05-2019"));
+		assertEquals(List.of(), search("datasource:Google Ads,daily>01-31-2019"));
+		assertEquals(List.of(0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9), search("datasource:Google Ads,'daily<02-02-2019"));
+	}
+
+	/**
+	 * Test that a search keeping more than csv.upload.max-searched-batches batches reads the daily range of their
+	 * zones and returns the same records
+	 */
+	@Test
+	void testSearchDailyRange() {
+		assertEquals(Range.closed(LocalDate.of(2019, 1, 1), LocalDate.of(2019, 2, 10)),
+				uploadBatchRegistry.getDailyRange(Set.of(january, february)));
+		csvProperties.getUpload().setMaxSearchedBatches(0);
+		try {
+			assertEquals(List.of(5, 6, 7, 8, 9), search("daily>02-05-2019"));
+			assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), search("datasource:Twitter Ads"));
+			assertEquals(List.of(), search("datasource:Google Ads,daily>01-31-2019"));
+		} finally {
+			csvProperties.getUpload().setMaxSearchedBatches(new CsvProperties().getUpload().getMaxSearchedBatches());
+		}
+	}
+
+	private Optional<Set<Integer>> find(String condition) {
+		return uploadBatchRegistry.findBatches(SearchQueryParser.parseCondition(condition));
+	}
+
+	private void assertBatches(String condition, boolean january, boolean february) {
+		Set<Integer> batches = find(condition).orElseThrow();
+		assertEquals(january, batches.contains(this.january), condition);
+		assertEquals(february, batches.contains(this.february), condition);
+	}
+
+	private List<Object> search(String condition) {
+		return csvService.createQuery(csvService.createSearchQuery("clicks", condition, null, "clicks"), null, null);
+	}
+}
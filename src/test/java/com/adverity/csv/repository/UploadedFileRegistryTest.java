@@ -0,0 +1,60 @@
+package com.adverity.csv.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.model.Statistic;
+
+@SpringBootTest
+class UploadedFileRegistryTest {
+
+	@Autowired
+	private UploadedFileRegistry uploadedFileRegistry;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	public void init() {
+		jdbcTemplate.execute("DELETE FROM UPLOADED_FILE");
+	}
+
+	/**
+	 * Test that a content can only be claimed once, until it is released
+	 */
+	@Test
+	void testClaim() {
+		assertTrue(uploadedFileRegistry.claim("a1", "first.csv").isEmpty());
+		assertEquals("first.csv", uploadedFileRegistry.claim("a1", "second.csv").orElseThrow().getFileName());
+		uploadedFileRegistry.release("a1");
+		assertTrue(uploadedFileRegistry.claim("a1", "second.csv").isEmpty());
+	}
+
+	/**
+	 * Test that the files with statistics in a dropped month are forgotten
+	 */
+	@Test
+	void testRemove() {
+		int batchId = statisticBatchWriter.beginUpload();
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 3, 20), 33, 29954)), batchId);
+		uploadedFileRegistry.claim("b2", "march.csv");
+		uploadedFileRegistry.complete("b2", batchId, 1);
+		assertEquals(1L, uploadedFileRegistry.claim("b2", "march.csv").orElseThrow().getRecords());
+		uploadedFileRegistry.remove(YearMonth.of(2019, 4));
+		assertTrue(uploadedFileRegistry.claim("b2", "march.csv").isPresent());
+		uploadedFileRegistry.remove(YearMonth.of(2019, 3));
+		assertTrue(uploadedFileRegistry.claim("b2", "march.csv").isEmpty());
+	}
+}
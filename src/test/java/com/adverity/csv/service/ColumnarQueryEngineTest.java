@@ -0,0 +1,306 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.repository.ColumnSegment;
+import com.adverity.csv.repository.ColumnarStatisticStore;
+import com.adverity.csv.repository.DimensionDictionary;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class ColumnarQueryEngineTest {
+
+	@Autowired
+	private ColumnarQueryEngine columnarQueryEngine;
+	@Autowired
+	private ColumnarStatisticStore columnarStatisticStore;
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private CsvProperties csvProperties;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+	@Autowired
+	private DimensionDictionary dimensionDictionary;
+
+	@TempDir
+	Path segmentDirectory;
+
+	@BeforeEach
+	public void init() {
+		csvProperties.getColumnar().setEnabled(true);
+		write();
+	}
+
+	private void write() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		columnarStatisticStore.clear();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		for (int i = 0; i < 50; i++) {
+			statistics.add(new Statistic(null, i % 3 == 0 ? "Google Ads" : i % 3 == 1 ? "Twitter Ads" : "Facebook Ads",
+					"Campaign " + i % 4, LocalDate.of(2019, 1 + i % 2, 1 + i % 7), i, 1000 - i));
+		}
+		statisticBatchWriter.write(statistics.subList(0, 20));
+		statisticBatchWriter.completeUpload();
+		statisticBatchWriter.write(statistics.subList(20, 50));
+	}
+
+	@AfterEach
+	public void reset() {
+		columnarStatisticStore.clear();
+		csvProperties.getColumnar().setEnabled(false);
+		csvProperties.getColumnar().setSegmentDirectory(null);
+	}
+
+	/**
+	 * Test that the column store returns the same records as the database
+	 */
+	@Test
+	void testSearch() {
+		assertSearches();
+	}
+
+	/**
+	 * Test that the searches on a sealed segment file and the open segment return the same records as the
+	 * database, also after the segment files are mapped again
+	 */
+	@Test
+	void testSearchSegments() throws IOException {
+		csvProperties.getColumnar().setSegmentDirectory(segmentDirectory.toString());
+		write();
+		assertEquals(2, columnarStatisticStore.getColumns().getSegments().size());
+		assertEquals(1, countSegmentFiles());
+		assertSearches();
+
+		statisticBatchWriter.completeUpload();
+		assertEquals(2, countSegmentFiles());
+		columnarStatisticStore.load();
+		assertEquals(50, columnarStatisticStore.getColumns().getSize());
+		assertSearches();
+	}
+
+	/**
+	 * Test that after a restart on a database that kept its statistics, the segment files are mapped again as they
+	 * are instead of being loaded from the database
+	 */
+	@Test
+	void testRestartMapsSegments() throws IOException {
+		csvProperties.getColumnar().setSegmentDirectory(segmentDirectory.toString());
+		write();
+		statisticBatchWriter.completeUpload();
+		Map<Path, FileTime> files = getSegmentFiles();
+		assertEquals(2, files.size());
+
+		// A new store on the same database, like the store of a restarted application on a persistent database
+		ColumnarStatisticStore restarted = new ColumnarStatisticStore(jdbcTemplate, csvProperties, dimensionDictionary);
+		restarted.load();
+		assertEquals(List.of(20, 30), restarted.getColumns().getSegments().stream().map(ColumnSegment::getSize)
+				.collect(Collectors.toList()));
+		assertEquals(files, getSegmentFiles());
+	}
+
+	/**
+	 * Test that the segment files are loaded again from the database if it does not have their statistics anymore
+	 */
+	@Test
+	void testLoadOutdatedSegments() throws IOException {
+		csvProperties.getColumnar().setSegmentDirectory(segmentDirectory.toString());
+		write();
+		statisticBatchWriter.completeUpload();
+		assertEquals(2, countSegmentFiles());
+		int deleted = jdbcTemplate.update("DELETE FROM " + statisticPartitionManager.getTable(YearMonth.of(2019, 1)));
+		columnarStatisticStore.load();
+		assertEquals(50 - deleted, columnarStatisticStore.getColumns().getSize());
+		assertEquals(1, countSegmentFiles());
+
+		columnarStatisticStore.load();
+		assertEquals(50 - deleted, columnarStatisticStore.getColumns().getSize());
+	}
+
+	/**
+	 * Test that dropping or replacing a month only changes its statistics in the segment files
+	 */
+	@Test
+	void testReplaceSegments() throws IOException {
+		csvProperties.getColumnar().setSegmentDirectory(segmentDirectory.toString());
+		write();
+		statisticBatchWriter.completeUpload();
+		YearMonth february = YearMonth.of(2019, 2);
+		long rows = statisticPartitionManager.drop(february);
+		assertEquals(50 - rows, columnarStatisticStore.getColumns().getSize());
+		assertEquals(2, countSegmentFiles());
+		assertSearches();
+
+		String staging = statisticPartitionManager.createStaging(february);
+		statisticBatchWriter.stage(List.of(new Statistic(null, "Google Ads", "Campaign 9", LocalDate.of(2019, 2, 3), 7, 70),
+				new Statistic(null, "Twitter Ads", "Campaign 9", LocalDate.of(2019, 2, 4), 8, 80)),
+				statisticBatchWriter.beginUpload(), staging);
+		statisticPartitionManager.replace(february, staging);
+		assertEquals(52 - rows, columnarStatisticStore.getColumns().getSize());
+		assertSearches();
+		columnarStatisticStore.seal();
+		columnarStatisticStore.load();
+		// The segments match the database, so they are mapped again
+		assertEquals(3, countSegmentFiles());
+		assertEquals(52 - rows, columnarStatisticStore.getColumns().getSize());
+		assertSearches();
+	}
+
+	/**
+	 * Test that merging stored statistics only replaces their months in the column store, which keeps answering
+	 * the searches
+	 */
+	@Test
+	void testMergeSegments() throws IOException {
+		csvProperties.getColumnar().setSegmentDirectory(segmentDirectory.toString());
+		write();
+		statisticBatchWriter.completeUpload();
+		int batchId = statisticBatchWriter.beginUpload();
+		// Changes a stored statistic of February and inserts one of February and one of March
+		statisticBatchWriter.merge(List.of(new Statistic(null, "Twitter Ads", "Campaign 1", LocalDate.of(2019, 2, 2), 500, 5),
+				new Statistic(null, "Google Ads", "Campaign 9", LocalDate.of(2019, 2, 9), 7, 70),
+				new Statistic(null, "Google Ads", "Campaign 9", LocalDate.of(2019, 3, 1), 8, 80)), batchId,
+				UploadMode.ACCUMULATE);
+		assertEquals(52, columnarStatisticStore.getColumns().getSize());
+		// The segments with statistics of February are written again, the store is not loaded again
+		assertEquals(2, countSegmentFiles());
+		assertSearches();
+		statisticBatchWriter.completeUpload();
+		columnarStatisticStore.load();
+		assertEquals(52, columnarStatisticStore.getColumns().getSize());
+		assertSearches();
+	}
+
+	private Map<Path, FileTime> getSegmentFiles() throws IOException {
+		Map<Path, FileTime> files = new HashMap<Path, FileTime>();
+		try (Stream<Path> paths = Files.list(segmentDirectory)) {
+			for (Path file : paths.filter(path -> path.toString().endsWith(".segment")).collect(Collectors.toList())) {
+				files.put(file, Files.getLastModifiedTime(file));
+			}
+		}
+		return files;
+	}
+
+	private long countSegmentFiles() throws IOException {
+		try (Stream<Path> files = Files.list(segmentDirectory)) {
+			return files.filter(file -> file.toString().endsWith(".segment")).count();
+		}
+	}
+
+	private void assertSearches() {
+		String[][] searches = {
+				{null, null, null, null, null, null},
+				{"campaign,clicks", "datasource:Google Ads,'clicks>40", null, "clicks:desc", "2", "5"},
+				{"daily,impressions", "daily>01-03-2019,campaign~Campaign _", null, "daily:asc,impressions:desc", null, null},
+				{"clicks", "datasource!Twitter Ads,campaign:*2,clicks<30", null, "clicks", null, "abc"},
+				{"datasource,clicks:sum,impressions:sum", null, "datasource", "datasource:desc", null, null},
+				{"campaign,daily,clicks:sum", "campaign<Campaign 2", "campaign,daily", "clicks:sum:desc,campaign,daily", "1", "4"},
+				{"impressions:sum,clicks:sum", "datasource>Google Ads", null, null, null, null},
+				{"clicks:sum", "datasource:Unknown Ads", null, null, null, null}};
+		for (String[] search : searches) {
+			List<Object> columnar = columnarQueryEngine.search(search[0], search[1], search[2], search[3], search[4],
+					search[5]);
+			assertNotNull(columnar, Arrays.toString(search));
+			List<Object> database = csvService.createQuery(csvService.createSearchQuery(search[0], search[1],
+					search[2], search[3]), search[4], search[5]);
+			// Without a sort the database reads the monthly partitions in any order
+			assertEquals(toString(database, search[3] == null), toString(columnar, search[3] == null),
+					Arrays.toString(search));
+		}
+	}
+
+	/**
+	 * Test that the store loaded from the database has the same statistics as the appended store
+	 */
+	@Test
+	void testLoad() {
+		List<Object> appended = columnarQueryEngine.search(null, null, null, null, null, null);
+		columnarStatisticStore.load();
+		assertEquals(50, columnarStatisticStore.getColumns().getSize());
+		assertEquals(toString(appended, false), toString(columnarQueryEngine.search(null, null, null, null, null, null),
+				false));
+	}
+
+	/**
+	 * Test that a reload waits for a committed chunk to be appended, so the chunk is not in the store twice
+	 */
+	@Test
+	void testReloadDuringAppend() throws InterruptedException {
+		Statistic statistic = new Statistic(null, "Google Ads", "Campaign 9", LocalDate.of(2019, 1, 8), 1, 10);
+		Lock commitLock = columnarStatisticStore.getCommitLock().readLock();
+		commitLock.lock();
+		Thread reload = new Thread(columnarStatisticStore::reload);
+		try {
+			// The chunk is committed but not appended yet when the reload starts
+			String table = statisticPartitionManager.getTable(YearMonth.of(2019, 1));
+			jdbcTemplate.update("INSERT INTO " + table + " SELECT NEXT VALUE FOR STATISTIC_ID_SEQ, DATASOURCE_ID, "
+					+ "CAMPAIGN_ID, ?, 1, 10, BATCH_ID FROM " + table + " LIMIT 1", statistic.getDaily());
+			reload.start();
+			reload.join(200);
+			assertTrue(reload.isAlive());
+			columnarStatisticStore.append(List.of(statistic), new int[] {0}, new int[] {0});
+		} finally {
+			commitLock.unlock();
+		}
+		reload.join();
+		assertEquals(51, columnarStatisticStore.getColumns().getSize());
+	}
+
+	/**
+	 * Test that the searches the column store can not answer are left to the database
+	 */
+	@Test
+	void testSearchUnsupported() {
+		assertNull(columnarQueryEngine.search("datasource,clicks:sum", "clicks>0", "datasource", null, null, null));
+		assertNull(columnarQueryEngine.search("id", null, null, null, null, null));
+		assertNull(columnarQueryEngine.search("clicks", "daily!01-01-2019", null, null, null, null));
+		csvProperties.getColumnar().setEnabled(false);
+		assertNull(columnarQueryEngine.search(null, null, null, null, null, null));
+	}
+
+	private static List<String> toString(List<Object> records, boolean sorted) {
+		List<String> strings = records.stream().map(record -> record instanceof Object[]
+				? Arrays.toString((Object[]) record) : String.valueOf(record)).collect(Collectors.toList());
+		if (sorted) {
+			Collections.sort(strings);
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,105 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+
+import com.adverity.csv.model.CountMode;
+import com.adverity.csv.model.SearchCount;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class CountEstimatorTest {
+
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private CountEstimator countEstimator;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		// 3 datasources with 20 campaigns each, one record per day of January and February 2019
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		LocalDate day = LocalDate.of(2019, 1, 1);
+		for (int i = 0; i < 59 * 3; i++) {
+			statistics.add(new Statistic(null, "Datasource " + i % 3, "Campaign " + i % 20, day.plusDays(i / 3), i, i));
+		}
+		statisticBatchWriter.write(statistics);
+	}
+
+	/**
+	 * Test that the exact count uses the same conditions as the search and counts the groups of a grouped search
+	 */
+	@Test
+	void testExactCount() {
+		assertEquals(177, count(null, null, CountMode.EXACT).getCount());
+		SearchCount count = count("datasource:Datasource 1,daily>01-31-2019", null, CountMode.EXACT);
+		assertEquals(28, count.getCount());
+		assertEquals(CountMode.EXACT, count.getMode());
+		assertEquals(60, count(null, "datasource,campaign", CountMode.EXACT).getCount());
+		assertEquals(20, count(null, "campaign", CountMode.EXACT).getCount());
+		assertEquals(84, count("daily>01-31-2019", "daily,datasource", CountMode.EXACT).getCount());
+		assertEquals(18, count("campaign<Campaign 2,clicks>150", "campaign,clicks", CountMode.EXACT).getCount());
+		// An approximate count that can not be estimated is counted exactly
+		count = count("clicks>100", null, CountMode.APPROX);
+		assertEquals(CountMode.EXACT, count.getMode());
+		assertEquals(76, count.getCount());
+	}
+
+	/**
+	 * Test that the approximate count is estimated from the monthly rollup and the campaign sketches
+	 */
+	@Test
+	void testApproximateCount() {
+		SearchCount count = count(null, null, CountMode.APPROX);
+		assertEquals(CountMode.APPROX, count.getMode());
+		assertEquals(177, count.getCount());
+		assertEquals(59, count("datasource:Datasource 1", null, CountMode.APPROX).getCount());
+		// Half of January: the 16th to the 31st
+		assertEquals(48, count("daily>01-15-2019,daily<02-01-2019", null, CountMode.APPROX).getCount());
+		assertEquals(2, count("datasource!Datasource 1", "datasource", CountMode.APPROX).getCount());
+		assertEquals(20, count(null, "campaign", CountMode.APPROX).getCount());
+		assertEquals(60, count(null, "datasource,campaign", CountMode.APPROX).getCount());
+		assertNull(countEstimator.estimate(null, "daily"));
+		assertNull(countEstimator.estimate("datasource:Datasource 1,'daily>01-15-2019", null));
+	}
+
+	/**
+	 * Test that a count only shows the count, without records
+	 */
+	@Test
+	void testCountView() {
+		Model model = new ExtendedModelMap();
+		csvService.countStatistics(null, null, null, CountMode.EXACT, "true", model);
+		assertTrue(((List<?>) model.getAttribute("statistics")).isEmpty());
+		assertTrue(((String) model.getAttribute("sql")).startsWith("select count("), (String) model.getAttribute("sql"));
+		csvService.countStatistics(null, "datasource:Datasource 1", "datasource,campaign", CountMode.EXACT, "true",
+				model);
+		assertTrue(((String) model.getAttribute("sql")).startsWith("select count(distinct "),
+				(String) model.getAttribute("sql"));
+	}
+
+	private SearchCount count(String condition, String groupBy, CountMode mode) {
+		Model model = new ExtendedModelMap();
+		csvService.countStatistics(null, condition, groupBy, mode, null, model);
+		return (SearchCount) model.getAttribute("count");
+	}
+}
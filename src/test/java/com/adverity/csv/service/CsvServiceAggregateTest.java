@@ -0,0 +1,83 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.adverity.csv.model.SearchQueryKey;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class CsvServiceAggregateTest {
+
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		statistics.add(new Statistic(null, "Google Ads", "Campaign 1", LocalDate.of(2019, 1, 1), 10, 100));
+		statistics.add(new Statistic(null, "Google Ads", "Campaign 1", LocalDate.of(2019, 1, 2), 20, 100));
+		statistics.add(new Statistic(null, "Google Ads", "Campaign 2", LocalDate.of(2019, 2, 1), 30, 200));
+		statistics.add(new Statistic(null, "Twitter Ads", "Campaign 1", LocalDate.of(2019, 1, 1), 5, 0));
+		statisticBatchWriter.write(statistics);
+	}
+
+	/**
+	 * Test the aggregate functions of the statistics, ordered by one of them
+	 */
+	@Test
+	void testAggregates() {
+		List<Object> records = search("datasource,clicks:min,clicks:max,clicks:count,campaign:countDistinct,clicks:avg",
+				"datasource", "clicks:max:desc");
+		assertArrayEquals(new Object[] {"Google Ads", 10, 30, 3L, 2L, 20.0}, (Object[]) records.get(0));
+		assertArrayEquals(new Object[] {"Twitter Ads", 5, 5, 1L, 1L, 5.0}, (Object[]) records.get(1));
+	}
+
+	/**
+	 * Test that the rollups compute the same averages, counts and click-through rates as the statistics
+	 */
+	@Test
+	void testRollupAggregates() {
+		// Read from the monthly rollup
+		List<Object> records = search("datasource,ctr,clicks:avg,clicks:count", "datasource", "ctr:desc");
+		assertArrayEquals(new Object[] {"Google Ads", 0.15, 20.0, 3L}, (Object[]) records.get(0));
+		// No click-through rate without impressions
+		assertArrayEquals(new Object[] {"Twitter Ads", null, 5.0, 1L}, (Object[]) records.get(1));
+		// Read from the statistics
+		records = search("datasource,ctr,clicks:avg,clicks:count,clicks:max", "datasource", "ctr:desc");
+		assertArrayEquals(new Object[] {"Google Ads", 0.15, 20.0, 3L, 30}, (Object[]) records.get(0));
+	}
+
+	/**
+	 * Test that an unknown function is refused, and that a search ordered by a function can not be paged with a cursor
+	 */
+	@Test
+	void testInvalidFunctions() {
+		assertThrows(ResponseStatusException.class, () -> search("datasource,clicks:median", "datasource", null));
+		assertThrows(ResponseStatusException.class, () -> csvService.searchPage(
+				SearchQueryKey.of("datasource,ctr", null, "datasource", "ctr:desc", null, null, ""),
+				"datasource,ctr", null, "datasource", "ctr:desc", null));
+	}
+
+	private List<Object> search(String display, String groupBy, String orderBy) {
+		return csvService.createQuery(csvService.createSearchQuery(display, null, groupBy, orderBy), null, null);
+	}
+}
@@ -0,0 +1,101 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.adverity.csv.model.SearchQueryKey;
+import com.adverity.csv.model.SearchResult;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class CsvServiceSearchPageTest {
+
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		for (int i = 0; i < 7; i++) {
+			statistics.add(new Statistic(null, i % 2 == 0 ? "Google Ads" : "Twitter Ads", "Campaign " + i % 3,
+					LocalDate.of(2019, 1, 1 + i % 4), i, 100 + i));
+		}
+		statisticBatchWriter.write(statistics);
+	}
+
+	/**
+	 * Test that the pages follow each other without gaps or duplicates, including the records with the same daily
+	 */
+	@Test
+	void testSearchPage() {
+		List<Object> clicks = new ArrayList<Object>();
+		String cursor = "";
+		int pages = 0;
+		do {
+			SearchResult page = page("clicks", null, null, "daily:desc", "3", cursor);
+			clicks.addAll(page.getRecords());
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+		assertEquals(List.of(3, 2, 6, 1, 5, 0, 4), clicks);
+		assertEquals(3, pages);
+	}
+
+	/**
+	 * Test paging a grouped search with a condition, the key is made of the group columns
+	 */
+	@Test
+	void testSearchPageGrouped() {
+		String display = "datasource,campaign,clicks:sum";
+		SearchResult first = page(display, "campaign!Campaign 1", "datasource,campaign", null, "3", "");
+		assertEquals(3, first.getRecords().size());
+		assertArrayEquals(new Object[] {"Google Ads", "Campaign 0", 6L}, (Object[]) first.getRecords().get(0));
+		SearchResult second = page(display, "campaign!Campaign 1", "datasource,campaign", null, "3",
+				first.getNextCursor());
+		assertEquals(1, second.getRecords().size());
+		assertArrayEquals(new Object[] {"Twitter Ads", "Campaign 2", 5L}, (Object[]) second.getRecords().get(0));
+		assertNull(second.getNextCursor());
+	}
+
+	/**
+	 * Test that a cursor can not be used with another search or with an aggregate order
+	 */
+	@Test
+	void testSearchPageInvalid() {
+		String cursor = page(null, null, null, "daily", "1", "").getNextCursor();
+		assertThrows(ResponseStatusException.class, () -> page(null, null, null, "clicks", "1", cursor));
+		assertThrows(ResponseStatusException.class, () -> page(null, null, null, "daily", "1", "garbage!"));
+		assertThrows(ResponseStatusException.class,
+				() -> page("datasource,clicks:sum", null, "datasource", "clicks:sum:desc", "1", ""));
+	}
+
+	private SearchResult page(String display, String condition, String groupBy, String orderBy, String limit,
+			String cursor) {
+		SearchQueryKey key = SearchQueryKey.of(display, condition, groupBy, orderBy, null, limit, cursor);
+		return csvService.searchPage(key, display, condition, groupBy, orderBy, limit);
+	}
+}
@@ -3,7 +3,10 @@ package com.adverity.csv.service;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -12,9 +15,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
@@ -26,19 +31,34 @@ import javax.persistence.criteria.Root;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.ui.Model;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import com.adverity.csv.config.CsvProperties;
 import com.adverity.csv.mapper.StatisticMapper;
+import com.adverity.csv.model.RejectedRow;
 import com.adverity.csv.model.Statistic;
 import com.adverity.csv.model.StatisticCsv;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+import com.adverity.csv.model.UploadedFile;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticIndexManager;
+import com.adverity.csv.repository.StatisticPartitionManager;
 import com.adverity.csv.repository.StatisticRepository;
+import com.adverity.csv.repository.UploadBatchRegistry;
+import com.adverity.csv.repository.UploadedFileRegistry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 class CsvServiceTest {
 	
@@ -46,6 +66,20 @@ class CsvServiceTest {
 	private StatisticRepository statisticRepository;
 	@Mock
 	private StatisticMapper statisticMapper;
+	@Mock
+	private StatisticBatchWriter statisticBatchWriter;
+	@Mock
+	private ParallelCsvParser parallelCsvParser;
+	@Mock
+	private StatisticIndexManager statisticIndexManager;
+	@Mock
+	private ColumnarQueryEngine columnarQueryEngine;
+	@Mock
+	private UploadBatchRegistry uploadBatchRegistry;
+	@Mock
+	private UploadedFileRegistry uploadedFileRegistry;
+	@Mock
+	private StatisticPartitionManager statisticPartitionManager;
 	@Spy
 	private EntityManager entityManager;
 	@Spy
@@ -64,10 +98,25 @@ class CsvServiceTest {
 	@BeforeEach
 	public void init() {
 		MockitoAnnotations.openMocks(this);
+		// The column store is disabled, every search runs on the database
+		Mockito.doReturn(null).when(columnarQueryEngine).search(any(), any(), any(), any(), any(), any());
+		Mockito.doReturn(7).when(statisticBatchWriter).beginUpload();
 		//builder = entityManager.getCriteriaBuilder();
 		//query = builder.createQuery(Object.class);
 		//stat = query.from(Statistic.class);
-		csvService = new CsvService(statisticRepository, statisticMapper, entityManager);
+		csvService = createCsvService(new CsvProperties());
+	}
+
+	/**
+	 * @param csvProperties The properties of the service
+	 * @return A service on the mocks of the test
+	 */
+	private CsvService createCsvService(CsvProperties csvProperties) {
+		return new CsvService(statisticRepository, entityManager, csvProperties, statisticBatchWriter,
+				new StatisticCsvParser(statisticMapper), parallelCsvParser, statisticIndexManager,
+				new IndexAdvisor(statisticIndexManager), new SearchResultCache(new CsvProperties()), columnarQueryEngine,
+				uploadBatchRegistry, uploadedFileRegistry, new PipelineMetrics(new SimpleMeterRegistry()),
+				new QueryProfiler(new CsvProperties(), null), null, statisticPartitionManager);
 	}
 	
 	/**
@@ -89,13 +138,14 @@ class CsvServiceTest {
 		try {
 			MultipartFile file = new MockMultipartFile ("CsvTest.csv", new FileInputStream(new File("src/test/data/CsvTest.csv")));
 			List<Statistic> statistics = new ArrayList<Statistic>();
-			statistics.add(new Statistic(1, "Google Ads", "Adventmarkt Touristik", LocalDate.now(), 5 , 7705));
-			statistics.add(new Statistic(1, "Google Ads", "GDN_Retargeting", LocalDate.now(), 33 , 29954));
-			Mockito.doReturn(statistics).when(statisticMapper).mapListEntityCsvToListEntity(any());
-			Mockito.doReturn(statistics).when(statisticRepository).findAll();
+			statistics.add(new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5 , 7705));
+			statistics.add(new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33 , 29954));
+			Mockito.doReturn(2).when(statisticBatchWriter).write(any(), anyInt());
+			Mockito.doReturn(125L).when(statisticRepository).count();
 			String template = csvService.uploadCSVFile(file, model);
-			Mockito.verify(statisticRepository).saveAll(statistics);
-			Mockito.verify(statisticRepository).findAll();
+			Mockito.verify(statisticBatchWriter).write(statistics, 7);
+			Mockito.verify(statisticRepository).count();
+			Mockito.verify(statisticRepository, Mockito.never()).findAll();
 			assertEquals(template, "file-upload-status");
 			Mockito.verify(model).addAttribute("message", "Successful saved in database: 2 records");
 			Mockito.verify(model).addAttribute("status", true);
@@ -104,6 +154,155 @@ class CsvServiceTest {
 		}
 	}
 	
+	/**
+	 * Test uploading a CSV file that has more rows than the configured chunk size
+	 */
+	@Test
+	void testuploadCSVFileInChunks() {
+		try {
+			MultipartFile file = new MockMultipartFile ("CsvTest.csv", new FileInputStream(new File("src/test/data/CsvTest.csv")));
+			CsvProperties csvProperties = new CsvProperties();
+			csvProperties.getUpload().setChunkSize(1);
+			csvService = createCsvService(csvProperties);
+			Statistic first = new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5 , 7705);
+			Statistic second = new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33 , 29954);
+			Mockito.doReturn(1).when(statisticBatchWriter).write(any(), anyInt());
+			UploadResult result = csvService.ingestCsvFile(file);
+			assertEquals(result.getRowsParsed(), 2);
+			assertEquals(result.getRowsInserted(), 2);
+			assertEquals(result.getRowsRejected(), 0);
+			Mockito.verify(statisticBatchWriter).write(List.of(first), 7);
+			Mockito.verify(statisticBatchWriter).write(List.of(second), 7);
+			// Both chunks are in the batch of the upload
+			Mockito.verify(statisticBatchWriter).beginUpload();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Test that a file whose content was already uploaded is not parsed again
+	 */
+	@Test
+	void testuploadCSVFileDuplicate() throws IOException {
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", new FileInputStream(new File("src/test/data/CsvTest.csv")));
+		Mockito.doReturn(Optional.of(new UploadedFile("hash", "CsvTest.csv", LocalDateTime.of(2021, 9, 1, 10, 0), 2L, false)))
+				.when(uploadedFileRegistry).claim(any(), any());
+		UploadResult result = csvService.ingestCsvFile(file, UploadMode.REPLACE);
+		assertTrue(result.isDuplicate());
+		assertEquals(0, result.getRowsParsed());
+		verifyNoInteractions(statisticBatchWriter, statisticMapper);
+		verify(uploadedFileRegistry, Mockito.never()).release(any());
+	}
+	
+	/**
+	 * Test that the rows merged into stored statistics are counted, and the uploaded file is registered
+	 */
+	@Test
+	void testuploadCSVFileMerge() throws IOException {
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", new FileInputStream(new File("src/test/data/CsvTest.csv")));
+		Mockito.doReturn(1).when(statisticBatchWriter).merge(any(), anyInt(), any());
+		UploadResult result = csvService.ingestCsvFile(file, UploadMode.ACCUMULATE);
+		assertEquals(1, result.getRowsInserted());
+		assertEquals(1, result.getRowsMerged());
+		verify(statisticBatchWriter, Mockito.never()).write(any(), anyInt());
+		ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+		verify(uploadedFileRegistry).claim(hash.capture(), any());
+		assertEquals(64, hash.getValue().length());
+		verify(uploadedFileRegistry).complete(hash.getValue(), 7, 2);
+	}
+	
+	/**
+	 * Test that an upload failing after a committed chunk is reported as failed and keeps the claim of its file
+	 */
+	@Test
+	void testuploadCSVFileFailed() throws IOException {
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", new FileInputStream(new File("src/test/data/CsvTest.csv")));
+		CsvProperties csvProperties = new CsvProperties();
+		csvProperties.getUpload().setChunkSize(1);
+		csvService = createCsvService(csvProperties);
+		Mockito.doReturn(1).doThrow(new DataAccessResourceFailureException("Connection lost"))
+				.when(statisticBatchWriter).write(any(), anyInt());
+		String template = csvService.uploadCSVFile(file, model);
+		assertEquals(template, "file-upload-status");
+		Mockito.verify(model).addAttribute("message", "Storing error: Connection lost, 1 records were saved");
+		Mockito.verify(model).addAttribute("status", false);
+		ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+		verify(uploadedFileRegistry).claim(hash.capture(), any());
+		verify(uploadedFileRegistry).fail(hash.getValue(), 7, 1);
+		verify(uploadedFileRegistry, Mockito.never()).complete(any(), any(), anyLong());
+		verify(uploadedFileRegistry, Mockito.never()).release(any());
+	}
+	
+	/**
+	 * Test uploading a CSV file with an invalid row. The invalid row is rejected and the other rows are saved.
+	 */
+	@Test
+	void testuploadCSVFileRejectedRow() {
+		String csv = "Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,five,7705\n"
+				+ "Google Ads,GDN_Retargeting,01/20/19,33,29954\n";
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", csv.getBytes());
+		Statistic statistic = new Statistic(null, "Google Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33 , 29954);
+		Mockito.doReturn(1).when(statisticBatchWriter).write(any(), anyInt());
+		Mockito.doReturn(10L).when(statisticRepository).count();
+		List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+		UploadResult result = csvService.ingestCsvFile(file, UploadMode.INSERT, rejects::add);
+		assertEquals(result.getRowsParsed(), 1);
+		assertEquals(result.getRowsInserted(), 1);
+		assertEquals(result.getRowsRejected(), 1);
+		assertEquals(result.getTotalRecords(), 10);
+		Mockito.verify(statisticBatchWriter).write(List.of(statistic), 7);
+		assertEquals(1, rejects.size());
+		assertEquals(2, rejects.get(0).getLineNumber());
+		assertEquals("Invalid Clicks value: five", rejects.get(0).getReason());
+	}
+	
+	/**
+	 * Test uploading a CSV file with quoted fields. These rows are parsed with OpenCSV and converted with the StatisticMapper.
+	 */
+	@Test
+	void testuploadCSVFileQuoted() {
+		String csv = "Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\n"
+				+ "\"Google Ads\",\"GDN, Retargeting\",01/20/19,33,29954\n";
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", csv.getBytes());
+		Statistic first = new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5 , 7705);
+		Statistic second = new Statistic(null, "Google Ads", "GDN, Retargeting", LocalDate.of(2019, 1, 20), 33 , 29954);
+		Mockito.doReturn(second).when(statisticMapper).mapEntityCsvToEntity(any());
+		Mockito.doReturn(2).when(statisticBatchWriter).write(any(), anyInt());
+		UploadResult result = csvService.ingestCsvFile(file);
+		assertEquals(result.getRowsParsed(), 2);
+		assertEquals(result.getRowsRejected(), 0);
+		ArgumentCaptor<StatisticCsv> captor = ArgumentCaptor.forClass(StatisticCsv.class);
+		Mockito.verify(statisticMapper).mapEntityCsvToEntity(captor.capture());
+		assertEquals(captor.getValue().getCampaign(), "GDN, Retargeting");
+		Mockito.verify(statisticBatchWriter).write(List.of(first, second), 7);
+	}
+	
+	/**
+	 * Test that the secondary indexes are dropped before a big upload and rebuilt after it
+	 */
+	@Test
+	void testuploadCSVFileBulkLoad() {
+		String csv = "Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\n";
+		MultipartFile file = new MockMultipartFile("CsvTest.csv", csv.getBytes());
+		CsvProperties csvProperties = new CsvProperties();
+		csvProperties.getIndexes().setBulkLoadMinBytes(csv.length());
+		csvService = createCsvService(csvProperties);
+		Mockito.doReturn(1).when(statisticBatchWriter).write(any(), anyInt());
+		csvService.ingestCsvFile(file);
+		InOrder inOrder = Mockito.inOrder(statisticIndexManager, statisticBatchWriter);
+		inOrder.verify(statisticIndexManager).beginBulkLoad();
+		inOrder.verify(statisticBatchWriter).write(any(), anyInt());
+		inOrder.verify(statisticIndexManager).endBulkLoad();
+
+		csvProperties.getIndexes().setBulkLoadMinBytes(csv.length() + 1);
+		csvService.ingestCsvFile(file);
+		Mockito.verify(statisticIndexManager).beginBulkLoad();
+	}
+	
 	/**
 	 * Test parsing a CSV file
 	 */
@@ -364,7 +563,7 @@ class CsvServiceTest {
 		ArrayList<String> statistics = new ArrayList<String>();
 		statistics.add("Result");
 		Mockito.doReturn(statistics).when(typedQuery).getResultList();
-		String template = csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, showSQL, model);
+		String template = csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, null, showSQL, model);
 		assertEquals(template, "query-results");
 		Mockito.verify(model).addAttribute("statistics", statistics);
 		// We have an any() for each column to be displayed, groupedBy, orderBy
@@ -400,7 +599,7 @@ class CsvServiceTest {
 		ArrayList<String> statistics = new ArrayList<String>();
 		statistics.add("Result");
 		Mockito.doReturn(statistics).when(typedQuery).getResultList();
-		String template = csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, showSQL, model);
+		String template = csvService.searchStatistics(display, condition, groupBy, orderBy, offset, limit, null, showSQL, model);
 		assertEquals(template, "query-results");
 		Mockito.verify(model).addAttribute("statistics", statistics);
 	}
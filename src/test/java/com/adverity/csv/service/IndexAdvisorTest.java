@@ -0,0 +1,52 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.adverity.csv.model.IndexAdvice;
+import com.adverity.csv.repository.StatisticIndexManager;
+import com.adverity.csv.service.IndexAdvisor.Clause;
+
+class IndexAdvisorTest {
+
+	@Mock
+	private StatisticIndexManager statisticIndexManager;
+
+	private IndexAdvisor indexAdvisor;
+
+	@BeforeEach
+	public void init() {
+		MockitoAnnotations.openMocks(this);
+		indexAdvisor = new IndexAdvisor(statisticIndexManager);
+	}
+
+	/**
+	 * Test that the column usage is counted per clause and that only the columns without an index are suggested
+	 */
+	@Test
+	void testGetAdvice() {
+		Mockito.doReturn(Map.of("PK_STATISTIC", List.of("ID"), "IDX_STATISTIC_DAILY", List.of("DAILY", "CLICKS")))
+				.when(statisticIndexManager).getIndexes();
+		Mockito.doAnswer(invocation -> List.of(invocation.getArgument(0) + "_201901 (" + invocation.getArgument(1) + ")"))
+				.when(statisticIndexManager).getCreateStatements(Mockito.anyString(), Mockito.anyString());
+		indexAdvisor.record(Clause.CONDITION, List.of("clicks", "Daily", "unknown"));
+		indexAdvisor.record(Clause.CONDITION, List.of("clicks"));
+		indexAdvisor.record(Clause.GROUP_BY, List.of("datasource"));
+		indexAdvisor.record(Clause.ORDER_BY, List.of("clicks", "id"));
+
+		IndexAdvice advice = indexAdvisor.getAdvice();
+		assertEquals(Map.of("clicks", 2L, "daily", 1L), advice.getUsage().get("CONDITION"));
+		assertEquals(Map.of("datasource", 1L), advice.getUsage().get("GROUP_BY"));
+		assertEquals(Map.of("clicks", 1L, "id", 1L), advice.getUsage().get("ORDER_BY"));
+		assertEquals(List.of("IDX_STATISTIC_CLICKS_201901 (CLICKS)", "IDX_STATISTIC_DATASOURCE_ID_201901 (DATASOURCE_ID)"),
+				advice.getSuggestions());
+	}
+}
@@ -0,0 +1,100 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.mapper.StatisticMapperImpl;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadResult;
+
+class ParallelCsvParserTest {
+
+	@TempDir
+	Path directory;
+
+	private StatisticCsvParser statisticCsvParser;
+	private ParallelCsvParser parallelCsvParser;
+
+	@BeforeEach
+	public void init() {
+		CsvProperties csvProperties = new CsvProperties();
+		csvProperties.getParallel().setMinFileBytes(0);
+		csvProperties.getParallel().setChunkBytes(1000);
+		csvProperties.getParallel().setParallelism(4);
+		csvProperties.getParallel().setMaxChunksInFlight(3);
+		statisticCsvParser = new StatisticCsvParser(new StatisticMapperImpl());
+		parallelCsvParser = new ParallelCsvParser(statisticCsvParser, csvProperties);
+	}
+
+	/**
+	 * Test that the parallel parsing returns the same rows, in the same order, as the serial parsing
+	 */
+	@Test
+	void testParseSameAsSerial() throws IOException {
+		StringBuilder csv = new StringBuilder("Datasource,Campaign,Daily,Clicks,Impressions\n");
+		for (int i = 0; i < 5000; i++) {
+			csv.append("Source ").append(i % 3).append(",Campaign ").append(i % 17).append(',')
+					.append(String.format("%02d/%02d/19", 1 + i % 12, 1 + i % 28)).append(',')
+					.append(i).append(',').append(i * 10).append('\n');
+			if (i == 2500) {
+				csv.append("Google Ads,Broken,01/01/19,1\n");
+			}
+		}
+		csv.append("Google Ads,Broken,01/01/19,many,1\n");
+		Path file = Files.writeString(directory.resolve("statistics.csv"), csv);
+		assertTrue(parallelCsvParser.canParse(file));
+
+		List<Statistic> parallel = new ArrayList<Statistic>();
+		List<RejectedRow> parallelRejects = new ArrayList<RejectedRow>();
+		UploadResult parallelCounters = new UploadResult();
+		parallelCsvParser.parse(file, chunk -> {
+			parallel.addAll(chunk.getStatistics());
+			parallelRejects.addAll(chunk.getRejects());
+			parallelCounters.setRowsParsed(parallelCounters.getRowsParsed() + chunk.getCounters().getRowsParsed());
+			parallelCounters.setRowsRejected(parallelCounters.getRowsRejected() + chunk.getCounters().getRowsRejected());
+			parallelCounters.setBytesRead(parallelCounters.getBytesRead() + chunk.getCounters().getBytesRead());
+		});
+
+		List<Statistic> serial = new ArrayList<Statistic>();
+		UploadResult serialCounters = new UploadResult();
+		try (Reader reader = Files.newBufferedReader(file)) {
+			statisticCsvParser.parse(reader, serialCounters, serial::add);
+		}
+		assertEquals(5000, serial.size());
+		assertEquals(serial, parallel);
+		assertEquals(serialCounters.getRowsParsed(), parallelCounters.getRowsParsed());
+		assertEquals(2, parallelCounters.getRowsRejected());
+		// the rejected rows keep their line in the file
+		assertEquals(List.of(2503L, 5003L), parallelRejects.stream().map(RejectedRow::getLineNumber)
+				.collect(Collectors.toList()));
+		assertEquals(Files.size(file) - "Datasource,Campaign,Daily,Clicks,Impressions\n".length(),
+				parallelCounters.getBytesRead());
+		parallelCsvParser.shutdown();
+	}
+
+	/**
+	 * Test that a file with quoted fields is not split
+	 */
+	@Test
+	void testCanParseQuotes() throws IOException {
+		Path file = Files.writeString(directory.resolve("quoted.csv"),
+				"Datasource,Campaign,Daily,Clicks,Impressions\n\"Google Ads\",\"Multi\nline\",01/01/19,1,1\n");
+		assertFalse(parallelCsvParser.canParse(file));
+		parallelCsvParser.shutdown();
+	}
+}
@@ -0,0 +1,126 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.QueryShapeStatistics;
+import com.adverity.csv.model.SlowQuery;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class QueryProfilerTest {
+
+	@Autowired
+	private CsvService csvService;
+	@Autowired
+	private QueryProfiler queryProfiler;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+	@Autowired
+	private SearchResultCache searchResultCache;
+	@Autowired
+	private CsvProperties csvProperties;
+
+	@BeforeEach
+	public void init() {
+		// Every search is slow
+		csvProperties.getProfiling().setSlowQueryMillis(0);
+		csvProperties.getProfiling().setExplain(true);
+		statisticPartitionManager.dropAll();
+		searchResultCache.invalidateAll();
+		queryProfiler.clear();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		for (int i = 0; i < 6; i++) {
+			statistics.add(new Statistic(null, i % 2 == 0 ? "Google Ads" : "Twitter Ads", "Campaign " + i % 3,
+					LocalDate.of(2019, 1, 1 + i), i, 100 + i));
+		}
+		statisticBatchWriter.write(statistics);
+	}
+
+	@AfterEach
+	public void restore() {
+		csvProperties.getProfiling().setSlowQueryMillis(new CsvProperties().getProfiling().getSlowQueryMillis());
+		csvProperties.getProfiling().setExplain(new CsvProperties().getProfiling().isExplain());
+	}
+
+	/**
+	 * Test that a slow search is kept with its SQL, its parameters and the rows H2 read to answer it
+	 */
+	@Test
+	void testSlowQuery() throws InterruptedException {
+		search("campaign,clicks", "datasource:Google Ads,clicks>0", null);
+		List<SlowQuery> slowQueries = queryProfiler.getSlowQueries(null, null, null);
+		assertEquals(1, slowQueries.size());
+		SlowQuery slowQuery = slowQueries.get(0);
+		assertEquals("display=campaign,clicks condition=datasource equality,clicks greater_than", slowQuery.getShape());
+		assertEquals("Statistic", slowQuery.getSource());
+		assertEquals(2, slowQuery.getRowsReturned());
+		assertEquals(1, slowQuery.getStatements().size());
+		assertTrue(slowQuery.getStatements().get(0).getParameters().contains("Google Ads"));
+		// The plan is set by the background explain
+		for (int i = 0; i < 100 && slowQuery.getPlan() == null; i++) {
+			Thread.sleep(50);
+		}
+		assertNotNull(slowQuery.getPlan());
+		assertTrue(slowQuery.getRowsScanned() >= 6, slowQuery.getPlan());
+		// The same SQL is not explained again during csv.profiling.explain-interval-seconds
+		searchResultCache.invalidateAll();
+		search("campaign,clicks", "datasource:Google Ads,clicks>0", null);
+		assertEquals(2, queryProfiler.getSlowQueries(null, null, null).size());
+		assertNull(queryProfiler.getSlowQueries(null, null, 1).get(0).getPlan());
+		assertEquals(0, queryProfiler.getSlowQueries(null, "groupBy", null).size());
+	}
+
+	/**
+	 * Test that the searches are counted per shape, without the values of their conditions
+	 */
+	@Test
+	void testShapeStatistics() {
+		search("campaign", "datasource:Google Ads", null);
+		search("campaign", "datasource:Twitter Ads", null);
+		search("datasource,clicks:sum", null, "datasource");
+		List<QueryShapeStatistics> shapes = queryProfiler.getShapeStatistics();
+		assertEquals(2, shapes.size());
+		QueryShapeStatistics conditions = shapes.stream()
+				.filter(shape -> shape.getShape().equals("display=campaign condition=datasource equality"))
+				.findFirst().get();
+		assertEquals(2, conditions.getSearches());
+		assertEquals(2, conditions.getExecutions());
+		assertEquals(6, conditions.getRowsReturned());
+	}
+
+	/**
+	 * Test that showSQL shows the executed SQL with its parameters
+	 */
+	@Test
+	void testShowSql() {
+		Model model = new ExtendedModelMap();
+		csvService.searchStatistics("campaign", "datasource:Google Ads", null, null, null, null, null, "true", model);
+		String sql = (String) model.getAttribute("sql");
+		assertTrue(sql.startsWith("select"), sql);
+		assertTrue(sql.endsWith("-- parameters: Google Ads"), sql);
+	}
+
+	private void search(String display, String condition, String groupBy) {
+		csvService.searchStatistics(display, condition, groupBy, null, null, null, null, null, new ExtendedModelMap());
+	}
+}
@@ -0,0 +1,81 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.SearchQueryKey;
+import com.adverity.csv.model.SearchResult;
+import com.adverity.csv.model.StatisticsChangedEvent;
+
+class SearchResultCacheTest {
+
+	private final SearchResultCache searchResultCache = new SearchResultCache(new CsvProperties());
+
+	/**
+	 * Test that the same normalized search runs its query once until the statistics change
+	 */
+	@Test
+	void testGet() {
+		int[] queries = {0};
+		SearchQueryKey key = SearchQueryKey.of("datasource, clicks:sum", null, "datasource", "", null, null);
+		List<Object> rows = searchResultCache.get(key, () -> result(queries[0]++)).getRecords();
+		assertEquals(List.of(0), rows);
+		assertEquals(rows, searchResultCache.get(SearchQueryKey.of(" datasource,clicks:sum", "", "datasource ", null,
+				"0", ""), () -> result(queries[0]++)).getRecords());
+		assertEquals(1, queries[0]);
+
+		searchResultCache.onStatisticsChanged(new StatisticsChangedEvent(this, 10));
+		assertEquals(List.of(1), searchResultCache.get(key, () -> result(queries[0]++)).getRecords());
+		assertEquals(1L, searchResultCache.getStatistics().get("hits"));
+		assertEquals(2L, searchResultCache.getStatistics().get("misses"));
+	}
+
+	/**
+	 * Test that a result loaded while the statistics change is returned but not cached
+	 */
+	@Test
+	void testGetWhileStatisticsChange() {
+		SearchQueryKey key = SearchQueryKey.of(null, null, null, null, null, "10");
+		searchResultCache.get(key, () -> {
+			searchResultCache.onStatisticsChanged(new StatisticsChangedEvent(this, 10));
+			return result("stale");
+		});
+		assertEquals(List.of("fresh"), searchResultCache.get(key, () -> result("fresh")).getRecords());
+	}
+
+	/**
+	 * Test that the errors of a query are thrown as they are and not cached
+	 */
+	@Test
+	void testGetError() {
+		SearchQueryKey key = SearchQueryKey.of("unknown", null, null, null, null, null);
+		assertThrows(IllegalArgumentException.class, () -> searchResultCache.get(key, () -> {
+			throw new IllegalArgumentException("Unknown attribute");
+		}));
+		assertEquals(List.of(), searchResultCache.get(key, () -> new SearchResult(List.of())).getRecords());
+	}
+
+	/**
+	 * Test that the keyset pages are cached by their cursor with their next cursor
+	 */
+	@Test
+	void testGetPage() {
+		SearchQueryKey first = SearchQueryKey.of(null, null, null, "daily", "5", "1", "");
+		assertEquals(SearchQueryKey.of(null, null, null, "daily", null, "1", ""), first);
+		searchResultCache.get(first, () -> new SearchResult(List.of("first"), "next"));
+		SearchResult page = searchResultCache.get(first, () -> new SearchResult(List.of("other"), null));
+		assertEquals(List.of("first"), page.getRecords());
+		assertEquals("next", page.getNextCursor());
+		assertEquals(List.of("second"), searchResultCache.get(SearchQueryKey.of(null, null, null, "daily", null, "1",
+				"next"), () -> new SearchResult(List.of("second"))).getRecords());
+	}
+
+	private static SearchResult result(Object record) {
+		return new SearchResult(List.of(record));
+	}
+}
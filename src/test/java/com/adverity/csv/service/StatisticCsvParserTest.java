@@ -0,0 +1,95 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.adverity.csv.mapper.StatisticMapperImpl;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.UploadResult;
+
+class StatisticCsvParserTest {
+
+	private static final String ROWS = "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\n"
+			+ "Google Ads,Adventmarkt Touristik,12/24/19,five,7705\n"
+			+ ",Adventmarkt Touristik,12/24/19,5,7705\n"
+			+ "Google Ads,Adventmarkt Touristik,13/24/19,5,7705\n"
+			+ "Twitter Ads,GDN_Retargeting,01/20/19,33,29954\n";
+
+	private StatisticCsvParser statisticCsvParser;
+
+	@BeforeEach
+	public void init() {
+		statisticCsvParser = new StatisticCsvParser(new StatisticMapperImpl());
+	}
+
+	/**
+	 * Test that the invalid rows of the tokenizer are rejected with their line while the valid rows are kept
+	 */
+	@Test
+	void testParseRejects() throws IOException {
+		List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		UploadResult result = new UploadResult();
+		long lines = statisticCsvParser.parse(new StringReader("Datasource,Campaign,Daily,Clicks,Impressions\n" + ROWS),
+				result, statistics::add, rejects::add);
+		assertEquals(6, lines);
+		assertEquals(2, statistics.size());
+		assertEquals(3, result.getRowsRejected());
+		assertEquals(List.of(3L, 4L, 5L), lineNumbers(rejects));
+		assertEquals("Missing Datasource value", rejects.get(1).getReason());
+		assertEquals(",Adventmarkt Touristik,12/24/19,5,7705", rejects.get(1).getLine());
+	}
+
+	/**
+	 * Test that the rows read by OpenCSV are validated the same way and keep the lines of the whole content
+	 */
+	@Test
+	void testParseRejectsWithOpenCsv() throws IOException {
+		List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+		List<Statistic> statistics = new ArrayList<Statistic>();
+		UploadResult result = new UploadResult();
+		// the quotes switch to OpenCSV on line 3
+		long lines = statisticCsvParser.parse(new StringReader("Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Bad,12/24/19,x,1\n"
+				+ "\"Google Ads\",\"Adventmarkt, Touristik\",12/24/19,1,2\n" + ROWS),
+				result, statistics::add, rejects::add);
+		assertEquals(8, lines);
+		assertEquals(3, statistics.size());
+		assertEquals("Adventmarkt, Touristik", statistics.get(0).getCampaign());
+		assertEquals(4, result.getRowsRejected());
+		assertEquals(List.of(2L, 5L, 6L, 7L), lineNumbers(rejects));
+		assertEquals("Missing Datasource value", rejects.get(2).getReason());
+		assertEquals("Invalid Daily value: 13/24/19", rejects.get(3).getReason());
+	}
+
+	/**
+	 * Test that a day missing from its month is rejected by both the tokenizer and OpenCSV
+	 */
+	@Test
+	void testParseRejectsInvalidDay() throws IOException {
+		String row = "Google Ads,Adventmarkt Touristik,02/30/19,5,7705\n";
+		for (String rows : List.of(row, "\"Google Ads\",Adventmarkt Touristik,12/24/19,1,2\n" + row)) {
+			List<RejectedRow> rejects = new ArrayList<RejectedRow>();
+			List<Statistic> statistics = new ArrayList<Statistic>();
+			statisticCsvParser.parse(new StringReader("Datasource,Campaign,Daily,Clicks,Impressions\n" + rows),
+					new UploadResult(), statistics::add, rejects::add);
+			assertEquals(1, rejects.size());
+			assertEquals("Invalid Daily value: 02/30/19", rejects.get(0).getReason());
+			assertTrue(statistics.stream().noneMatch(statistic -> statistic.getDaily().getMonthValue() == 2));
+		}
+	}
+
+	private List<Long> lineNumbers(List<RejectedRow> rejects) {
+		return rejects.stream().map(RejectedRow::getLineNumber).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,82 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.adverity.csv.model.ExportFormat;
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.repository.StatisticBatchWriter;
+import com.adverity.csv.repository.StatisticPartitionManager;
+
+@SpringBootTest
+class StatisticExportServiceTest {
+
+	@Autowired
+	private StatisticExportService statisticExportService;
+	@Autowired
+	private StatisticBatchWriter statisticBatchWriter;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private StatisticPartitionManager statisticPartitionManager;
+
+	@BeforeEach
+	public void init() {
+		statisticPartitionManager.dropAll();
+		jdbcTemplate.execute("DELETE FROM STATISTIC_DAILY_ROLLUP");
+		jdbcTemplate.execute("DELETE FROM STATISTIC_MONTHLY_ROLLUP");
+		statisticBatchWriter.write(List.of(
+				new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5, 7705),
+				new Statistic(null, "Google Ads", "GDN, \"Retargeting\"", LocalDate.of(2019, 1, 20), 33, 29954),
+				new Statistic(null, "Twitter Ads", "SN_Mitgliedschaft", LocalDate.of(2019, 1, 21), 1, 100)));
+	}
+
+	/**
+	 * Test exporting all the records as CSV, the values with commas and quotes are quoted
+	 */
+	@Test
+	void testExportCsv() throws IOException {
+		assertEquals("datasource,campaign,daily,clicks,impressions\n"
+				+ "Google Ads,\"GDN, \"\"Retargeting\"\"\",2019-01-20,33,29954\n"
+				+ "Twitter Ads,SN_Mitgliedschaft,2019-01-21,1,100\n"
+				+ "Google Ads,Adventmarkt Touristik,2019-12-24,5,7705\n",
+				export(null, null, null, "daily", null, ExportFormat.CSV));
+	}
+
+	/**
+	 * Test exporting grouped sums as NDJSON
+	 */
+	@Test
+	void testExportNdjson() throws IOException {
+		assertEquals("{\"datasource\":\"Google Ads\",\"clicks:sum\":38}\n"
+				+ "{\"datasource\":\"Twitter Ads\",\"clicks:sum\":1}\n",
+				export("datasource,clicks:sum", null, "datasource", "datasource", null, ExportFormat.NDJSON));
+	}
+
+	/**
+	 * Test exporting one column with a condition and a limit
+	 */
+	@Test
+	void testExportLimit() throws IOException {
+		assertEquals("campaign\nAdventmarkt Touristik\n",
+				export("campaign", "datasource:Google Ads", null, "daily:desc", "1", ExportFormat.CSV));
+	}
+
+	private String export(String display, String condition, String groupBy, String orderBy, String limit,
+			ExportFormat format) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		statisticExportService.export(display, condition, groupBy, orderBy, null, limit, format).writeTo(output);
+		return output.toString(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,125 @@
+package com.adverity.csv.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.adverity.csv.config.CsvProperties;
+import com.adverity.csv.model.RejectedRow;
+import com.adverity.csv.model.UploadJob;
+import com.adverity.csv.model.UploadMode;
+import com.adverity.csv.model.UploadResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UploadJobServiceTest {
+
+	@Mock
+	private CsvService csvService;
+
+	private UploadJobService uploadJobService;
+
+	@BeforeEach
+	public void init() {
+		MockitoAnnotations.openMocks(this);
+		uploadJobService = new UploadJobService(csvService, new PipelineMetrics(new SimpleMeterRegistry()), new CsvProperties());
+	}
+
+	@AfterEach
+	public void shutdown() {
+		uploadJobService.shutdown();
+	}
+
+	/**
+	 * Test that an uploaded file is processed in the background and its job reports the result
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	void testSubmit() throws IOException, InterruptedException {
+		MultipartFile file = new MockMultipartFile("file", "CsvTest.csv", "text/csv",
+				new FileInputStream(new File("src/test/data/CsvTest.csv")));
+		UploadResult result = new UploadResult();
+		result.setRowsParsed(2);
+		result.setRowsInserted(2);
+		Mockito.doAnswer(invocation -> {
+			invocation.getArgument(3, Consumer.class).accept(result);
+			return result;
+		}).when(csvService).ingestCsv(any(Path.class), any(), any(), any(), any());
+		UploadJob job = uploadJobService.submit(file, UploadMode.INSERT);
+		assertEquals(file.getSize(), job.getTotalBytes());
+		for (int i = 0; i < 100 && !job.isFinished(); i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(UploadJob.Status.COMPLETED, job.getStatus());
+		assertEquals(2, job.getRowsIngested());
+		assertEquals(100, job.getPercent());
+		assertEquals(0, job.getEtaSeconds());
+		assertEquals(result, job.getResult());
+		assertTrue(uploadJobService.getJob(job.getId()).isPresent());
+	}
+
+	/**
+	 * Test that a failing upload marks its job as failed
+	 */
+	@Test
+	void testSubmitFailed() throws IOException, InterruptedException {
+		MultipartFile file = new MockMultipartFile("file", "CsvTest.csv", "text/csv", "Datasource".getBytes());
+		Mockito.doThrow(new IllegalStateException("broken")).when(csvService).ingestCsv(any(Path.class), any(), any(), any(), any());
+		UploadJob job = uploadJobService.submit(file, UploadMode.INSERT);
+		for (int i = 0; i < 100 && !job.isFinished(); i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(UploadJob.Status.FAILED, job.getStatus());
+	}
+
+	/**
+	 * Test that the rows rejected by a job are written to its reject file
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	void testSubmitRejects() throws IOException, InterruptedException {
+		MultipartFile file = new MockMultipartFile("file", "CsvTest.csv", "text/csv", "Datasource".getBytes());
+		Mockito.doAnswer(invocation -> {
+			invocation.getArgument(4, Consumer.class).accept(new RejectedRow(3, "Invalid Clicks value: five",
+					"Google Ads,Adventmarkt Touristik,12/24/19,five,7705"));
+			return new UploadResult();
+		}).when(csvService).ingestCsv(any(Path.class), any(), any(), any(), any());
+		UploadJob job = uploadJobService.submit(file, UploadMode.INSERT);
+		for (int i = 0; i < 100 && !job.isFinished(); i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(job.isRejectFileAvailable());
+		Path rejects = uploadJobService.getRejectFile(job.getId()).orElseThrow();
+		assertEquals(List.of("\"Line\",\"Reason\",\"Row\"",
+				"\"3\",\"Invalid Clicks value: five\",\"Google Ads,Adventmarkt Touristik,12/24/19,five,7705\""),
+				Files.readAllLines(rejects));
+		Files.delete(rejects);
+	}
+
+	/**
+	 * Test getting a job that does not exist
+	 */
+	@Test
+	void testGetJobUnknown() {
+		assertFalse(uploadJobService.getJob("unknown").isPresent());
+		assertFalse(uploadJobService.getRejectFile("unknown").isPresent());
+	}
+}
@@ -0,0 +1,47 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import org.junit.jupiter.api.Test;
+
+class DateDecoderTest {
+
+	/**
+	 * Test that a CSV date is decoded once and then shared
+	 */
+	@Test
+	void testParseCsvDate() {
+		LocalDate date = DateDecoder.parseCsvDate("01/31/19");
+		assertEquals(LocalDate.of(2019, 1, 31), date);
+		assertSame(date, DateDecoder.parseCsvDate("01/31/19"));
+		assertThrows(DateTimeParseException.class, () -> DateDecoder.parseCsvDate("2019-01-31"));
+	}
+
+	/**
+	 * Test that a query date is decoded once and then shared
+	 */
+	@Test
+	void testParseQueryDate() {
+		LocalDate date = DateDecoder.parseQueryDate("01-31-2019");
+		assertEquals(LocalDate.of(2019, 1, 31), date);
+		assertSame(date, DateDecoder.parseQueryDate("01-31-2019"));
+		assertThrows(DateTimeParseException.class, () -> DateDecoder.parseQueryDate("01/31/19"));
+	}
+
+	/**
+	 * Test resolving dates from their fields
+	 */
+	@Test
+	void testOf() {
+		assertSame(DateDecoder.of(2019, 12, 24), DateDecoder.of(2019, 12, 24));
+		assertEquals(LocalDate.of(1999, 12, 24), DateDecoder.of(1999, 12, 24));
+		assertNull(DateDecoder.of(2019, 2, 30));
+		assertNull(DateDecoder.of(2019, 13, 1));
+	}
+}
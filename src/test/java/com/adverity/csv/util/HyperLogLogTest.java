@@ -0,0 +1,42 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class HyperLogLogTest {
+
+	/**
+	 * Test that small sets are counted almost exactly and that duplicates are not counted
+	 */
+	@Test
+	void testSmallSet() {
+		HyperLogLog sketch = new HyperLogLog();
+		assertEquals(0, sketch.estimate());
+		for (int i = 0; i < 100; i++) {
+			sketch.add(i % 50);
+		}
+		assertEquals(50, sketch.estimate());
+	}
+
+	/**
+	 * Test that a big set is estimated within 5% and that merging two sketches estimates their union
+	 */
+	@Test
+	void testMerge() {
+		HyperLogLog first = new HyperLogLog();
+		HyperLogLog second = new HyperLogLog();
+		for (int i = 0; i < 60000; i++) {
+			first.add(i);
+			second.add(i + 40000);
+		}
+		assertEstimate(60000, first.estimate());
+		first.merge(second);
+		assertEstimate(100000, first.estimate());
+	}
+
+	private static void assertEstimate(long expected, long estimate) {
+		assertTrue(Math.abs(estimate - expected) < expected * 0.05, "Estimated " + estimate + " for " + expected);
+	}
+}
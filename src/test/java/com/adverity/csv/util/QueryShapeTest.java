@@ -0,0 +1,39 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Tags;
+
+class QueryShapeTest {
+
+	/**
+	 * Test that the shape has the sorted grouped columns and functions, without the conditions
+	 */
+	@Test
+	void testShape() {
+		QueryShape shape = QueryShape.of("datasource,campaign,clicks:sum", "datasource,campaign", "clicks:sum:desc",
+				null);
+		assertEquals("campaign+datasource", shape.getGroupBy());
+		assertEquals("sum", shape.getFunctions());
+		assertEquals("offset", shape.getPaging());
+		assertEquals(Tags.of("group_by", "campaign+datasource", "functions", "sum", "paging", "offset"),
+				shape.toTags());
+		assertEquals(QueryShape.of(null, null, "daily:desc", ""), QueryShape.of("daily", null, null, "abc"));
+		assertEquals("none", QueryShape.of(null, null, "daily:desc", "").getFunctions());
+		assertEquals("keyset", QueryShape.of(null, null, null, "").getPaging());
+		assertEquals("avg+countDistinct+ctr", QueryShape.of("datasource,ctr,campaign:countdistinct", "datasource",
+				"clicks:avg:desc", null).getFunctions());
+	}
+
+	/**
+	 * Test that the unknown columns and functions do not create new tag values
+	 */
+	@Test
+	void testShapeUnknownNames() {
+		QueryShape shape = QueryShape.of("clicks:median,impressions:foo", "browser,country", null, null);
+		assertEquals("other", shape.getGroupBy());
+		assertEquals("other", shape.getFunctions());
+	}
+}
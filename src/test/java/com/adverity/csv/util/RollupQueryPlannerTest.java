@@ -0,0 +1,45 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.model.StatisticDaily;
+import com.adverity.csv.model.StatisticMonthly;
+
+class RollupQueryPlannerTest {
+
+	/**
+	 * Test that the grouped searches summing the measures read the smallest rollup that has all their columns
+	 */
+	@Test
+	void testChooseRollup() {
+		assertEquals(StatisticMonthly.class, RollupQueryPlanner.choose("datasource,clicks:sum", "datasource!Google Ads",
+				"datasource", "clicks:sum:desc"));
+		assertEquals(StatisticDaily.class, RollupQueryPlanner.choose("daily,impressions:sum,clicks:sum",
+				"daily>01-01-2019", "daily", "daily:asc"));
+		assertEquals(StatisticDaily.class, RollupQueryPlanner.choose("datasource,campaign,clicks:sum", null,
+				"datasource,campaign", null));
+		// The averages, counts and click-through rate are computed from the sums and the summed records
+		assertEquals(StatisticMonthly.class, RollupQueryPlanner.choose("datasource,ctr,clicks:avg,campaign:count", null,
+				"datasource", "ctr:desc"));
+	}
+
+	/**
+	 * Test that the other searches read the raw statistics
+	 */
+	@Test
+	void testChooseStatistic() {
+		assertEquals(Statistic.class, RollupQueryPlanner.choose(null, null, null, null));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("clicks:sum", null, null, null));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("datasource,clicks:sum", "clicks>0", "datasource",
+				null));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("datasource,clicks", null, "datasource", null));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("datasource,clicks:sum", null, "datasource",
+				"impressions:desc"));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("datasource,clicks:max", null, "datasource", null));
+		assertEquals(Statistic.class, RollupQueryPlanner.choose("datasource,campaign:countDistinct", null,
+				"datasource", null));
+	}
+}
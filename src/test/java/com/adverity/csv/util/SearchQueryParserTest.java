@@ -0,0 +1,61 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.adverity.csv.model.DisplayColumn;
+import com.adverity.csv.model.OrderColumn;
+import com.adverity.csv.model.SearchCriteria;
+
+class SearchQueryParserTest {
+
+	/**
+	 * Test that a parameter is parsed once and the same immutable list is returned after that
+	 */
+	@Test
+	void testParseDisplay() {
+		List<DisplayColumn> columns = SearchQueryParser.parseDisplay("daily,impressions:sum");
+		assertEquals(2, columns.size());
+		assertEquals("daily", columns.get(0).getColumn());
+		assertEquals("impressions", columns.get(1).getColumn());
+		assertEquals("sum", columns.get(1).getFunction());
+		assertSame(columns, SearchQueryParser.parseDisplay("daily,impressions:sum"));
+		assertThrows(UnsupportedOperationException.class, () -> columns.add(new DisplayColumn("clicks")));
+	}
+
+	/**
+	 * Test parsing the grouped and ordered columns
+	 */
+	@Test
+	void testParseGroupByAndOrderBy() {
+		assertEquals("campaign", SearchQueryParser.parseGroupBy("datasource,campaign").get(1).getColumn());
+		List<OrderColumn> orders = SearchQueryParser.parseOrderBy("campaign,clicks:sum:desc");
+		assertEquals("asc", orders.get(0).getDirection());
+		assertEquals("sum", orders.get(1).getFunction());
+		assertEquals("desc", orders.get(1).getDirection());
+		assertTrue(SearchQueryParser.parseGroupBy("").isEmpty());
+	}
+
+	/**
+	 * Test parsing the conditions with their operations and OR flags
+	 */
+	@Test
+	void testParseCondition() {
+		List<SearchCriteria> criteria = SearchQueryParser.parseCondition("datasource:*Ads,'daily>01-01-2020");
+		assertEquals(2, criteria.size());
+		assertEquals("datasource", criteria.get(0).getKey());
+		assertEquals(SearchOperation.ENDS_WITH, criteria.get(0).getOperation());
+		assertEquals("Ads", criteria.get(0).getValue());
+		assertEquals("daily", criteria.get(1).getKey());
+		assertEquals(SearchOperation.GREATER_THAN, criteria.get(1).getOperation());
+		assertEquals("01-01-2020", criteria.get(1).getValue());
+		assertTrue(criteria.get(1).isOrPredicate());
+		assertSame(criteria, SearchQueryParser.parseCondition("datasource:*Ads,'daily>01-01-2020"));
+	}
+}
@@ -0,0 +1,109 @@
+package com.adverity.csv.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.adverity.csv.model.Statistic;
+import com.adverity.csv.util.StatisticCsvTokenizer.Status;
+
+class StatisticCsvTokenizerTest {
+
+	/**
+	 * Test reading the rows of a standard CSV
+	 */
+	@Test
+	void testNext() throws IOException {
+		StatisticCsvTokenizer tokenizer = new StatisticCsvTokenizer(new StringReader(
+				"Datasource,Campaign,Daily,Clicks,Impressions\r\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\r\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19, 7 ,-1\r\n"
+				+ "\r\n"
+				+ "Twitter Ads,GDN_Retargeting,01/20/19,33,29954"));
+		assertTrue(tokenizer.readHeader());
+		assertEquals(Status.ROW, tokenizer.next());
+		Statistic first = tokenizer.getStatistic();
+		assertEquals(new Statistic(null, "Google Ads", "Adventmarkt Touristik", LocalDate.of(2019, 12, 24), 5, 7705), first);
+		assertEquals(Status.ROW, tokenizer.next());
+		Statistic second = tokenizer.getStatistic();
+		assertEquals(7, second.getClicks());
+		assertEquals(-1, second.getImpressions());
+		// the repeated values are shared instead of being created again
+		assertSame(first.getDatasource(), second.getDatasource());
+		assertSame(first.getCampaign(), second.getCampaign());
+		assertSame(first.getDaily(), second.getDaily());
+		assertEquals(Status.ROW, tokenizer.next());
+		assertEquals(new Statistic(null, "Twitter Ads", "GDN_Retargeting", LocalDate.of(2019, 1, 20), 33, 29954),
+				tokenizer.getStatistic());
+		assertEquals(5, tokenizer.getLineNumber());
+		assertEquals(Status.END, tokenizer.next());
+	}
+
+	/**
+	 * Test that the invalid rows are rejected with their reason
+	 */
+	@Test
+	void testNextRejected() throws IOException {
+		StatisticCsvTokenizer tokenizer = new StatisticCsvTokenizer(new StringReader(
+				"Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,five,7705\n"
+				+ "Google Ads,Adventmarkt Touristik,02/30/19,5,7705\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,99999999999\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\n"));
+		assertTrue(tokenizer.readHeader());
+		assertEquals(Status.REJECTED, tokenizer.next());
+		assertEquals("Invalid Clicks value: five", tokenizer.getRejectReason());
+		assertEquals(2, tokenizer.getLineNumber());
+		assertEquals(Status.REJECTED, tokenizer.next());
+		assertEquals("Invalid Daily value: 02/30/19", tokenizer.getRejectReason());
+		assertEquals(Status.REJECTED, tokenizer.next());
+		assertEquals("Number of data fields does not match number of headers", tokenizer.getRejectReason());
+		assertEquals(Status.REJECTED, tokenizer.next());
+		assertEquals("Invalid Impressions value: 99999999999", tokenizer.getRejectReason());
+		assertEquals(Status.ROW, tokenizer.next());
+		assertEquals(6, tokenizer.getLineNumber());
+	}
+
+	/**
+	 * Test that a quoted line switches to the fallback with the header and the rest of the content
+	 */
+	@Test
+	void testNextFallback() throws IOException {
+		StatisticCsvTokenizer tokenizer = new StatisticCsvTokenizer(new StringReader(
+				"Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "Google Ads,Adventmarkt Touristik,12/24/19,5,7705\n"
+				+ "\"Google Ads\",\"GDN, Retargeting\",01/20/19,33,29954\n"
+				+ "Google Ads,Adventmarkt Touristik,12/25/19,5,7705\n"), 16);
+		assertTrue(tokenizer.readHeader());
+		assertEquals(Status.ROW, tokenizer.next());
+		assertEquals(Status.FALLBACK, tokenizer.next());
+		String remaining = new BufferedReader(tokenizer.remainingReader()).lines().collect(Collectors.joining("\n"));
+		assertEquals("Datasource,Campaign,Daily,Clicks,Impressions\n"
+				+ "\"Google Ads\",\"GDN, Retargeting\",01/20/19,33,29954\n"
+				+ "Google Ads,Adventmarkt Touristik,12/25/19,5,7705", remaining);
+	}
+
+	/**
+	 * Test that a header with other columns is not read by the tokenizer
+	 */
+	@Test
+	void testReadHeaderNotStandard() throws IOException {
+		StatisticCsvTokenizer tokenizer = new StatisticCsvTokenizer(new StringReader(
+				"Campaign,Datasource,Daily,Clicks,Impressions\n"
+				+ "Adventmarkt Touristik,Google Ads,12/24/19,5,7705\n"));
+		assertFalse(tokenizer.readHeader());
+		String remaining = new BufferedReader(tokenizer.remainingReader()).lines().collect(Collectors.joining("\n"));
+		assertEquals("Campaign,Datasource,Daily,Clicks,Impressions\nAdventmarkt Touristik,Google Ads,12/24/19,5,7705",
+				remaining);
+	}
+}